@@ -30,9 +30,14 @@ import java.math.BigInteger;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -63,6 +68,8 @@ import com.sleepycat.je.DatabaseConfig;
 import com.sleepycat.je.DatabaseException;
 import com.sleepycat.je.DatabaseNotFoundException;
 import com.sleepycat.je.EnvironmentConfig;
+import com.sleepycat.je.EnvironmentStats;
+import com.sleepycat.je.StatsConfig;
 import com.sleepycat.je.util.DbBackup;
 
 /**
@@ -99,6 +106,7 @@ public class BdbModule implements Lifecycle, Checkpointable, Closeable, Disposab
         protected boolean sortedDuplicates;
         protected boolean transactional;
         protected boolean deferredWrite = true; 
+        protected boolean keyPrefixing = false;
 
         public BdbConfig() {
         }
@@ -125,6 +133,7 @@ public class BdbModule implements Lifecycle, Checkpointable, Closeable, Disposab
             result.setTransactional(transactional);
             result.setAllowCreate(allowCreate);
             result.setSortedDuplicates(sortedDuplicates);
+            result.setKeyPrefixing(keyPrefixing);
             return result;
         }
 
@@ -139,6 +148,18 @@ public class BdbModule implements Lifecycle, Checkpointable, Closeable, Disposab
         public void setDeferredWrite(boolean b) {
             this.deferredWrite = true; 
         }
+
+        public boolean getKeyPrefixing() {
+            return keyPrefixing;
+        }
+
+        /**
+         * Whether keys sharing a common prefix (as SURT-ordered URI keys 
+         * do) should be stored prefix-compressed within btree nodes.
+         */
+        public void setKeyPrefixing(boolean keyPrefixing) {
+            this.keyPrefixing = keyPrefixing;
+        }
     }
     
     protected ConfigPath dir = new ConfigPath("bdbmodule subdirectory","state");
@@ -205,6 +226,19 @@ public class BdbModule implements Lifecycle, Checkpointable, Closeable, Disposab
         this.useHardLinkCheckpoints = useHardLinkCheckpoints;
     }
     
+    /**
+     * Number of threads restoring log files from a checkpoint at 
+     * recovery. Restoring is mostly filesystem metadata operations, 
+     * which on networked or busy storage benefit from concurrency.
+     */
+    protected int recoveryThreads = 4;
+    public int getRecoveryThreads() {
+        return recoveryThreads;
+    }
+    public void setRecoveryThreads(int recoveryThreads) {
+        this.recoveryThreads = recoveryThreads;
+    }
+    
     private transient EnhancedEnvironment bdbEnvironment;
         
     private transient StoredClassCatalog classCatalog;
@@ -230,12 +264,18 @@ public class BdbModule implements Lifecycle, Checkpointable, Closeable, Disposab
         
         try {
             boolean isRecovery = false; 
+            long startMs = System.currentTimeMillis();
             if(recoveryCheckpoint!=null) {
                 isRecovery = true; 
                 doRecover(); 
+                LOGGER.info("restored checkpoint " + recoveryCheckpoint.getName()
+                        + " in " + (System.currentTimeMillis() - startMs) + "ms");
+                startMs = System.currentTimeMillis();
             }
    
             setup(getDir().getFile(), !isRecovery);
+            LOGGER.info("opened environment in " 
+                    + (System.currentTimeMillis() - startMs) + "ms");
         } catch (DatabaseException e) {
             throw new IllegalStateException(e);
         } catch (IOException e) {
@@ -358,6 +398,38 @@ public class BdbModule implements Lifecycle, Checkpointable, Closeable, Disposab
         return dpc.database;
     }
 
+    /**
+     * Cache statistics of the environment, as cumulative counts of btree
+     * node fetches and of those fetches which missed the cache, plus the 
+     * current cache size. Gathered in JE's 'fast' mode, which skips 
+     * statistics requiring locks or scans.
+     * 
+     * @return map of statistic name to value; empty if not started
+     */
+    public Map<String,Long> getCacheStats() {
+        Map<String,Long> result = new LinkedHashMap<String,Long>();
+        EnhancedEnvironment env = bdbEnvironment;
+        if (env == null || !env.isValid()) {
+            return result;
+        }
+        StatsConfig config = new StatsConfig();
+        config.setFast(true);
+        try {
+            EnvironmentStats stats = env.getStats(config);
+            result.put("nodeFetches", stats.getNBINsFetch() 
+                    + stats.getNUpperINsFetch() + stats.getNLNsFetch());
+            result.put("nodeFetchMisses", stats.getNBINsFetchMiss() 
+                    + stats.getNUpperINsFetchMiss() + stats.getNLNsFetchMiss());
+            result.put("cacheMisses", stats.getNCacheMiss());
+            result.put("cacheBytes", stats.getCacheTotalBytes());
+        } catch (DatabaseException e) {
+            LOGGER.log(Level.FINE, "unable to get stats", e);
+        } catch (IllegalStateException e) {
+            // environment closed meanwhile
+        }
+        return result;
+    }
+
     public StoredClassCatalog getClassCatalog() {
         return classCatalog;
     }
@@ -519,31 +591,35 @@ public class BdbModule implements Lifecycle, Checkpointable, Closeable, Disposab
         File logfilesList = new File(cpDir,"jdbfiles.manifest");
         List<String> filesAndLengths = FileUtils.readLines(logfilesList);
         HashMap<String,Long> retainLogfiles = new HashMap<String,Long>();
-        for(String line : filesAndLengths) {
-            String[] fileAndLength = line.split(",");
-            long expectedLength = Long.valueOf(fileAndLength[1]);
+        // relinking is independent per file, so done concurrently
+        ExecutorService relinkers = 
+            Executors.newFixedThreadPool(Math.max(1, getRecoveryThreads()));
+        List<Future<?>> relinks = new ArrayList<Future<?>>();
+        for(final String line : filesAndLengths) {
+            final String[] fileAndLength = line.split(",");
+            final long expectedLength = Long.valueOf(fileAndLength[1]);
             retainLogfiles.put(fileAndLength[0],expectedLength);
             
             // check for files in checkpoint directory; relink to environment as necessary
-            File cpFile = new File(cpDir, line);
-            File destFile = new File(dir.getFile(), fileAndLength[0]);
-            if(cpFile.exists()) {
-                if(cpFile.length()!=expectedLength) {
-                    LOGGER.warning(cpFile.getName()+" expected "+expectedLength+" actual "+cpFile.length());
-                    // TODO: is truncation necessary? 
-                }
-                if(destFile.exists()) {
-                    if(!destFile.delete()) {
-                        LOGGER.log(Level.SEVERE, "unable to delete obstructing file "+destFile);  
-                    }
-                }
-                
-                boolean status = FilesystemLinkMaker.makeHardLink(cpFile.getAbsolutePath(), destFile.getAbsolutePath());
-                if (!status) {
-                    LOGGER.log(Level.SEVERE, "unable to create required restore link "+destFile); 
+            final File cpFile = new File(cpDir, line);
+            final File destFile = new File(dir.getFile(), fileAndLength[0]);
+            relinks.add(relinkers.submit(new Runnable() {
+                public void run() {
+                    relink(cpFile, destFile, expectedLength);
                 }
+            }));
+        }
+        try {
+            for (Future<?> relink : relinks) {
+                relink.get();
             }
-            
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted restoring checkpoint", e);
+        } catch (ExecutionException e) {
+            throw new IOException("problem restoring checkpoint", e.getCause());
+        } finally {
+            relinkers.shutdownNow();
         }
         
         IOFileFilter filter = FileFilterUtils.orFileFilter(
@@ -597,6 +673,29 @@ public class BdbModule implements Lifecycle, Checkpointable, Closeable, Disposab
         
     }
 
+    /**
+     * Hard-link a log file retained by a checkpoint back into the 
+     * environment directory, if present in the checkpoint directory. 
+     */
+    protected void relink(File cpFile, File destFile, long expectedLength) {
+        if(cpFile.exists()) {
+            if(cpFile.length()!=expectedLength) {
+                LOGGER.warning(cpFile.getName()+" expected "+expectedLength+" actual "+cpFile.length());
+                // TODO: is truncation necessary? 
+            }
+            if(destFile.exists()) {
+                if(!destFile.delete()) {
+                    LOGGER.log(Level.SEVERE, "unable to delete obstructing file "+destFile);  
+                }
+            }
+            
+            boolean status = FilesystemLinkMaker.makeHardLink(cpFile.getAbsolutePath(), destFile.getAbsolutePath());
+            if (!status) {
+                LOGGER.log(Level.SEVERE, "unable to create required restore link "+destFile); 
+            }
+        }
+    }
+
     public void finishCheckpoint(Checkpoint checkpointInProgress) {}
      
     protected Checkpoint recoveryCheckpoint;
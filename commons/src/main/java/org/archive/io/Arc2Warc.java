@@ -24,10 +24,13 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.apache.commons.cli.CommandLine;
@@ -61,12 +64,21 @@ import org.joda.time.format.ISODateTimeFormat;
  * @version $Date$ $Revision$
  */
 public class Arc2Warc {
+    private static final Logger logger =
+        Logger.getLogger(Arc2Warc.class.getName());
+
+    /** suffix of WARCs being written; renamed without it once complete */
+    protected static final String CONVERTING_SUFFIX = ".converting";
+
     protected RecordIDGenerator generator = new UUIDGenerator();
     
     private static void usage(HelpFormatter formatter, Options options,
            int exitCode) {
        formatter.printHelp("java org.archive.io.arc.Arc2Warc " +
-       		"[--force] ARC_INPUT WARC_OUTPUT", options);
+       		"[--force] ARC_INPUT WARC_OUTPUT\n" +
+       		"   or: java org.archive.io.arc.Arc2Warc " +
+       		"[--force] [--threads N] [--manifest FILE] " +
+       		"ARC_INPUT|DIR|@LIST... WARC_OUTPUT_DIR", options);
        System.exit(exitCode);
    }
    
@@ -82,11 +94,38 @@ public class Arc2Warc {
     	       "Will not overwrite.");
        }
 
+       // write under a temporary name, so an interrupted conversion never
+       // leaves a partial WARC under the final name
+       File converting = new File(warc.getPath() + CONVERTING_SUFFIX);
        ARCReader reader = ARCReaderFactory.get(arc, false, 0);
-       transform(reader, warc);
+       boolean complete = false;
+       try {
+           transform(reader, warc, converting);
+           complete = true;
+       } finally {
+           if (!complete) {
+               converting.delete();
+           }
+       }
+       if (warc.exists() && !warc.delete()) {
+           throw new IOException("unable to replace " + warc);
+       }
+       if (!converting.renameTo(warc)) {
+           throw new IOException("unable to rename " + converting + " to " + warc);
+       }
    }
    
    protected void transform(final ARCReader reader, final File warc)
+   throws IOException {
+       transform(reader, warc, warc);
+   }
+
+   /**
+    * @param warc WARC being made, as named within it
+    * @param output file to write it to
+    */
+   protected void transform(final ARCReader reader, final File warc,
+           final File output)
    throws IOException {
 	   WARCWriter writer = null;
 	   // No point digesting. Digest is available after reading of ARC which
@@ -94,7 +133,7 @@ public class Arc2Warc {
 	   reader.setDigest(false);
 	   try {
 		   BufferedOutputStream bos =
-			   new BufferedOutputStream(new FileOutputStream(warc));
+			   new BufferedOutputStream(new FileOutputStream(output));
 		   // Get the body of the first ARC record as a String so can dump it
 		   // into first record of WARC.
 		   final Iterator<ArchiveRecord> i = reader.iterator();
@@ -135,17 +174,91 @@ public class Arc2Warc {
 			   // of files gets written to log files.  Up the log level just
 			   // for the close.
 			   Logger l = Logger.getLogger(writer.getClass().getName());
-			   Level oldLevel = l.getLevel();
-			   l.setLevel(Level.WARNING);
+			   ParallelConverter.quietLogger(l);
 			   try {
 				   writer.close();
 			   } finally {
-				   l.setLevel(oldLevel);
+				   ParallelConverter.restoreLogger(l);
 			   }
 		   }
 	   }
    }
    
+   /**
+    * Convert many ARCs in parallel, writing each to a WARC of matching
+    * name (.arc to .warc, .arc.gz to .warc.gz) in the given directory.
+    *
+    * @param arcs ARC files
+    * @param warcDir directory to write WARCs to
+    * @param force whether to overwrite existing WARCs; if not, and a 
+    * manifest is in use, an existing WARC is taken to be the completed 
+    * conversion of its ARC (as when interrupted before the manifest 
+    * was updated)
+    * @param threads number of files to convert concurrently
+    * @param manifest file recording completed ARCs, so that a rerun skips
+    * them; may be null
+    * @return number of ARCs which failed conversion
+    */
+   public int transform(final List<File> arcs, final File warcDir,
+           final boolean force, int threads, File manifest)
+   throws IOException, InterruptedException {
+       FileUtils.ensureWriteableDirectory(warcDir);
+       final Map<File,String> warcNames = warcNames(arcs);
+       final boolean resuming = manifest != null;
+       ParallelConverter converter = new ParallelConverter(threads, manifest);
+       return converter.run(arcs, new ParallelConverter.Conversion() {
+           public void convert(File arc) throws IOException {
+               File warc = new File(warcDir, warcNames.get(arc));
+               if (resuming && !force && warc.exists()) {
+                   // only complete WARCs are ever given their final name
+                   logger.info(warc + " exists; taking " + arc + " as converted");
+                   return;
+               }
+               transform(arc, warc, force);
+           }
+       });
+   }
+
+   /**
+    * @return WARC name for each ARC; ARCs of the same name (from different
+    * directories) are given distinct names, by order of appearance
+    */
+   protected static Map<File,String> warcNames(List<File> arcs) {
+       Map<File,String> names = new HashMap<File,String>();
+       Set<String> used = new HashSet<String>();
+       for (File arc : arcs) {
+           if (names.containsKey(arc)) {
+               continue;
+           }
+           String name = warcName(arc.getName());
+           for (int n = 2; !used.add(name); n++) {
+               name = warcName(arc.getName(), "-" + n);
+           }
+           if (!name.equals(warcName(arc.getName()))) {
+               logger.warning("writing " + arc + " to " + name 
+                       + " (name taken by another input)");
+           }
+           names.put(arc, name);
+       }
+       return names;
+   }
+
+   protected static String warcName(String arcName) {
+       return warcName(arcName, "");
+   }
+
+   /**
+    * @param distinguisher inserted between ARC's base name and the WARC suffix
+    */
+   protected static String warcName(String arcName, String distinguisher) {
+       if (arcName.endsWith(".arc.gz")) {
+           return arcName.substring(0, arcName.length() - 7) + distinguisher + ".warc.gz";
+       } else if (arcName.endsWith(".arc")) {
+           return arcName.substring(0, arcName.length() - 4) + distinguisher + ".warc";
+       }
+       return arcName + distinguisher + ".warc";
+   }
+
    protected void write(final WARCWriter writer, final ARCRecord r)
    throws IOException {
        WARCRecordInfo recordInfo = new WARCRecordInfo();
@@ -200,12 +313,18 @@ public class Arc2Warc {
     */
    @SuppressWarnings("unchecked")
 public static void main(String [] args)
-   throws ParseException, IOException, java.text.ParseException {
+   throws ParseException, IOException, java.text.ParseException,
+   InterruptedException {
        Options options = new Options();
        options.addOption(new Option("h","help", false,
            "Prints this message and exits."));
        options.addOption(new Option("f","force", false,
        	   "Force overwrite of target file."));
+       options.addOption(new Option("t","threads", true,
+           "Number of files to convert concurrently (default: one per CPU)."));
+       options.addOption(new Option("m","manifest", true,
+           "File listing completed inputs; inputs already listed are " +
+           "skipped, so an interrupted run may be resumed."));
        PosixParser parser = new PosixParser();
        CommandLine cmdline = parser.parse(options, args, false);
        List<String> cmdlineArgs = cmdline.getArgList();
@@ -219,6 +338,8 @@ public static void main(String [] args)
 
        // Now look at options passed.
        boolean force = false;
+       int threads = 0;
+       File manifest = null;
        for (int i = 0; i < cmdlineOptions.length; i++) {
            switch(cmdlineOptions[i].getId()) {
                case 'h':
@@ -228,6 +349,14 @@ public static void main(String [] args)
                case 'f':
                    force = true;
                    break;
+
+               case 't':
+                   threads = Integer.parseInt(cmdlineOptions[i].getValue());
+                   break;
+
+               case 'm':
+                   manifest = new File(cmdlineOptions[i].getValue());
+                   break;
                    
                default:
                    throw new RuntimeException("Unexpected option: " +
@@ -236,10 +365,22 @@ public static void main(String [] args)
        }
        
        // If no args, print help.
-       if (cmdlineArgs.size() != 2) {
+       if (cmdlineArgs.size() < 2) {
            usage(formatter, options, 0);
        }
-       (new Arc2Warc()).transform(new File(cmdlineArgs.get(0)),
-           new File(cmdlineArgs.get(1)), force);
+       File target = new File(cmdlineArgs.get(cmdlineArgs.size() - 1));
+       List<String> inputs = cmdlineArgs.subList(0, cmdlineArgs.size() - 1);
+       if (inputs.size() == 1 && new File(inputs.get(0)).isFile()
+               && !target.isDirectory() && threads == 0 && manifest == null) {
+           // single ARC to named WARC
+           (new Arc2Warc()).transform(new File(inputs.get(0)), target, force);
+           return;
+       }
+       int failed = (new Arc2Warc()).transform(
+           ParallelConverter.expandInputs(inputs, ".arc", ".arc.gz"),
+           target, force, threads, manifest);
+       if (failed > 0) {
+           System.exit(1);
+       }
    }
 }
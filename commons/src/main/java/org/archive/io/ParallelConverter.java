@@ -0,0 +1,286 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.io;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs a per-file conversion (as of ARCs to WARCs) over many input files on
+ * several threads, reporting throughput, and recording each completed input
+ * in an optional progress manifest so an interrupted run can be resumed
+ * without redoing finished files.
+ *
+ * <p>Inputs may be named directly, as directories (searched recursively for
+ * files with a matching suffix), or as <code>@listfile</code>, a file
+ * naming one input per line.
+ */
+public class ParallelConverter {
+    private static final Logger logger =
+        Logger.getLogger(ParallelConverter.class.getName());
+
+    /**
+     * A conversion of one input file.
+     */
+    public interface Conversion {
+        void convert(File input) throws Exception;
+    }
+
+    protected int threads = Runtime.getRuntime().availableProcessors();
+    protected File manifest = null;
+    protected long reportIntervalMs = 30 * 1000;
+
+    protected AtomicInteger completedCount = new AtomicInteger(0);
+    protected AtomicInteger failedCount = new AtomicInteger(0);
+    protected AtomicLong completedBytes = new AtomicLong(0);
+    protected long startTime;
+    protected volatile long lastReport;
+
+    public ParallelConverter(int threads, File manifest) {
+        if (threads > 0) {
+            this.threads = threads;
+        }
+        this.manifest = manifest;
+    }
+
+    public void setReportIntervalMs(long reportIntervalMs) {
+        this.reportIntervalMs = reportIntervalMs;
+    }
+
+    /** levels of loggers quieted by conversions underway, and their counts */
+    private static final Map<Logger,Level> quietedLevels = new HashMap<Logger,Level>();
+    private static final Map<Logger,Integer> quietedCounts = new HashMap<Logger,Integer>();
+
+    /**
+     * Raise the given logger to WARNING until a matching 
+     * {@link #restoreLogger(Logger)}. Safe for overlapping conversions: the 
+     * original level is restored only when the last of them finishes.
+     */
+    protected static void quietLogger(Logger l) {
+        synchronized (quietedLevels) {
+            Integer count = quietedCounts.get(l);
+            if (count == null) {
+                quietedLevels.put(l, l.getLevel());
+                l.setLevel(Level.WARNING);
+                count = 0;
+            }
+            quietedCounts.put(l, count + 1);
+        }
+    }
+
+    protected static void restoreLogger(Logger l) {
+        synchronized (quietedLevels) {
+            Integer count = quietedCounts.get(l);
+            if (count == null) {
+                return;
+            }
+            if (count > 1) {
+                quietedCounts.put(l, count - 1);
+            } else {
+                quietedCounts.remove(l);
+                l.setLevel(quietedLevels.remove(l));
+            }
+        }
+    }
+
+    /**
+     * Expand the given names into input files: plain files as given,
+     * directories searched recursively for files whose names end with one
+     * of the given suffixes, and <code>@listfile</code> names read from.
+     */
+    public static List<File> expandInputs(List<String> names, String... suffixes)
+            throws IOException {
+        List<File> inputs = new ArrayList<File>();
+        for (String name : names) {
+            if (name.startsWith("@")) {
+                BufferedReader reader = new BufferedReader(new FileReader(name.substring(1)));
+                try {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        line = line.trim();
+                        if (line.length() > 0 && !line.startsWith("#")) {
+                            inputs.add(new File(line));
+                        }
+                    }
+                } finally {
+                    reader.close();
+                }
+            } else {
+                File f = new File(name);
+                if (f.isDirectory()) {
+                    addMatching(f, suffixes, inputs);
+                } else {
+                    inputs.add(f);
+                }
+            }
+        }
+        return inputs;
+    }
+
+    protected static void addMatching(File dir, String[] suffixes, List<File> inputs) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files);
+        for (File f : files) {
+            if (f.isDirectory()) {
+                addMatching(f, suffixes, inputs);
+                continue;
+            }
+            for (String suffix : suffixes) {
+                if (f.getName().endsWith(suffix)) {
+                    inputs.add(f);
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return absolute paths of inputs the manifest records as completed
+     */
+    protected Set<String> readManifest() throws IOException {
+        Set<String> done = new HashSet<String>();
+        if (manifest != null && manifest.exists()) {
+            BufferedReader reader = new BufferedReader(new FileReader(manifest));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    int tab = line.indexOf('\t');
+                    done.add(tab < 0 ? line : line.substring(0, tab));
+                }
+            } finally {
+                reader.close();
+            }
+        }
+        return done;
+    }
+
+    protected synchronized void recordCompleted(File input, long bytes, long ms)
+            throws IOException {
+        if (manifest == null) {
+            return;
+        }
+        Writer writer = new FileWriter(manifest, true);
+        try {
+            writer.write(input.getAbsolutePath() + "\t" + bytes + "\t" + ms + "\n");
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Convert all inputs not already recorded as done in the manifest.
+     *
+     * @return number of inputs which failed
+     */
+    public int run(List<File> inputs, final Conversion conversion)
+            throws IOException, InterruptedException {
+        Set<String> done = readManifest();
+        final List<File> todo = new ArrayList<File>();
+        long todoBytes = 0;
+        for (File input : inputs) {
+            if (!done.contains(input.getAbsolutePath())) {
+                todo.add(input);
+                todoBytes += input.length();
+            }
+        }
+        if (todo.size() < inputs.size()) {
+            logger.info("skipping " + (inputs.size() - todo.size())
+                    + " inputs already recorded in " + manifest);
+        }
+        logger.info("converting " + todo.size() + " inputs ("
+                + (todoBytes / (1024 * 1024)) + " MB) on " + threads + " threads");
+
+        startTime = lastReport = System.currentTimeMillis();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        for (final File input : todo) {
+            executor.execute(new Runnable() {
+                public void run() {
+                    convertOne(conversion, input, todo.size());
+                }
+            });
+        }
+        executor.shutdown();
+        while (!executor.awaitTermination(1, TimeUnit.SECONDS)) {
+            // keep waiting
+        }
+        report(todo.size());
+        return failedCount.get();
+    }
+
+    protected void convertOne(Conversion conversion, File input, int total) {
+        long start = System.currentTimeMillis();
+        try {
+            conversion.convert(input);
+            long bytes = input.length();
+            completedBytes.addAndGet(bytes);
+            completedCount.incrementAndGet();
+            recordCompleted(input, bytes, System.currentTimeMillis() - start);
+        } catch (Exception e) {
+            failedCount.incrementAndGet();
+            logger.log(Level.WARNING, "failed converting " + input, e);
+        }
+        long now = System.currentTimeMillis();
+        if (now - lastReport >= reportIntervalMs) {
+            lastReport = now;
+            report(total);
+        }
+    }
+
+    protected void report(int total) {
+        long elapsed = Math.max(1, System.currentTimeMillis() - startTime);
+        double mb = completedBytes.get() / (1024.0 * 1024.0);
+        logger.info(String.format("%d/%d inputs converted, %d failed, %.1f MB in %ds, %.2f MB/s",
+                completedCount.get(), total, failedCount.get(), mb,
+                elapsed / 1000, mb * 1000 / elapsed));
+    }
+
+    public int getCompletedCount() {
+        return completedCount.get();
+    }
+
+    public int getFailedCount() {
+        return failedCount.get();
+    }
+
+    public long getCompletedBytes() {
+        return completedBytes.get();
+    }
+}
@@ -23,10 +23,13 @@ import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.apache.commons.cli.CommandLine;
@@ -55,10 +58,23 @@ import org.archive.util.FileUtils;
  * @version $Date$ $Revision$
  */
 public class Warc2Arc {
+   private static final Logger logger =
+       Logger.getLogger(Warc2Arc.class.getName());
+
+   /** 
+    * suffix of the directory a WARC's ARCs are written to; renamed to 
+    * {@link #CONVERTED_SUFFIX} once all are complete 
+    */
+   protected static final String CONVERTING_SUFFIX = ".converting";
+
+   /** suffix of the directory of complete ARCs not yet moved into place */
+   protected static final String CONVERTED_SUFFIX = ".converted";
+
    private static void usage(HelpFormatter formatter, Options options,
            int exitCode) {
        formatter.printHelp("java org.archive.io.arc.Warc2Arc " +
-       		"[--force] [--prefix=PREFIX] [--suffix=SUFFIX] WARC_INPUT " +
+       		"[--force] [--prefix=PREFIX] [--suffix=SUFFIX] " +
+       		"[--threads N] [--manifest FILE] WARC_INPUT|DIR|@LIST... " +
        		    "OUTPUT_DIR",
             options);
        System.exit(exitCode);
@@ -74,27 +90,99 @@ public class Warc2Arc {
    private static String getRevision() {
        return parseRevision("$Revision$");
    }
-   
+
    public void transform(final File warc, final File dir, final String prefix,
            final String suffix, final boolean force)
+   throws IOException, java.text.ParseException {
+       transform(warc, dir, prefix, suffix, force, new AtomicInteger());
+   }
+
+   /**
+    * @param serialNo serial number source for ARC names; share one across
+    * concurrent conversions into the same directory so names don't collide
+    */
+   public void transform(final File warc, final File dir, final String prefix,
+           final String suffix, final boolean force, AtomicInteger serialNo)
+   throws IOException, java.text.ParseException {
+       transform(warc, dir, warc.getName(), prefix, suffix, force, serialNo);
+   }
+
+   /**
+    * Write the WARC's ARCs to a working directory beside their final place,
+    * moving them into it only once all are complete, so an interrupted 
+    * conversion never leaves partial ARCs among the finished ones.
+    *
+    * @param workName name, distinct among conversions into the same 
+    * directory, of the working directory
+    * @param force whether to redo a conversion that completed but whose 
+    * ARCs were not all moved into place; if not, the move is finished
+    */
+   protected void transform(final File warc, final File dir,
+           final String workName, final String prefix, final String suffix,
+           final boolean force, AtomicInteger serialNo)
    throws IOException, java.text.ParseException {
        FileUtils.assertReadable(warc);
        FileUtils.assertReadable(dir);
-       WARCReader reader = WARCReaderFactory.get(warc);
-       List<String> metadata =  new ArrayList<String>();
-       metadata.add("Made from " + reader.getReaderIdentifier() + " by " +
-           this.getClass().getName() + "/" + getRevision());
-       ARCWriter writer = 
-           new ARCWriter(
-                   new AtomicInteger(),
-                   new WriterPoolSettingsData(
-                           prefix, 
-                           suffix, 
-                           -12, 
-                           reader.isCompressed(), 
-                           Arrays.asList(new File [] {dir}), 
-                           metadata));
-       transform(reader, writer);
+       File converted = new File(dir, workName + CONVERTED_SUFFIX);
+       if (converted.isDirectory()) {
+           if (!force) {
+               logger.info(converted + " exists; finishing conversion of " + warc);
+               moveInto(converted, dir);
+               return;
+           }
+           org.apache.commons.io.FileUtils.deleteDirectory(converted);
+       }
+       File converting = new File(dir, workName + CONVERTING_SUFFIX);
+       // left by an interrupted conversion
+       org.apache.commons.io.FileUtils.deleteDirectory(converting);
+       FileUtils.ensureWriteableDirectory(converting);
+       boolean complete = false;
+       try {
+           WARCReader reader = WARCReaderFactory.get(warc);
+           List<String> metadata =  new ArrayList<String>();
+           metadata.add("Made from " + reader.getReaderIdentifier() + " by " +
+               this.getClass().getName() + "/" + getRevision());
+           ARCWriter writer = 
+               new ARCWriter(
+                       serialNo,
+                       new WriterPoolSettingsData(
+                               prefix, 
+                               suffix, 
+                               -12, 
+                               reader.isCompressed(), 
+                               Arrays.asList(new File [] {converting}), 
+                               metadata));
+           transform(reader, writer);
+           complete = true;
+       } finally {
+           if (!complete) {
+               org.apache.commons.io.FileUtils.deleteDirectory(converting);
+           }
+       }
+       if (!converting.renameTo(converted)) {
+           throw new IOException("unable to rename " + converting + " to " + converted);
+       }
+       moveInto(converted, dir);
+   }
+
+   /**
+    * Move the ARCs of a completed conversion into the output directory, 
+    * then remove the emptied working directory.
+    */
+   protected static void moveInto(File converted, File dir) throws IOException {
+       File[] arcs = converted.listFiles();
+       if (arcs == null) {
+           throw new IOException("unable to list " + converted);
+       }
+       for (File arc : arcs) {
+           File target = new File(dir, arc.getName());
+           if (!arc.renameTo(target)) {
+               throw new IOException("unable to rename " + arc + " to " + target);
+           }
+       }
+       if (!converted.delete()) {
+           throw new IOException("unable to remove " + converted);
+       }
    }
 
    protected void transform(final WARCReader reader, final ARCWriter writer)
@@ -108,9 +196,8 @@ public class Warc2Arc {
        // of files gets written to log files.  Up the log level just
        // for the close.
        Logger l = Logger.getLogger(writer.getClass().getName());
-       Level oldLevel = l.getLevel();
+       ParallelConverter.quietLogger(l);
 	   try {
-           l.setLevel(Level.WARNING);
 		   for (final Iterator<ArchiveRecord> i = reader.iterator(); i.hasNext();) {
                WARCRecord r = (WARCRecord)i.next();
                if (!isARCType(r.getHeader().getMimetype())) {
@@ -145,12 +232,61 @@ public class Warc2Arc {
 			   try {
 				   writer.close();
 			   } finally {
-				   l.setLevel(oldLevel);
+				   ParallelConverter.restoreLogger(l);
 			   }
 		   }
 	   }
    }
    
+   /**
+    * Convert many WARCs in parallel, writing ARCs to the given directory.
+    *
+    * @param warcs WARC files
+    * @param force whether to redo a WARC whose conversion completed but 
+    * whose ARCs were not all moved into place (as when interrupted); if 
+    * not, the move is finished and the WARC taken as converted
+    * @param threads number of files to convert concurrently
+    * @param manifest file recording completed WARCs, so that a rerun skips
+    * them; may be null
+    * @return number of WARCs which failed conversion
+    */
+   public int transform(final List<File> warcs, final File dir,
+           final String prefix, final String suffix, final boolean force,
+           int threads, File manifest)
+   throws IOException, InterruptedException {
+       FileUtils.ensureWriteableDirectory(dir);
+       final Map<File,String> workNames = workNames(warcs);
+       final AtomicInteger serialNo = new AtomicInteger();
+       ParallelConverter converter = new ParallelConverter(threads, manifest);
+       return converter.run(warcs, new ParallelConverter.Conversion() {
+           public void convert(File warc) throws Exception {
+               transform(warc, dir, workNames.get(warc), prefix, suffix,
+                   force, serialNo);
+           }
+       });
+   }
+
+   /**
+    * @return working directory name for each WARC; WARCs of the same name 
+    * (from different directories) are given distinct names, by order of 
+    * appearance
+    */
+   protected static Map<File,String> workNames(List<File> warcs) {
+       Map<File,String> names = new HashMap<File,String>();
+       Set<String> used = new HashSet<String>();
+       for (File warc : warcs) {
+           if (names.containsKey(warc)) {
+               continue;
+           }
+           String name = warc.getName();
+           for (int n = 2; !used.add(name); n++) {
+               name = warc.getName() + "-" + n;
+           }
+           names.put(warc, name);
+       }
+       return names;
+   }
+
    protected boolean isARCType(final String mimetype) {
        // Comparing mimetypes, especially WARC types can be problematic since
        // they have whitespace.  For now, ignore.
@@ -174,7 +310,8 @@ public class Warc2Arc {
     * @throws java.text.ParseException
     */
 public static void main(String [] args)
-   throws ParseException, IOException, java.text.ParseException {
+   throws ParseException, IOException, java.text.ParseException,
+   InterruptedException {
        Options options = new Options();
        options.addOption(new Option("h","help", false,
            "Prints this message and exits."));
@@ -184,6 +321,11 @@ public static void main(String [] args)
            "Prefix to use on created ARC files, else uses default."));
        options.addOption(new Option("s","suffix", true,
            "Suffix to use on created ARC files, else uses default."));
+       options.addOption(new Option("t","threads", true,
+           "Number of files to convert concurrently (default: one per CPU)."));
+       options.addOption(new Option("m","manifest", true,
+           "File listing completed inputs; inputs already listed are " +
+           "skipped, so an interrupted run may be resumed."));
        PosixParser parser = new PosixParser();
        CommandLine cmdline = parser.parse(options, args, false);
        @SuppressWarnings("unchecked")
@@ -200,6 +342,8 @@ public static void main(String [] args)
        boolean force = false;
        String prefix = "WARC2ARC";
        String suffix = null;
+       int threads = 0;
+       File manifest = null;
        for (int i = 0; i < cmdlineOptions.length; i++) {
            switch(cmdlineOptions[i].getId()) {
                case 'h':
@@ -217,6 +361,14 @@ public static void main(String [] args)
                case 's':
                    suffix = cmdlineOptions[i].getValue();
                    break;
+
+               case 't':
+                   threads = Integer.parseInt(cmdlineOptions[i].getValue());
+                   break;
+
+               case 'm':
+                   manifest = new File(cmdlineOptions[i].getValue());
+                   break;
                    
                default:
                    throw new RuntimeException("Unexpected option: " +
@@ -225,10 +377,22 @@ public static void main(String [] args)
        }
        
        // If no args, print help.
-       if (cmdlineArgs.size() != 2) {
+       if (cmdlineArgs.size() < 2) {
            usage(formatter, options, 0);
        }
-       (new Warc2Arc()).transform(new File(cmdlineArgs.get(0).toString()),
-           new File(cmdlineArgs.get(1).toString()), prefix, suffix, force);
+       File dir = new File(cmdlineArgs.get(cmdlineArgs.size() - 1));
+       List<String> inputs = cmdlineArgs.subList(0, cmdlineArgs.size() - 1);
+       if (inputs.size() == 1 && new File(inputs.get(0)).isFile()
+               && threads == 0 && manifest == null) {
+           (new Warc2Arc()).transform(new File(inputs.get(0)), dir, prefix,
+               suffix, force);
+           return;
+       }
+       int failed = (new Warc2Arc()).transform(
+           ParallelConverter.expandInputs(inputs, ".warc", ".warc.gz"),
+           dir, prefix, suffix, force, threads, manifest);
+       if (failed > 0) {
+           System.exit(1);
+       }
    }
 }
\ No newline at end of file
@@ -128,6 +128,35 @@ public class ClientFTP extends FTPClient implements ProtocolCommandListener {
     public String getControlConversation() {
         return controlConversation.toString();
     }    
+
+    /**
+     * Starts a new control conversation record, for when this already
+     * connected and logged-in client is reused for another fetch. The new
+     * record opens with a note that the connection is being reused, since
+     * it will not include the connect and login exchange.
+     */
+    public void resetControlConversation() {
+        controlConversation = new StringBuilder();
+        recordAdditionalInfo("Re-using control connection to "
+                + getRemoteAddress().getHostAddress() + ":"
+                + getRemotePort());
+    }
+
+    /**
+     * Checks that the control connection is still usable, by sending NOOP.
+     * 
+     * @return true if the server replied positively
+     */
+    public boolean isAlive() {
+        if (!isConnected()) {
+            return false;
+        }
+        try {
+            return sendNoOp();
+        } catch (IOException e) {
+            return false;
+        }
+    }
     
     protected void recordControlMessage(String linePrefix, String message) {
         for (String line: new IterableLineIterator(new StringReader(message))) {
@@ -75,6 +75,31 @@ public class ClientSFTP {
 		return channelSFTP;
 	}
 
+	/**
+	 * Starts a new control conversation record, for when this already
+	 * connected client is reused for another fetch.
+	 */
+	public void resetControlConversation() {
+		this.controlConversation = new StringBuilder();
+		this.controlConversation.append("Re-using connection to SFTP server " + session.getHost() + ":" + session.getPort());
+	}
+
+	/**
+	 * Checks that the session and sftp channel are still usable, by sending
+	 * a keepalive message on the session.
+	 */
+	public boolean isAlive() {
+		if (session == null || !session.isConnected() || !isConnected()) {
+			return false;
+		}
+		try {
+			session.sendKeepAliveMsg();
+			return true;
+		} catch (Exception e) {
+			return false;
+		}
+	}
+
 	public void exit() {
 		session.disconnect();
 	}
@@ -0,0 +1,258 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.net;
+
+import java.io.UnsupportedEncodingException;
+import java.security.SecureRandom;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.commons.codec.digest.DigestUtils;
+
+/**
+ * Pool of idle, already-authenticated client sessions (for example FTP
+ * control connections), keyed by server and credentials, so consecutive
+ * fetches from the same server can skip connect and login.
+ *
+ * <p>The pool only holds sessions between fetches; fetchers create sessions
+ * themselves when {@link #checkout(String)} finds none. Since the frontier
+ * already limits how many fetches from one server run at once, the number
+ * of idle sessions kept per key is capped at {@link #getMaxIdlePerKey()},
+ * by default one. Sessions idle longer than {@link #getIdleTimeoutMs()} are
+ * closed, and sessions are checked with {@link #isAlive(Object)} before
+ * being handed out again. Keys carry credentials, so are never logged;
+ * see {@link #sessionKey(String, int, String, String)}.
+ *
+ * @param <C> client session type
+ */
+public abstract class ClientSessionPool<C> {
+    private static final Logger logger =
+        Logger.getLogger(ClientSessionPool.class.getName());
+
+    /** salts password digests in keys, so they are of no use elsewhere */
+    private static final byte[] KEY_SALT = new byte[16];
+    static {
+        new SecureRandom().nextBytes(KEY_SALT);
+    }
+
+    /**
+     * @return pool key for sessions on the given server logged in with the
+     *         given credentials, holding only a salted digest of the password
+     */
+    public static String sessionKey(String host, int port, String user, String password) {
+        byte[] passwordBytes;
+        try {
+            passwordBytes = (password == null ? "" : password).getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e); // UTF-8 is always supported
+        }
+        byte[] salted = new byte[KEY_SALT.length + passwordBytes.length];
+        System.arraycopy(KEY_SALT, 0, salted, 0, KEY_SALT.length);
+        System.arraycopy(passwordBytes, 0, salted, KEY_SALT.length, passwordBytes.length);
+        return host + ":" + port + " " + user + " " + DigestUtils.sha256Hex(salted);
+    }
+
+    protected static class IdleSession<C> {
+        protected final C client;
+        protected final long since;
+        protected IdleSession(C client, long since) {
+            this.client = client;
+            this.since = since;
+        }
+    }
+
+    /** idle sessions by key, most recently used last */
+    protected final Map<String, Deque<IdleSession<C>>> idle =
+        new HashMap<String, Deque<IdleSession<C>>>();
+
+    protected long idleTimeoutMs = 30 * 1000;
+    public long getIdleTimeoutMs() {
+        return idleTimeoutMs;
+    }
+    /**
+     * Sessions idle for longer than this are closed rather than reused.
+     * Should be comfortably below the idle timeout of typical servers.
+     */
+    public void setIdleTimeoutMs(long idleTimeoutMs) {
+        this.idleTimeoutMs = idleTimeoutMs;
+    }
+
+    protected int maxIdlePerKey = 1;
+    public int getMaxIdlePerKey() {
+        return maxIdlePerKey;
+    }
+    /**
+     * Maximum idle sessions retained per key; sessions checked in beyond
+     * this are closed, oldest first.
+     */
+    public void setMaxIdlePerKey(int maxIdlePerKey) {
+        this.maxIdlePerKey = maxIdlePerKey;
+    }
+
+    protected long lastSweep = 0;
+
+    protected AtomicLong reusedCount = new AtomicLong(0);
+    protected AtomicLong expiredCount = new AtomicLong(0);
+    protected AtomicLong deadCount = new AtomicLong(0);
+
+    /**
+     * @param client an idle session
+     * @return true if the session is still usable; may talk to the server
+     */
+    protected abstract boolean isAlive(C client);
+
+    /**
+     * Close the given session, quietly.
+     */
+    protected abstract void close(C client);
+
+    protected long now() {
+        return System.currentTimeMillis();
+    }
+
+    /**
+     * Take a live idle session for the given key, if any.
+     *
+     * @return session, or null if the caller should open a new one
+     */
+    public C checkout(String key) {
+        while (true) {
+            IdleSession<C> candidate;
+            synchronized (this) {
+                Deque<IdleSession<C>> sessions = idle.get(key);
+                candidate = sessions == null ? null : sessions.pollLast();
+                if (sessions != null && sessions.isEmpty()) {
+                    idle.remove(key);
+                }
+            }
+            if (candidate == null) {
+                return null;
+            }
+            // liveness checks and closes happen outside the lock, since
+            // they may wait on the network
+            if (now() - candidate.since > idleTimeoutMs) {
+                expiredCount.incrementAndGet();
+                close(candidate.client);
+            } else if (!isAlive(candidate.client)) {
+                deadCount.incrementAndGet();
+                if (logger.isLoggable(Level.FINE)) {
+                    logger.fine("discarding dead idle session " + candidate.client);
+                }
+                close(candidate.client);
+            } else {
+                reusedCount.incrementAndGet();
+                return candidate.client;
+            }
+        }
+    }
+
+    /**
+     * Return a session, still connected and authenticated, for reuse by a
+     * later fetch with the same key.
+     */
+    public void checkin(String key, C client) {
+        List<C> toClose = new ArrayList<C>();
+        long now = now();
+        synchronized (this) {
+            Deque<IdleSession<C>> sessions = idle.get(key);
+            if (sessions == null) {
+                sessions = new ArrayDeque<IdleSession<C>>();
+                idle.put(key, sessions);
+            }
+            sessions.addLast(new IdleSession<C>(client, now));
+            while (sessions.size() > maxIdlePerKey) {
+                toClose.add(sessions.pollFirst().client);
+            }
+            if (sessions.isEmpty()) {
+                idle.remove(key);
+            }
+            if (now - lastSweep > idleTimeoutMs / 2) {
+                lastSweep = now;
+                collectExpired(now, toClose);
+            }
+        }
+        for (C c : toClose) {
+            close(c);
+        }
+    }
+
+    /**
+     * Remove expired sessions from all keys, adding them to toClose.
+     */
+    protected void collectExpired(long now, List<C> toClose) {
+        Iterator<Deque<IdleSession<C>>> iter = idle.values().iterator();
+        while (iter.hasNext()) {
+            Deque<IdleSession<C>> sessions = iter.next();
+            while (!sessions.isEmpty() && now - sessions.peekFirst().since > idleTimeoutMs) {
+                toClose.add(sessions.pollFirst().client);
+                expiredCount.incrementAndGet();
+            }
+            if (sessions.isEmpty()) {
+                iter.remove();
+            }
+        }
+    }
+
+    /**
+     * Close all idle sessions.
+     */
+    public void closeAll() {
+        List<C> toClose = new ArrayList<C>();
+        synchronized (this) {
+            for (Deque<IdleSession<C>> sessions : idle.values()) {
+                for (IdleSession<C> s : sessions) {
+                    toClose.add(s.client);
+                }
+            }
+            idle.clear();
+        }
+        for (C c : toClose) {
+            close(c);
+        }
+    }
+
+    public synchronized int getIdleCount() {
+        int count = 0;
+        for (Deque<IdleSession<C>> sessions : idle.values()) {
+            count += sessions.size();
+        }
+        return count;
+    }
+
+    public long getReusedCount() {
+        return reusedCount.get();
+    }
+
+    public long getExpiredCount() {
+        return expiredCount.get();
+    }
+
+    public long getDeadCount() {
+        return deadCount.get();
+    }
+}
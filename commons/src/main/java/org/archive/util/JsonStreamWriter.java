@@ -0,0 +1,351 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Minimal streaming JSON writer which encodes directly to UTF-8 bytes in a
+ * reusable buffer. Unlike building a JSONObject and serializing it, no
+ * intermediate maps, boxed values or Strings are created, so one instance
+ * per thread (see {@link #reset()}) can encode any number of records
+ * without garbage beyond the caller's own values.
+ *
+ * <p>Callers are responsible for well-formedness beyond comma placement:
+ * names must be written only inside objects, and every begin must be
+ * matched by an end.
+ */
+public class JsonStreamWriter {
+    protected static final byte[] HEX = "0123456789abcdef".getBytes();
+    protected static final byte[] NULL = "null".getBytes();
+    protected static final byte[] TRUE = "true".getBytes();
+    protected static final byte[] FALSE = "false".getBytes();
+
+    protected byte[] buf;
+    protected int count = 0;
+
+    /** per nesting level: whether a value has been written at that level */
+    protected boolean[] hasValue = new boolean[16];
+    protected int depth = 0;
+    /** whether a name was just written, so the next value needs no comma */
+    protected boolean afterName = false;
+
+    public JsonStreamWriter() {
+        this(1024);
+    }
+
+    public JsonStreamWriter(int initialCapacity) {
+        buf = new byte[Math.max(16, initialCapacity)];
+    }
+
+    /**
+     * Discard all output, readying this writer for a new document. The
+     * buffer is retained.
+     */
+    public JsonStreamWriter reset() {
+        count = 0;
+        depth = 0;
+        hasValue[0] = false;
+        afterName = false;
+        return this;
+    }
+
+    public JsonStreamWriter beginObject() {
+        return begin('{');
+    }
+
+    public JsonStreamWriter endObject() {
+        return end('}');
+    }
+
+    public JsonStreamWriter beginArray() {
+        return begin('[');
+    }
+
+    public JsonStreamWriter endArray() {
+        return end(']');
+    }
+
+    protected JsonStreamWriter begin(char c) {
+        beforeValue();
+        write(c);
+        depth++;
+        if (depth == hasValue.length) {
+            hasValue = Arrays.copyOf(hasValue, depth * 2);
+        }
+        hasValue[depth] = false;
+        return this;
+    }
+
+    protected JsonStreamWriter end(char c) {
+        if (depth == 0) {
+            throw new IllegalStateException("no open object or array");
+        }
+        depth--;
+        write(c);
+        return this;
+    }
+
+    /**
+     * Write an object member name; the next value written is its value.
+     */
+    public JsonStreamWriter name(CharSequence name) {
+        beforeValue();
+        writeQuoted(name);
+        write(':');
+        afterName = true;
+        return this;
+    }
+
+    /**
+     * @param value string value, or null for JSON null
+     */
+    public JsonStreamWriter value(CharSequence value) {
+        if (value == null) {
+            return nullValue();
+        }
+        beforeValue();
+        writeQuoted(value);
+        return this;
+    }
+
+    public JsonStreamWriter value(long value) {
+        beforeValue();
+        if (value == Long.MIN_VALUE) {
+            writeAscii(Long.toString(value));
+            return this;
+        }
+        if (value < 0) {
+            write('-');
+            value = -value;
+        }
+        // digits written backwards into place
+        int digits = 1;
+        for (long v = value / 10; v > 0; v /= 10) {
+            digits++;
+        }
+        ensureCapacity(count + digits);
+        for (int i = count + digits - 1; i >= count; i--) {
+            buf[i] = (byte) ('0' + (value % 10));
+            value /= 10;
+        }
+        count += digits;
+        return this;
+    }
+
+    /**
+     * @param value number; non-finite values, which JSON cannot represent,
+     *        are written as null
+     */
+    public JsonStreamWriter value(double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            return nullValue();
+        }
+        if (value == (long) value && Math.abs(value) < 1e15) {
+            return value((long) value);
+        }
+        beforeValue();
+        writeAscii(Double.toString(value));
+        return this;
+    }
+
+    public JsonStreamWriter value(boolean value) {
+        beforeValue();
+        write(value ? TRUE : FALSE);
+        return this;
+    }
+
+    public JsonStreamWriter nullValue() {
+        beforeValue();
+        write(NULL);
+        return this;
+    }
+
+    /**
+     * Write already-encoded JSON (such as the serialization of a nested
+     * object) as a value, without any escaping.
+     */
+    public JsonStreamWriter rawValue(CharSequence json) {
+        beforeValue();
+        writeUtf8(json);
+        return this;
+    }
+
+    protected void beforeValue() {
+        if (afterName) {
+            afterName = false;
+        } else {
+            if (hasValue[depth]) {
+                write(',');
+            }
+            hasValue[depth] = true;
+        }
+    }
+
+    protected void writeQuoted(CharSequence s) {
+        write('"');
+        int length = s.length();
+        for (int i = 0; i < length; i++) {
+            char c = s.charAt(i);
+            switch (c) {
+            case '"':
+                write('\\');
+                write('"');
+                break;
+            case '\\':
+                write('\\');
+                write('\\');
+                break;
+            case '\n':
+                write('\\');
+                write('n');
+                break;
+            case '\r':
+                write('\\');
+                write('r');
+                break;
+            case '\t':
+                write('\\');
+                write('t');
+                break;
+            case '\u2028':
+            case '\u2029':
+                // legal JSON, but not legal in javascript string literals
+                writeUnicodeEscape(c);
+                break;
+            default:
+                if (c < 0x20) {
+                    writeUnicodeEscape(c);
+                } else if (c < 0x80) {
+                    write(c);
+                } else {
+                    i = writeNonAscii(s, i, c);
+                }
+            }
+        }
+        write('"');
+    }
+
+    protected void writeUnicodeEscape(char c) {
+        ensureCapacity(count + 6);
+        buf[count++] = '\\';
+        buf[count++] = 'u';
+        buf[count++] = HEX[(c >> 12) & 0xf];
+        buf[count++] = HEX[(c >> 8) & 0xf];
+        buf[count++] = HEX[(c >> 4) & 0xf];
+        buf[count++] = HEX[c & 0xf];
+    }
+
+    protected void writeUtf8(CharSequence s) {
+        int length = s.length();
+        for (int i = 0; i < length; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                write(c);
+            } else {
+                i = writeNonAscii(s, i, c);
+            }
+        }
+    }
+
+    /**
+     * Encode the non-ASCII char at index i (with its low surrogate, if a
+     * valid pair) as UTF-8.
+     *
+     * @return index of last char consumed
+     */
+    protected int writeNonAscii(CharSequence s, int i, char c) {
+        ensureCapacity(count + 4);
+        if (c < 0x800) {
+            buf[count++] = (byte) (0xc0 | (c >> 6));
+            buf[count++] = (byte) (0x80 | (c & 0x3f));
+        } else if (Character.isHighSurrogate(c) && i + 1 < s.length()
+                && Character.isLowSurrogate(s.charAt(i + 1))) {
+            int cp = Character.toCodePoint(c, s.charAt(i + 1));
+            buf[count++] = (byte) (0xf0 | (cp >> 18));
+            buf[count++] = (byte) (0x80 | ((cp >> 12) & 0x3f));
+            buf[count++] = (byte) (0x80 | ((cp >> 6) & 0x3f));
+            buf[count++] = (byte) (0x80 | (cp & 0x3f));
+            return i + 1;
+        } else if (Character.isSurrogate(c)) {
+            // unpaired surrogate: not encodable, as with String.getBytes()
+            buf[count++] = '?';
+        } else {
+            buf[count++] = (byte) (0xe0 | (c >> 12));
+            buf[count++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+            buf[count++] = (byte) (0x80 | (c & 0x3f));
+        }
+        return i;
+    }
+
+    protected void writeAscii(String s) {
+        int length = s.length();
+        ensureCapacity(count + length);
+        for (int i = 0; i < length; i++) {
+            buf[count++] = (byte) s.charAt(i);
+        }
+    }
+
+    protected void write(char c) {
+        ensureCapacity(count + 1);
+        buf[count++] = (byte) c;
+    }
+
+    protected void write(byte[] bytes) {
+        ensureCapacity(count + bytes.length);
+        System.arraycopy(bytes, 0, buf, count, bytes.length);
+        count += bytes.length;
+    }
+
+    protected void ensureCapacity(int capacity) {
+        if (capacity > buf.length) {
+            buf = Arrays.copyOf(buf, Math.max(capacity, buf.length * 2));
+        }
+    }
+
+    /**
+     * @return number of bytes written since last reset
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * @return copy of the bytes written since last reset
+     */
+    public byte[] toByteArray() {
+        return Arrays.copyOf(buf, count);
+    }
+
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(buf, 0, count);
+    }
+
+    @Override
+    public String toString() {
+        try {
+            return new String(buf, 0, count, "UTF-8");
+        } catch (java.io.UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,348 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.util;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Immutable, compact radix trie over a set of Strings, answering "which
+ * members are prefixes of this input?" in time proportional to the length
+ * of the input rather than the size of the set.
+ *
+ * <p>Nodes are laid out in a single int buffer, with the children of any
+ * node contiguous and sorted by the first character of their edge label;
+ * all edge labels share a single char buffer. No per-key objects are
+ * retained, and the buffers may optionally be allocated off the Java heap,
+ * which keeps scopes of many millions of SURT prefixes from burdening the
+ * garbage collector.
+ *
+ * <p>Instances are built once from a sorted key set and are then safe for
+ * any number of concurrent readers. See {@link SurtPrefixTrieSet} for a
+ * mutable wrapper.
+ */
+public class PrefixTrie {
+    /** ints per node */
+    protected static final int NODE_INTS = 5;
+    /** offset of node's edge-label start in label buffer */
+    protected static final int LABEL_START = 0;
+    /** offset of node's edge-label length */
+    protected static final int LABEL_LENGTH = 1;
+    /** offset of index of node's first child */
+    protected static final int FIRST_CHILD = 2;
+    /** offset of count of node's children */
+    protected static final int CHILD_COUNT = 3;
+    /** offset of sorted-order ordinal of key ending at node, or -1 */
+    protected static final int KEY_ORDINAL = 4;
+
+    public static final PrefixTrie EMPTY = build(new String[0], false);
+
+    protected final IntBuffer nodes;
+    protected final CharBuffer labels;
+    protected final int nodeCount;
+    protected final int size;
+    protected final boolean offHeap;
+
+    protected PrefixTrie(IntBuffer nodes, CharBuffer labels, int nodeCount,
+            int size, boolean offHeap) {
+        this.nodes = nodes;
+        this.labels = labels;
+        this.nodeCount = nodeCount;
+        this.size = size;
+        this.offHeap = offHeap;
+    }
+
+    /**
+     * Build a trie from an arbitrary collection of keys, which need not
+     * be sorted or unique.
+     *
+     * @param keys keys to include
+     * @param offHeap whether to allocate the trie's buffers outside the heap
+     * @return PrefixTrie containing the given keys
+     */
+    public static PrefixTrie fromCollection(Collection<String> keys, boolean offHeap) {
+        return build(sortedUnique(keys), offHeap);
+    }
+
+    /**
+     * @param keys arbitrary keys
+     * @return the given keys in ascending order, without duplicates
+     */
+    public static String[] sortedUnique(Collection<String> keys) {
+        String[] sorted = keys.toArray(new String[keys.size()]);
+        Arrays.sort(sorted);
+        int unique = 0;
+        for (int i = 0; i < sorted.length; i++) {
+            if (unique == 0 || !sorted[i].equals(sorted[unique - 1])) {
+                sorted[unique++] = sorted[i];
+            }
+        }
+        return unique < sorted.length ? Arrays.copyOf(sorted, unique) : sorted;
+    }
+
+    /**
+     * Build a trie from keys already in ascending String order, without
+     * duplicates.
+     *
+     * @param sortedKeys sorted, unique keys
+     * @param offHeap whether to allocate the trie's buffers outside the heap
+     * @return PrefixTrie containing the given keys
+     */
+    public static PrefixTrie build(String[] sortedKeys, boolean offHeap) {
+        // per-node build state, indexed by node: key range and depth
+        int capacity = Math.max(16, sortedKeys.length * 2);
+        int[] ints = new int[capacity * NODE_INTS];
+        int[] los = new int[capacity];
+        int[] his = new int[capacity];
+        int[] depths = new int[capacity];
+        StringBuilder labelChars = new StringBuilder();
+
+        // root: empty label covering all keys
+        int nodeCount = 1;
+        his[0] = sortedKeys.length;
+
+        // nodes are processed in allocation order; each processed node
+        // allocates its children as one contiguous block
+        for (int node = 0; node < nodeCount; node++) {
+            int lo = los[node];
+            int hi = his[node];
+            int depth = depths[node];
+            int base = node * NODE_INTS;
+            int start = lo;
+            if (start < hi && sortedKeys[start].length() == depth) {
+                // sorted order puts the key ending here first in range
+                ints[base + KEY_ORDINAL] = start;
+                start++;
+            } else {
+                ints[base + KEY_ORDINAL] = -1;
+            }
+            ints[base + FIRST_CHILD] = nodeCount;
+            int childCount = 0;
+            for (int a = start; a < hi; ) {
+                char c = sortedKeys[a].charAt(depth);
+                int b = a + 1;
+                while (b < hi && sortedKeys[b].charAt(depth) == c) {
+                    b++;
+                }
+                // sorted range: common prefix of all is that of first and last
+                int childDepth = commonPrefixLength(sortedKeys[a], sortedKeys[b - 1], depth + 1);
+                if (nodeCount == los.length) {
+                    int newCapacity = los.length * 2;
+                    ints = Arrays.copyOf(ints, newCapacity * NODE_INTS);
+                    los = Arrays.copyOf(los, newCapacity);
+                    his = Arrays.copyOf(his, newCapacity);
+                    depths = Arrays.copyOf(depths, newCapacity);
+                }
+                int childBase = nodeCount * NODE_INTS;
+                ints[childBase + LABEL_START] = labelChars.length();
+                ints[childBase + LABEL_LENGTH] = childDepth - depth;
+                labelChars.append(sortedKeys[a], depth, childDepth);
+                los[nodeCount] = a;
+                his[nodeCount] = b;
+                depths[nodeCount] = childDepth;
+                nodeCount++;
+                childCount++;
+                a = b;
+            }
+            ints[base + CHILD_COUNT] = childCount;
+        }
+
+        IntBuffer nodes;
+        CharBuffer labels;
+        if (offHeap) {
+            nodes = ByteBuffer.allocateDirect(nodeCount * NODE_INTS * 4)
+                    .order(ByteOrder.nativeOrder()).asIntBuffer();
+            nodes.put(ints, 0, nodeCount * NODE_INTS);
+            nodes.flip();
+            labels = ByteBuffer.allocateDirect(labelChars.length() * 2)
+                    .order(ByteOrder.nativeOrder()).asCharBuffer();
+            labels.put(labelChars.toString());
+            labels.flip();
+        } else {
+            nodes = IntBuffer.wrap(Arrays.copyOf(ints, nodeCount * NODE_INTS));
+            char[] chars = new char[labelChars.length()];
+            labelChars.getChars(0, chars.length, chars, 0);
+            labels = CharBuffer.wrap(chars);
+        }
+        return new PrefixTrie(nodes, labels, nodeCount, sortedKeys.length, offHeap);
+    }
+
+    protected static int commonPrefixLength(String a, String b, int from) {
+        int max = Math.min(a.length(), b.length());
+        int i = from;
+        while (i < max && a.charAt(i) == b.charAt(i)) {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * Find the child of the given node whose edge label starts with the
+     * given character, by binary search over the node's sorted children.
+     *
+     * @return child node index, or -1 if none
+     */
+    protected int childFor(int node, char c) {
+        int base = node * NODE_INTS;
+        int low = nodes.get(base + FIRST_CHILD);
+        int high = low + nodes.get(base + CHILD_COUNT) - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            char midChar = labels.get(nodes.get(mid * NODE_INTS + LABEL_START));
+            if (midChar < c) {
+                low = mid + 1;
+            } else if (midChar > c) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Walk the trie along the given input, recording the input length at
+     * which each key ends. Stops at the first key if firstOnly.
+     *
+     * @return number of entries written to ends
+     */
+    protected int walk(CharSequence input, int[] ends, boolean firstOnly) {
+        int found = 0;
+        int node = 0;
+        int pos = 0;
+        int length = input.length();
+        while (true) {
+            if (nodes.get(node * NODE_INTS + KEY_ORDINAL) >= 0) {
+                if (ends != null) {
+                    ends[found] = pos;
+                }
+                found++;
+                if (firstOnly) {
+                    return found;
+                }
+            }
+            if (pos >= length) {
+                return found;
+            }
+            int child = childFor(node, input.charAt(pos));
+            if (child < 0) {
+                return found;
+            }
+            int base = child * NODE_INTS;
+            int labelStart = nodes.get(base + LABEL_START);
+            int labelLength = nodes.get(base + LABEL_LENGTH);
+            if (pos + labelLength > length) {
+                return found;
+            }
+            // first char already matched by childFor()
+            for (int i = 1; i < labelLength; i++) {
+                if (labels.get(labelStart + i) != input.charAt(pos + i)) {
+                    return found;
+                }
+            }
+            pos += labelLength;
+            node = child;
+        }
+    }
+
+    /**
+     * @param input string to test
+     * @return true if any key of this trie is a prefix of input
+     */
+    public boolean containsPrefixOf(CharSequence input) {
+        return walk(input, null, true) > 0;
+    }
+
+    /**
+     * Find all keys which are prefixes of the given input. Equivalent to
+     * {@link PrefixFinder#find(java.util.SortedSet, String)} over the same
+     * keys, but without any scanning of the key set.
+     *
+     * @param input string whose prefixes to find
+     * @return list of prefixes, shortest first
+     */
+    public List<String> findPrefixes(String input) {
+        LinkedList<String> result = new LinkedList<String>();
+        // at most one key can end at each position, plus the empty key
+        int[] ends = new int[input.length() + 1];
+        int found = walk(input, ends, false);
+        for (int i = 0; i < found; i++) {
+            result.add(input.substring(0, ends[i]));
+        }
+        return result;
+    }
+
+    /**
+     * @return all keys, in ascending order
+     */
+    public List<String> keys() {
+        List<String> result = new ArrayList<String>(size);
+        collectKeys(0, new StringBuilder(), result);
+        return result;
+    }
+
+    protected void collectKeys(int node, StringBuilder path, List<String> result) {
+        int base = node * NODE_INTS;
+        int pathLength = path.length();
+        int labelStart = nodes.get(base + LABEL_START);
+        int labelLength = nodes.get(base + LABEL_LENGTH);
+        for (int i = 0; i < labelLength; i++) {
+            path.append(labels.get(labelStart + i));
+        }
+        if (nodes.get(base + KEY_ORDINAL) >= 0) {
+            result.add(path.toString());
+        }
+        int firstChild = nodes.get(base + FIRST_CHILD);
+        int childCount = nodes.get(base + CHILD_COUNT);
+        for (int child = firstChild; child < firstChild + childCount; child++) {
+            collectKeys(child, path, result);
+        }
+        path.setLength(pathLength);
+    }
+
+    /**
+     * @return number of keys in trie
+     */
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @return approximate bytes used by the trie's node and label buffers
+     */
+    public long getBufferBytes() {
+        return (long) nodeCount * NODE_INTS * 4 + (long) labels.capacity() * 2;
+    }
+
+    public boolean isOffHeap() {
+        return offHeap;
+    }
+}
@@ -0,0 +1,348 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.util;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Set of SURT prefixes backed by an immutable {@link PrefixTrie} snapshot,
+ * plus a small sorted set of recent additions. Lookups never lock: they
+ * consult the current snapshot and, if nonempty, the pending additions.
+ * Once pending additions grow past a fraction of the snapshot size, they
+ * are merged into a fresh snapshot (copy-on-write), so incremental adds
+ * (as from seeds) stay cheap while lookups stay O(length of SURT).
+ *
+ * <p>Parsing of mixed seed/SURT text and directive lines is delegated to
+ * {@link SurtPrefixSet}, so accepted syntax is unchanged.
+ */
+public class SurtPrefixTrieSet implements Iterable<String> {
+    /** pending additions tolerated before merging, regardless of size */
+    protected static final int MIN_PENDING_BEFORE_MERGE = 1024;
+
+    protected volatile PrefixTrie snapshot = PrefixTrie.EMPTY;
+    protected final ConcurrentSkipListSet<String> pending =
+        new ConcurrentSkipListSet<String>();
+    protected final AtomicInteger pendingCount = new AtomicInteger(0);
+
+    /**
+     * Whether to discard prefixes made redundant by shorter prefixes
+     * (as SurtPrefixSet does) when building snapshots. Appropriate when
+     * only {@link #containsPrefixOf(String)} is needed; not when every
+     * matching prefix must be found.
+     */
+    protected final boolean coalesce;
+
+    /** Whether snapshots should be built off the Java heap. */
+    protected volatile boolean offHeap = false;
+
+    public SurtPrefixTrieSet() {
+        this(true);
+    }
+
+    public SurtPrefixTrieSet(boolean coalesce) {
+        this.coalesce = coalesce;
+    }
+
+    public boolean getOffHeap() {
+        return offHeap;
+    }
+    /**
+     * Set whether snapshots are built in direct (off-heap) buffers.
+     * Takes effect at the next merge.
+     */
+    public void setOffHeap(boolean offHeap) {
+        this.offHeap = offHeap;
+    }
+
+    /**
+     * @param s candidate SURT
+     * @return true if any prefix in the set is a prefix of s
+     */
+    public boolean containsPrefixOf(String s) {
+        if (s == null) {
+            return false;
+        }
+        // pending before snapshot: publish() installs a snapshot before
+        // retiring its pending entries, so each key is always found in one
+        if (pendingCount.get() > 0 && !PrefixFinder.find(pending, s).isEmpty()) {
+            return true;
+        }
+        return snapshot.containsPrefixOf(s);
+    }
+
+    /**
+     * @param s candidate SURT
+     * @return all prefixes in the set which are prefixes of s, shortest first
+     */
+    public List<String> findPrefixes(String s) {
+        // pending before snapshot, as in containsPrefixOf()
+        List<String> fromPending = pendingCount.get() > 0
+                ? PrefixFinder.find(pending, s)
+                : Collections.<String>emptyList();
+        List<String> found = snapshot.findPrefixes(s);
+        if (!fromPending.isEmpty()) {
+            found.addAll(fromPending);
+            // a concurrent merge may have placed a prefix in both
+            List<String> merged = new ArrayList<String>(found.size());
+            Collections.sort(found, LENGTH_ORDER);
+            for (String prefix : found) {
+                if (merged.isEmpty() || !merged.get(merged.size() - 1).equals(prefix)) {
+                    merged.add(prefix);
+                }
+            }
+            return merged;
+        }
+        return found;
+    }
+
+    protected static final Comparator<String> LENGTH_ORDER =
+        new Comparator<String>() {
+            public int compare(String a, String b) {
+                return a.length() - b.length();
+            }
+        };
+
+    /**
+     * Add a single prefix. Cheap; becomes part of the trie snapshot at
+     * the next merge.
+     *
+     * @return true if prefix was added
+     */
+    public boolean add(String prefix) {
+        if (prefix == null) {
+            return false;
+        }
+        if (coalesce && containsPrefixOf(prefix)) {
+            // already covered
+            return false;
+        }
+        if (pending.add(prefix)) {
+            pendingCount.incrementAndGet();
+            mergeIfWarranted();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Add many prefixes. As with single additions, they are merged into
+     * the trie snapshot once pending additions pass a fraction of the
+     * snapshot size, so a long series of batches (as from bulk seed
+     * loading) costs only a logarithmic number of rebuilds.
+     */
+    public void addAll(Collection<String> prefixes) {
+        for (String prefix : prefixes) {
+            if (prefix != null && pending.add(prefix)) {
+                pendingCount.incrementAndGet();
+            }
+        }
+        mergeIfWarranted();
+    }
+
+    protected void mergeIfWarranted() {
+        if (pendingCount.get() > Math.max(MIN_PENDING_BEFORE_MERGE, snapshot.size() / 4)) {
+            merge();
+        }
+    }
+
+    /**
+     * Merge all pending additions into a new trie snapshot.
+     */
+    public synchronized void merge() {
+        if (pendingCount.get() == 0) {
+            // check again; another thread may have merged while we waited
+            return;
+        }
+        List<String> merging = new ArrayList<String>(pending);
+        List<String> all = new ArrayList<String>(snapshot.size() + merging.size());
+        all.addAll(snapshot.keys());
+        all.addAll(merging);
+        publish(all, merging);
+    }
+
+    /**
+     * Install a snapshot built from the given keys, then retire the given
+     * pending entries. Ordering matters: readers must always find a key in
+     * either the snapshot or the pending set.
+     */
+    protected void publish(List<String> keys, List<String> mergedFromPending) {
+        String[] sorted = PrefixTrie.sortedUnique(keys);
+        if (coalesce) {
+            sorted = coalesced(sorted);
+        }
+        snapshot = PrefixTrie.build(sorted, offHeap);
+        pending.removeAll(mergedFromPending);
+        pendingCount.addAndGet(-mergedFromPending.size());
+    }
+
+    /**
+     * @param sortedKeys ascending keys
+     * @return keys not already covered by a shorter key
+     */
+    protected static String[] coalesced(String[] sortedKeys) {
+        List<String> kept = new ArrayList<String>(sortedKeys.length);
+        String lastKept = null;
+        for (String key : sortedKeys) {
+            // in sorted order, any covering prefix is the last one kept
+            if (lastKept == null || !key.startsWith(lastKept)) {
+                kept.add(key);
+                lastKept = key;
+            }
+        }
+        return kept.toArray(new String[kept.size()]);
+    }
+
+    /**
+     * Remove a single prefix. Removal from the trie snapshot means a
+     * rebuild, so this suits occasional removals only.
+     *
+     * @return true if prefix was present
+     */
+    public synchronized boolean remove(String prefix) {
+        if (prefix == null) {
+            return false;
+        }
+        boolean removed = false;
+        if (pending.remove(prefix)) {
+            pendingCount.decrementAndGet();
+            removed = true;
+        }
+        List<String> inSnapshot = snapshot.findPrefixes(prefix);
+        if (!inSnapshot.isEmpty() && inSnapshot.get(inSnapshot.size() - 1).equals(prefix)) {
+            List<String> keys = snapshot.keys();
+            keys.remove(prefix);
+            publish(keys, Collections.<String>emptyList());
+            removed = true;
+        }
+        return removed;
+    }
+
+    public synchronized void clear() {
+        snapshot = PrefixTrie.EMPTY;
+        pending.clear();
+        pendingCount.set(0);
+    }
+
+    /**
+     * Read SURT prefixes from text mixing seed URIs and '+'-prefixed SURT
+     * prefix lines, as per {@link SurtPrefixSet#importFromMixed(Reader, boolean)}.
+     */
+    public void importFromMixed(Reader reader, boolean deduceFromSeeds) {
+        SurtPrefixSet parsed = new SurtPrefixSet();
+        parsed.importFromMixed(reader, deduceFromSeeds);
+        addAll(parsed);
+    }
+
+    /**
+     * Consider the given line as a SURT prefix (or URI implying one), as
+     * per {@link SurtPrefixSet#considerAsAddDirective(String)}.
+     *
+     * @return true if the line was understood as a prefix
+     */
+    public boolean considerAsAddDirective(String line) {
+        SurtPrefixSet parsed = new SurtPrefixSet();
+        boolean result = parsed.considerAsAddDirective(line);
+        for (String prefix : parsed) {
+            add(prefix);
+        }
+        return result;
+    }
+
+    /**
+     * Replace all prefixes with their domain-enforcing equivalents.
+     */
+    public synchronized void convertAllPrefixesToDomains() {
+        List<String> converted = new ArrayList<String>();
+        for (String prefix : this) {
+            converted.add(SurtPrefixSet.convertPrefixToDomain(prefix));
+        }
+        replaceWith(converted);
+    }
+
+    /**
+     * Replace all prefixes with their host-enforcing equivalents.
+     */
+    public synchronized void convertAllPrefixesToHosts() {
+        List<String> converted = new ArrayList<String>();
+        for (String prefix : this) {
+            converted.add(SurtPrefixSet.convertPrefixToHost(prefix));
+        }
+        replaceWith(converted);
+    }
+
+    /**
+     * Replace entire contents with the given prefixes, in one snapshot.
+     */
+    protected synchronized void replaceWith(Collection<String> prefixes) {
+        publish(new ArrayList<String>(prefixes), new ArrayList<String>(pending));
+    }
+
+    /**
+     * Write all prefixes, one per line, to the given Writer.
+     */
+    public void exportTo(Writer writer) throws IOException {
+        for (String prefix : this) {
+            writer.write(prefix + "\n");
+        }
+    }
+
+    /**
+     * @return all prefixes (snapshot and pending), in ascending order
+     */
+    public List<String> getPrefixes() {
+        PrefixTrie trie = snapshot;
+        List<String> all = new ArrayList<String>(trie.size() + pendingCount.get());
+        all.addAll(trie.keys());
+        all.addAll(pending);
+        return Arrays.asList(PrefixTrie.sortedUnique(all));
+    }
+
+    @Override
+    public Iterator<String> iterator() {
+        return getPrefixes().iterator();
+    }
+
+    /**
+     * @return count of prefixes; approximate while a merge is underway
+     */
+    public int size() {
+        return snapshot.size() + pendingCount.get();
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    @Override
+    public String toString() {
+        return getPrefixes().toString();
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import st.ata.util.FPGenerator;
+
+/**
+ * Consistent hash of long keys onto named nodes of differing capacity.
+ * Each node places ring points in proportion to its weight; a key belongs
+ * to the node owning the first point at or after the key's hash.
+ * 
+ * <p>Points are derived from node names, not positions, so adding,
+ * removing, or reweighting one node only moves keys to or from that node.
+ * The ring is held in two sorted flat arrays, so a lookup is a binary 
+ * search without boxing or tree traversal. Instances are immutable; build
+ * a new one to reconfigure.
+ */
+public class WeightedConsistentHash {
+    /** ring points per unit of weight */
+    public static final int DEFAULT_POINTS_PER_WEIGHT = 128;
+
+    protected final String[] names;
+    protected final double[] weights;
+    protected final long[] points;
+    protected final int[] owners;
+
+    /**
+     * @param nodeWeights node names, with their relative capacities
+     */
+    public WeightedConsistentHash(Map<String,? extends Number> nodeWeights) {
+        this(nodeWeights, DEFAULT_POINTS_PER_WEIGHT);
+    }
+
+    public WeightedConsistentHash(Map<String,? extends Number> nodeWeights,
+            int pointsPerWeight) {
+        if (nodeWeights.isEmpty()) {
+            throw new IllegalArgumentException("no nodes");
+        }
+        names = nodeWeights.keySet().toArray(new String[nodeWeights.size()]);
+        weights = new double[names.length];
+        int total = 0;
+        int[] counts = new int[names.length];
+        for (int i = 0; i < names.length; i++) {
+            weights[i] = nodeWeights.get(names[i]).doubleValue();
+            if (weights[i] < 0) {
+                throw new IllegalArgumentException("negative weight for " + names[i]);
+            }
+            counts[i] = (int) Math.round(weights[i] * pointsPerWeight);
+            total += counts[i];
+        }
+        if (total == 0) {
+            throw new IllegalArgumentException("no node has positive weight");
+        }
+        // sort points, carrying owners along, via an index array
+        long[] unsortedPoints = new long[total];
+        int[] unsortedOwners = new int[total];
+        int p = 0;
+        for (int i = 0; i < names.length; i++) {
+            for (int r = 0; r < counts[i]; r++) {
+                unsortedPoints[p] = mix(FPGenerator.std64.fp(names[i] + "." + r));
+                unsortedOwners[p] = i;
+                p++;
+            }
+        }
+        Integer[] order = new Integer[total];
+        for (int i = 0; i < total; i++) {
+            order[i] = i;
+        }
+        final long[] sortKeys = unsortedPoints;
+        Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                int c = Long.compare(sortKeys[a], sortKeys[b]);
+                // break (vanishingly rare) collisions by name, for stability
+                return c != 0 ? c 
+                    : names[unsortedOwners[a]].compareTo(names[unsortedOwners[b]]);
+            }
+        });
+        points = new long[total];
+        owners = new int[total];
+        for (int i = 0; i < total; i++) {
+            points[i] = unsortedPoints[order[i]];
+            owners[i] = unsortedOwners[order[i]];
+        }
+    }
+
+    /**
+     * @return index (into {@link #getNames()}) of node owning given hash
+     */
+    public int indexFor(long hash) {
+        int i = Arrays.binarySearch(points, mix(hash));
+        if (i < 0) {
+            // insertion point: first point greater than hash
+            i = -i - 1;
+        }
+        return owners[i == points.length ? 0 : i];
+    }
+
+    /**
+     * Scramble a hash (with the MurmurHash3 finalizer): fingerprints of 
+     * similar strings, such as successive ring point names, are otherwise
+     * correlated, which clusters points and skews shares.
+     */
+    protected static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * @return name of node owning given hash
+     */
+    public String nodeFor(long hash) {
+        return names[indexFor(hash)];
+    }
+
+    /**
+     * @return name of node owning the given key, hashed as by 
+     * {@link FPGenerator#std64}
+     */
+    public String nodeFor(CharSequence key) {
+        return nodeFor(FPGenerator.std64.fp(key));
+    }
+
+    public List<String> getNames() {
+        return Collections.unmodifiableList(Arrays.asList(names));
+    }
+
+    /**
+     * @return fraction of the hash space owned by each node
+     */
+    public Map<String,Double> getShares() {
+        double full = Math.pow(2, 64);
+        double[] owned = new double[names.length];
+        for (int i = 0; i < points.length; i++) {
+            // a point owns the span back to its predecessor, wrapping
+            // around the ring; differences are unsigned
+            long span = points[i] - points[i == 0 ? points.length - 1 : i - 1];
+            double size = points.length == 1 ? full 
+                : (span >= 0 ? span : span + full);
+            owned[owners[i]] += size / full;
+        }
+        Map<String,Double> shares = new LinkedHashMap<String,Double>();
+        for (int i = 0; i < names.length; i++) {
+            shares.put(names[i], owned[i]);
+        }
+        return shares;
+    }
+
+    /**
+     * Compare which of the given keys change owner between two 
+     * configurations.
+     * 
+     * @return list of three-element arrays: key, current node, new node
+     */
+    public static List<String[]> moves(Iterable<String> keys,
+            WeightedConsistentHash current, WeightedConsistentHash proposed) {
+        List<String[]> moves = new ArrayList<String[]>();
+        for (String key : keys) {
+            long hash = FPGenerator.std64.fp(key);
+            String from = current.nodeFor(hash);
+            String to = proposed.nodeFor(hash);
+            if (!from.equals(to)) {
+                moves.add(new String[] {key, from, to});
+            }
+        }
+        return moves;
+    }
+}
@@ -0,0 +1,42 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.io;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+public class Arc2WarcTest extends TestCase {
+
+    public void testWarcNamesDistinct() {
+        File a = new File("/one/x.arc.gz");
+        File b = new File("/two/x.arc.gz");
+        File c = new File("/three/x.arc.gz");
+        File d = new File("/one/y.arc");
+        Map<File,String> names = Arc2Warc.warcNames(Arrays.asList(a, b, d, c, a));
+        assertEquals(4, names.size());
+        assertEquals("x.warc.gz", names.get(a));
+        assertEquals("x-2.warc.gz", names.get(b));
+        assertEquals("x-3.warc.gz", names.get(c));
+        assertEquals("y.warc", names.get(d));
+    }
+}
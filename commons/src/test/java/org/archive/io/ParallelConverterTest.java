@@ -0,0 +1,124 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.io;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import junit.framework.TestCase;
+
+public class ParallelConverterTest extends TestCase {
+    protected File dir;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        dir = Files.createTempDirectory("ParallelConverterTest").toFile();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        org.apache.commons.io.FileUtils.deleteDirectory(dir);
+        super.tearDown();
+    }
+
+    protected File write(File parent, String name, String content) throws IOException {
+        parent.mkdirs();
+        File f = new File(parent, name);
+        FileWriter w = new FileWriter(f);
+        try {
+            w.write(content);
+        } finally {
+            w.close();
+        }
+        return f;
+    }
+
+    public void testExpandInputs() throws IOException {
+        File a = write(dir, "a.arc.gz", "a");
+        File b = write(new File(dir, "sub"), "b.arc", "bb");
+        write(dir, "c.txt", "ccc");
+        File list = write(dir, "list", "/elsewhere/x.arc\n\n# comment\n");
+
+        List<File> inputs = ParallelConverter.expandInputs(
+                Arrays.asList(dir.getPath(), "@" + list.getPath()), ".arc", ".arc.gz");
+        assertEquals(Arrays.asList(a, b, new File("/elsewhere/x.arc")), inputs);
+    }
+
+    public void testRunAndResume() throws Exception {
+        File in = new File(dir, "in");
+        for (int i = 0; i < 20; i++) {
+            write(in, "f" + i + ".arc", "content " + i);
+        }
+        File bad = write(in, "bad.arc", "bad");
+        File manifest = new File(dir, "manifest");
+        List<File> inputs = ParallelConverter.expandInputs(
+                Collections.singletonList(in.getPath()), ".arc");
+        assertEquals(21, inputs.size());
+
+        final Set<File> converted =
+            Collections.newSetFromMap(new ConcurrentHashMap<File, Boolean>());
+        ParallelConverter.Conversion conversion = new ParallelConverter.Conversion() {
+            public void convert(File input) throws Exception {
+                if (input.getName().equals("bad.arc")) {
+                    throw new IOException("unconvertible");
+                }
+                assertTrue(converted.add(input));
+            }
+        };
+
+        ParallelConverter converter = new ParallelConverter(4, manifest);
+        assertEquals(1, converter.run(inputs, conversion));
+        assertEquals(20, converter.getCompletedCount());
+        assertEquals(20, converted.size());
+        assertFalse(converted.contains(bad));
+
+        // rerun converts only what didn't complete
+        converted.clear();
+        write(in, "f20.arc", "content 20");
+        inputs = ParallelConverter.expandInputs(
+                Collections.singletonList(in.getPath()), ".arc");
+        converter = new ParallelConverter(4, manifest);
+        assertEquals(1, converter.run(inputs, conversion));
+        assertEquals(Collections.singleton(new File(in, "f20.arc")), converted);
+    }
+
+    public void testQuietLoggerNests() {
+        Logger l = Logger.getLogger(ParallelConverterTest.class.getName() + ".quieted");
+        l.setLevel(Level.FINE);
+        // overlapping conversions, finishing out of order
+        ParallelConverter.quietLogger(l);
+        ParallelConverter.quietLogger(l);
+        assertEquals(Level.WARNING, l.getLevel());
+        ParallelConverter.restoreLogger(l);
+        assertEquals(Level.WARNING, l.getLevel());
+        ParallelConverter.restoreLogger(l);
+        assertEquals(Level.FINE, l.getLevel());
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+public class Warc2ArcTest extends TestCase {
+    protected File dir;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        dir = Files.createTempDirectory("Warc2ArcTest").toFile();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        org.apache.commons.io.FileUtils.deleteDirectory(dir);
+        super.tearDown();
+    }
+
+    public void testWorkNamesDistinct() {
+        File a = new File("/one/x.warc.gz");
+        File b = new File("/two/x.warc.gz");
+        File c = new File("/one/y.warc");
+        Map<File,String> names = Warc2Arc.workNames(Arrays.asList(a, b, c, a));
+        assertEquals(3, names.size());
+        assertEquals("x.warc.gz", names.get(a));
+        assertEquals("x.warc.gz-2", names.get(b));
+        assertEquals("y.warc", names.get(c));
+    }
+
+    public void testResumeFinishesConvertedMove() throws Exception {
+        File warc = new File(dir, "x.warc.gz");
+        assertTrue(warc.createNewFile());
+        File out = new File(dir, "out");
+        // interrupted after the conversion completed, one ARC moved
+        File converted = new File(out, "x.warc.gz" + Warc2Arc.CONVERTED_SUFFIX);
+        assertTrue(converted.mkdirs());
+        assertTrue(new File(out, "A-1.arc.gz").createNewFile());
+        assertTrue(new File(converted, "A-2.arc.gz").createNewFile());
+
+        // the (empty) WARC is not read again
+        new Warc2Arc().transform(warc, out, "x.warc.gz", "A", null, false,
+                new AtomicInteger());
+        assertFalse(converted.exists());
+        assertTrue(new File(out, "A-1.arc.gz").exists());
+        assertTrue(new File(out, "A-2.arc.gz").exists());
+    }
+
+    public void testMoveIntoFailsOnMissingDirectory() {
+        try {
+            Warc2Arc.moveInto(new File(dir, "absent"), dir);
+            fail();
+        } catch (IOException e) {
+            // expected
+        }
+    }
+}
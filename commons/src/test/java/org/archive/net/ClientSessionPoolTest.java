@@ -0,0 +1,130 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.net;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class ClientSessionPoolTest extends TestCase {
+
+    protected static class FakeSession {
+        boolean alive = true;
+        boolean closed = false;
+    }
+
+    protected static class FakePool extends ClientSessionPool<FakeSession> {
+        long time = 1000;
+        List<FakeSession> closed = new ArrayList<FakeSession>();
+
+        @Override
+        protected boolean isAlive(FakeSession client) {
+            return client.alive;
+        }
+        @Override
+        protected void close(FakeSession client) {
+            client.closed = true;
+            closed.add(client);
+        }
+        @Override
+        protected long now() {
+            return time;
+        }
+    }
+
+    public void testReuse() {
+        FakePool pool = new FakePool();
+        assertNull(pool.checkout("a"));
+        FakeSession s = new FakeSession();
+        pool.checkin("a", s);
+        assertNull(pool.checkout("b"));
+        assertSame(s, pool.checkout("a"));
+        assertNull(pool.checkout("a"));
+        assertEquals(1, pool.getReusedCount());
+        assertEquals(0, pool.getIdleCount());
+    }
+
+    public void testMaxIdlePerKey() {
+        FakePool pool = new FakePool();
+        pool.setMaxIdlePerKey(2);
+        FakeSession s1 = new FakeSession();
+        FakeSession s2 = new FakeSession();
+        FakeSession s3 = new FakeSession();
+        pool.checkin("a", s1);
+        pool.checkin("a", s2);
+        pool.checkin("a", s3);
+        assertEquals(2, pool.getIdleCount());
+        assertTrue(s1.closed);
+        // most recently used first
+        assertSame(s3, pool.checkout("a"));
+        assertSame(s2, pool.checkout("a"));
+    }
+
+    public void testIdleTimeout() {
+        FakePool pool = new FakePool();
+        pool.setIdleTimeoutMs(100);
+        FakeSession s1 = new FakeSession();
+        pool.checkin("a", s1);
+        pool.time += 101;
+        assertNull(pool.checkout("a"));
+        assertTrue(s1.closed);
+        assertEquals(1, pool.getExpiredCount());
+
+        // expired sessions under other keys swept on checkin
+        FakeSession s2 = new FakeSession();
+        pool.checkin("b", s2);
+        pool.time += 101;
+        pool.checkin("c", new FakeSession());
+        assertTrue(s2.closed);
+        assertEquals(1, pool.getIdleCount());
+    }
+
+    public void testDeadSession() {
+        FakePool pool = new FakePool();
+        pool.setMaxIdlePerKey(2);
+        FakeSession live = new FakeSession();
+        FakeSession dead = new FakeSession();
+        pool.checkin("a", live);
+        pool.checkin("a", dead);
+        dead.alive = false;
+        assertSame(live, pool.checkout("a"));
+        assertTrue(dead.closed);
+        assertEquals(1, pool.getDeadCount());
+    }
+
+    public void testCloseAll() {
+        FakePool pool = new FakePool();
+        pool.checkin("a", new FakeSession());
+        pool.checkin("b", new FakeSession());
+        pool.closeAll();
+        assertEquals(2, pool.closed.size());
+        assertEquals(0, pool.getIdleCount());
+    }
+
+    public void testSessionKeyHidesPassword() {
+        String key = ClientSessionPool.sessionKey("example.com", 21, "anonymous", "s3cret");
+        assertFalse(key.contains("s3cret"));
+        assertTrue(key.startsWith("example.com:21 anonymous "));
+        assertEquals(key, ClientSessionPool.sessionKey("example.com", 21, "anonymous", "s3cret"));
+        assertFalse(key.equals(ClientSessionPool.sessionKey("example.com", 21, "anonymous", "other")));
+        assertFalse(key.equals(ClientSessionPool.sessionKey("example.com", 21, "someone", "s3cret")));
+    }
+}
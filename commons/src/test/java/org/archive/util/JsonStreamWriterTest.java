@@ -0,0 +1,56 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.util;
+
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+public class JsonStreamWriterTest extends TestCase {
+
+    public void testStructure() {
+        JsonStreamWriter w = new JsonStreamWriter(16);
+        w.beginObject()
+            .name("a").value(1)
+            .name("b").value("x")
+            .name("c").nullValue()
+            .name("d").beginArray().value(true).value(-42).value(2.5).endArray()
+            .name("e").beginObject().endObject()
+            .name("f").rawValue("{\"g\":[1,2]}")
+            .endObject();
+        assertEquals("{\"a\":1,\"b\":\"x\",\"c\":null,\"d\":[true,-42,2.5],\"e\":{},\"f\":{\"g\":[1,2]}}",
+                w.toString());
+
+        // reuse after reset
+        w.reset().beginArray().value(Long.MIN_VALUE).value(0).value((String) null).endArray();
+        assertEquals("[" + Long.MIN_VALUE + ",0,null]", w.toString());
+    }
+
+    public void testEscaping() throws Exception {
+        JsonStreamWriter w = new JsonStreamWriter();
+        String s = "q\"b\\n\nt\tc\u0001 \u00e9\u4e2d\ud83d\ude00\u2028";
+        w.beginArray().value(s).endArray();
+        assertEquals("[\"q\\\"b\\\\n\\nt\\tc\\u0001 \u00e9\u4e2d\ud83d\ude00\\u2028\"]",
+                w.toString());
+        byte[] expected = ("[\"q\\\"b\\\\n\\nt\\tc\\u0001 \u00e9\u4e2d\ud83d\ude00\\u2028\"]").getBytes("UTF-8");
+        assertTrue(Arrays.equals(expected, w.toByteArray()));
+        assertEquals(expected.length, w.size());
+    }
+}
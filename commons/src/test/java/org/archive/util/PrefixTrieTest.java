@@ -0,0 +1,123 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.util;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+import junit.framework.TestCase;
+
+public class PrefixTrieTest extends TestCase {
+    protected static final List<String> SURTS = Arrays.asList(
+            "http://(org,archive,",
+            "http://(org,archive,www,)/",
+            "http://(org,archive,www,)/details/",
+            "http://(org,example,www,)",
+            "http://(is,",
+            "http://(is,bok,");
+
+    public void testFindPrefixes() {
+        for (boolean offHeap : new boolean[] {false, true}) {
+            PrefixTrie trie = PrefixTrie.fromCollection(SURTS, offHeap);
+            assertEquals(SURTS.size(), trie.size());
+            assertEquals(
+                    Arrays.asList("http://(org,archive,", "http://(org,archive,www,)/",
+                            "http://(org,archive,www,)/details/"),
+                    trie.findPrefixes("http://(org,archive,www,)/details/foo"));
+            assertEquals(Arrays.asList("http://(org,archive,"),
+                    trie.findPrefixes("http://(org,archive,web,)/"));
+            assertTrue(trie.findPrefixes("http://(org,example,)/").isEmpty());
+            assertTrue(trie.containsPrefixOf("http://(is,bok,www,)/"));
+            assertFalse(trie.containsPrefixOf("http://(i"));
+            assertFalse(trie.containsPrefixOf(""));
+        }
+    }
+
+    public void testKeysRoundTrip() {
+        TreeSet<String> sorted = new TreeSet<String>(SURTS);
+        assertEquals(
+                Arrays.asList(sorted.toArray()),
+                Arrays.asList(PrefixTrie.fromCollection(SURTS, false).keys().toArray()));
+        assertTrue(PrefixTrie.EMPTY.keys().isEmpty());
+    }
+
+    public void testAgreesWithPrefixFinder() {
+        Random random = new Random(0);
+        TreeSet<String> keys = new TreeSet<String>();
+        for (int i = 0; i < 5000; i++) {
+            keys.add(randomString(random, 1 + random.nextInt(8)));
+        }
+        PrefixTrie trie = PrefixTrie.fromCollection(keys, false);
+        for (int i = 0; i < 5000; i++) {
+            String probe = randomString(random, random.nextInt(12));
+            assertEquals(probe, PrefixFinder.find(keys, probe), trie.findPrefixes(probe));
+        }
+    }
+
+    protected String randomString(Random random, int length) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            sb.append((char) ('a' + random.nextInt(3)));
+        }
+        return sb.toString();
+    }
+
+    public void testSurtPrefixTrieSet() {
+        SurtPrefixTrieSet set = new SurtPrefixTrieSet();
+        set.addAll(SURTS);
+        set.merge();
+        // coalesced: redundant longer prefixes dropped
+        assertEquals(3, set.size());
+        assertTrue(set.containsPrefixOf("http://(org,archive,www,)/details/foo"));
+
+        // incremental additions visible before merge
+        assertFalse(set.containsPrefixOf("http://(com,example,)/"));
+        assertTrue(set.add("http://(com,example,"));
+        assertTrue(set.containsPrefixOf("http://(com,example,)/"));
+        assertFalse(set.add("http://(com,example,www,)"));
+        set.merge();
+        assertTrue(set.containsPrefixOf("http://(com,example,)/"));
+        assertEquals(4, set.getPrefixes().size());
+
+        SurtPrefixTrieSet all = new SurtPrefixTrieSet(false);
+        all.addAll(SURTS);
+        all.add("http://(org,archive,www,)/details/x");
+        assertEquals(4, all.findPrefixes("http://(org,archive,www,)/details/xyz").size());
+    }
+
+    public void testSurtPrefixTrieSetRemove() {
+        SurtPrefixTrieSet set = new SurtPrefixTrieSet(false);
+        set.addAll(SURTS);
+        set.merge();
+        set.add("http://(com,example,");
+        // from pending
+        assertTrue(set.remove("http://(com,example,"));
+        assertFalse(set.containsPrefixOf("http://(com,example,)/"));
+        // from snapshot
+        assertTrue(set.remove("http://(org,archive,www,)/"));
+        assertEquals(Arrays.asList("http://(org,archive,", "http://(org,archive,www,)/details/"),
+                set.findPrefixes("http://(org,archive,www,)/details/foo"));
+        assertFalse(set.remove("http://(org,archive,www,)/"));
+        assertFalse(set.remove("http://(org,"));
+        assertEquals(SURTS.size() - 1, set.size());
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.util;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import st.ata.util.FPGenerator;
+
+public class WeightedConsistentHashTest extends TestCase {
+
+    protected static Map<String,Double> weights(Object... nameWeightPairs) {
+        Map<String,Double> weights = new LinkedHashMap<String,Double>();
+        for (int i = 0; i < nameWeightPairs.length; i += 2) {
+            weights.put((String) nameWeightPairs[i],
+                    ((Number) nameWeightPairs[i + 1]).doubleValue());
+        }
+        return weights;
+    }
+
+    protected static List<String> keys(int count) {
+        List<String> keys = new ArrayList<String>(count);
+        for (int i = 0; i < count; i++) {
+            keys.add("com,example" + i + ",");
+        }
+        return keys;
+    }
+
+    public void testWeightedDistribution() {
+        WeightedConsistentHash hash = new WeightedConsistentHash(
+                weights("a", 1, "b", 1, "c", 2));
+        Map<String,Integer> landings = new HashMap<String,Integer>();
+        for (String key : keys(100000)) {
+            String node = hash.nodeFor(key);
+            Integer n = landings.get(node);
+            landings.put(node, n == null ? 1 : n + 1);
+        }
+        assertEquals(3, landings.size());
+        assertTrue(landings.toString(), Math.abs(landings.get("a") - 25000) < 3000);
+        assertTrue(landings.toString(), Math.abs(landings.get("b") - 25000) < 3000);
+        assertTrue(landings.toString(), Math.abs(landings.get("c") - 50000) < 3000);
+
+        Map<String,Double> shares = hash.getShares();
+        double total = 0;
+        for (double share : shares.values()) {
+            total += share;
+        }
+        assertEquals(1.0, total, 0.0001);
+        assertEquals(0.5, shares.get("c"), 0.05);
+    }
+
+    public void testAddingNodeOnlyMovesKeysToIt() {
+        WeightedConsistentHash before = new WeightedConsistentHash(
+                weights("a", 1, "b", 1, "c", 1));
+        WeightedConsistentHash after = new WeightedConsistentHash(
+                weights("a", 1, "b", 1, "c", 1, "d", 1));
+        List<String[]> moves = WeightedConsistentHash.moves(keys(20000), before, after);
+        for (String[] move : moves) {
+            assertEquals("d", move[2]);
+        }
+        assertTrue("moved " + moves.size(), Math.abs(moves.size() - 5000) < 1000);
+    }
+
+    public void testReweightingMovesLittle() {
+        WeightedConsistentHash before = new WeightedConsistentHash(
+                weights("a", 1, "b", 1, "c", 1));
+        WeightedConsistentHash after = new WeightedConsistentHash(
+                weights("a", 1, "b", 1, "c", 1.5));
+        List<String[]> moves = WeightedConsistentHash.moves(keys(20000), before, after);
+        for (String[] move : moves) {
+            assertEquals("c", move[2]);
+        }
+        // c's share rises from 1/3 to 3/7
+        assertTrue("moved " + moves.size(), moves.size() < 20000 * 0.15);
+    }
+
+    public void testLookupEdges() {
+        WeightedConsistentHash hash = new WeightedConsistentHash(weights("only", 1));
+        assertEquals("only", hash.nodeFor(Long.MIN_VALUE));
+        assertEquals("only", hash.nodeFor(Long.MAX_VALUE));
+        hash = new WeightedConsistentHash(weights("a", 1, "b", 1));
+        // hashes past the last point wrap to the first
+        assertEquals(hash.nodeFor(Long.MIN_VALUE), hash.nodeFor(Long.MAX_VALUE));
+        assertEquals(hash.nodeFor(FPGenerator.std64.fp("x")), hash.nodeFor("x"));
+        try {
+            new WeightedConsistentHash(weights("a", 0));
+            fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+}
@@ -21,11 +21,26 @@ package org.archive.crawler.frontier;
 
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Level;
@@ -62,6 +77,16 @@ import com.rabbitmq.client.Envelope;
 import com.rabbitmq.client.ShutdownSignalException;
 
 /**
+ * Receives urls to crawl from an AMQP queue (as published by umbra).
+ * 
+ * <p>The AMQP consumer only queues deliveries; a separate ingest thread
+ * takes them in batches of up to {@link #getBatchSize()}, decodes them
+ * (with {@link #getDecodeThreads()} threads), drops duplicates within the
+ * batch, runs the rest through the candidate chain, schedules them with a
+ * single bulk frontier insertion, and acknowledges the batch with one
+ * multiple-ack. {@link #getPrefetchCount()} bounds the deliveries in
+ * flight, so the next window arrives while a batch is being scheduled.
+ * 
  * @author nlevitt
  */
 public class AMQPUrlReceiver
@@ -151,12 +176,53 @@ public class AMQPUrlReceiver
         this.forceFetch = forceFetch;
     }
 
+    private Integer prefetchCount = 1000;
+    public Integer getPrefetchCount() {
+        return prefetchCount;
+    }
     /**
      * The maximum prefetch count to use, meaning the maximum number of messages
      * to be consumed without being acknowledged. Using 'null' would specify
-     * there should be no upper limit (the default).
+     * there should be no upper limit. Should be comfortably larger than
+     * {@link #getBatchSize()}. Default 1000.
      */
-    private Integer prefetchCount = 1000;
+    public void setPrefetchCount(Integer prefetchCount) {
+        this.prefetchCount = prefetchCount;
+    }
+
+    protected int batchSize = 500;
+    public int getBatchSize() {
+        return batchSize;
+    }
+    /**
+     * Maximum number of received urls scheduled (and acknowledged) together.
+     */
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    protected long lingerMs = 100;
+    public long getLingerMs() {
+        return lingerMs;
+    }
+    /**
+     * Maximum time to wait for more messages to fill a partial batch.
+     */
+    public void setLingerMs(long lingerMs) {
+        this.lingerMs = lingerMs;
+    }
+
+    protected int decodeThreads = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2));
+    public int getDecodeThreads() {
+        return decodeThreads;
+    }
+    /**
+     * Number of threads decoding messages (parsing json, building
+     * CrawlURIs) of each batch in parallel. Takes effect at start.
+     */
+    public void setDecodeThreads(int decodeThreads) {
+        this.decodeThreads = decodeThreads;
+    }
 
     private transient Lock lock = new ReentrantLock(true);
 
@@ -230,6 +296,7 @@ public class AMQPUrlReceiver
         try {
             // spawn off a thread to start up the amqp consumer, and try to restart it if it dies 
             if (!isRunning) {
+                startIngest();
                 starterRestarter = new StarterRestarter(AMQPUrlReceiver.class.getSimpleName() + "-starter-restarter");
                 try {
                     // try to synchronously start the consumer right now, so
@@ -260,6 +327,8 @@ public class AMQPUrlReceiver
             }
             starterRestarter = null;
 
+            stopIngest();
+
             if (connection != null && connection.isOpen()) {
                 try {
                     connection.close();
@@ -323,54 +392,379 @@ public class AMQPUrlReceiver
     protected static final Set<String> REQUEST_HEADER_BLACKLIST = new HashSet<String>(Arrays.asList(
             "accept-encoding", "upgrade-insecure-requests", "host", "connection"));
 
-    // XXX should we be using QueueingConsumer because of possible blocking in
-    // frontier.schedule()?
-    // "Note: all methods of this interface are invoked inside the Connection's
-    // thread. This means they a) should be non-blocking and generally do little
-    // work, b) must not call Channel or Connection methods, or a deadlock will
-    // ensue. One way of ensuring this is to use/subclass QueueingConsumer."
-    protected class UrlConsumer extends DefaultConsumer {
-        public UrlConsumer(Channel channel) {
-            super(channel);
+    /**
+     * A message received from the broker, awaiting the ingest thread.
+     */
+    protected static class Delivery {
+        protected final Channel channel;
+        protected final long deliveryTag;
+        protected final byte[] body;
+
+        public Delivery(Channel channel, long deliveryTag, byte[] body) {
+            this.channel = channel;
+            this.deliveryTag = deliveryTag;
+            this.body = body;
         }
+    }
 
-        @Override
-        public void handleDelivery(String consumerTag, Envelope envelope,
-                BasicProperties properties, byte[] body) throws IOException {
-            String decodedBody;
+    transient protected BlockingQueue<Delivery> deliveries =
+            new LinkedBlockingQueue<Delivery>();
+    transient protected Thread ingestThread;
+    transient protected volatile boolean ingesting = false;
+    transient protected ExecutorService decodeExecutor;
+
+    protected final AtomicLong receivedCount = new AtomicLong();
+    protected final AtomicLong scheduledCount = new AtomicLong();
+    protected final AtomicLong duplicateCount = new AtomicLong();
+    protected final AtomicLong undecodableCount = new AtomicLong();
+    protected final AtomicLong batchCount = new AtomicLong();
+    protected final AtomicLong ingestNanos = new AtomicLong();
+
+    protected void startIngest() {
+        if (ingesting) {
+            return;
+        }
+        ingesting = true;
+        ingestThread = new Thread(AMQPUrlReceiver.class.getSimpleName() + "-ingest") {
+            @Override
+            public void run() {
+                ingestLoop();
+            }
+        };
+        ingestThread.setDaemon(true);
+        ingestThread.start();
+    }
+
+    /**
+     * Stop the ingest thread after its current batch. Deliveries not yet
+     * processed are discarded; being unacknowledged, they are redelivered
+     * by the broker once the channel closes.
+     */
+    protected void stopIngest() {
+        ingesting = false;
+        if (ingestThread != null) {
             try {
-                decodedBody = new String(body, "UTF-8");
-            } catch (UnsupportedEncodingException e) {
-                throw new RuntimeException(e); // can't happen
+                ingestThread.join(60 * 1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
             }
-            JSONObject jo = new JSONObject(decodedBody);
+            ingestThread = null;
+        }
+        deliveries.clear();
+        synchronized (this) {
+            if (decodeExecutor != null) {
+                decodeExecutor.shutdown();
+                decodeExecutor = null;
+            }
+        }
+    }
 
-            if ("GET".equals(jo.getString("method"))) {
-                try {
-                    CrawlURI curi = makeCrawlUri(jo);
-                    KeyedProperties.clearAllOverrideContexts();
-                    candidates.runCandidateChain(curi, null);
+    protected void ingestLoop() {
+        List<Delivery> batch = new ArrayList<Delivery>(Math.max(1, batchSize));
+        while (ingesting) {
+            try {
+                Delivery first = deliveries.poll(1, TimeUnit.SECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                long deadline = System.currentTimeMillis() + lingerMs;
+                while (batch.size() < batchSize) {
+                    deliveries.drainTo(batch, batchSize - batch.size());
+                    long wait = deadline - System.currentTimeMillis();
+                    if (batch.size() >= batchSize || wait <= 0) {
+                        break;
+                    }
+                    Delivery next = deliveries.poll(wait, TimeUnit.MILLISECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                processBatch(batch);
+            } catch (InterruptedException e) {
+                // only stopIngest() ends the loop
+            } catch (RuntimeException e) {
+                logger.log(Level.SEVERE, "problem ingesting batch of " + batch.size()
+                        + " urls received via AMQP; continuing", e);
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * Decode a batch of deliveries (in parallel, if so configured), drop
+     * duplicates within the batch, run the rest through the candidate
+     * chain and schedule them together, then acknowledge the whole batch.
+     */
+    protected void processBatch(List<Delivery> batch) throws InterruptedException {
+        long start = System.nanoTime();
+        List<CrawlURI> curis = dedup(decodeAll(batch));
+        if (!curis.isEmpty()) {
+            KeyedProperties.clearAllOverrideContexts();
+            scheduledCount.addAndGet(candidates.runCandidateChains(curis, null));
+            if (appCtx != null) {
+                for (CrawlURI curi : curis) {
                     appCtx.publishEvent(new AMQPUrlReceivedEvent(AMQPUrlReceiver.this, curi));
-                } catch (URIException e) {
-                    logger.log(Level.WARNING,
-                            "problem creating CrawlURI from json received via AMQP "
-                                    + decodedBody, e);
-                } catch (JSONException e) {
-                    logger.log(Level.SEVERE,
-                            "problem creating CrawlURI from json received via AMQP "
-                                    + decodedBody, e);
-                } catch (Exception e) {
-                    logger.log(Level.SEVERE,
-                            "Unanticipated problem creating CrawlURI from json received via AMQP "
-                                    + decodedBody, e);
                 }
+            }
+        }
+        ackAll(batch);
+        long elapsed = System.nanoTime() - start;
+        ingestNanos.addAndGet(elapsed);
+        batchCount.incrementAndGet();
+        if (logger.isLoggable(Level.FINE)) {
+            logger.fine("ingested batch of " + batch.size() + " messages ("
+                    + curis.size() + " unique urls) in " + elapsed / 1000000 + "ms");
+        }
+    }
+
+    /**
+     * @return CrawlURIs decoded from the deliveries, in order; deliveries
+     *         which could not be decoded, or are not GET requests, are
+     *         skipped
+     */
+    protected List<CrawlURI> decodeAll(final List<Delivery> batch) throws InterruptedException {
+        final CrawlURI[] decoded = new CrawlURI[batch.size()];
+        ExecutorService executor = decodeExecutor();
+        int slices = Math.min(decodeThreads, (batch.size() + MIN_DECODE_SLICE - 1) / MIN_DECODE_SLICE);
+        if (executor == null || slices <= 1) {
+            for (int i = 0; i < decoded.length; i++) {
+                decoded[i] = decode(batch.get(i));
+            }
+        } else {
+            List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(slices);
+            for (int slice = 0; slice < slices; slice++) {
+                final int lo = (int) ((long) decoded.length * slice / slices);
+                final int hi = (int) ((long) decoded.length * (slice + 1) / slices);
+                tasks.add(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        for (int i = lo; i < hi; i++) {
+                            decoded[i] = decode(batch.get(i));
+                        }
+                        return null;
+                    }
+                });
+            }
+            for (Future<Void> future : executor.invokeAll(tasks)) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    throw new RuntimeException(e.getCause());
+                }
+            }
+        }
+        List<CrawlURI> curis = new ArrayList<CrawlURI>(decoded.length);
+        for (CrawlURI curi : decoded) {
+            if (curi != null) {
+                curis.add(curi);
+            }
+        }
+        return curis;
+    }
+
+    /** fewest messages worth handing to a decode thread */
+    protected static final int MIN_DECODE_SLICE = 32;
+
+    protected synchronized ExecutorService decodeExecutor() {
+        if (decodeExecutor == null && decodeThreads > 1) {
+            decodeExecutor = Executors.newFixedThreadPool(decodeThreads, new ThreadFactory() {
+                protected int count = 0;
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, AMQPUrlReceiver.class.getSimpleName()
+                            + "-decode-" + (count++));
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        return decodeExecutor;
+    }
+
+    /**
+     * @return CrawlURI for the delivery, or null if it could not be decoded
+     *         or is not a GET request
+     */
+    protected CrawlURI decode(Delivery delivery) {
+        String decodedBody;
+        try {
+            decodedBody = new String(delivery.body, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e); // can't happen
+        }
+        try {
+            JSONObject jo = new JSONObject(decodedBody);
+            if ("GET".equals(jo.getString("method"))) {
+                return makeCrawlUri(jo);
             } else {
                 logger.info("ignoring url with method other than GET - "
                         + decodedBody);
+                return null;
             }
+        } catch (URIException e) {
+            logger.log(Level.WARNING,
+                    "problem creating CrawlURI from json received via AMQP "
+                            + decodedBody, e);
+        } catch (JSONException e) {
+            logger.log(Level.SEVERE,
+                    "problem creating CrawlURI from json received via AMQP "
+                            + decodedBody, e);
+        } catch (Exception e) {
+            logger.log(Level.SEVERE,
+                    "Unanticipated problem creating CrawlURI from json received via AMQP "
+                            + decodedBody, e);
+        }
+        undecodableCount.incrementAndGet();
+        return null;
+    }
 
-            logger.finest("Now ACKing: " + decodedBody);
-            this.getChannel().basicAck(envelope.getDeliveryTag(), false);
+    /**
+     * @return the given CrawlURIs, less any whose url appeared earlier in
+     *         the list (a duplicate with forceFetch set passes that on to
+     *         the CrawlURI kept)
+     */
+    protected List<CrawlURI> dedup(List<CrawlURI> curis) {
+        Map<String, CrawlURI> unique = new LinkedHashMap<String, CrawlURI>(curis.size() * 2);
+        for (CrawlURI curi : curis) {
+            CrawlURI first = unique.get(curi.getURI());
+            if (first == null) {
+                unique.put(curi.getURI(), curi);
+            } else {
+                duplicateCount.incrementAndGet();
+                if (curi.forceFetch()) {
+                    first.setForceFetch(true);
+                }
+            }
+        }
+        if (unique.size() == curis.size()) {
+            return curis;
+        }
+        return new ArrayList<CrawlURI>(unique.values());
+    }
+
+    /**
+     * Acknowledge all deliveries of the batch, with one multiple-ack per
+     * channel. Deliveries are processed in order by the single ingest
+     * thread, so every earlier delivery on the channel has been handled.
+     */
+    protected void ackAll(List<Delivery> batch) {
+        Map<Channel, Long> lastTags = new IdentityHashMap<Channel, Long>();
+        for (Delivery delivery : batch) {
+            Long last = lastTags.get(delivery.channel);
+            if (last == null || delivery.deliveryTag > last) {
+                lastTags.put(delivery.channel, delivery.deliveryTag);
+            }
+        }
+        for (Entry<Channel, Long> entry : lastTags.entrySet()) {
+            Channel channel = entry.getKey();
+            if (!channel.isOpen()) {
+                // broker redelivers unacknowledged messages; nothing to do
+                continue;
+            }
+            try {
+                channel.basicAck(entry.getValue(), true);
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "problem acknowledging AMQP deliveries up to "
+                        + entry.getValue(), e);
+            }
+        }
+    }
+
+    // {
+    //  "headers": {
+    //   "Referer": "https://archive.org/",
+    //   "User-Agent": "Mozilla/5.0 (X11; Linux x86_64) AppleWebKit/537.36 (KHTML, like Gecko) Ubuntu Chromium/32.0.1700.102 Chrome/32.0.1700.102 Safari/537.36",
+    //   "Accept": "image/webp,*/*;q=0.8"
+    //  },
+    //  "url": "https://analytics.archive.org/0.gif?server_ms=256&server_name=www19.us.archive.org&service=ao&loadtime=358&timediff=-8&locale=en-US&referrer=-&version=2&count=9",
+    //  "method": "GET"
+    // }
+    protected CrawlURI makeCrawlUri(JSONObject jo) throws URIException,
+            JSONException {
+        JSONObject joHeaders = jo.getJSONObject("headers");
+
+        UURI uuri = UURIFactory.getInstance(jo.getString("url"));
+        UURI via = UURIFactory.getInstance(jo.getString("parentUrl"));
+
+        JSONObject parentUrlMetadata = jo.getJSONObject("parentUrlMetadata");
+        String parentHopPath = parentUrlMetadata.getString("pathFromSeed");
+        String hop = jo.optString("hop", Hop.INFERRED.getHopString());
+        String hopPath = parentHopPath + hop;
+
+        CrawlURI curi = new CrawlURI(uuri, hopPath, via, LinkContext.INFERRED_MISC);
+
+        populateHeritableMetadata(curi, parentUrlMetadata);
+
+        // set the http headers from the amqp message
+        Map<String, String> customHttpRequestHeaders = new HashMap<String, String>();
+        for (Object key: joHeaders.keySet()) {
+            String k = key.toString();
+            if (!k.startsWith(":") && !REQUEST_HEADER_BLACKLIST.contains(k)) {
+                customHttpRequestHeaders.put(k, joHeaders.getString(key.toString()));
+            }
+        }
+        curi.getData().put("customHttpRequestHeaders", customHttpRequestHeaders);
+
+        /*
+         * Crawl job must be configured to use
+         * HighestUriQueuePrecedencePolicy to ensure these high priority
+         * urls really get crawled ahead of others. See
+         * https://webarchive.jira.com/wiki/display/Heritrix/Precedence+
+         * Feature+Notes
+         */
+        if (Hop.INFERRED.getHopString().equals(curi.getLastHop())) {
+            curi.setSchedulingDirective(SchedulingConstants.HIGH);
+            curi.setPrecedence(1);
+        }
+
+        curi.setForceFetch(forceFetch || jo.optBoolean("forceFetch"));
+        curi.setSeed(jo.optBoolean("isSeed"));
+
+        curi.getAnnotations().add(A_RECEIVED_FROM_AMQP);
+
+        return curi;
+    }
+
+    // set the heritable data from the parent url, passed back to us via amqp
+    // XXX brittle, only goes one level deep, and only handles strings and arrays, the latter of which it converts to a Set.
+    // 'heritableData': {'source': 'https://facebook.com/whitehouse/', 'heritable': ['source', 'heritable']}
+    @SuppressWarnings("unchecked")
+    protected void populateHeritableMetadata(CrawlURI curi, JSONObject parentUrlMetadata) {
+        JSONObject heritableData = parentUrlMetadata.getJSONObject("heritableData");
+        for (String key: (Set<String>) heritableData.keySet()) {
+            Object value = heritableData.get(key);
+            if (value instanceof JSONArray) {
+                Set<String> valueSet = new HashSet<String>();
+                JSONArray arr = ((JSONArray) value);
+                for (int i = 0; i < arr.length(); i++) {
+                    valueSet.add(arr.getString(i));
+                }
+                curi.getData().put(key, valueSet);
+            } else {
+                curi.getData().put(key, heritableData.get(key));
+            }
+        }
+    }
+
+    /**
+     * Consumer which only queues messages for the ingest thread, since its
+     * methods are invoked inside the Connection's thread. "This means they
+     * a) should be non-blocking and generally do little work, b) must not
+     * call Channel or Connection methods, or a deadlock will ensue."
+     */
+    protected class UrlConsumer extends DefaultConsumer {
+        public UrlConsumer(Channel channel) {
+            super(channel);
+        }
+
+        @Override
+        public void handleDelivery(String consumerTag, Envelope envelope,
+                BasicProperties properties, byte[] body) throws IOException {
+            receivedCount.incrementAndGet();
+            deliveries.add(new Delivery(getChannel(), envelope.getDeliveryTag(), body));
         }
 
         @Override
@@ -383,82 +777,45 @@ public class AMQPUrlReceiver
             }
             AMQPUrlReceiver.this.consumerTag = null;
         }
+    }
 
-        // {
-        //  "headers": {
-        //   "Referer": "https://archive.org/",
-        //   "User-Agent": "Mozilla/5.0 (X11; Linux x86_64) AppleWebKit/537.36 (KHTML, like Gecko) Ubuntu Chromium/32.0.1700.102 Chrome/32.0.1700.102 Safari/537.36",
-        //   "Accept": "image/webp,*/*;q=0.8"
-        //  },
-        //  "url": "https://analytics.archive.org/0.gif?server_ms=256&server_name=www19.us.archive.org&service=ao&loadtime=358&timediff=-8&locale=en-US&referrer=-&version=2&count=9",
-        //  "method": "GET"
-        // }
-        protected CrawlURI makeCrawlUri(JSONObject jo) throws URIException,
-                JSONException {
-            JSONObject joHeaders = jo.getJSONObject("headers");
-
-            UURI uuri = UURIFactory.getInstance(jo.getString("url"));
-            UURI via = UURIFactory.getInstance(jo.getString("parentUrl"));
-
-            JSONObject parentUrlMetadata = jo.getJSONObject("parentUrlMetadata");
-            String parentHopPath = parentUrlMetadata.getString("pathFromSeed");
-            String hop = jo.optString("hop", Hop.INFERRED.getHopString());
-            String hopPath = parentHopPath + hop;
-
-            CrawlURI curi = new CrawlURI(uuri, hopPath, via, LinkContext.INFERRED_MISC);
-
-            populateHeritableMetadata(curi, parentUrlMetadata);
-
-            // set the http headers from the amqp message
-            Map<String, String> customHttpRequestHeaders = new HashMap<String, String>();
-            for (Object key: joHeaders.keySet()) {
-                String k = key.toString();
-                if (!k.startsWith(":") && !REQUEST_HEADER_BLACKLIST.contains(k)) {
-                    customHttpRequestHeaders.put(k, joHeaders.getString(key.toString()));
-                }
-            }
-            curi.getData().put("customHttpRequestHeaders", customHttpRequestHeaders);
-
-            /*
-             * Crawl job must be configured to use
-             * HighestUriQueuePrecedencePolicy to ensure these high priority
-             * urls really get crawled ahead of others. See
-             * https://webarchive.jira.com/wiki/display/Heritrix/Precedence+
-             * Feature+Notes
-             */
-            if (Hop.INFERRED.getHopString().equals(curi.getLastHop())) {
-                curi.setSchedulingDirective(SchedulingConstants.HIGH);
-                curi.setPrecedence(1);
-            }
+    /**
+     * @return messages received from the broker
+     */
+    public long getReceivedCount() {
+        return receivedCount.get();
+    }
 
-            curi.setForceFetch(forceFetch || jo.optBoolean("forceFetch"));
-            curi.setSeed(jo.optBoolean("isSeed"));
+    /**
+     * @return received urls accepted by the candidate chain and scheduled
+     */
+    public long getScheduledCount() {
+        return scheduledCount.get();
+    }
 
-            curi.getAnnotations().add(A_RECEIVED_FROM_AMQP);
+    /**
+     * @return received urls dropped as duplicates of others in their batch
+     */
+    public long getDuplicateCount() {
+        return duplicateCount.get();
+    }
 
-            return curi;
-        }
+    /**
+     * @return messages which could not be made into CrawlURIs
+     */
+    public long getUndecodableCount() {
+        return undecodableCount.get();
+    }
 
-        // set the heritable data from the parent url, passed back to us via amqp
-        // XXX brittle, only goes one level deep, and only handles strings and arrays, the latter of which it converts to a Set.
-        // 'heritableData': {'source': 'https://facebook.com/whitehouse/', 'heritable': ['source', 'heritable']}
-        @SuppressWarnings("unchecked")
-        protected void populateHeritableMetadata(CrawlURI curi, JSONObject parentUrlMetadata) {
-            JSONObject heritableData = parentUrlMetadata.getJSONObject("heritableData");
-            for (String key: (Set<String>) heritableData.keySet()) {
-                Object value = heritableData.get(key);
-                if (value instanceof JSONArray) {
-                    Set<String> valueSet = new HashSet<String>();
-                    JSONArray arr = ((JSONArray) value);
-                    for (int i = 0; i < arr.length(); i++) {
-                        valueSet.add(arr.getString(i));
-                    }
-                    curi.getData().put(key, valueSet);
-                } else {
-                    curi.getData().put(key, heritableData.get(key));
-                }
-            }
-        }
+    public long getBatchCount() {
+        return batchCount.get();
+    }
+
+    /**
+     * @return total time spent ingesting batches, in milliseconds
+     */
+    public long getIngestMillis() {
+        return ingestNanos.get() / 1000000;
     }
 
     @Override
@@ -19,6 +19,7 @@
 package org.archive.modules;
 
 import java.io.IOException;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -109,4 +110,23 @@ public class AMQPProducer {
         channel.exchangeDeclare(exchange, "direct", true);
         channel.basicPublish(exchange, routingKey, props, message);
     }
+
+    /**
+     * Publish several messages with the supplied properties, on one channel,
+     * declaring the exchange once rather than once per message. If this
+     * method returns without throwing an exception, all messages were
+     * published successfully. If it throws, messages ahead of the failure
+     * may have been published already.
+     *
+     * @throws IOException
+     *             if any message is not published successfully
+     */
+    public void publishMessages(List<byte[]> messages, BasicProperties props)
+            throws IOException {
+        Channel channel = channel();
+        channel.exchangeDeclare(exchange, "direct", true);
+        for (byte[] message : messages) {
+            channel.basicPublish(exchange, routingKey, props, message);
+        }
+    }
 }
@@ -21,6 +21,7 @@ package org.archive.modules;
 
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
+import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -57,6 +58,22 @@ public abstract class AMQPProducerProcessor extends Processor {
         kp.put("routingKey", routingKey);
     }
 
+    protected AsyncFeed feed = null;
+    public AsyncFeed getFeed() {
+        return feed;
+    }
+    /**
+     * If set, messages are handed to this feed and published in batches by
+     * its sender thread, rather than one at a time on the processing thread.
+     * In that case {@link #success(CrawlURI, byte[], BasicProperties)} means
+     * the message was accepted by the feed, and
+     * {@link #fail(CrawlURI, byte[], BasicProperties, Throwable)} that it was
+     * not (for example, dropped because the feed queue was full).
+     */
+    public void setFeed(AsyncFeed feed) {
+        this.feed = feed;
+    }
+
     transient protected AMQPProducer amqpProducer;
 
     protected AMQPProducer amqpProducer() {
@@ -66,6 +83,31 @@ public abstract class AMQPProducerProcessor extends Processor {
         return amqpProducer;
     }
 
+    @Override
+    public void start() {
+        if (isRunning) {
+            return;
+        }
+        super.start();
+        if (feed != null) {
+            feed.setName(getBeanName());
+            feed.setTransport(new AsyncFeed.Transport() {
+                @Override
+                public void send(List<byte[]> messages, String contentEncoding)
+                        throws IOException {
+                    BasicProperties props = amqpMessageProperties();
+                    if (contentEncoding != null) {
+                        BasicProperties.Builder builder = props != null
+                                ? props.builder() : new BasicProperties.Builder();
+                        props = builder.contentEncoding(contentEncoding).build();
+                    }
+                    amqpProducer().publishMessages(messages, props);
+                }
+            });
+            feed.start();
+        }
+    }
+
     @Override
     synchronized public void stop() {
         if (!isRunning) {
@@ -74,6 +116,10 @@ public abstract class AMQPProducerProcessor extends Processor {
 
         super.stop();
 
+        if (feed != null) {
+            // publishes everything still queued
+            feed.stop();
+        }
         if (amqpProducer != null) {
             amqpProducer.stop();
         }
@@ -87,6 +133,15 @@ public abstract class AMQPProducerProcessor extends Processor {
 
         message = buildMessage(curi);
         props = amqpMessageProperties();
+        if (feed != null) {
+            if (feed.offer(message)) {
+                success(curi, message, props);
+            } else {
+                fail(curi, message, props,
+                        new IOException("message not accepted by feed " + feed.getName()));
+            }
+            return ProcessResult.PROCEED;
+        }
         try {
             amqpProducer().publishMessage(message, props);
             success(curi, message, props);
@@ -101,6 +156,16 @@ public abstract class AMQPProducerProcessor extends Processor {
         return null;
     }
 
+    @Override
+    public String report() {
+        StringBuffer ret = new StringBuffer();
+        ret.append(super.report());
+        if (feed != null) {
+            ret.append("  feed: " + feed.shortReport() + "\n");
+        }
+        return ret.toString();
+    }
+
     @Override
     protected void innerProcess(CrawlURI uri) throws InterruptedException {
         throw new RuntimeException("should never be called");
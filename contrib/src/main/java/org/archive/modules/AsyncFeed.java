@@ -0,0 +1,622 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.modules;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Asynchronous, bounded message feed to a remote broker (kafka, AMQP), so
+ * that a slow broker costs crawl-log messages rather than ToeThreads.
+ * 
+ * <p>Adding threads place encoded messages on a bounded queue and return
+ * immediately. A single sender thread takes messages off the queue in
+ * batches of up to {@link #getBatchSize()}, waiting up to
+ * {@link #getLingerMs()} for a batch to fill, optionally compresses each
+ * message, and hands the batch to the {@link Transport}. When the queue is
+ * full, the {@link OverflowPolicy} decides what happens: adding threads
+ * block, messages are spilled to a file on disk (and sent once the queue
+ * has drained), or messages are dropped. All outcomes are counted.
+ * 
+ * <p>Messages offered while the feed is not started are sent immediately,
+ * on the offering thread.
+ * 
+ * <p>Delivery is at-least-once: a batch the transport fails partway
+ * through is retried whole, so messages it sent before failing are sent
+ * again. Consumers should tolerate duplicates.
+ */
+public class AsyncFeed {
+    private static final Logger logger =
+            Logger.getLogger(AsyncFeed.class.getName());
+
+    /**
+     * Destination for batches of messages. Called only from the sender
+     * thread, except for messages offered while the feed is not running.
+     */
+    public interface Transport {
+        /**
+         * Send a batch of messages. The list must not be retained. If this
+         * throws, the whole batch is sent again on retry, even messages
+         * already delivered.
+         * 
+         * @param contentEncoding encoding of every message (e.g. "gzip"),
+         *        or null if messages are uncompressed
+         * @throws Exception if the batch was not sent
+         */
+        void send(List<byte[]> messages, String contentEncoding) throws Exception;
+    }
+
+    /**
+     * What to do with a message offered when the queue is full.
+     */
+    public enum OverflowPolicy {
+        /** wait for room on the queue */
+        BLOCK,
+        /** append to a spill file, sent once the queue has drained */
+        SPILL,
+        /** discard the message, counting it */
+        DROP
+    }
+
+    protected String name = "feed";
+    public String getName() {
+        return name;
+    }
+    /**
+     * Name used for the sender thread, spill files and log messages;
+     * usually set by the owning processor.
+     */
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    protected Transport transport;
+    public Transport getTransport() {
+        return transport;
+    }
+    /** Set by the owning processor. */
+    public void setTransport(Transport transport) {
+        this.transport = transport;
+    }
+
+    /**
+     * Maximum number of messages awaiting the sender thread. Takes effect
+     * at start.
+     */
+    protected int capacity = 10000;
+    public int getCapacity() {
+        return capacity;
+    }
+    public void setCapacity(int capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * Maximum number of messages handed to the transport at once.
+     */
+    protected int batchSize = 500;
+    public int getBatchSize() {
+        return batchSize;
+    }
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Maximum time the sender waits for a partial batch to fill before
+     * sending it anyway.
+     */
+    protected long lingerMs = 50;
+    public long getLingerMs() {
+        return lingerMs;
+    }
+    public void setLingerMs(long lingerMs) {
+        this.lingerMs = lingerMs;
+    }
+
+    protected OverflowPolicy overflowPolicy = OverflowPolicy.BLOCK;
+    public OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+    /**
+     * What to do with messages when the queue is full; default BLOCK.
+     */
+    public void setOverflowPolicy(OverflowPolicy overflowPolicy) {
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    protected MessageCompressor compressor = null;
+    public MessageCompressor getCompressor() {
+        return compressor;
+    }
+    /**
+     * Compressor applied to each message by the sender thread; null (the
+     * default) for none.
+     */
+    public void setCompressor(MessageCompressor compressor) {
+        this.compressor = compressor;
+    }
+
+    protected File spillDirectory = null;
+    public File getSpillDirectory() {
+        return spillDirectory;
+    }
+    /**
+     * Directory for spill files, under policy SPILL; the system temporary
+     * directory if unset.
+     */
+    public void setSpillDirectory(File spillDirectory) {
+        this.spillDirectory = spillDirectory;
+    }
+
+    /**
+     * Attempts to send a batch before giving up on (and counting as
+     * failed) its messages.
+     */
+    protected int maxTries = 3;
+    public int getMaxTries() {
+        return maxTries;
+    }
+    public void setMaxTries(int maxTries) {
+        this.maxTries = maxTries;
+    }
+
+    /**
+     * Pause between attempts to send a batch.
+     */
+    protected long retryIntervalMs = 1000;
+    public long getRetryIntervalMs() {
+        return retryIntervalMs;
+    }
+    public void setRetryIntervalMs(long retryIntervalMs) {
+        this.retryIntervalMs = retryIntervalMs;
+    }
+
+    /**
+     * Maximum time {@link #stop()} waits for queued and spilled messages
+     * to be sent.
+     */
+    protected long closeTimeoutMs = 60 * 1000;
+    public long getCloseTimeoutMs() {
+        return closeTimeoutMs;
+    }
+    public void setCloseTimeoutMs(long closeTimeoutMs) {
+        this.closeTimeoutMs = closeTimeoutMs;
+    }
+
+    protected BlockingQueue<byte[]> queue;
+    protected Thread sender;
+    protected volatile boolean running = false;
+
+    protected final Object spillLock = new Object();
+    protected File spillFile;
+    protected DataOutputStream spillOut;
+    protected long spillPending = 0;
+
+    protected final AtomicLong acceptedCount = new AtomicLong();
+    protected final AtomicLong sentCount = new AtomicLong();
+    protected final AtomicLong droppedCount = new AtomicLong();
+    protected final AtomicLong spilledCount = new AtomicLong();
+    protected final AtomicLong failedCount = new AtomicLong();
+    protected final AtomicLong batchCount = new AtomicLong();
+    protected final AtomicLong blockedMs = new AtomicLong();
+
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        if (transport == null) {
+            throw new IllegalStateException(name + " has no transport");
+        }
+        queue = new ArrayBlockingQueue<byte[]>(Math.max(1, capacity));
+        running = true;
+        sender = new Thread(name + "-sender") {
+            @Override
+            public void run() {
+                sendLoop();
+            }
+        };
+        sender.setDaemon(true);
+        sender.start();
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Send everything queued and spilled, waiting up to
+     * {@link #getCloseTimeoutMs()}, then stop the sender thread.
+     */
+    public void stop() {
+        Thread stopping;
+        synchronized (this) {
+            if (!running) {
+                return;
+            }
+            running = false;
+            stopping = sender;
+            sender = null;
+        }
+        try {
+            stopping.join(closeTimeoutMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (stopping.isAlive()) {
+            logger.warning(name + " sender still busy after " + closeTimeoutMs
+                    + "ms; abandoning " + queue.size() + " queued and "
+                    + getSpillPendingCount() + " spilled messages");
+            stopping.interrupt();
+            failedCount.addAndGet(queue.size());
+            queue.clear();
+        } else {
+            // anything offered while stopping
+            List<byte[]> batch = new ArrayList<byte[]>();
+            while (queue.drainTo(batch, Math.max(1, batchSize)) > 0) {
+                sendBatch(batch);
+                batch.clear();
+            }
+            unspill();
+        }
+        closeSpill();
+    }
+
+    /**
+     * Offer a message for sending. Under policy BLOCK, may block until the
+     * sender has made room.
+     * 
+     * @return true if the message was queued, spilled or (if the feed is not
+     *         running) sent; false if dropped
+     */
+    public boolean offer(byte[] message) throws InterruptedException {
+        if (!running) {
+            return sendBatch(Collections.singletonList(message));
+        }
+        if (queue.offer(message)) {
+            return accepted(message);
+        }
+        switch (overflowPolicy) {
+        case BLOCK:
+            long start = System.currentTimeMillis();
+            try {
+                while (!queue.offer(message, 100, TimeUnit.MILLISECONDS)) {
+                    if (!running) {
+                        return sendBatch(Collections.singletonList(message));
+                    }
+                }
+                return accepted(message);
+            } finally {
+                blockedMs.addAndGet(System.currentTimeMillis() - start);
+            }
+        case SPILL:
+            if (!running) {
+                // spill files are not read after stop()
+                return sendBatch(Collections.singletonList(message));
+            }
+            if (spill(message)) {
+                acceptedCount.incrementAndGet();
+                return true;
+            }
+            return drop();
+        default:
+            return drop();
+        }
+    }
+
+    /**
+     * Count a message just queued. If the feed stopped meanwhile, its final
+     * drain may already have run, so the message is taken back and sent on
+     * this thread, unless the sender or the drain got to it first.
+     */
+    protected boolean accepted(byte[] message) {
+        if (!running && queue.remove(message)) {
+            return sendBatch(Collections.singletonList(message));
+        }
+        acceptedCount.incrementAndGet();
+        return true;
+    }
+
+    protected boolean drop() {
+        long dropped = droppedCount.incrementAndGet();
+        if (dropped == 1 || dropped % 10000 == 0) {
+            logger.warning(name + " queue full; " + dropped + " messages dropped so far");
+        }
+        return false;
+    }
+
+    protected void sendLoop() {
+        List<byte[]> batch = new ArrayList<byte[]>(Math.max(1, batchSize));
+        long pollMs = Math.max(10, Math.min(1000, lingerMs * 4));
+        while (running || !queue.isEmpty() || getSpillPendingCount() > 0) {
+            try {
+                byte[] first = queue.poll(pollMs, TimeUnit.MILLISECONDS);
+                if (first != null) {
+                    batch.add(first);
+                    fillBatch(batch);
+                    sendBatch(batch);
+                    batch.clear();
+                }
+                if (queue.size() < Math.max(1, capacity / 2) && getSpillPendingCount() > 0) {
+                    unspill();
+                }
+            } catch (InterruptedException e) {
+                if (!running) {
+                    // interrupted by stop() after its timeout
+                    failedCount.addAndGet(batch.size());
+                    return;
+                }
+            } catch (RuntimeException e) {
+                logger.log(Level.SEVERE, name + " sender thread continuing after", e);
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * Top up the batch from the queue, waiting up to the linger time for
+     * more messages.
+     */
+    protected void fillBatch(List<byte[]> batch) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + lingerMs;
+        while (batch.size() < batchSize) {
+            queue.drainTo(batch, batchSize - batch.size());
+            if (batch.size() >= batchSize) {
+                return;
+            }
+            long wait = deadline - System.currentTimeMillis();
+            if (wait <= 0) {
+                return;
+            }
+            byte[] next = queue.poll(wait, TimeUnit.MILLISECONDS);
+            if (next == null) {
+                return;
+            }
+            batch.add(next);
+        }
+    }
+
+    /**
+     * Compress and send one batch, with retries.
+     * 
+     * @return true if sent; false if given up on after
+     *         {@link #getMaxTries()} attempts
+     */
+    protected boolean sendBatch(List<byte[]> batch) {
+        List<byte[]> messages = batch;
+        String encoding = null;
+        try {
+            if (compressor != null) {
+                encoding = compressor.getEncoding();
+                messages = new ArrayList<byte[]>(batch.size());
+                for (byte[] message : batch) {
+                    messages.add(compressor.compress(message));
+                }
+            }
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, name + " failed compressing batch of " + batch.size(), e);
+            failedCount.addAndGet(batch.size());
+            return false;
+        }
+        try {
+            for (int tryCount = 1; ; tryCount++) {
+                try {
+                    transport.send(messages, encoding);
+                    sentCount.addAndGet(messages.size());
+                    return true;
+                } catch (Exception e) {
+                    logger.log(Level.WARNING, name + " failed sending batch of " + messages.size()
+                            + " (try " + tryCount + " of " + maxTries + ")", e);
+                    if (tryCount >= maxTries) {
+                        logger.severe(name + " giving up on batch of " + messages.size());
+                        failedCount.addAndGet(messages.size());
+                        return false;
+                    }
+                }
+                try {
+                    Thread.sleep(retryIntervalMs);
+                } catch (InterruptedException e) {
+                    logger.warning(name + " interrupted; giving up on batch of " + messages.size());
+                    failedCount.addAndGet(messages.size());
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+        } finally {
+            batchCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * Append a message to the current spill file, opening one if necessary.
+     * 
+     * @return false if the message could not be written
+     */
+    protected boolean spill(byte[] message) {
+        synchronized (spillLock) {
+            try {
+                if (spillOut == null) {
+                    File dir = spillDirectory != null ? spillDirectory
+                            : new File(System.getProperty("java.io.tmpdir"));
+                    dir.mkdirs();
+                    spillFile = File.createTempFile(name + "-spill-", ".bin", dir);
+                    spillOut = new DataOutputStream(new BufferedOutputStream(
+                            new FileOutputStream(spillFile), 64 * 1024));
+                    logger.info(name + " queue full; spilling to " + spillFile);
+                }
+                spillOut.writeInt(message.length);
+                spillOut.write(message);
+                spillPending++;
+                spilledCount.incrementAndGet();
+                return true;
+            } catch (IOException e) {
+                logger.log(Level.SEVERE, name + " failed spilling to " + spillFile, e);
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Close the current spill file, and send its contents. Messages spilled
+     * meanwhile go to a new file.
+     */
+    protected void unspill() {
+        File file;
+        long count;
+        synchronized (spillLock) {
+            if (spillOut == null) {
+                return;
+            }
+            IOUtils.closeQuietly(spillOut);
+            file = spillFile;
+            count = spillPending;
+            spillOut = null;
+            spillFile = null;
+            spillPending = 0;
+        }
+        DataInputStream in = null;
+        List<byte[]> batch = new ArrayList<byte[]>(Math.max(1, batchSize));
+        long read = 0;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64 * 1024));
+            for (; read < count; read++) {
+                byte[] message = new byte[in.readInt()];
+                in.readFully(message);
+                batch.add(message);
+                if (batch.size() >= batchSize) {
+                    sendBatch(batch);
+                    batch.clear();
+                }
+            }
+            if (!batch.isEmpty()) {
+                sendBatch(batch);
+            }
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, name + " failed reading spill file " + file, e);
+            failedCount.addAndGet(count - read + batch.size());
+        } finally {
+            IOUtils.closeQuietly(in);
+            file.delete();
+        }
+    }
+
+    protected void closeSpill() {
+        synchronized (spillLock) {
+            if (spillOut != null) {
+                IOUtils.closeQuietly(spillOut);
+                logger.warning(name + " left " + spillPending + " unsent messages in " + spillFile);
+                spillOut = null;
+                spillFile = null;
+                spillPending = 0;
+            }
+        }
+    }
+
+    /**
+     * @return messages accepted onto the queue or into a spill file
+     */
+    public long getAcceptedCount() {
+        return acceptedCount.get();
+    }
+
+    /**
+     * @return messages the transport has sent successfully
+     */
+    public long getSentCount() {
+        return sentCount.get();
+    }
+
+    /**
+     * @return messages dropped because the queue was full
+     */
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    /**
+     * @return messages written to spill files
+     */
+    public long getSpilledCount() {
+        return spilledCount.get();
+    }
+
+    /**
+     * @return messages given up on after failing to be sent
+     */
+    public long getFailedCount() {
+        return failedCount.get();
+    }
+
+    /**
+     * @return batches handed to the transport (including failed batches)
+     */
+    public long getBatchCount() {
+        return batchCount.get();
+    }
+
+    /**
+     * @return total milliseconds adding threads have blocked waiting for
+     *         room on the queue
+     */
+    public long getBlockedMs() {
+        return blockedMs.get();
+    }
+
+    public int getQueueSize() {
+        BlockingQueue<byte[]> q = queue;
+        return q != null ? q.size() : 0;
+    }
+
+    /**
+     * @return messages in the current spill file, not yet sent
+     */
+    public long getSpillPendingCount() {
+        synchronized (spillLock) {
+            return spillPending;
+        }
+    }
+
+    /**
+     * @return one-line summary of counts, for processor reports
+     */
+    public String shortReport() {
+        return "queued=" + getQueueSize() + " accepted=" + getAcceptedCount()
+                + " sent=" + getSentCount() + " batches=" + getBatchCount()
+                + " spilled=" + getSpilledCount() + " dropped=" + getDroppedCount()
+                + " failed=" + getFailedCount() + " blockedMs=" + getBlockedMs();
+    }
+}
@@ -0,0 +1,403 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.modules;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Write-behind buffer for remote backends (HBase, trough) where a
+ * synchronous round trip per URI would throttle the crawl when the backend
+ * is slow.
+ * 
+ * <p>Each thread adding items accumulates them in its own batch, so adding
+ * is uncontended. A full batch is handed to a background writer thread,
+ * which passes it to the {@link Sink}; batches older than
+ * {@link #getMaxBatchAgeMs()} are collected by the writer thread too, as
+ * are the batches of threads which have ended, which are then forgotten. At
+ * most {@link #getMaxPendingBatches()} full batches wait for the writer;
+ * beyond that, adding threads block until the backend catches up, so a slow
+ * backend slows the crawl rather than exhausting memory.
+ * 
+ * <p>{@link #flush()} writes everything buffered and waits for completion;
+ * owners should call it when a checkpoint begins. Items added while the
+ * buffer is not started are written immediately, on the adding thread.
+ * 
+ * @param <T> type of buffered item
+ */
+public class WriteBehindBuffer<T> {
+    private static final Logger logger =
+            Logger.getLogger(WriteBehindBuffer.class.getName());
+
+    /**
+     * Destination for batches of buffered items. Called from one thread at a
+     * time, except by {@link WriteBehindBuffer#flush()} on a stopped buffer.
+     */
+    public interface Sink<T> {
+        void write(List<T> batch) throws Exception;
+    }
+
+    protected final String name;
+    protected final Sink<T> sink;
+
+    /**
+     * Number of items (per adding thread) at which a batch is written.
+     */
+    protected int maxBatchSize = 400;
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+    public void setMaxBatchSize(int maxBatchSize) {
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    /**
+     * Maximum time an item waits in a partial batch before being written.
+     */
+    protected long maxBatchAgeMs = 20 * 1000;
+    public long getMaxBatchAgeMs() {
+        return maxBatchAgeMs;
+    }
+    public void setMaxBatchAgeMs(long maxBatchAgeMs) {
+        this.maxBatchAgeMs = maxBatchAgeMs;
+    }
+
+    /**
+     * Number of full batches which may await the writer thread before
+     * adding threads block. Takes effect at start.
+     */
+    protected int maxPendingBatches = 16;
+    public int getMaxPendingBatches() {
+        return maxPendingBatches;
+    }
+    public void setMaxPendingBatches(int maxPendingBatches) {
+        this.maxPendingBatches = maxPendingBatches;
+    }
+
+    /**
+     * Attempts to write a batch before giving up on (and dropping) it.
+     */
+    protected int maxTries = 3;
+    public int getMaxTries() {
+        return maxTries;
+    }
+    public void setMaxTries(int maxTries) {
+        this.maxTries = maxTries;
+    }
+
+    /**
+     * Pause between attempts to write a batch.
+     */
+    protected long retryIntervalMs = 10 * 1000;
+    public long getRetryIntervalMs() {
+        return retryIntervalMs;
+    }
+    public void setRetryIntervalMs(long retryIntervalMs) {
+        this.retryIntervalMs = retryIntervalMs;
+    }
+
+    /**
+     * Items accumulated by one adding thread.
+     */
+    protected class LocalBatch {
+        protected List<T> items = new ArrayList<T>();
+        protected long firstAddTime;
+        /** adding thread; weakly held, so a batch never keeps it reachable */
+        protected final WeakReference<Thread> owner = 
+                new WeakReference<Thread>(Thread.currentThread());
+
+        /**
+         * @return whether the adding thread has ended, so no more items 
+         *         will be added
+         */
+        protected boolean isOwnerGone() {
+            Thread thread = owner.get();
+            return thread == null || !thread.isAlive();
+        }
+
+        /**
+         * @return batch to hand off, if now full; otherwise null
+         */
+        protected synchronized List<T> add(T item) {
+            if (items.isEmpty()) {
+                firstAddTime = System.currentTimeMillis();
+            }
+            items.add(item);
+            return items.size() >= maxBatchSize ? take() : null;
+        }
+
+        /**
+         * @return batch, if nonempty and first item added before cutoff;
+         *         otherwise null
+         */
+        protected synchronized List<T> takeIfOlderThan(long cutoff) {
+            if (items.isEmpty() || firstAddTime > cutoff) {
+                return null;
+            }
+            return take();
+        }
+
+        /**
+         * Take current items. Counted as taken while locked, so that
+         * {@link WriteBehindBuffer#flush()} never misses a batch in transit.
+         */
+        protected List<T> take() {
+            List<T> batch = items;
+            items = new ArrayList<T>();
+            takenBatches.incrementAndGet();
+            return batch;
+        }
+    }
+
+    protected final Queue<LocalBatch> localBatches = new ConcurrentLinkedQueue<LocalBatch>();
+    protected final ThreadLocal<LocalBatch> localBatch = new ThreadLocal<LocalBatch>() {
+        @Override
+        protected LocalBatch initialValue() {
+            LocalBatch batch = new LocalBatch();
+            localBatches.add(batch);
+            return batch;
+        }
+    };
+
+    protected BlockingQueue<List<T>> pending;
+    protected Thread writer;
+    protected volatile boolean running = false;
+
+    protected final AtomicLong takenBatches = new AtomicLong();
+    protected final AtomicLong completedBatches = new AtomicLong();
+    protected final AtomicLong writtenItems = new AtomicLong();
+    protected final AtomicLong failedItems = new AtomicLong();
+    protected final AtomicLong blockedMs = new AtomicLong();
+
+    public WriteBehindBuffer(String name, Sink<T> sink) {
+        this.name = name;
+        this.sink = sink;
+    }
+
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        pending = new ArrayBlockingQueue<List<T>>(Math.max(1, maxPendingBatches));
+        running = true;
+        writer = new Thread(name + "-writeBehind") {
+            @Override
+            public void run() {
+                writeLoop();
+            }
+        };
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Write everything buffered, then stop the writer thread.
+     */
+    public void stop() {
+        Thread stopping;
+        synchronized (this) {
+            if (!running) {
+                return;
+            }
+            flush();
+            running = false;
+            stopping = writer;
+            writer = null;
+        }
+        try {
+            stopping.join(maxBatchAgeMs + 60 * 1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // anything added while stopping
+        flush();
+    }
+
+    /**
+     * Buffer an item for writing. May block if the backend has fallen
+     * behind.
+     */
+    public void add(T item) throws InterruptedException {
+        if (!running) {
+            List<T> batch = Collections.singletonList(item);
+            takenBatches.incrementAndGet();
+            writeBatch(batch);
+            return;
+        }
+        List<T> full = localBatch.get().add(item);
+        if (full != null) {
+            enqueue(full);
+        }
+    }
+
+    protected void enqueue(List<T> batch) throws InterruptedException {
+        if (!pending.offer(batch)) {
+            long start = System.currentTimeMillis();
+            pending.put(batch);
+            blockedMs.addAndGet(System.currentTimeMillis() - start);
+        }
+    }
+
+    protected void writeLoop() {
+        long pollMs = Math.max(10, Math.min(1000, maxBatchAgeMs / 4));
+        while (running || !pending.isEmpty()) {
+            try {
+                List<T> batch = pending.poll(pollMs, TimeUnit.MILLISECONDS);
+                if (batch != null) {
+                    writeBatch(batch);
+                }
+                long cutoff = System.currentTimeMillis() - maxBatchAgeMs;
+                for (Iterator<LocalBatch> iter = localBatches.iterator(); iter.hasNext();) {
+                    LocalBatch local = iter.next();
+                    boolean ownerGone = local.isOwnerGone();
+                    if (ownerGone) {
+                        // nothing more will be added; write what's left and forget it
+                        iter.remove();
+                    }
+                    List<T> aged = local.takeIfOlderThan(ownerGone ? Long.MAX_VALUE : cutoff);
+                    if (aged != null) {
+                        writeBatch(aged);
+                    }
+                }
+            } catch (InterruptedException e) {
+                // only stop() ends the loop
+            } catch (RuntimeException e) {
+                logger.log(Level.SEVERE, name + " write-behind thread continuing after", e);
+            }
+        }
+    }
+
+    /**
+     * Write one batch, with retries; drop it if still failing after
+     * {@link #getMaxTries()} attempts.
+     */
+    protected void writeBatch(List<T> batch) {
+        try {
+            for (int tryCount = 1; ; tryCount++) {
+                try {
+                    sink.write(batch);
+                    writtenItems.addAndGet(batch.size());
+                    return;
+                } catch (Exception e) {
+                    logger.log(Level.WARNING, name + " failed writing batch of " + batch.size()
+                            + " (try " + tryCount + " of " + maxTries + ")", e);
+                    if (tryCount >= maxTries) {
+                        logger.severe(name + " giving up on batch of " + batch.size());
+                        failedItems.addAndGet(batch.size());
+                        return;
+                    }
+                }
+                try {
+                    Thread.sleep(retryIntervalMs);
+                } catch (InterruptedException e) {
+                    logger.warning(name + " interrupted; giving up on batch of " + batch.size());
+                    failedItems.addAndGet(batch.size());
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        } finally {
+            synchronized (completedBatches) {
+                completedBatches.incrementAndGet();
+                completedBatches.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Write all buffered items, from every thread, and wait until they
+     * have been written (or given up on).
+     */
+    public void flush() {
+        try {
+            for (LocalBatch local : localBatches) {
+                List<T> batch = local.takeIfOlderThan(Long.MAX_VALUE);
+                if (batch == null) {
+                    continue;
+                }
+                if (running) {
+                    enqueue(batch);
+                } else {
+                    writeBatch(batch);
+                }
+            }
+            long target = takenBatches.get();
+            synchronized (completedBatches) {
+                while (completedBatches.get() < target) {
+                    completedBatches.wait(1000);
+                    if (!running && pending != null && !pending.isEmpty()) {
+                        // no writer; write any stragglers here
+                        List<T> batch;
+                        while ((batch = pending.poll()) != null) {
+                            writeBatch(batch);
+                        }
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            logger.warning(name + " interrupted while flushing");
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return items written successfully
+     */
+    public long getWrittenCount() {
+        return writtenItems.get();
+    }
+
+    /**
+     * @return items dropped after failing to be written
+     */
+    public long getFailedCount() {
+        return failedItems.get();
+    }
+
+    /**
+     * @return batches written (or given up on)
+     */
+    public long getBatchCount() {
+        return completedBatches.get();
+    }
+
+    /**
+     * @return total milliseconds adding threads have blocked waiting for
+     *         the writer
+     */
+    public long getBlockedMs() {
+        return blockedMs.get();
+    }
+}
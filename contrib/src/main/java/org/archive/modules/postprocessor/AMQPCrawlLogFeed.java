@@ -18,7 +18,6 @@
  */
 package org.archive.modules.postprocessor;
 
-import java.io.UnsupportedEncodingException;
 import java.util.Map;
 
 import org.apache.commons.collections.Closure;
@@ -27,9 +26,9 @@ import org.archive.crawler.frontier.AbstractFrontier;
 import org.archive.crawler.frontier.BdbFrontier;
 import org.archive.crawler.io.UriProcessingFormatter;
 import org.archive.modules.AMQPProducerProcessor;
+import org.archive.modules.AsyncFeed;
 import org.archive.modules.CrawlURI;
 import org.archive.modules.net.ServerCache;
-import org.json.JSONObject;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.Lifecycle;
 
@@ -37,6 +36,11 @@ import com.rabbitmq.client.AMQP;
 import com.rabbitmq.client.AMQP.BasicProperties;
 
 /**
+ * Publishes a JSON crawl log entry for each finished url. By default,
+ * entries are published asynchronously in batches through an
+ * {@link AsyncFeed}, so a slow AMQP server does not hold up ToeThreads; set
+ * the feed property to null to publish synchronously.
+ *
  * @see UriProcessingFormatter
  * @author nlevitt
  */
@@ -88,16 +92,12 @@ public class AMQPCrawlLogFeed extends AMQPProducerProcessor implements Lifecycle
         // set default values
         setExchange("heritrix.realTimeFeed");
         setRoutingKey("crawlLog");
+        setFeed(new AsyncFeed());
     }
 
     @Override
     protected byte[] buildMessage(CrawlURI curi) {
-        JSONObject jo = CrawlLogJsonBuilder.buildJson(curi, getExtraFields(), getServerCache());
-        try {
-            return jo.toString().getBytes("UTF-8");
-        } catch (UnsupportedEncodingException e) {
-            throw new RuntimeException(e);
-        }
+        return CrawlLogJsonBuilder.buildJsonBytes(curi, getExtraFields(), getServerCache());
     }
 
     @Override
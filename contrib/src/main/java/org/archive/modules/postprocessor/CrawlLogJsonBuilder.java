@@ -1,5 +1,7 @@
 package org.archive.modules.postprocessor;
 
+import java.util.Collection;
+import java.util.Iterator;
 import java.util.Map;
 import java.util.Map.Entry;
 
@@ -9,7 +11,9 @@ import org.archive.modules.CrawlURI;
 import org.archive.modules.net.CrawlHost;
 import org.archive.modules.net.ServerCache;
 import org.archive.util.ArchiveUtils;
+import org.archive.util.JsonStreamWriter;
 import org.archive.util.MimetypeUtils;
+import org.json.JSONArray;
 import org.json.JSONObject;
 
 public class CrawlLogJsonBuilder {
@@ -72,4 +76,118 @@ public class CrawlLogJsonBuilder {
         return jo;
     }
 
+    protected static final ThreadLocal<JsonStreamWriter> writers =
+            new ThreadLocal<JsonStreamWriter>() {
+        @Override
+        protected JsonStreamWriter initialValue() {
+            return new JsonStreamWriter(4096);
+        }
+    };
+
+    /**
+     * Encode the same crawl log entry as {@link #buildJson(CrawlURI, Map,
+     * ServerCache)}, as UTF-8 JSON, without building a JSONObject.
+     */
+    public static byte[] buildJsonBytes(CrawlURI curi, Map<String,String> extraFields, ServerCache serverCache) {
+        JsonStreamWriter writer = writers.get().reset();
+        writeJson(writer, curi, extraFields, serverCache);
+        return writer.toByteArray();
+    }
+
+    public static void writeJson(JsonStreamWriter w, CrawlURI curi, Map<String,String> extraFields, ServerCache serverCache) {
+        w.beginObject();
+
+        w.name("timestamp").value(ArchiveUtils.getLog17Date(System.currentTimeMillis()));
+
+        if (extraFields != null) {
+            for (Entry<String, String> entry: extraFields.entrySet()) {
+                w.name(entry.getKey()).value(entry.getValue());
+            }
+        }
+
+        w.name("content_length");
+        if (curi.isHttpTransaction() && curi.getContentLength() >= 0) {
+            w.value(curi.getContentLength());
+        } else {
+            w.nullValue();
+        }
+        w.name("size");
+        if (curi.getContentSize() > 0) {
+            w.value(curi.getContentSize());
+        } else {
+            w.nullValue();
+        }
+
+        w.name("status_code").value(curi.getFetchStatus());
+        w.name("url").value(curi.getUURI().toString());
+        w.name("hop_path").value(curi.getPathFromSeed());
+        w.name("via").value(curi.flattenVia());
+        w.name("mimetype").value(MimetypeUtils.truncate(curi.getContentType()));
+        w.name("thread").value(curi.getThreadNumber());
+
+        w.name("start_time_plus_duration");
+        if (curi.containsDataKey(CoreAttributeConstants.A_FETCH_COMPLETED_TIME)) {
+            long beganTime = curi.getFetchBeginTime();
+            w.value(ArchiveUtils.get17DigitDate(beganTime)
+                    + "+" + (curi.getFetchCompletedTime() - beganTime));
+        } else {
+            w.nullValue();
+        }
+
+        w.name("content_digest").value(curi.getContentDigestSchemeString());
+        w.name("seed").value(curi.getSourceTag());
+
+        CrawlHost host = serverCache.getHostFor(curi.getUURI());
+        w.name("host").value(host != null ? host.fixUpName() : null);
+
+        w.name("annotations").value(StringUtils.join(curi.getAnnotations(), ","));
+
+        // unrolled fields are written at top level, and skipped below
+        JSONObject ei = curi.getExtraInfo();
+        w.name("warc_filename");
+        writeValue(w, ei != null ? ei.opt("warcFilename") : null);
+        w.name("warc_offset");
+        writeValue(w, ei != null ? ei.opt("warcFileOffset") : null);
+
+        w.name("extra_info").beginObject();
+        if (ei != null) {
+            for (Iterator<?> keys = ei.keys(); keys.hasNext();) {
+                String key = (String) keys.next();
+                if ("contentSize".equals(key) || "warcFilename".equals(key)
+                        || "warcFileOffset".equals(key)) {
+                    continue;
+                }
+                w.name(key);
+                writeValue(w, ei.opt(key));
+            }
+        }
+        w.endObject();
+
+        w.endObject();
+    }
+
+    @SuppressWarnings("rawtypes")
+    protected static void writeValue(JsonStreamWriter w, Object value) {
+        if (value == null || value == JSONObject.NULL) {
+            w.nullValue();
+        } else if (value instanceof CharSequence) {
+            w.value((CharSequence) value);
+        } else if (value instanceof Integer || value instanceof Long
+                || value instanceof Short || value instanceof Byte) {
+            w.value(((Number) value).longValue());
+        } else if (value instanceof Number) {
+            w.value(((Number) value).doubleValue());
+        } else if (value instanceof Boolean) {
+            w.value(((Boolean) value).booleanValue());
+        } else if (value instanceof JSONObject || value instanceof JSONArray) {
+            w.rawValue(value.toString());
+        } else if (value instanceof Map) {
+            w.rawValue(new JSONObject((Map) value).toString());
+        } else if (value instanceof Collection) {
+            w.rawValue(new JSONArray((Collection) value).toString());
+        } else {
+            w.value(value.toString());
+        }
+    }
+
 }
@@ -18,7 +18,7 @@
  */
 package org.archive.modules.postprocessor;
 
-import java.io.UnsupportedEncodingException;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.concurrent.Callable;
@@ -40,10 +40,10 @@ import org.archive.crawler.framework.Frontier;
 import org.archive.crawler.frontier.AbstractFrontier;
 import org.archive.crawler.frontier.BdbFrontier;
 import org.archive.crawler.io.UriProcessingFormatter;
+import org.archive.modules.AsyncFeed;
 import org.archive.modules.CrawlURI;
 import org.archive.modules.Processor;
 import org.archive.modules.net.ServerCache;
-import org.json.JSONObject;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.Lifecycle;
 
@@ -52,6 +52,12 @@ import org.springframework.context.Lifecycle;
  * and does not wait for acknowledgment from kafka (request.required.acks=0).
  * Sends messages with no key. These things could be configurable if needed.
  * 
+ * <p>By default, messages are handed to an {@link AsyncFeed}, whose sender
+ * thread passes them to the kafka producer, so that a slow or unreachable
+ * broker (which makes the producer block once its buffer is full) does not
+ * hold up ToeThreads. Set the feed property to null to send on the
+ * processing thread.
+ * 
  * @see UriProcessingFormatter
  * @author nlevitt
  */
@@ -118,13 +124,34 @@ public class KafkaCrawlLogFeed extends Processor implements Lifecycle {
         return topic;
     }
 
+    protected String compressionType = "none";
+    /**
+     * Kafka producer compression (kafka property "compression.type"): none,
+     * gzip, snappy or lz4. The producer compresses whole record batches,
+     * which is both cheaper and more effective than setting a compressor on
+     * the feed.
+     */
+    public void setCompressionType(String compressionType) {
+        this.compressionType = compressionType;
+    }
+    public String getCompressionType() {
+        return compressionType;
+    }
+
+    protected AsyncFeed feed = new AsyncFeed();
+    public AsyncFeed getFeed() {
+        return feed;
+    }
+    /**
+     * Bounded queue and sender thread through which messages reach the kafka
+     * producer; null to send on the processing thread.
+     */
+    public void setFeed(AsyncFeed feed) {
+        this.feed = feed;
+    }
+
     protected byte[] buildMessage(CrawlURI curi) {
-        JSONObject jo = CrawlLogJsonBuilder.buildJson(curi, getExtraFields(), getServerCache());
-        try {
-            return jo.toString().getBytes("UTF-8");
-        } catch (UnsupportedEncodingException e) {
-            throw new RuntimeException(e);
-        }
+        return CrawlLogJsonBuilder.buildJsonBytes(curi, getExtraFields(), getServerCache());
     }
 
     @Override
@@ -136,6 +163,27 @@ public class KafkaCrawlLogFeed extends Processor implements Lifecycle {
         }
     }
 
+    @Override
+    public synchronized void start() {
+        if (isRunning) {
+            return;
+        }
+        super.start();
+        if (feed != null) {
+            feed.setName(getBeanName());
+            feed.setTransport(new AsyncFeed.Transport() {
+                @Override
+                public void send(List<byte[]> messages, String contentEncoding) {
+                    KafkaProducer<String, byte[]> producer = kafkaProducer();
+                    for (byte[] message : messages) {
+                        producer.send(new ProducerRecord<String,byte[]>(getTopic(), message), stats);
+                    }
+                }
+            });
+            feed.start();
+        }
+    }
+
     private transient long pendingDumpedCount = 0l;
     @Override
     public synchronized void stop() {
@@ -164,6 +212,11 @@ public class KafkaCrawlLogFeed extends Processor implements Lifecycle {
             }
         }
 
+        if (feed != null) {
+            // hands everything still queued to the producer
+            feed.stop();
+        }
+
         String rateStr = String.format("%1.1f", 0.01 * stats.errors / stats.total);
         logger.info("final error count: " + stats.errors + "/" + stats.total + " (" + rateStr + "%)");
 
@@ -190,6 +243,7 @@ public class KafkaCrawlLogFeed extends Processor implements Lifecycle {
                     props.put("bootstrap.servers", getBrokerList());
                     props.put("acks", "1");
                     props.put("producer.type", "async");
+                    props.put("compression.type", getCompressionType());
                     props.put("key.serializer", StringSerializer.class.getName());
                     props.put("value.serializer", ByteArraySerializer.class.getName());
 
@@ -246,9 +300,24 @@ public class KafkaCrawlLogFeed extends Processor implements Lifecycle {
     }
     protected StatsCallback stats = new StatsCallback();
 
+    @Override
+    public String report() {
+        StringBuffer ret = new StringBuffer();
+        ret.append(super.report());
+        if (feed != null) {
+            ret.append("  feed: " + feed.shortReport() + "\n");
+        }
+        return ret.toString();
+    }
+
     @Override
     protected void innerProcess(CrawlURI curi) throws InterruptedException {
         byte[] message = buildMessage(curi);
+        if (feed != null) {
+            // counted by the feed if dropped
+            feed.offer(message);
+            return;
+        }
         ProducerRecord<String, byte[]> producerRecord = new ProducerRecord<String,byte[]>(getTopic(), message);
         kafkaProducer().send(producerRecord, stats);
     }
@@ -18,19 +18,20 @@
  */
 package org.archive.modules.postprocessor;
 
+import java.io.IOException;
 import java.net.MalformedURLException;
-import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
-import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.apache.commons.collections.Closure;
+import org.archive.checkpointing.Checkpoint;
 import org.archive.crawler.framework.Frontier;
 import org.archive.crawler.frontier.AbstractFrontier;
 import org.archive.crawler.frontier.BdbFrontier;
 import org.archive.modules.CrawlURI;
 import org.archive.modules.Processor;
+import org.archive.modules.WriteBehindBuffer;
 import org.archive.modules.net.ServerCache;
 import org.archive.spring.KeyedProperties;
 import org.archive.trough.TroughClient;
@@ -117,7 +118,7 @@ public class TroughCrawlLogFeed extends Processor implements Lifecycle {
 
     protected TroughClient troughClient = null;
 
-    protected TroughClient troughClient() throws MalformedURLException {
+    protected synchronized TroughClient troughClient() throws MalformedURLException {
         if (troughClient == null) {
             troughClient = new TroughClient(getRethinkUrl(), 60 * 60);
             troughClient.start();
@@ -125,10 +126,44 @@ public class TroughCrawlLogFeed extends Processor implements Lifecycle {
         return troughClient;
     }
 
-    protected List<Object[]> crawledBatch = new ArrayList<Object[]>();
-    protected long crawledBatchLastTime = System.currentTimeMillis();
-    protected List<Object[]> uncrawledBatch = new ArrayList<Object[]>();
-    protected long uncrawledBatchLastTime = System.currentTimeMillis();
+    /**
+     * Rows for the crawled_url table, posted in batches from a background
+     * thread. Batching thresholds and backpressure may be configured via
+     * nested properties, e.g. {@code crawledBuffer.maxBatchSize}.
+     */
+    protected WriteBehindBuffer<Object[]> crawledBuffer = 
+            new WriteBehindBuffer<Object[]>("TroughCrawlLogFeed-crawled",
+                    new WriteBehindBuffer.Sink<Object[]>() {
+                        public void write(List<Object[]> batch) throws Exception {
+                            postCrawledBatch(batch);
+                        }
+                    });
+    {
+        crawledBuffer.setMaxBatchSize(BATCH_MAX_SIZE);
+        crawledBuffer.setMaxBatchAgeMs(BATCH_MAX_TIME_MS);
+    }
+    public WriteBehindBuffer<Object[]> getCrawledBuffer() {
+        return crawledBuffer;
+    }
+
+    /**
+     * Rows for the uncrawled_url table, posted in batches from a background
+     * thread. 
+     */
+    protected WriteBehindBuffer<Object[]> uncrawledBuffer = 
+            new WriteBehindBuffer<Object[]>("TroughCrawlLogFeed-uncrawled",
+                    new WriteBehindBuffer.Sink<Object[]>() {
+                        public void write(List<Object[]> batch) throws Exception {
+                            postUncrawledBatch(batch);
+                        }
+                    });
+    {
+        uncrawledBuffer.setMaxBatchSize(BATCH_MAX_SIZE);
+        uncrawledBuffer.setMaxBatchAgeMs(BATCH_MAX_TIME_MS);
+    }
+    public WriteBehindBuffer<Object[]> getUncrawledBuffer() {
+        return uncrawledBuffer;
+    }
 
     protected Frontier frontier;
     public Frontier getFrontier() {
@@ -158,14 +193,27 @@ public class TroughCrawlLogFeed extends Processor implements Lifecycle {
         }
     }
 
+    @Override
+    public synchronized void start() {
+        if (isRunning) {
+            return;
+        }
+        crawledBuffer.start();
+        uncrawledBuffer.start();
+        super.start();
+    }
+
+    @Override
+    public void startCheckpoint(Checkpoint checkpointInProgress) {
+        crawledBuffer.flush();
+        uncrawledBuffer.flush();
+    }
+
     @Override
     public synchronized void stop() {
         if (!isRunning) {
             return;
         }
-        if (!crawledBatch.isEmpty()) {
-            postCrawledBatch();
-        }
 
         if (frontier instanceof BdbFrontier) {
             Closure closure = new Closure() {
@@ -184,6 +232,9 @@ public class TroughCrawlLogFeed extends Processor implements Lifecycle {
             logger.warning("frontier is not a BdbFrontier, cannot dump queued urls to trough feed");
         }
 
+        crawledBuffer.stop();
+        uncrawledBuffer.stop();
+
         // String rateStr = String.format("%1.1f", 0.01 * stats.errors / stats.total);
         // logger.info("final error count: " + stats.errors + "/" + stats.total + " (" + rateStr + "%)");
         super.stop();
@@ -223,13 +274,7 @@ public class TroughCrawlLogFeed extends Processor implements Lifecycle {
                     serverCache.getHostFor(curi.getUURI()).getHostName(),
             };
 
-            synchronized (crawledBatch) {
-                crawledBatch.add(values);
-            }
-
-            if (crawledBatch.size() >= BATCH_MAX_SIZE || System.currentTimeMillis() - crawledBatchLastTime > BATCH_MAX_TIME_MS) {
-                postCrawledBatch();
-            }
+            crawledBuffer.add(values);
         } else {
             Object[] values = new Object[] {
                     new Date(),
@@ -241,73 +286,45 @@ public class TroughCrawlLogFeed extends Processor implements Lifecycle {
                     serverCache.getHostFor(curi.getUURI()).getHostName(),
             };
 
-            synchronized (uncrawledBatch) {
-                uncrawledBatch.add(values);
-            }
-
-            if (uncrawledBatch.size() >= BATCH_MAX_SIZE || System.currentTimeMillis() - uncrawledBatchLastTime > BATCH_MAX_TIME_MS) {
-                postUncrawledBatch();
-            }
+            uncrawledBuffer.add(values);
         }
     }
 
-    protected void postCrawledBatch() {
+    protected void postCrawledBatch(List<Object[]> crawledBatch) throws IOException {
         logger.info("posting batch of " + crawledBatch.size() + " crawled urls trough segment " + getSegmentId());
-        synchronized (crawledBatch) {
-            if (!crawledBatch.isEmpty()) {
-                StringBuffer sqlTmpl = new StringBuffer();
-                sqlTmpl.append("insert into crawled_url ("
-                        + "timestamp, status_code, size, payload_size, url, hop_path, is_seed_redirect, "
-                        + "via, mimetype, content_digest, seed, is_duplicate, warc_filename, "
-                        + "warc_offset, warc_content_bytes, host)  values "
-                        + "(%s, %s, %s, %s, %s, %s, %s, %s, %s, %s, %s, %s, %s, %s, %s, %s)");
-                for (int i = 1; i < crawledBatch.size(); i++) {
-                    sqlTmpl.append(", (%s, %s, %s, %s, %s, %s, %s, %s, %s, %s, %s, %s, %s, %s, %s, %s)");
-                }
-
-                Object[] flattenedValues = new Object[16 * crawledBatch.size()];
-                for (int i = 0; i < crawledBatch.size(); i++) {
-                    System.arraycopy(crawledBatch.get(i), 0, flattenedValues, 16 * i, 16);
-                }
-
-                try {
-                    troughClient().write(getSegmentId(), sqlTmpl.toString(), flattenedValues);
-                } catch (Exception e) {
-                    logger.log(Level.WARNING, "problem posting batch of " + crawledBatch.size() + " crawled urls to trough segment " + getSegmentId(), e);
-                }
+        StringBuffer sqlTmpl = new StringBuffer();
+        sqlTmpl.append("insert into crawled_url ("
+                + "timestamp, status_code, size, payload_size, url, hop_path, is_seed_redirect, "
+                + "via, mimetype, content_digest, seed, is_duplicate, warc_filename, "
+                + "warc_offset, warc_content_bytes, host)  values "
+                + "(%s, %s, %s, %s, %s, %s, %s, %s, %s, %s, %s, %s, %s, %s, %s, %s)");
+        for (int i = 1; i < crawledBatch.size(); i++) {
+            sqlTmpl.append(", (%s, %s, %s, %s, %s, %s, %s, %s, %s, %s, %s, %s, %s, %s, %s, %s)");
+        }
 
-                crawledBatchLastTime = System.currentTimeMillis();
-                crawledBatch.clear();
-            }
+        Object[] flattenedValues = new Object[16 * crawledBatch.size()];
+        for (int i = 0; i < crawledBatch.size(); i++) {
+            System.arraycopy(crawledBatch.get(i), 0, flattenedValues, 16 * i, 16);
         }
+
+        troughClient().write(getSegmentId(), sqlTmpl.toString(), flattenedValues);
     }
-    protected void postUncrawledBatch() {
+    protected void postUncrawledBatch(List<Object[]> uncrawledBatch) throws IOException {
         logger.info("posting batch of " + uncrawledBatch.size() + " uncrawled urls trough segment " + getSegmentId());
-        synchronized (uncrawledBatch) {
-            if (!uncrawledBatch.isEmpty()) {
-                StringBuffer sqlTmpl = new StringBuffer();
-                sqlTmpl.append(
-                        "insert into uncrawled_url (timestamp, url, hop_path, status_code, via, seed, host)"
-                                + " values (%s, %s, %s, %s, %s, %s, %s)");
-
-                for (int i = 1; i < uncrawledBatch.size(); i++) {
-                    sqlTmpl.append(", (%s, %s, %s, %s, %s, %s, %s)");
-                }
-
-                Object[] flattenedValues = new Object[7 * uncrawledBatch.size()];
-                for (int i = 0; i < uncrawledBatch.size(); i++) {
-                    System.arraycopy(uncrawledBatch.get(i), 0, flattenedValues, 7 * i, 7);
-                }
+        StringBuffer sqlTmpl = new StringBuffer();
+        sqlTmpl.append(
+                "insert into uncrawled_url (timestamp, url, hop_path, status_code, via, seed, host)"
+                        + " values (%s, %s, %s, %s, %s, %s, %s)");
 
-                try {
-                    troughClient().write(getSegmentId(), sqlTmpl.toString(), flattenedValues);
-                } catch (Exception e) {
-                    logger.log(Level.WARNING, "problem posting batch of " + uncrawledBatch.size() + " uncrawled urls to trough segment " + getSegmentId(), e);
-                }
+        for (int i = 1; i < uncrawledBatch.size(); i++) {
+            sqlTmpl.append(", (%s, %s, %s, %s, %s, %s, %s)");
+        }
 
-                uncrawledBatchLastTime = System.currentTimeMillis();
-                uncrawledBatch.clear();
-            }
+        Object[] flattenedValues = new Object[7 * uncrawledBatch.size()];
+        for (int i = 0; i < uncrawledBatch.size(); i++) {
+            System.arraycopy(uncrawledBatch.get(i), 0, flattenedValues, 7 * i, 7);
         }
+
+        troughClient().write(getSegmentId(), sqlTmpl.toString(), flattenedValues);
     }
 }
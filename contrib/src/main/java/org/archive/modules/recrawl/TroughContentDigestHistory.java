@@ -4,6 +4,7 @@ import static org.archive.modules.recrawl.RecrawlAttributeConstants.A_ORIGINAL_D
 import static org.archive.modules.recrawl.RecrawlAttributeConstants.A_ORIGINAL_URL;
 import static org.archive.modules.recrawl.RecrawlAttributeConstants.A_WARC_RECORD_ID;
 
+import java.io.IOException;
 import java.net.MalformedURLException;
 import java.util.HashMap;
 import java.util.List;
@@ -11,8 +12,11 @@ import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import org.archive.checkpointing.Checkpoint;
+import org.archive.checkpointing.Checkpointable;
 import org.archive.crawler.event.CrawlStateEvent;
 import org.archive.modules.CrawlURI;
+import org.archive.modules.WriteBehindBuffer;
 import org.archive.modules.writer.WARCWriterChainProcessor;
 import org.archive.spring.HasKeyedProperties;
 import org.archive.spring.KeyedProperties;
@@ -37,9 +41,12 @@ import org.springframework.context.ApplicationListener;
  * <li> <a href="https://github.com/internetarchive/trough/blob/repl/trough/client.py">https://github.com/internetarchive/trough/blob/repl/trough/client.py</a>
  * </ul>
  * 
+ * <p>With {@link #setWriteBehind(boolean) writeBehind} enabled, dedup rows are
+ * posted in batches from a background thread rather than one request per url.
+ * 
  * @see <a href="https://github.com/internetarchive/warcprox/blob/c70bf2e2b93/warcprox/dedup.py#L480">trough dedup implementation in warcprox</a>
  */
-public class TroughContentDigestHistory extends AbstractContentDigestHistory implements HasKeyedProperties, ApplicationListener<CrawlStateEvent> {
+public class TroughContentDigestHistory extends AbstractContentDigestHistory implements HasKeyedProperties, ApplicationListener<CrawlStateEvent>, Checkpointable {
     private static final Logger logger = Logger.getLogger(TroughContentDigestHistory.class.getName());
 
     protected KeyedProperties kp = new KeyedProperties();
@@ -67,7 +74,7 @@ public class TroughContentDigestHistory extends AbstractContentDigestHistory imp
 
     protected TroughClient troughClient = null;
 
-    protected TroughClient troughClient() throws MalformedURLException {
+    protected synchronized TroughClient troughClient() throws MalformedURLException {
         if (troughClient == null) {
             troughClient = new TroughClient(getRethinkUrl(), 60 * 60);
             troughClient.start();
@@ -75,6 +82,32 @@ public class TroughContentDigestHistory extends AbstractContentDigestHistory imp
         return troughClient;
     }
 
+    protected boolean writeBehind = false;
+    public boolean getWriteBehind() {
+        return writeBehind;
+    }
+    /**
+     * Post dedup rows in batches from a background thread, instead of one
+     * request per url on the ToeThread. Rows stored but not yet posted are
+     * not seen by lookups, so duplicates fetched close together may both be
+     * written in full. Batching is configured via nested properties, e.g.
+     * {@code writeBuffer.maxBatchSize}.
+     */
+    public void setWriteBehind(boolean writeBehind) {
+        this.writeBehind = writeBehind;
+    }
+
+    protected WriteBehindBuffer<Object[]> writeBuffer = 
+            new WriteBehindBuffer<Object[]>("TroughContentDigestHistory",
+                    new WriteBehindBuffer.Sink<Object[]>() {
+                        public void write(List<Object[]> batch) throws Exception {
+                            postBatch(batch);
+                        }
+                    });
+    public WriteBehindBuffer<Object[]> getWriteBuffer() {
+        return writeBuffer;
+    }
+
     protected static final String SCHEMA_ID = "warcprox-dedup-v1";
     protected static final String SCHEMA_SQL = "create table dedup (\n"
             + "    digest_key varchar(100) primary key,\n"
@@ -93,6 +126,9 @@ public class TroughContentDigestHistory extends AbstractContentDigestHistory imp
                 // can happen. hopefully someone else has registered it
                 logger.log(Level.SEVERE, "will try to continue after problem registering schema " + SCHEMA_ID, e);
             }
+            if (getWriteBehind()) {
+                writeBuffer.start();
+            }
             break;
 
         case FINISHED:
@@ -105,6 +141,7 @@ public class TroughContentDigestHistory extends AbstractContentDigestHistory imp
              * stop() is called in the STOPPING phase, before all URLs are
              * necessarily finished processing.)
              */
+            writeBuffer.stop();
             if (troughClient != null) {
                 troughClient.stop();
                 troughClient.promoteDirtySegments();
@@ -161,10 +198,50 @@ public class TroughContentDigestHistory extends AbstractContentDigestHistory imp
             Object date = hist.get(A_ORIGINAL_DATE);
             Object recordId = hist.get(A_WARC_RECORD_ID);
             Object[] values = new Object[] { digestKey, url, date, recordId };
-            troughClient().write(getSegmentId(), WRITE_SQL_TMPL, values, SCHEMA_ID);
+            if (writeBuffer.isRunning()) {
+                writeBuffer.add(values);
+            } else {
+                troughClient().write(getSegmentId(), WRITE_SQL_TMPL, values, SCHEMA_ID);
+            }
         } catch (Exception e) {
             logger.log(Level.WARNING, "problem writing dedup info to trough segment " + getSegmentId() + " for url " + curi, e);
 
         }
     }
+
+    protected static final String WRITE_SQL_ROW_TMPL = ", (%s, %s, %s, %s)";
+
+    /**
+     * Post many dedup rows in one insert statement.
+     */
+    protected void postBatch(List<Object[]> batch) throws IOException {
+        StringBuilder sqlTmpl = new StringBuilder(
+                "insert or ignore into dedup (digest_key, url, date, id) values (%s, %s, %s, %s)");
+        Object[] flattenedValues = new Object[4 * batch.size()];
+        for (int i = 0; i < batch.size(); i++) {
+            if (i > 0) {
+                sqlTmpl.append(WRITE_SQL_ROW_TMPL);
+            }
+            System.arraycopy(batch.get(i), 0, flattenedValues, 4 * i, 4);
+        }
+        sqlTmpl.append(";");
+        troughClient().write(getSegmentId(), sqlTmpl.toString(), flattenedValues, SCHEMA_ID);
+    }
+
+    @Override
+    public void startCheckpoint(Checkpoint checkpointInProgress) {
+        writeBuffer.flush();
+    }
+
+    @Override
+    public void doCheckpoint(Checkpoint checkpointInProgress) throws IOException {
+    }
+
+    @Override
+    public void finishCheckpoint(Checkpoint checkpointInProgress) {
+    }
+
+    @Override
+    public void setRecoveryCheckpoint(Checkpoint recoveryCheckpoint) {
+    }
 }
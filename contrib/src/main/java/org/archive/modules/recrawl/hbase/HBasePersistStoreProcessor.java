@@ -19,6 +19,7 @@
 package org.archive.modules.recrawl.hbase;
 
 import java.io.IOException;
+import java.util.List;
 import java.util.logging.Logger;
 
 import org.apache.hadoop.hbase.HColumnDescriptor;
@@ -28,11 +29,17 @@ import org.apache.hadoop.hbase.client.Put;
 import org.apache.hadoop.hbase.client.RetriesExhaustedWithDetailsException;
 import org.apache.hadoop.hbase.regionserver.NoSuchColumnFamilyException;
 import org.apache.hadoop.hbase.util.Bytes;
+import org.archive.checkpointing.Checkpoint;
 import org.archive.modules.CrawlURI;
+import org.archive.modules.WriteBehindBuffer;
 import org.archive.modules.fetcher.FetchStatusCodes;
 import org.archive.modules.recrawl.RecrawlAttributeConstants;
 
 /**
+ * Stores recrawl info for each URI to HBase. By default, each URI is put
+ * synchronously on its ToeThread; with {@link #setWriteBehind(boolean)
+ * writeBehind} enabled, puts are batched and sent from a background thread.
+ * 
  * @author kenji
  */
 public class HBasePersistStoreProcessor extends HBasePersistProcessor implements FetchStatusCodes, RecrawlAttributeConstants {
@@ -67,6 +74,74 @@ public class HBasePersistStoreProcessor extends HBasePersistProcessor implements
         this.maxTries = maxTries;
     }
 
+    protected boolean writeBehind = false;
+    public boolean getWriteBehind() {
+        return writeBehind;
+    }
+    /**
+     * Batch puts and send them from a background thread, rather than
+     * putting each URI synchronously. Batches are retried per
+     * {@link #setMaxTries(int) maxTries} and
+     * {@link #setRetryIntervalMs(int) retryIntervalMs}; other batching
+     * settings are nested properties, e.g. {@code writeBuffer.maxBatchSize}.
+     * Buffered puts are flushed when a checkpoint begins.
+     */
+    public void setWriteBehind(boolean writeBehind) {
+        this.writeBehind = writeBehind;
+    }
+
+    protected WriteBehindBuffer<Put> writeBuffer = 
+            new WriteBehindBuffer<Put>("HBasePersistStoreProcessor",
+                    new WriteBehindBuffer.Sink<Put>() {
+                        public void write(List<Put> batch) throws Exception {
+                            putBatch(batch);
+                        }
+                    });
+    {
+        writeBuffer.setMaxBatchSize(100);
+        writeBuffer.setMaxBatchAgeMs(5000);
+    }
+    public WriteBehindBuffer<Put> getWriteBuffer() {
+        return writeBuffer;
+    }
+
+    @Override
+    public void start() {
+        if (isRunning()) {
+            return;
+        }
+        if (getWriteBehind()) {
+            // one more try if column family must be added first
+            writeBuffer.setMaxTries(getAddColumnFamily() ? getMaxTries() + 1 : getMaxTries());
+            writeBuffer.setRetryIntervalMs(getRetryIntervalMs());
+            writeBuffer.start();
+        }
+        super.start();
+    }
+
+    @Override
+    public void stop() {
+        writeBuffer.stop();
+        super.stop();
+    }
+
+    @Override
+    public void startCheckpoint(Checkpoint checkpointInProgress) {
+        writeBuffer.flush();
+    }
+
+    protected void putBatch(List<Put> batch) throws IOException {
+        try {
+            table.put(batch);
+        } catch (RetriesExhaustedWithDetailsException e) {
+            if (e.getCause(0) instanceof NoSuchColumnFamilyException && getAddColumnFamily()) {
+                // fixed for the retry
+                addColumnFamily();
+            }
+            throw e;
+        }
+    }
+
     protected synchronized void addColumnFamily() {
         try {
             HTableDescriptor oldDesc = table.getHtableDescriptor();
@@ -86,8 +161,12 @@ public class HBasePersistStoreProcessor extends HBasePersistProcessor implements
     }
 
     @Override
-    protected void innerProcess(CrawlURI uri) {
+    protected void innerProcess(CrawlURI uri) throws InterruptedException {
         Put p = schema.createPut(uri);
+        if (writeBuffer.isRunning()) {
+            writeBuffer.add(p);
+            return;
+        }
         int tryCount = 0;
         do {
             tryCount++;
@@ -19,6 +19,7 @@
 package org.archive.modules.recrawl.hbase;
 
 import java.io.IOException;
+import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -80,6 +81,16 @@ public class HBaseTable extends HBaseTableBean {
         }
     }
 
+    @Override
+    public void put(List<Put> puts) throws IOException {
+        try {
+            htable().put(puts);
+        } catch (IOException e) {
+            reset();
+            throw e;
+        }
+    }
+
     @Override
     public Result get(Get g) throws IOException {
         try {
@@ -1,6 +1,7 @@
 package org.archive.modules.recrawl.hbase;
 
 import java.io.IOException;
+import java.util.List;
 
 import org.apache.hadoop.hbase.HTableDescriptor;
 import org.apache.hadoop.hbase.client.Get;
@@ -56,6 +57,18 @@ public abstract class HBaseTableBean implements Lifecycle {
 
     public abstract void put(Put p) throws IOException;
 
+    /**
+     * put many rows. this implementation puts them one at a time;
+     * subclasses able to send batches should override.
+     * @param puts
+     * @throws IOException
+     */
+    public void put(List<Put> puts) throws IOException {
+        for (Put p : puts) {
+            put(p);
+        }
+    }
+
     public abstract Result get(Get g) throws IOException;
     
     public abstract HTableDescriptor getHtableDescriptor() throws IOException;
@@ -25,13 +25,22 @@ import java.net.URLEncoder;
 import java.nio.ByteBuffer;
 import java.text.ParseException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.logging.Log;
@@ -48,6 +57,7 @@ import org.apache.http.client.methods.HttpGet;
 import org.apache.http.impl.client.HttpClientBuilder;
 import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
 import org.apache.http.protocol.HttpContext;
+import org.archive.crawler.event.WorkQueueActivatedEvent;
 import org.archive.modules.CoreAttributeConstants;
 import org.archive.modules.CrawlURI;
 import org.archive.modules.ProcessResult;
@@ -56,6 +66,10 @@ import org.archive.modules.recrawl.FetchHistoryHelper;
 import org.archive.modules.recrawl.RecrawlAttributeConstants;
 import org.archive.util.ArchiveUtils;
 import org.archive.util.DateUtils;
+import org.springframework.context.ApplicationListener;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 
 /**
  * A {@link Processor} for retrieving recrawl info from remote Wayback Machine index.
@@ -66,9 +80,13 @@ import org.archive.util.DateUtils;
  * CDX lines for archive.org, since 1999-01-01 00:00:00.
  * </p>
  * <p>As index is updated in a separate batch processing job, there's no "Store" counterpart.</p>
+ * <p>In {@link #setPipelined(boolean) pipelined} mode, lookups for URIs at the head of each
+ * newly activated WorkQueue are issued concurrently ahead of need, so that ToeThreads
+ * mostly find recrawl info already loaded instead of waiting on a round-trip per URI.</p>
  * @author Kenji Nagahashi.
  */
-public class WbmPersistLoadProcessor extends Processor {
+public class WbmPersistLoadProcessor extends Processor
+implements ApplicationListener<WorkQueueActivatedEvent> {
     private static final Log log = LogFactory.getLog(WbmPersistLoadProcessor.class);
 
     private HttpClient client;
@@ -278,6 +296,110 @@ public class WbmPersistLoadProcessor extends Processor {
     public long getCumulativeFetchTime() {
         return cumulativeFetchTime.get();
     }
+    private AtomicLong prefetchedCount = new AtomicLong();
+    /**
+     * number of lookups issued ahead of need in pipelined mode.
+     * @return long
+     */
+    public long getPrefetchedCount() {
+        return prefetchedCount.get();
+    }
+    private AtomicLong timeoutCount = new AtomicLong();
+    /**
+     * number of times pipelined lookup did not complete in time, and URI
+     * proceeded without recrawl info.
+     * @return long
+     */
+    public long getTimeoutCount() {
+        return timeoutCount.get();
+    }
+
+    private boolean pipelined = false;
+    public boolean isPipelined() {
+        return pipelined;
+    }
+    /**
+     * if set to true, recrawl info lookups are issued ahead of need: when
+     * a WorkQueue is activated, lookups for its first
+     * {@link #setPrefetchPerQueue(int) prefetchPerQueue} URIs are queued,
+     * and run concurrently on a pool of {@link #setMaxInFlight(int) maxInFlight}
+     * threads. When the URI comes up for processing, the ToeThread only waits
+     * for the result (up to {@link #setLookupWaitTimeout(int) lookupWaitTimeout}).
+     * URIs not prefetched are looked up on the ToeThread, as in
+     * non-pipelined mode. Off by default.
+     * @param pipelined true to enable pipelined lookups.
+     */
+    public void setPipelined(boolean pipelined) {
+        this.pipelined = pipelined;
+    }
+
+    private int maxInFlight = 10;
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+    /**
+     * maximum number of prefetch lookups outstanding at once. when the
+     * window is full, further prefetch requests are dropped (those URIs
+     * will be looked up on demand). takes effect before first prefetch.
+     * typically no larger than {@link #setMaxConnections(int) maxConnections}.
+     * @param maxInFlight
+     */
+    public void setMaxInFlight(int maxInFlight) {
+        this.maxInFlight = maxInFlight;
+    }
+
+    private int prefetchPerQueue = 20;
+    public int getPrefetchPerQueue() {
+        return prefetchPerQueue;
+    }
+    /**
+     * number of URIs at the head of a newly activated WorkQueue to
+     * prefetch recrawl info for.
+     * @param prefetchPerQueue
+     */
+    public void setPrefetchPerQueue(int prefetchPerQueue) {
+        this.prefetchPerQueue = prefetchPerQueue;
+    }
+
+    private int lookupWaitTimeout = 2000;
+    public int getLookupWaitTimeout() {
+        return lookupWaitTimeout;
+    }
+    /**
+     * milliseconds a ToeThread waits for an outstanding prefetch lookup
+     * before giving up and proceeding without recrawl info.
+     * @param lookupWaitTimeout
+     */
+    public void setLookupWaitTimeout(int lookupWaitTimeout) {
+        this.lookupWaitTimeout = lookupWaitTimeout;
+    }
+
+    private int cacheSize = 10000;
+    public int getCacheSize() {
+        return cacheSize;
+    }
+    /**
+     * maximum number of prefetched lookups (outstanding or complete) to
+     * keep. takes effect before first prefetch.
+     * @param cacheSize
+     */
+    public void setCacheSize(int cacheSize) {
+        this.cacheSize = cacheSize;
+    }
+
+    private int cacheExpireSeconds = 600;
+    public int getCacheExpireSeconds() {
+        return cacheExpireSeconds;
+    }
+    /**
+     * seconds after which a prefetched lookup nobody has consumed is
+     * dropped, so that a URI processed much later is looked up afresh.
+     * takes effect before first prefetch.
+     * @param cacheExpireSeconds
+     */
+    public void setCacheExpireSeconds(int cacheExpireSeconds) {
+        this.cacheExpireSeconds = cacheExpireSeconds;
+    }
 
     public void setHttpClient(HttpClient client) {
         this.client = client;
@@ -434,24 +556,195 @@ public class WbmPersistLoadProcessor extends Processor {
         return entity.getContent();
     }
     
-    @Override
-    protected ProcessResult innerProcessResult(CrawlURI curi) throws InterruptedException {
-        InputStream is;
-        try {
-            is = getCDX(curi.toString());
-        } catch (IOException ex) {
-            log.error(ex.getMessage());
-            errorCount.incrementAndGet();
-            return ProcessResult.PROCEED;
-        }
-        Map<String, Object> info = null;
+    /**
+     * query CDX server for recrawl info of uri.
+     * @param uri URI
+     * @return recrawl info, or null if none found
+     * @throws IOException if query fails
+     */
+    protected Map<String, Object> lookup(String uri) throws InterruptedException, IOException {
+        InputStream is = getCDX(uri);
         try {
-            info = getLastCrawl(is);
+            return getLastCrawl(is);
         } catch (IOException ex) {
             log.error("error parsing response", ex);
+            return null;
         } finally {
-            if (is != null)
-                ArchiveUtils.closeQuietly(is);
+            ArchiveUtils.closeQuietly(is);
+        }
+    }
+
+    /**
+     * a lookup issued ahead of need, run on {@link #lookupExecutor}.
+     */
+    protected class Lookup implements Runnable {
+        protected final String uri;
+        protected final CountDownLatch done = new CountDownLatch(1);
+        protected volatile Map<String, Object> info;
+        protected volatile boolean failed;
+        protected volatile boolean rejected;
+        public Lookup(String uri) {
+            this.uri = uri;
+        }
+        @Override
+        public void run() {
+            try {
+                info = lookup(uri);
+            } catch (IOException ex) {
+                log.error(ex.getMessage());
+                failed = true;
+            } catch (InterruptedException ex) {
+                failed = true;
+            } catch (RuntimeException ex) {
+                log.error("lookup for " + uri + " failed", ex);
+                failed = true;
+            } finally {
+                inFlight.release();
+                done.countDown();
+            }
+        }
+        /**
+         * give up on a lookup the executor has turned away.
+         */
+        protected void abandon() {
+            rejected = true;
+            failed = true;
+            Cache<String, Lookup> prefetched = lookups;
+            if (prefetched != null) {
+                prefetched.asMap().remove(uri, this);
+            }
+            inFlight.release();
+            done.countDown();
+        }
+    }
+
+    private volatile Cache<String, Lookup> lookups;
+    private ExecutorService lookupExecutor;
+    private Semaphore inFlight;
+
+    protected synchronized ExecutorService getLookupExecutor() {
+        if (lookupExecutor == null) {
+            lookups = CacheBuilder.newBuilder().maximumSize(cacheSize)
+                    .expireAfterWrite(cacheExpireSeconds, TimeUnit.SECONDS).build();
+            inFlight = new Semaphore(maxInFlight);
+            // lookups are already limited by inFlight; the bound is for
+            // queue-activation tasks, which are dropped when it is reached
+            // (prefetch is only an optimization).
+            lookupExecutor = new ThreadPoolExecutor(maxInFlight, maxInFlight,
+                    0L, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<Runnable>(maxInFlight * 2),
+                    new ThreadFactory() {
+                private final AtomicLong serial = new AtomicLong();
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "WbmPersistLoadProcessor-lookup-" + serial.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }
+            }, new RejectedExecutionHandler() {
+                @Override
+                public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+                    if (r instanceof Lookup) {
+                        ((Lookup)r).abandon();
+                    }
+                }
+            });
+        }
+        return lookupExecutor;
+    }
+
+    /**
+     * issue lookups for given URIs ahead of need, as long as in-flight
+     * window has room. URIs already looked up (or being looked up) are
+     * skipped. no-op unless {@link #isPipelined()}.
+     * @param uris URIs expected to be processed soon
+     * @return number of lookups issued
+     */
+    public int prefetch(Collection<String> uris) {
+        if (!pipelined) return 0;
+        ExecutorService executor = getLookupExecutor();
+        int issued = 0;
+        for (String uri : uris) {
+            if (lookups.getIfPresent(uri) != null) continue;
+            if (!inFlight.tryAcquire()) {
+                // window full; remaining URIs will be looked up on demand
+                break;
+            }
+            Lookup lookup = new Lookup(uri);
+            if (lookups.asMap().putIfAbsent(uri, lookup) != null) {
+                inFlight.release();
+                continue;
+            }
+            executor.execute(lookup);
+            if (lookup.rejected) {
+                // turned away: queue full or shutting down
+                break;
+            }
+            issued++;
+        }
+        prefetchedCount.addAndGet(issued);
+        return issued;
+    }
+
+    /**
+     * prefetch recrawl info for URIs at the head of newly activated WorkQueue.
+     * peeking the queue reads frontier storage, so it is done on the lookup
+     * executor rather than the ToeThread which activated the queue.
+     */
+    @Override
+    public void onApplicationEvent(final WorkQueueActivatedEvent event) {
+        if (!pipelined || !isRunning()) return;
+        getLookupExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                List<String> uris = new ArrayList<String>();
+                for (CrawlURI curi : event.getUpcoming(prefetchPerQueue)) {
+                    if (shouldProcess(curi)) {
+                        uris.add(curi.toString());
+                    }
+                }
+                prefetch(uris);
+            }
+        });
+    }
+
+    @Override
+    public synchronized void stop() {
+        super.stop();
+        if (lookupExecutor != null) {
+            lookupExecutor.shutdownNow();
+            lookupExecutor = null;
+            lookups = null;
+        }
+    }
+
+    @Override
+    protected ProcessResult innerProcessResult(CrawlURI curi) throws InterruptedException {
+        Map<String, Object> info;
+        Cache<String, Lookup> prefetched = lookups;
+        Lookup lookup = prefetched != null ? prefetched.getIfPresent(curi.toString()) : null;
+        if (lookup != null) {
+            if (!lookup.done.await(lookupWaitTimeout, TimeUnit.MILLISECONDS)) {
+                // leave lookup in cache; a retry of this URI may yet use it
+                timeoutCount.incrementAndGet();
+                return ProcessResult.PROCEED;
+            }
+            if (lookup.failed) {
+                prefetched.invalidate(curi.toString());
+                errorCount.incrementAndGet();
+                return ProcessResult.PROCEED;
+            }
+            // consumed; a later visit of this URI should see fresh data
+            prefetched.asMap().remove(curi.toString(), lookup);
+            info = lookup.info;
+        } else {
+            try {
+                info = lookup(curi.toString());
+            } catch (IOException ex) {
+                log.error(ex.getMessage());
+                errorCount.incrementAndGet();
+                return ProcessResult.PROCEED;
+            }
         }
         if (info != null) {
             Map<String, Object> history = FetchHistoryHelper.getFetchHistory(curi,
@@ -0,0 +1,225 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.crawler.frontier;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Logger;
+
+import junit.framework.TestCase;
+
+import org.archive.crawler.framework.Frontier;
+import org.archive.crawler.postprocessor.CandidatesProcessor;
+import org.archive.modules.CrawlURI;
+import org.easymock.Capture;
+import org.easymock.EasyMock;
+import org.json.JSONObject;
+
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Consumer;
+import com.rabbitmq.client.Envelope;
+
+public class AMQPUrlReceiverTest extends TestCase {
+    private static final Logger logger =
+            Logger.getLogger(AMQPUrlReceiverTest.class.getName());
+
+    /**
+     * Candidates processor which records candidates rather than scoping and
+     * scheduling them.
+     */
+    public static class RecordingCandidates extends CandidatesProcessor {
+        public List<CrawlURI> scheduled = Collections.synchronizedList(new ArrayList<CrawlURI>());
+        public volatile int calls = 0;
+
+        @Override
+        public int runCandidateChains(Collection<CrawlURI> candidates, CrawlURI source) {
+            calls++;
+            scheduled.addAll(candidates);
+            return candidates.size();
+        }
+    }
+
+    /**
+     * Candidates processor whose chain fails on one url, and otherwise
+     * accepts everything.
+     */
+    public static class FailingCandidates extends CandidatesProcessor {
+        @Override
+        protected int runCandidateChain(CrawlURI candidate, CrawlURI source,
+                Collection<CrawlURI> toSchedule) {
+            if (candidate.getURI().endsWith("/page13")) {
+                throw new IllegalStateException("simulated chain failure");
+            }
+            toSchedule.add(candidate);
+            return 0;
+        }
+    }
+
+    protected static byte[] message(String url, String method, boolean forceFetch) throws Exception {
+        JSONObject jo = new JSONObject();
+        jo.put("url", url);
+        jo.put("method", method);
+        jo.put("parentUrl", "http://example.com/");
+        jo.put("headers", new JSONObject().put("User-Agent", "test").put("Host", "example.com"));
+        jo.put("parentUrlMetadata", new JSONObject().put("pathFromSeed", "L")
+                .put("heritableData", new JSONObject()));
+        if (forceFetch) {
+            jo.put("forceFetch", true);
+        }
+        return jo.toString().getBytes("UTF-8");
+    }
+
+    public void testProcessBatch() throws Exception {
+        AMQPUrlReceiver receiver = new AMQPUrlReceiver();
+        RecordingCandidates candidates = new RecordingCandidates();
+        receiver.setCandidates(candidates);
+        receiver.setDecodeThreads(4);
+
+        // one multiple-ack for the whole batch
+        Channel channel = EasyMock.createMock(Channel.class);
+        EasyMock.expect(channel.isOpen()).andReturn(true).anyTimes();
+        channel.basicAck(200L, true);
+        EasyMock.expectLastCall();
+        EasyMock.replay(channel);
+
+        List<AMQPUrlReceiver.Delivery> batch = new ArrayList<AMQPUrlReceiver.Delivery>();
+        for (int i = 1; i <= 200; i++) {
+            byte[] body;
+            if (i == 5) {
+                body = message("http://example.com/page5", "POST", false);
+            } else if (i == 7) {
+                body = "not json".getBytes("UTF-8");
+            } else {
+                // 151-200 repeat urls of 1-50
+                body = message("http://example.com/page" + (i % 150), "GET", i == 160);
+            }
+            batch.add(new AMQPUrlReceiver.Delivery(channel, i, body));
+        }
+        receiver.processBatch(batch);
+        EasyMock.verify(channel);
+
+        assertEquals(1, candidates.calls);
+        // 198 decoded, of which pages 0-149 unique, in order of first appearance
+        assertEquals(150, candidates.scheduled.size());
+        assertEquals(48, receiver.getDuplicateCount());
+        assertEquals(1, receiver.getUndecodableCount());
+        assertEquals(150, receiver.getScheduledCount());
+        assertEquals("http://example.com/page1", candidates.scheduled.get(0).getURI());
+        assertEquals("http://example.com/page0", candidates.scheduled.get(147).getURI());
+        // first GET of page5 and page7 came late in the batch
+        assertEquals("http://example.com/page7", candidates.scheduled.get(149).getURI());
+        CrawlURI page10 = candidates.scheduled.get(7);
+        assertEquals("http://example.com/page10", page10.getURI());
+        // forceFetch of later duplicate carried over
+        assertTrue(page10.forceFetch());
+        assertFalse(candidates.scheduled.get(8).forceFetch());
+        assertTrue(page10.getAnnotations().contains(AMQPUrlReceiver.A_RECEIVED_FROM_AMQP));
+        assertEquals("LI", page10.getPathFromSeed());
+
+        receiver.stopIngest();
+    }
+
+    public void testFailingCandidateSkipped() throws Exception {
+        AMQPUrlReceiver receiver = new AMQPUrlReceiver();
+        FailingCandidates candidates = new FailingCandidates();
+        Frontier frontier = EasyMock.createMock(Frontier.class);
+        Capture<Collection<CrawlURI>> scheduled = new Capture<Collection<CrawlURI>>();
+        frontier.scheduleAll(EasyMock.capture(scheduled));
+        EasyMock.expectLastCall();
+        EasyMock.replay(frontier);
+        candidates.setFrontier(frontier);
+        receiver.setCandidates(candidates);
+        receiver.setDecodeThreads(1);
+
+        Channel channel = EasyMock.createMock(Channel.class);
+        EasyMock.expect(channel.isOpen()).andReturn(true).anyTimes();
+        channel.basicAck(20L, true);
+        EasyMock.expectLastCall();
+        EasyMock.replay(channel);
+
+        List<AMQPUrlReceiver.Delivery> batch = new ArrayList<AMQPUrlReceiver.Delivery>();
+        for (int i = 1; i <= 20; i++) {
+            batch.add(new AMQPUrlReceiver.Delivery(channel, i,
+                    message("http://example.com/page" + i, "GET", false)));
+        }
+        receiver.processBatch(batch);
+        EasyMock.verify(frontier, channel);
+
+        // all but the failing url scheduled, before and after it
+        assertEquals(19, scheduled.getValue().size());
+        assertEquals(19, receiver.getScheduledCount());
+        List<String> urls = new ArrayList<String>();
+        for (CrawlURI curi : scheduled.getValue()) {
+            urls.add(curi.getURI());
+        }
+        assertTrue(urls.contains("http://example.com/page12"));
+        assertFalse(urls.contains("http://example.com/page13"));
+        assertTrue(urls.contains("http://example.com/page20"));
+
+        receiver.stopIngest();
+    }
+
+    public void testThroughputThroughConsumer() throws Exception {
+        AMQPUrlReceiver receiver = new AMQPUrlReceiver();
+        RecordingCandidates candidates = new RecordingCandidates();
+        receiver.setCandidates(candidates);
+        receiver.setBatchSize(500);
+        receiver.setLingerMs(20);
+        receiver.setDecodeThreads(2);
+
+        Channel channel = EasyMock.createMock(Channel.class);
+        EasyMock.expect(channel.isOpen()).andReturn(true).anyTimes();
+        channel.basicAck(EasyMock.anyLong(), EasyMock.eq(true));
+        EasyMock.expectLastCall().anyTimes();
+        EasyMock.replay(channel);
+
+        int count = 20000;
+        List<byte[]> bodies = new ArrayList<byte[]>(count);
+        for (int i = 0; i < count; i++) {
+            bodies.add(message("http://example" + (i % 100) + ".com/" + i, "GET", false));
+        }
+
+        receiver.startIngest();
+        Consumer consumer = receiver.new UrlConsumer(channel);
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < count; i++) {
+            consumer.handleDelivery("test", new Envelope(i + 1, false, "umbra", "requests"),
+                    null, bodies.get(i));
+        }
+        long deadline = start + 60 * 1000;
+        while (receiver.getScheduledCount() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        long elapsed = Math.max(1, System.currentTimeMillis() - start);
+        receiver.stopIngest();
+        logger.info(count + " urls ingested in " + elapsed + "ms ("
+                + (count * 1000L / elapsed) + "/s) in " + receiver.getBatchCount()
+                + " batches; " + receiver.getIngestMillis() + "ms ingesting");
+
+        assertEquals(count, receiver.getReceivedCount());
+        assertEquals(count, receiver.getScheduledCount());
+        assertEquals(count, candidates.scheduled.size());
+        // scheduled in batches, not one by one
+        assertTrue(receiver.getBatchCount() < count / 50);
+        EasyMock.verify(channel);
+    }
+}
@@ -0,0 +1,249 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.modules;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.io.IOUtils;
+
+public class AsyncFeedTest extends TestCase {
+
+    /**
+     * In-process fake producer recording what it is sent; optionally fails,
+     * or waits for release.
+     */
+    public static class FakeTransport implements AsyncFeed.Transport {
+        public List<List<byte[]>> batches = Collections.synchronizedList(new ArrayList<List<byte[]>>());
+        public List<String> encodings = Collections.synchronizedList(new ArrayList<String>());
+        public volatile int failuresLeft = 0;
+        public volatile CountDownLatch release = null;
+
+        @Override
+        public void send(List<byte[]> messages, String contentEncoding) throws Exception {
+            if (release != null) {
+                release.await();
+            }
+            if (failuresLeft > 0) {
+                failuresLeft--;
+                throw new IOException("simulated broker failure");
+            }
+            batches.add(new ArrayList<byte[]>(messages));
+            encodings.add(contentEncoding);
+        }
+
+        public List<String> messages() {
+            List<String> all = new ArrayList<String>();
+            synchronized (batches) {
+                for (List<byte[]> batch : batches) {
+                    for (byte[] message : batch) {
+                        all.add(new String(message));
+                    }
+                }
+            }
+            return all;
+        }
+    }
+
+    protected AsyncFeed feed(FakeTransport transport) {
+        AsyncFeed feed = new AsyncFeed();
+        feed.setName("test");
+        feed.setTransport(transport);
+        feed.setRetryIntervalMs(1);
+        return feed;
+    }
+
+    protected void waitForSent(AsyncFeed feed, long count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (feed.getSentCount() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+
+    public void testBatchSizeAndLinger() throws Exception {
+        FakeTransport transport = new FakeTransport();
+        AsyncFeed feed = feed(transport);
+        feed.setBatchSize(10);
+        feed.setLingerMs(200);
+        feed.start();
+        for (int i = 0; i < 25; i++) {
+            assertTrue(feed.offer(("m" + i).getBytes()));
+        }
+        // the partial batch is sent once the linger time passes
+        waitForSent(feed, 25);
+        assertEquals(25, feed.getSentCount());
+        for (List<byte[]> batch : transport.batches) {
+            assertTrue(batch.size() <= 10);
+        }
+        assertTrue(transport.batches.size() >= 3);
+        assertEquals("m0", transport.messages().get(0));
+        assertEquals("m24", transport.messages().get(24));
+        feed.stop();
+    }
+
+    public void testBlockPolicy() throws Exception {
+        FakeTransport transport = new FakeTransport();
+        transport.release = new CountDownLatch(1);
+        final AsyncFeed feed = feed(transport);
+        feed.setCapacity(2);
+        feed.setBatchSize(1);
+        feed.start();
+        final CountDownLatch added = new CountDownLatch(1);
+        Thread adder = new Thread() {
+            public void run() {
+                try {
+                    // one being sent, two queued, then blocks
+                    for (int i = 0; i < 5; i++) {
+                        feed.offer(("m" + i).getBytes());
+                    }
+                    added.countDown();
+                } catch (InterruptedException e) {
+                }
+            }
+        };
+        adder.start();
+        assertFalse(added.await(300, TimeUnit.MILLISECONDS));
+        transport.release.countDown();
+        assertTrue(added.await(5, TimeUnit.SECONDS));
+        feed.stop();
+        assertEquals(5, feed.getSentCount());
+        assertEquals(0, feed.getDroppedCount());
+        assertTrue(feed.getBlockedMs() > 0);
+    }
+
+    public void testDropPolicy() throws Exception {
+        FakeTransport transport = new FakeTransport();
+        transport.release = new CountDownLatch(1);
+        AsyncFeed feed = feed(transport);
+        feed.setCapacity(3);
+        feed.setBatchSize(1);
+        feed.setOverflowPolicy(AsyncFeed.OverflowPolicy.DROP);
+        feed.start();
+        int accepted = 0;
+        for (int i = 0; i < 20; i++) {
+            if (feed.offer(("m" + i).getBytes())) {
+                accepted++;
+            }
+        }
+        // never blocks; at most capacity plus the one in the sender's hands
+        assertTrue(accepted <= 4);
+        assertEquals(accepted, feed.getAcceptedCount());
+        assertEquals(20 - accepted, feed.getDroppedCount());
+        transport.release.countDown();
+        feed.stop();
+        assertEquals(accepted, feed.getSentCount());
+    }
+
+    public void testSpillPolicy() throws Exception {
+        File spillDir = File.createTempFile("asyncFeedSpill", "");
+        spillDir.delete();
+        FakeTransport transport = new FakeTransport();
+        transport.release = new CountDownLatch(1);
+        AsyncFeed feed = feed(transport);
+        feed.setCapacity(4);
+        feed.setBatchSize(3);
+        feed.setOverflowPolicy(AsyncFeed.OverflowPolicy.SPILL);
+        feed.setSpillDirectory(spillDir);
+        feed.start();
+        List<String> expected = new ArrayList<String>();
+        for (int i = 0; i < 50; i++) {
+            expected.add("m" + i);
+            assertTrue(feed.offer(("m" + i).getBytes()));
+        }
+        assertEquals(50, feed.getAcceptedCount());
+        assertTrue(feed.getSpilledCount() > 0);
+        assertEquals(1, spillDir.list().length);
+
+        transport.release.countDown();
+        waitForSent(feed, 50);
+        feed.stop();
+        assertEquals(50, feed.getSentCount());
+        assertEquals(0, feed.getDroppedCount());
+        List<String> sent = transport.messages();
+        Collections.sort(sent);
+        Collections.sort(expected);
+        assertEquals(expected, sent);
+        assertEquals(0, spillDir.list().length);
+        spillDir.delete();
+    }
+
+    public void testCompression() throws Exception {
+        FakeTransport transport = new FakeTransport();
+        AsyncFeed feed = feed(transport);
+        feed.setCompressor(new GzipMessageCompressor());
+        feed.start();
+        feed.offer("{\"url\":\"http://example.com/\"}".getBytes());
+        feed.stop();
+        assertEquals("gzip", transport.encodings.get(0));
+        byte[] compressed = transport.batches.get(0).get(0);
+        byte[] decompressed = IOUtils.toByteArray(
+                new GZIPInputStream(new ByteArrayInputStream(compressed)));
+        assertEquals("{\"url\":\"http://example.com/\"}", new String(decompressed));
+    }
+
+    public void testRetryAndGiveUp() throws Exception {
+        FakeTransport transport = new FakeTransport();
+        AsyncFeed feed = feed(transport);
+        feed.setMaxTries(2);
+        feed.setLingerMs(1);
+        feed.start();
+
+        transport.failuresLeft = 1;
+        feed.offer("a".getBytes());
+        waitForSent(feed, 1);
+        assertEquals(1, feed.getSentCount());
+
+        transport.failuresLeft = 2;
+        feed.offer("b".getBytes());
+        feed.stop();
+        assertEquals(1, feed.getFailedCount());
+        assertEquals(1, feed.getSentCount());
+    }
+
+    public void testQueuedAfterStopIsSent() throws Exception {
+        FakeTransport transport = new FakeTransport();
+        AsyncFeed feed = feed(transport);
+        feed.start();
+        feed.stop();
+        // as if offer() queued it just after stop() drained the queue
+        byte[] late = "late".getBytes();
+        assertTrue(feed.queue.offer(late));
+        assertTrue(feed.accepted(late));
+        assertEquals(0, feed.getQueueSize());
+        assertEquals(1, feed.getSentCount());
+        assertEquals("late", transport.messages().get(0));
+    }
+
+    public void testNotStartedSendsImmediately() throws Exception {
+        FakeTransport transport = new FakeTransport();
+        AsyncFeed feed = feed(transport);
+        assertTrue(feed.offer("a".getBytes()));
+        assertEquals(1, transport.batches.size());
+    }
+}
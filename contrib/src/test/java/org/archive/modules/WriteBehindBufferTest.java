@@ -0,0 +1,206 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.modules;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+public class WriteBehindBufferTest extends TestCase {
+
+    /**
+     * Sink recording batches; optionally fails, or waits for release.
+     */
+    public static class RecordingSink implements WriteBehindBuffer.Sink<Integer> {
+        public List<List<Integer>> batches = Collections.synchronizedList(new ArrayList<List<Integer>>());
+        public int failuresLeft = 0;
+        public CountDownLatch release = null;
+
+        @Override
+        public void write(List<Integer> batch) throws Exception {
+            if (release != null) {
+                release.await();
+            }
+            if (failuresLeft > 0) {
+                failuresLeft--;
+                throw new IOException("simulated failure");
+            }
+            batches.add(new ArrayList<Integer>(batch));
+        }
+
+        public int itemCount() {
+            int count = 0;
+            synchronized (batches) {
+                for (List<Integer> batch : batches) {
+                    count += batch.size();
+                }
+            }
+            return count;
+        }
+    }
+
+    public void testSizeThresholdAndFlush() throws Exception {
+        RecordingSink sink = new RecordingSink();
+        WriteBehindBuffer<Integer> buffer = new WriteBehindBuffer<Integer>("test", sink);
+        buffer.setMaxBatchSize(10);
+        buffer.setMaxBatchAgeMs(60 * 1000);
+        buffer.start();
+        for (int i = 0; i < 25; i++) {
+            buffer.add(i);
+        }
+        buffer.flush();
+        // two full batches, then the remainder on flush
+        assertEquals(3, sink.batches.size());
+        assertEquals(10, sink.batches.get(0).size());
+        assertEquals(5, sink.batches.get(2).size());
+        assertEquals(25, buffer.getWrittenCount());
+        buffer.stop();
+    }
+
+    public void testAgeThresholdAcrossThreads() throws Exception {
+        RecordingSink sink = new RecordingSink();
+        final WriteBehindBuffer<Integer> buffer = new WriteBehindBuffer<Integer>("test", sink);
+        buffer.setMaxBatchSize(1000);
+        buffer.setMaxBatchAgeMs(100);
+        buffer.start();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final int base = t * 100;
+            threads[t] = new Thread() {
+                public void run() {
+                    try {
+                        for (int i = 0; i < 5; i++) {
+                            buffer.add(base + i);
+                        }
+                    } catch (InterruptedException e) {
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long deadline = System.currentTimeMillis() + 5000;
+        while (sink.itemCount() < 20 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        // written by the background thread, without any flush
+        assertEquals(20, sink.itemCount());
+        assertEquals(4, sink.batches.size());
+        buffer.stop();
+    }
+
+    public void testEndedThreadsForgotten() throws Exception {
+        RecordingSink sink = new RecordingSink();
+        final WriteBehindBuffer<Integer> buffer = new WriteBehindBuffer<Integer>("test", sink);
+        buffer.setMaxBatchSize(1000);
+        // long, so only the threads' ending gets their items written
+        buffer.setMaxBatchAgeMs(60 * 1000);
+        buffer.start();
+        for (int t = 0; t < 50; t++) {
+            final int base = t * 100;
+            Thread thread = new Thread() {
+                public void run() {
+                    try {
+                        for (int i = 0; i < 3; i++) {
+                            buffer.add(base + i);
+                        }
+                    } catch (InterruptedException e) {
+                    }
+                }
+            };
+            thread.start();
+            thread.join();
+        }
+        long deadline = System.currentTimeMillis() + 5000;
+        while ((sink.itemCount() < 150 || !buffer.localBatches.isEmpty()) 
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertEquals(150, sink.itemCount());
+        assertTrue(buffer.localBatches.isEmpty());
+        buffer.stop();
+    }
+
+    public void testBackpressure() throws Exception {
+        RecordingSink sink = new RecordingSink();
+        sink.release = new CountDownLatch(1);
+        final WriteBehindBuffer<Integer> buffer = new WriteBehindBuffer<Integer>("test", sink);
+        buffer.setMaxBatchSize(1);
+        buffer.setMaxPendingBatches(2);
+        buffer.start();
+        final CountDownLatch added = new CountDownLatch(1);
+        Thread adder = new Thread() {
+            public void run() {
+                try {
+                    // one being written, two pending, then blocks
+                    for (int i = 0; i < 5; i++) {
+                        buffer.add(i);
+                    }
+                    added.countDown();
+                } catch (InterruptedException e) {
+                }
+            }
+        };
+        adder.start();
+        assertFalse(added.await(300, TimeUnit.MILLISECONDS));
+        sink.release.countDown();
+        assertTrue(added.await(5, TimeUnit.SECONDS));
+        buffer.stop();
+        assertEquals(5, sink.itemCount());
+        assertTrue(buffer.getBlockedMs() > 0);
+    }
+
+    public void testRetryAndGiveUp() throws Exception {
+        RecordingSink sink = new RecordingSink();
+        WriteBehindBuffer<Integer> buffer = new WriteBehindBuffer<Integer>("test", sink);
+        buffer.setMaxBatchSize(2);
+        buffer.setMaxTries(2);
+        buffer.setRetryIntervalMs(1);
+        buffer.start();
+
+        sink.failuresLeft = 1;
+        buffer.add(1);
+        buffer.add(2);
+        buffer.flush();
+        assertEquals(2, buffer.getWrittenCount());
+
+        sink.failuresLeft = 2;
+        buffer.add(3);
+        buffer.add(4);
+        buffer.flush();
+        assertEquals(2, buffer.getFailedCount());
+        assertEquals(2, buffer.getWrittenCount());
+        buffer.stop();
+    }
+
+    public void testNotStartedWritesImmediately() throws Exception {
+        RecordingSink sink = new RecordingSink();
+        WriteBehindBuffer<Integer> buffer = new WriteBehindBuffer<Integer>("test", sink);
+        buffer.add(1);
+        assertEquals(1, sink.batches.size());
+    }
+}
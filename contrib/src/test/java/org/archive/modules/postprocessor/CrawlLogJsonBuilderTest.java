@@ -0,0 +1,141 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.modules.postprocessor;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import junit.framework.TestCase;
+
+import org.archive.modules.CrawlURI;
+import org.archive.modules.extractor.LinkContext;
+import org.archive.modules.fetcher.DefaultServerCache;
+import org.archive.net.UURIFactory;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+public class CrawlLogJsonBuilderTest extends TestCase {
+
+    protected DefaultServerCache serverCache = new DefaultServerCache();
+
+    /**
+     * Assert the streamed encoding parses to the same JSON as the 
+     * JSONObject built for the same CrawlURI, apart from the timestamp.
+     */
+    protected void assertParity(CrawlURI curi, Map<String,String> extraFields) 
+            throws Exception {
+        JSONObject built = CrawlLogJsonBuilder.buildJson(curi, extraFields, serverCache);
+        JSONObject streamed = new JSONObject(new String(
+                CrawlLogJsonBuilder.buildJsonBytes(curi, extraFields, serverCache), "UTF-8"));
+        assertNotNull(built.remove("timestamp"));
+        assertNotNull(streamed.remove("timestamp"));
+        assertJsonEquals("", built, streamed);
+    }
+
+    protected static Set<String> keysOf(JSONObject jo) {
+        Set<String> keys = new TreeSet<String>();
+        for (Iterator<?> iter = jo.keys(); iter.hasNext();) {
+            keys.add((String) iter.next());
+        }
+        return keys;
+    }
+
+    protected static void assertJsonEquals(String path, Object expected, Object actual) 
+            throws Exception {
+        if (expected instanceof JSONObject) {
+            assertTrue(path + " not an object: " + actual, actual instanceof JSONObject);
+            JSONObject e = (JSONObject) expected;
+            JSONObject a = (JSONObject) actual;
+            assertEquals(path + " keys", keysOf(e), keysOf(a));
+            for (String key : keysOf(e)) {
+                assertJsonEquals(path + "/" + key, e.get(key), a.get(key));
+            }
+        } else if (expected instanceof JSONArray) {
+            assertTrue(path + " not an array: " + actual, actual instanceof JSONArray);
+            JSONArray e = (JSONArray) expected;
+            JSONArray a = (JSONArray) actual;
+            assertEquals(path + " length", e.length(), a.length());
+            for (int i = 0; i < e.length(); i++) {
+                assertJsonEquals(path + "/" + i, e.get(i), a.get(i));
+            }
+        } else if (expected instanceof Number) {
+            // parsing may yield Integer where Long was put
+            assertTrue(path + " not a number: " + actual, actual instanceof Number);
+            assertEquals(path, ((Number) expected).doubleValue(), 
+                    ((Number) actual).doubleValue(), 0.0);
+        } else {
+            assertEquals(path, expected, actual);
+        }
+    }
+
+    public void testNullFields() throws Exception {
+        CrawlURI curi = new CrawlURI(UURIFactory.getInstance("http://example.com/"));
+        assertParity(curi, Collections.<String,String>emptyMap());
+    }
+
+    public void testPopulated() throws Exception {
+        CrawlURI curi = new CrawlURI(
+                UURIFactory.getInstance("http://example.com/a/b.html"), "LX",
+                UURIFactory.getInstance("http://example.com/"), LinkContext.NAVLINK_MISC);
+        curi.setFetchStatus(200);
+        curi.setContentType("text/html; charset=\"UTF-8\"");
+        curi.setContentSize(12345);
+        curi.setThreadNumber(7);
+        curi.setSourceTag("seed-\u00e9t\u00e9");
+        curi.setContentDigest("sha1", new byte[] {1, 2, 3, 4, 5});
+        curi.setFetchBeginTime(1400000000000L);
+        curi.setFetchCompletedTime(1400000000250L);
+        curi.getAnnotations().add("duplicate:digest");
+        curi.getAnnotations().add("ip:192.0.2.1");
+
+        // unrolled to top level, or dropped
+        curi.addExtraInfo("warcFilename", "TEST-20140513-00000.warc.gz");
+        curi.addExtraInfo("warcFileOffset", 4096L);
+        curi.addExtraInfo("contentSize", 12345L);
+        // passed through in extra_info, nested values included
+        curi.addExtraInfo("quoted", "a \"quoted\"\tstring\n\u2603");
+        curi.addExtraInfo("flag", true);
+        curi.addExtraInfo("ratio", 0.25);
+        curi.addExtraInfo("missing", JSONObject.NULL);
+        JSONObject nested = new JSONObject();
+        nested.put("depth", 2);
+        nested.put("list", new JSONArray().put("x").put(3).put(new JSONObject().put("y", "z")));
+        curi.addExtraInfo("nested", nested);
+        curi.addExtraInfo("array", new JSONArray().put(1L << 40).put(JSONObject.NULL));
+
+        Map<String,String> extraFields = new LinkedHashMap<String,String>();
+        extraFields.put("crawl", "test-crawl");
+        extraFields.put("operator", "someone@example.com");
+        assertParity(curi, extraFields);
+
+        JSONObject streamed = new JSONObject(new String(
+                CrawlLogJsonBuilder.buildJsonBytes(curi, extraFields, serverCache), "UTF-8"));
+        assertEquals("TEST-20140513-00000.warc.gz", streamed.get("warc_filename"));
+        JSONObject extraInfo = streamed.getJSONObject("extra_info");
+        assertFalse(extraInfo.has("warcFilename"));
+        assertFalse(extraInfo.has("warcFileOffset"));
+        assertFalse(extraInfo.has("contentSize"));
+        assertEquals(2, extraInfo.getJSONObject("nested").getInt("depth"));
+    }
+}
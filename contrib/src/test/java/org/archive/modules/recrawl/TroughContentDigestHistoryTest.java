@@ -0,0 +1,82 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.modules.recrawl;
+
+import static org.archive.modules.recrawl.RecrawlAttributeConstants.A_ORIGINAL_DATE;
+import static org.archive.modules.recrawl.RecrawlAttributeConstants.A_ORIGINAL_URL;
+import static org.archive.modules.recrawl.RecrawlAttributeConstants.A_WARC_RECORD_ID;
+
+import java.security.MessageDigest;
+
+import junit.framework.TestCase;
+
+import org.archive.modules.CrawlURI;
+import org.archive.net.UURIFactory;
+import org.archive.trough.FakeTroughClient;
+
+public class TroughContentDigestHistoryTest extends TestCase {
+
+    protected CrawlURI curiWithHistory(int i) throws Exception {
+        CrawlURI curi = new CrawlURI(UURIFactory.getInstance("http://example.com/" + i));
+        curi.setContentDigest("sha1", 
+                MessageDigest.getInstance("SHA-1").digest(Integer.toString(i).getBytes("UTF-8")));
+        curi.getContentDigestHistory().put(A_ORIGINAL_URL, curi.toString());
+        curi.getContentDigestHistory().put(A_ORIGINAL_DATE, "20170101000000");
+        curi.getContentDigestHistory().put(A_WARC_RECORD_ID, "<urn:uuid:" + i + ">");
+        return curi;
+    }
+
+    protected TroughContentDigestHistory newHistory(FakeTroughClient client) {
+        TroughContentDigestHistory history = new TroughContentDigestHistory();
+        history.setSegmentId("test");
+        history.troughClient = client;
+        return history;
+    }
+
+    public void testUnbatchedStore() throws Exception {
+        FakeTroughClient client = new FakeTroughClient();
+        TroughContentDigestHistory history = newHistory(client);
+        for (int i = 0; i < 3; i++) {
+            history.store(curiWithHistory(i));
+        }
+        assertEquals(3, client.writes.size());
+    }
+
+    public void testWriteBehindStore() throws Exception {
+        FakeTroughClient client = new FakeTroughClient();
+        TroughContentDigestHistory history = newHistory(client);
+        history.setWriteBehind(true);
+        history.getWriteBuffer().setMaxBatchSize(3);
+        history.getWriteBuffer().start();
+        for (int i = 0; i < 7; i++) {
+            history.store(curiWithHistory(i));
+        }
+        history.startCheckpoint(null);
+        assertEquals(3, client.writes.size());
+        String first = client.writes.get(0);
+        assertTrue(first, first.startsWith("insert or ignore into dedup (digest_key, url, date, id) values ("));
+        assertTrue(first, first.contains("'http://example.com/0'"));
+        assertTrue(first, first.contains("'http://example.com/2'"));
+        // three rows in one statement
+        assertEquals(3, first.split("\\), \\(").length);
+        assertTrue(client.writes.get(2), client.writes.get(2).contains("'http://example.com/6'"));
+        history.getWriteBuffer().stop();
+    }
+}
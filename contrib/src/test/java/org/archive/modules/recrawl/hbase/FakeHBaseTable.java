@@ -0,0 +1,63 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.modules.recrawl.hbase;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Result;
+
+/**
+ * In-memory stand-in for an HBase table, recording puts, so batching can be
+ * tested without a cluster.
+ */
+public class FakeHBaseTable extends HBaseTableBean {
+    public List<Put> puts = Collections.synchronizedList(new ArrayList<Put>());
+    public AtomicInteger requestCount = new AtomicInteger();
+
+    @Override
+    public void put(Put p) throws IOException {
+        requestCount.incrementAndGet();
+        puts.add(p);
+    }
+
+    @Override
+    public void put(List<Put> batch) throws IOException {
+        requestCount.incrementAndGet();
+        puts.addAll(batch);
+    }
+
+    @Override
+    public Result get(Get g) throws IOException {
+        return new Result();
+    }
+
+    @Override
+    public HTableDescriptor getHtableDescriptor() throws IOException {
+        return new HTableDescriptor(TableName.valueOf(getHtableName()));
+    }
+}
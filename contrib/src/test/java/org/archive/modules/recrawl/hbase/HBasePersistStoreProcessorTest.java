@@ -0,0 +1,80 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.modules.recrawl.hbase;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.archive.modules.CrawlURI;
+import org.archive.net.UURIFactory;
+
+public class HBasePersistStoreProcessorTest extends TestCase {
+
+    protected HBasePersistStoreProcessor newProcessor(FakeHBaseTable table) {
+        HBasePersistStoreProcessor p = new HBasePersistStoreProcessor();
+        p.setTable(table);
+        p.setSchema(new SingleColumnJsonRecrawlDataSchema());
+        return p;
+    }
+
+    protected CrawlURI curi(int i) throws Exception {
+        CrawlURI curi = new CrawlURI(UURIFactory.getInstance("http://example.com/" + i));
+        curi.setFetchStatus(200);
+        return curi;
+    }
+
+    public void testSynchronousPuts() throws Exception {
+        FakeHBaseTable table = new FakeHBaseTable();
+        HBasePersistStoreProcessor p = newProcessor(table);
+        p.start();
+        for (int i = 0; i < 5; i++) {
+            p.innerProcess(curi(i));
+        }
+        assertEquals(5, table.puts.size());
+        assertEquals(5, table.requestCount.get());
+        p.stop();
+    }
+
+    public void testWriteBehindPuts() throws Exception {
+        FakeHBaseTable table = new FakeHBaseTable();
+        HBasePersistStoreProcessor p = newProcessor(table);
+        p.setWriteBehind(true);
+        p.getWriteBuffer().setMaxBatchSize(4);
+        p.start();
+        for (int i = 0; i < 10; i++) {
+            p.innerProcess(curi(i));
+        }
+        p.startCheckpoint(null);
+        assertEquals(10, table.puts.size());
+        // two full batches, plus remainder flushed at checkpoint
+        assertEquals(3, table.requestCount.get());
+
+        Set<String> rows = new HashSet<String>();
+        for (Put put : table.puts) {
+            rows.add(Bytes.toString(put.getRow()));
+        }
+        assertEquals(10, rows.size());
+        p.stop();
+    }
+}
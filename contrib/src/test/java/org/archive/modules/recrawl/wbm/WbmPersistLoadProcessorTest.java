@@ -1,16 +1,23 @@
 package org.archive.modules.recrawl.wbm;
 
 import java.io.BufferedReader;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
 import java.net.URLEncoder;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Pattern;
 
 import junit.framework.TestCase;
@@ -34,6 +41,9 @@ import org.archive.util.DateUtils;
 import org.easymock.EasyMock;
 
 import com.google.common.util.concurrent.ExecutionList;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
 
 /**
  * unit test for {@link WbmPersistLoadProcessor}.
@@ -171,6 +181,129 @@ public class WbmPersistLoadProcessorTest extends TestCase {
     assertEquals("should always return PROCEED", ProcessResult.PROCEED, result);
   }
   
+  /**
+   * local stand-in for CDX server: answers every query with one CDX line
+   * for the queried URL, after given delay, and tracks concurrency.
+   */
+  public static class MockCdxServer implements HttpHandler {
+    protected HttpServer server;
+    protected long delayMs;
+    protected AtomicInteger requests = new AtomicInteger();
+    protected AtomicInteger concurrent = new AtomicInteger();
+    protected AtomicInteger maxConcurrent = new AtomicInteger();
+
+    public MockCdxServer(long delayMs) throws IOException {
+      this.delayMs = delayMs;
+      server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+      server.createContext("/cdx", this);
+      server.setExecutor(Executors.newCachedThreadPool());
+      server.start();
+    }
+    public String getQueryURL() {
+      return "http://127.0.0.1:" + server.getAddress().getPort() + "/cdx?url=$u";
+    }
+    public void stop() {
+      server.stop(0);
+      ((ExecutorService)server.getExecutor()).shutdownNow();
+    }
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+      requests.incrementAndGet();
+      int now = concurrent.incrementAndGet();
+      while (true) {
+        int max = maxConcurrent.get();
+        if (now <= max || maxConcurrent.compareAndSet(max, now)) break;
+      }
+      try {
+        Thread.sleep(delayMs);
+        String query = exchange.getRequestURI().getRawQuery();
+        String url = URLDecoder.decode(query.substring(query.indexOf("url=") + 4), "UTF-8");
+        byte[] body = ("org,archive)/ " + TestNormalHttpResponse.EXPECTED_TS + " " + url
+            + " text/html 200 " + TestNormalHttpResponse.EXPECTED_HASH
+            + " - - 6908 982548871 test.warc.gz\n").getBytes("UTF-8");
+        exchange.sendResponseHeaders(200, body.length);
+        exchange.getResponseBody().write(body);
+      } catch (InterruptedException ex) {
+        exchange.sendResponseHeaders(500, -1);
+      } finally {
+        concurrent.decrementAndGet();
+        exchange.close();
+      }
+    }
+  }
+
+  protected void assertLoaded(WbmPersistLoadProcessor t, CrawlURI curi) throws Exception {
+    assertEquals(ProcessResult.PROCEED, t.innerProcessResult(curi));
+    Map<String, Object> history = getFetchHistory(curi, 0);
+    assertNotNull("history for " + curi, history);
+    assertEquals(t.getContentDigestScheme() + TestNormalHttpResponse.EXPECTED_HASH,
+        history.get(RecrawlAttributeConstants.A_CONTENT_DIGEST));
+  }
+
+  public void testPipelinedLookups() throws Exception {
+    MockCdxServer cdx = new MockCdxServer(100);
+    WbmPersistLoadProcessor t = new WbmPersistLoadProcessor();
+    try {
+      t.setQueryURL(cdx.getQueryURL());
+      t.setQueryRangeSecs(0);
+      t.setPipelined(true);
+      t.setMaxInFlight(4);
+      t.setLookupWaitTimeout(5000);
+      List<String> uris = new ArrayList<String>();
+      for (int i = 0; i < 10; i++) {
+        uris.add("http://archive.org/" + i);
+      }
+      // window allows only 4 at once
+      assertEquals(4, t.prefetch(uris));
+      // already-issued lookups are not repeated
+      assertEquals(0, t.prefetch(uris.subList(0, 4)));
+
+      // 4 prefetched, then 6 looked up on demand
+      for (String uri : uris) {
+        assertLoaded(t, new CrawlURI(UURIFactory.getInstance(uri)));
+      }
+      assertEquals(10, cdx.requests.get());
+      assertTrue("maxConcurrent " + cdx.maxConcurrent.get(), cdx.maxConcurrent.get() <= 4);
+      assertEquals(4, t.getPrefetchedCount());
+      assertEquals(10, t.getLoadedCount());
+      assertEquals(0, t.getTimeoutCount());
+
+      // consumed results are not reused by later processing of same URI
+      assertLoaded(t, new CrawlURI(UURIFactory.getInstance(uris.get(0))));
+      assertEquals(11, cdx.requests.get());
+    } finally {
+      t.stop();
+      cdx.stop();
+    }
+  }
+
+  public void testPipelinedLookupTimeout() throws Exception {
+    MockCdxServer cdx = new MockCdxServer(2000);
+    WbmPersistLoadProcessor t = new WbmPersistLoadProcessor();
+    try {
+      t.setQueryURL(cdx.getQueryURL());
+      t.setPipelined(true);
+      t.setLookupWaitTimeout(100);
+      String uri = "http://archive.org/slow";
+      assertEquals(1, t.prefetch(Collections.singletonList(uri)));
+      CrawlURI curi = new CrawlURI(UURIFactory.getInstance(uri));
+      long t0 = System.currentTimeMillis();
+      assertEquals(ProcessResult.PROCEED, t.innerProcessResult(curi));
+      assertTrue(System.currentTimeMillis() - t0 < 1500);
+      assertNull("no history loaded", curi.getFetchHistory());
+      assertEquals(1, t.getTimeoutCount());
+    } finally {
+      t.stop();
+      cdx.stop();
+    }
+  }
+
+  public void testPrefetchDisabledByDefault() throws Exception {
+    WbmPersistLoadProcessor t = new WbmPersistLoadProcessor();
+    assertFalse(t.isPipelined());
+    assertEquals(0, t.prefetch(Collections.singletonList("http://archive.org/")));
+  }
+
   public static class LoadTask implements Runnable {
     private WbmPersistLoadProcessor p;
     private String uri;
@@ -0,0 +1,58 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.trough;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * TroughClient which talks to no servers, recording writes, so batching can
+ * be tested without a trough cluster.
+ */
+public class FakeTroughClient extends TroughClient {
+    /** sql of each write, with values interpolated */
+    public List<String> writes = Collections.synchronizedList(new ArrayList<String>());
+
+    public FakeTroughClient() throws MalformedURLException {
+        super("rethinkdb://localhost/trough_configuration");
+    }
+
+    @Override
+    public void write(String segmentId, String sqlTmpl, Object[] values, String schemaId) throws IOException {
+        String[] sqlValues = new String[values.length];
+        for (int i = 0; i < values.length; i++) {
+            sqlValues[i] = sqlValue(values[i]);
+        }
+        writes.add(String.format(sqlTmpl, (Object[]) sqlValues));
+    }
+
+    @Override
+    public List<Map<String, Object>> read(String segmentId, String sqlTmpl, Object[] values) throws IOException {
+        return Collections.emptyList();
+    }
+
+    @Override
+    public void registerSchema(String schemaId, String schemaSql) throws IOException {
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.crawler.event;
+
+import java.util.List;
+
+import org.archive.crawler.frontier.WorkQueue;
+import org.archive.crawler.frontier.WorkQueueFrontier;
+import org.archive.modules.CrawlURI;
+import org.springframework.context.ApplicationEvent;
+
+/**
+ * ApplicationEvent published when a WorkQueue begins an active session,
+ * that is, when it first offers a URI for crawling after being inactive.
+ * Listeners may use {@link #getUpcoming(int)} to prepare for the URIs
+ * the queue will soon emit. Published synchronously, by the ToeThread
+ * taking the queue's first URI (after releasing the queue's lock), so
+ * listeners should hand off any slow work.
+ */
+public class WorkQueueActivatedEvent extends ApplicationEvent {
+    private static final long serialVersionUID = 1L;
+    protected WorkQueue workQueue;
+
+    public WorkQueueActivatedEvent(WorkQueueFrontier source, WorkQueue workQueue) {
+        super(source);
+        this.workQueue = workQueue;
+    }
+
+    public WorkQueue getWorkQueue() {
+        return workQueue;
+    }
+
+    /**
+     * @param max maximum URIs to return
+     * @return up to max URIs next due from the activated queue
+     */
+    public List<CrawlURI> getUpcoming(int max) {
+        return workQueue.peekUpcoming((WorkQueueFrontier) getSource(), max);
+    }
+}
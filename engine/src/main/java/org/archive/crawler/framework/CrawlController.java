@@ -193,6 +193,20 @@ implements Serializable,
         }
     }
     
+    /**
+     * Whether to run ToeThreads on virtual threads, where the JVM supports
+     * them (falling back to platform threads otherwise). Allows far larger
+     * maxToeThreads values without the memory and scheduling cost of a
+     * platform thread per ToeThread. Takes effect at crawl launch.
+     */
+    protected boolean useVirtualToeThreads = false;
+    public boolean getUseVirtualToeThreads() {
+        return useVirtualToeThreads;
+    }
+    public void setUseVirtualToeThreads(boolean useVirtualToeThreads) {
+        this.useVirtualToeThreads = useVirtualToeThreads;
+    }
+    
     /** whether to keep running (without pause or finish) when frontier is empty */
     protected boolean runWhileEmpty = false; 
     public boolean getRunWhileEmpty() {
@@ -536,6 +550,7 @@ implements Serializable,
 
     protected void setupToePool() {
         toePool = new ToePool(alertThreadGroup,this);
+        toePool.setUseVirtualThreads(getUseVirtualToeThreads());
         // TODO: make # of toes self-optimizing
         toePool.setSize(getMaxToeThreads());
         toePool.waitForAll();
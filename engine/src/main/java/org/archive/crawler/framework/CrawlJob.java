@@ -57,6 +57,7 @@ import org.apache.commons.collections.MapUtils;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang.StringUtils;
 import org.archive.crawler.event.CrawlStateEvent;
+import org.archive.crawler.event.CrawlURIDispositionEvent;
 import org.archive.crawler.framework.CrawlController.StopCompleteEvent;
 import org.archive.crawler.frontier.WorkQueue;
 import org.archive.crawler.reporting.AlertThreadGroup;
@@ -99,11 +100,30 @@ public class CrawlJob implements Comparable<CrawlJob>, ApplicationListener<Appli
     protected int launchCount; 
     protected boolean isLaunchInfoPartial;
     protected DateTime lastLaunch;
-    protected AlertThreadGroup alertThreadGroup;
+    protected volatile AlertThreadGroup alertThreadGroup;
     
     protected DateTime xmlOkAt = new DateTime(0L);
     protected Logger jobLogger;
     
+    /**
+     * Serializes job state transitions: container assembly, validation,
+     * launch, and teardown. Assembly and validation of a large 
+     * configuration can take a long time. Holding this lock rather than
+     * the CrawlJob monitor meanwhile means status queries (as from the
+     * web UI) aren't blocked until they finish; the monitor is held only
+     * briefly, to read or replace the ApplicationContext. Never acquired
+     * while holding the CrawlJob monitor.
+     */
+    protected final Object assemblyLock = new Object();
+    
+    /** milliseconds spent in each phase of the most recent launch */
+    protected final Map<String,Long> launchPhaseTimes = 
+        new LinkedHashMap<String,Long>();
+    /** when the most recent launch was requested */
+    protected long launchRequestedAt = 0;
+    /** end of last timed launch phase; 0 when not timing a launch */
+    protected volatile long launchPhaseMark = 0;
+    
     public CrawlJob(File cxml) {
         primaryConfig = cxml; 
         isLaunchInfoPartial = false;
@@ -297,20 +317,25 @@ public class CrawlJob implements Comparable<CrawlJob>, ApplicationListener<Appli
     /**
      * Can the configuration yield an assembled ApplicationContext? 
      */
-    public synchronized void instantiateContainer() {
-        checkXML(); 
-        if(ac==null) {
+    public void instantiateContainer() {
+        synchronized (assemblyLock) {
+            checkXML(); 
+            if(hasApplicationContext()) {
+                return;
+            }
             try {
-                ac = new PathSharingContext(new String[] {primaryConfig.toURI().toString()}, false, null);
-                ac.addApplicationListener(this);
-                ac.refresh();
-                getCrawlController(); // trigger NoSuchBeanDefinitionException if no CC
+                PathSharingContext newAc = new PathSharingContext(new String[] {primaryConfig.toURI().toString()}, false, null);
+                newAc.addApplicationListener(this);
+                newAc.refresh();
+                newAc.getBean("crawlController"); // trigger NoSuchBeanDefinitionException if no CC
+                synchronized (this) {
+                    ac = newAc;
+                }
                 getJobLogger().log(Level.INFO,"Job instantiated");
             } catch (BeansException be) {
                 // Calling doTeardown() and therefore ac.close() here sometimes
                 // triggers an IllegalStateException and logs stack trace from
-                // within spring, even if ac.isActive(). So, just null it.
-                ac = null;
+                // within spring, even if ac.isActive(). So, just drop it.
                 beansException(be);
             }
         }
@@ -371,17 +396,24 @@ public class CrawlJob implements Comparable<CrawlJob>, ApplicationListener<Appli
      * 
      * TODO: make these severe? 
      */
-    public synchronized void validateConfiguration() {
-        instantiateContainer();
-        if(ac==null) {
-            // fatal errors already encountered and reported
-            return; 
-        }
-        ac.validate();
-        HashMap<String,Errors> allErrors = ac.getAllErrors();
-        for(String name : allErrors.keySet()) {
-            for(Object err : allErrors.get(name).getAllErrors()) {
-               LOGGER.log(Level.WARNING,err.toString());
+    public void validateConfiguration() {
+        synchronized (assemblyLock) {
+            instantiateContainer();
+            PathSharingContext context;
+            synchronized (this) {
+                context = ac;
+            }
+            if(context==null) {
+                // fatal errors already encountered and reported
+                return; 
+            }
+            // outside the monitor; teardown waits on assemblyLock
+            context.validate();
+            HashMap<String,Errors> allErrors = context.getAllErrors();
+            for(String name : allErrors.keySet()) {
+                for(Object err : allErrors.get(name).getAllErrors()) {
+                   LOGGER.log(Level.WARNING,err.toString());
+                }
             }
         }
     }
@@ -407,8 +439,17 @@ public class CrawlJob implements Comparable<CrawlJob>, ApplicationListener<Appli
      * 
      * (Note the crawl may have been configured to start in a 'paused'
      * state.) 
+     * 
+     * Time spent in each launch phase, through the first URI finishing, 
+     * is reported to the job log; see {@link #getLaunchPhaseTimes()}.
      */
-    public synchronized void launch() {
+    public void launch() {
+        synchronized (assemblyLock) {
+            doLaunch();
+        }
+    }
+    
+    protected void doLaunch() {
         if (isProfile()) {
             throw new IllegalArgumentException("Can't launch profile" + this);
         }
@@ -424,9 +465,14 @@ public class CrawlJob implements Comparable<CrawlJob>, ApplicationListener<Appli
             }
         }
         
+        startLaunchTiming();
+        instantiateContainer();
+        endLaunchPhase("assemble");
         validateConfiguration();
+        endLaunchPhase("validate");
         if(!hasValidApplicationContext()) {
             getJobLogger().log(Level.SEVERE,"Can't launch problem configuration");
+            stopLaunchTiming();
             return;
         }
 
@@ -441,8 +487,12 @@ public class CrawlJob implements Comparable<CrawlJob>, ApplicationListener<Appli
             public void run() {
                 CrawlController cc = getCrawlController();
                 startContext();
+                endLaunchPhase("start");
                 if(cc!=null) {
                     cc.requestCrawlStart();
+                    endLaunchPhase("crawl start");
+                } else {
+                    stopLaunchTiming();
                 }
             }
         };
@@ -457,6 +507,69 @@ public class CrawlJob implements Comparable<CrawlJob>, ApplicationListener<Appli
         }
     }
     
+    protected void startLaunchTiming() {
+        synchronized (launchPhaseTimes) {
+            launchPhaseTimes.clear();
+            launchRequestedAt = launchPhaseMark = System.currentTimeMillis();
+        }
+    }
+    
+    /**
+     * Note the end of a launch phase, if a launch is being timed. 
+     */
+    protected void endLaunchPhase(String phase) {
+        synchronized (launchPhaseTimes) {
+            if (launchPhaseMark == 0) {
+                return;
+            }
+            long now = System.currentTimeMillis();
+            launchPhaseTimes.put(phase, now - launchPhaseMark);
+            launchPhaseMark = now;
+        }
+    }
+    
+    protected void stopLaunchTiming() {
+        synchronized (launchPhaseTimes) {
+            launchPhaseMark = 0;
+        }
+    }
+    
+    /**
+     * Upon the first URI finishing after launch, report time to first 
+     * fetch and its breakdown by phase. 
+     */
+    protected void firstFetchCompleted() {
+        String report;
+        synchronized (launchPhaseTimes) {
+            if (launchPhaseMark == 0) {
+                return;
+            }
+            endLaunchPhase("first fetch");
+            launchPhaseMark = 0;
+            StringBuilder sb = new StringBuilder("time to first fetch ");
+            sb.append(System.currentTimeMillis() - launchRequestedAt).append("ms (");
+            String sep = "";
+            for (Map.Entry<String,Long> e : launchPhaseTimes.entrySet()) {
+                sb.append(sep).append(e.getKey()).append(' ')
+                    .append(e.getValue()).append("ms");
+                sep = ", ";
+            }
+            report = sb.append(')').toString();
+        }
+        getJobLogger().log(Level.INFO, report);
+    }
+    
+    /**
+     * @return map of launch phase (assemble, validate, start, crawl start, 
+     * first fetch) to milliseconds spent, for the most recent launch; 
+     * phases not yet reached are absent
+     */
+    public Map<String,Long> getLaunchPhaseTimes() {
+        synchronized (launchPhaseTimes) {
+            return new LinkedHashMap<String,Long>(launchPhaseTimes);
+        }
+    }
+    
     protected transient Handler mainJobLogHandler;
     protected transient Handler currentLaunchJobLogHandler;
 
@@ -550,7 +663,19 @@ public class CrawlJob implements Comparable<CrawlJob>, ApplicationListener<Appli
      * 
      * @return true if teardown is complete when method returns, false if still in progress
      */
-    public synchronized boolean teardown() {
+    public boolean teardown() {
+        synchronized (assemblyLock) {
+            synchronized (this) {
+                return doTeardownRequest();
+            }
+        }
+    }
+
+    /**
+     * Request stop and, if it completes promptly, tear down. Caller holds
+     * assemblyLock and the CrawlJob monitor.
+     */
+    protected boolean doTeardownRequest() {
         CrawlController cc = getCrawlController();
         if (cc != null) {
             cc.requestCrawlStop();
@@ -698,6 +823,10 @@ public class CrawlJob implements Comparable<CrawlJob>, ApplicationListener<Appli
      * @see org.springframework.context.ApplicationListener#onApplicationEvent(org.springframework.context.ApplicationEvent)
      */
     public void onApplicationEvent(ApplicationEvent event) {
+        if(event instanceof CrawlURIDispositionEvent && launchPhaseMark != 0) {
+            firstFetchCompleted();
+        }
+        
         if(event instanceof CrawlStateEvent) {
             getJobLogger().log(Level.INFO, ((CrawlStateEvent)event).getState() + 
                     (ac.getCurrentLaunchId() != null ? " " + ac.getCurrentLaunchId() : ""));
@@ -735,8 +864,9 @@ public class CrawlJob implements Comparable<CrawlJob>, ApplicationListener<Appli
     }
 
     public int getAlertCount() {
-        if (alertThreadGroup != null) {
-            return alertThreadGroup.getAlertCount();
+        AlertThreadGroup atg = alertThreadGroup;
+        if (atg != null) {
+            return atg.getAlertCount();
         } else {
             return 0;
         }
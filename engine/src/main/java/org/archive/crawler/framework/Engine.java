@@ -23,6 +23,11 @@ import java.io.File;
 import java.io.FilenameFilter;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.Map;
@@ -56,6 +61,11 @@ public class Engine {
     protected File jobsDir;
     /** map of job short names -&gt; CrawlJob instances */ 
     protected HashMap<String,CrawlJob> jobConfigs = new HashMap<String,CrawlJob>();
+    /** 
+     * watches jobsDir for added, removed, or changed entries, so that 
+     * listings needn't rescan unchanged directories; null if unavailable 
+     */
+    protected WatchService jobsDirWatcher;
 
     protected String profileCxmlPath = 
         "/org/archive/crawler/restlet/profile-crawler-beans.cxml";
@@ -69,18 +79,94 @@ public class Engine {
             throw new IllegalStateException(e);
         }
         
+        try {
+            jobsDirWatcher = FileSystems.getDefault().newWatchService();
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "unable to watch " + jobsDir 
+                    + "; will rescan on every refresh", e);
+        }
+        watch(jobsDir);
+        
         findJobConfigs();
         // TODO: cleanup any cruft from improperly ended jobs 
     }
     
+    /**
+     * Rescan for job configurations only if the jobs directory has changed
+     * since the last scan (or can't be watched). Cheap enough to call on
+     * every listing.
+     */
+    public synchronized void refreshJobConfigs() {
+        if (jobsDirChanged()) {
+            findJobConfigs();
+        }
+    }
+    
+    /**
+     * Register a directory with the jobs-directory watcher, if any. 
+     */
+    protected synchronized void watch(File dir) {
+        if (jobsDirWatcher == null) {
+            return;
+        }
+        try {
+            dir.toPath().register(jobsDirWatcher,
+                    StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_DELETE,
+                    StandardWatchEventKinds.ENTRY_MODIFY);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "unable to watch " + dir 
+                    + "; will rescan on every refresh", e);
+            closeJobsDirWatcher();
+        }
+    }
+    
+    /**
+     * Consume pending watch events.
+     * 
+     * @return true if any change to the jobs directory may have occurred
+     */
+    protected synchronized boolean jobsDirChanged() {
+        if (jobsDirWatcher == null) {
+            return true;
+        }
+        boolean changed = false;
+        WatchKey key;
+        while ((key = jobsDirWatcher.poll()) != null) {
+            key.pollEvents();
+            changed = true;
+            if (!key.reset() && jobsDir.equals(((Path)key.watchable()).toFile())) {
+                // jobsDir itself gone or unwatchable
+                closeJobsDirWatcher();
+                return true;
+            }
+        }
+        return changed;
+    }
+    
+    protected synchronized void closeJobsDirWatcher() {
+        if (jobsDirWatcher != null) {
+            try {
+                jobsDirWatcher.close();
+            } catch (IOException e) {
+                LOGGER.log(Level.FINE, "closing watcher", e);
+            }
+            jobsDirWatcher = null;
+        }
+    }
+    
     /**
      * Find all job configurations in the usual place -- subdirectories
      * of the jobs directory with files ending '.cxml', and from jobPathFiles
      * (previously added by user) found in the jobs directory
      */
-    public void findJobConfigs() {
+    public synchronized void findJobConfigs() {
         // TODO: allow other places/paths to be scanned/added as well?
         
+        // changes already noted are covered by this scan; any during it
+        // will trigger the next refresh
+        jobsDirChanged();
+        
         // remove crawljobs whose directories have disappeared
         // TODO: try a more delicate cleanup; eg: if appCtx exists?
         for(String jobName: jobConfigs.keySet().toArray(new String[0])) {
@@ -107,6 +193,11 @@ public class Engine {
                 continue;
             }
             if(!addJobDirectory(jobFile)) {
+                if (candidateFile.isDirectory()) {
+                    // perhaps a job still being created: notice its 
+                    // configuration appearing
+                    watch(candidateFile);
+                }
                 LOGGER.log(Level.WARNING,"invalid job directory: " + jobFile 
                         + " where job expected from: " + candidateFile);
             }
@@ -299,6 +390,7 @@ public class Engine {
             }
         }
         waitForNoRunningJobs(0);
+        closeJobsDirWatcher();
     }
 
     /**
@@ -21,6 +21,7 @@ package org.archive.crawler.framework;
 import java.io.File;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.util.Collection;
 import java.util.Set;
 import java.util.concurrent.BlockingQueue;
 
@@ -134,6 +135,16 @@ public interface Frontier extends Lifecycle, Reporter {
      */
     public void schedule(CrawlURI caURI);
 
+    /**
+     * Schedules a batch of CrawlURIs, with the same effect as passing each
+     * to {@link #schedule(CrawlURI)}, but allowing the implementation to
+     * order and group insertions (as by queue) for efficiency. Intended for
+     * bulk sources such as large seed lists.
+     *
+     * @param caURIs The URIs to schedule.
+     */
+    public void scheduleAll(Collection<CrawlURI> caURIs);
+
     /**
      * Report a URI being processed as having finished processing.
      *
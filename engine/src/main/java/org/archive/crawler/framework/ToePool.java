@@ -20,11 +20,17 @@
 package org.archive.crawler.framework;
 
 import java.io.PrintWriter;
+import java.lang.reflect.Method;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import org.apache.commons.lang.StringUtils;
 import org.archive.crawler.reporting.AlertThreadGroup;
@@ -38,6 +44,13 @@ import org.archive.util.Reporter;
  * number, keeping track of their state and (not necessarily safely)
  * killing hung threads.
  *
+ * <p>Optionally, on JDKs offering virtual threads, each ToeThread's loop
+ * may be run on a virtual thread rather than the ToeThread itself; blocking
+ * network and disk I/O then costs no platform thread, allowing thousands
+ * of ToeThreads. (Per-ToeThread state such as the Recorder, and
+ * thread-local state such as KeyedProperties overlays, follow the loop
+ * onto its virtual thread.)
+ *
  * @author Gordon Mohr
  * @author Kristinn Sigurdsson
  *
@@ -47,9 +60,22 @@ public class ToePool extends ThreadGroup implements Reporter {
     /** run worker thread slightly lower than usual */
     public static int DEFAULT_TOE_PRIORITY = Thread.NORM_PRIORITY - 1;
     
+    private static final Logger logger = 
+        Logger.getLogger(ToePool.class.getName());
+
     protected CrawlController controller;
     protected int nextSerialNumber = 1;
     protected int targetSize = 0; 
+    
+    /** 
+     * all ToeThreads whose loops have not finished; virtual-thread-run 
+     * ToeThreads are not members of this ThreadGroup, so are tracked here
+     */
+    protected Set<ToeThread> toes = 
+        Collections.newSetFromMap(new ConcurrentHashMap<ToeThread,Boolean>());
+    
+    /** whether new ToeThreads are run on virtual threads */
+    protected boolean useVirtualThreads = false;
 
     /**
      * Constructor. Creates a pool of ToeThreads. 
@@ -62,6 +88,24 @@ public class ToePool extends ThreadGroup implements Reporter {
         setDaemon(true);
     }
     
+    /**
+     * Run new ToeThreads' loops on virtual threads, if the running JDK 
+     * supports them; otherwise (with a warning) on platform threads as usual.
+     * Only affects ToeThreads started after the call.
+     */
+    public void setUseVirtualThreads(boolean useVirtualThreads) {
+        if (useVirtualThreads && !isVirtualThreadsAvailable()) {
+            logger.warning("virtual threads unavailable in this JVM (" 
+                    + System.getProperty("java.version") 
+                    + "); using platform ToeThreads");
+            useVirtualThreads = false;
+        }
+        this.useVirtualThreads = useVirtualThreads;
+    }
+    public boolean getUseVirtualThreads() {
+        return useVirtualThreads;
+    }
+    
     public void cleanup() {
     	// force all Toes waiting on queues, etc to proceed
         Thread[] toes = getToes();
@@ -105,21 +149,57 @@ public class ToePool extends ThreadGroup implements Reporter {
         return count; 
     }
     
-    private Thread[] getToes() {
-        Thread[] toes = new Thread[activeCount()+10];
-        this.enumerate(toes);
-        return toes;
+    private ToeThread[] getToes() {
+        return toes.toArray(new ToeThread[0]);
+    }
+
+    /**
+     * @return snapshot of current ToeThreads, including any retiring
+     */
+    public ToeThread[] getToeThreads() {
+        return getToes();
+    }
+
+    /**
+     * @return number of ToeThreads last requested via {@link #setSize(int)}
+     */
+    public synchronized int getTargetSize() {
+        return targetSize;
+    }
+    
+    /**
+     * Note that the given ToeThread's loop has ended.
+     */
+    protected void toeFinished(ToeThread toe) {
+        toes.remove(toe);
+    }
+
+    /**
+     * @return The number of ToeThreads not retiring: those which will 
+     *         continue to take URIs.
+     */
+    public int getRetainedToeCount() {
+        int count = 0;
+        for (ToeThread toe : getToes()) {
+            if (!toe.shouldRetire()) {
+                count++;
+            }
+        }
+        return count;
     }
 
     /**
-     * Change the number of ToeThreads.
+     * Change the number of ToeThreads. Synchronized, as both the 
+     * ToePoolSizer and operator changes to maxToeThreads may resize.
+     * ToeThreads already retiring, though perhaps still finishing a URI,
+     * are not counted toward the new size.
      *
      * @param newsize The new number of ToeThreads.
      */
-    public void setSize(int newsize)
+    public synchronized void setSize(int newsize)
     {
         targetSize = newsize;
-        int difference = newsize - getToeCount(); 
+        int difference = newsize - getRetainedToeCount(); 
         if (difference > 0) {
             // must create threads
             for(int i = 1; i <= difference; i++) {
@@ -128,18 +208,17 @@ public class ToePool extends ThreadGroup implements Reporter {
         } else {
             // must retire extra threads
             int retainedToes = targetSize; 
-            Thread[] toes = this.getToes();
+            ToeThread[] toes = this.getToes();
             for (int i = 0; i < toes.length ; i++) {
-                if(!(toes[i] instanceof ToeThread)) {
-                    continue;
+                if (toes[i].shouldRetire()) {
+                    continue; // already going
                 }
                 retainedToes--;
                 if (retainedToes>=0) {
                     continue; // this toe is spared
                 }
                 // otherwise:
-                ToeThread tt = (ToeThread)toes[i];
-                tt.retire();
+                toes[i].retire();
             }
         }
     }
@@ -178,8 +257,55 @@ public class ToePool extends ThreadGroup implements Reporter {
     private synchronized void startNewThread() {
         ToeThread newThread = new ToeThread(this, nextSerialNumber++);
         newThread.setPriority(DEFAULT_TOE_PRIORITY);
+        toes.add(newThread);
+        launch(newThread);
+    }
+
+    /**
+     * Start running the given (registered) ToeThread's loop.
+     */
+    protected void launch(ToeThread newThread) {
+        if (useVirtualThreads) {
+            try {
+                newVirtualThread(newThread.getName(), newThread).start();
+                return;
+            } catch (Exception e) {
+                logger.log(Level.WARNING, "unable to start virtual thread; " 
+                        + "using platform ToeThreads", e);
+                useVirtualThreads = false;
+            }
+        }
         newThread.start();
     }
+    
+    //
+    // Virtual thread support, by reflection to remain runnable on older JDKs
+    //
+    
+    private static Method ofVirtualMethod;
+    private static Method builderNameMethod;
+    private static Method builderUnstartedMethod;
+    static {
+        try {
+            ofVirtualMethod = Thread.class.getMethod("ofVirtual");
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            builderNameMethod = builderClass.getMethod("name", String.class);
+            builderUnstartedMethod = builderClass.getMethod("unstarted", Runnable.class);
+        } catch (Exception e) {
+            // not available in this JDK
+            ofVirtualMethod = null;
+        }
+    }
+    
+    public static boolean isVirtualThreadsAvailable() {
+        return ofVirtualMethod != null;
+    }
+    
+    protected static Thread newVirtualThread(String name, Runnable runnable) throws Exception {
+        Object builder = ofVirtualMethod.invoke(null);
+        builder = builderNameMethod.invoke(builder, name);
+        return (Thread) builderUnstartedMethod.invoke(builder, runnable);
+    }
 
     /**
      * @return Instance of CrawlController.
@@ -199,7 +325,11 @@ public class ToePool extends ThreadGroup implements Reporter {
         writer.print(" Job being crawled: "
                 + this.controller.getMetadata().getJobName() + "\n");
         writer.print(" Number of toe threads in pool: " + getToeCount() + " ("
-                + getActiveToeCount() + " active)\n\n");
+                + getActiveToeCount() + " active)\n");
+        if (useVirtualThreads) {
+            writer.print(" Toe threads run on virtual threads\n");
+        }
+        writer.print("\n");
         
         Thread[] toes = this.getToes();
         synchronized (toes) {
@@ -336,9 +466,9 @@ public class ToePool extends ThreadGroup implements Reporter {
     }
     
     
-    private static boolean isAllAlive(Thread[] threads) {
-        for (Thread t: threads) {
-            if ((t != null) && (!t.isAlive())) {
+    private static boolean isAllAlive(ToeThread[] threads) {
+        for (ToeThread t: threads) {
+            if ((t != null) && (!t.isRunning())) {
                 return false;
             }
         }
@@ -0,0 +1,604 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.crawler.framework;
+
+import java.io.PrintWriter;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+import org.archive.bdb.BdbModule;
+import org.archive.util.ArchiveUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.Lifecycle;
+
+/**
+ * Adjusts the number of ToeThreads during a crawl, within configured bounds,
+ * toward the highest rate of finished URIs.
+ * 
+ * <p>Every {@link #getIntervalSeconds()}, samples what ToeThreads are doing
+ * (waiting for a URI from the frontier, fetching, or otherwise processing),
+ * the URI completion rate, CPU load, the share of time spent in garbage
+ * collection, heap occupancy after collection and (if a BdbModule is
+ * present) the BDB-JE cache miss ratio. Then:
+ * <ul>
+ * <li>under memory, GC, cache or CPU pressure, or when many threads are
+ * idle waiting for the frontier, the pool shrinks;
+ * <li>otherwise, after a change, the pool keeps moving the same way while
+ * the rate improves, reverses if the rate falls, and reverts an increase
+ * that brought no gain;
+ * <li>otherwise, if most threads are fetching (so more might overlap more
+ * network waits), the pool grows.
+ * </ul>
+ * Each change is {@link #getStepFraction()} of the current size (at least
+ * {@link #getMinStep()}). Decisions are logged, and the most recent are
+ * kept for the toe-pool-sizing report
+ * ({@link org.archive.crawler.reporting.ToePoolSizingReport}).
+ * 
+ * <p>The crawl's maxToeThreads is the starting size; if an operator changes
+ * it mid-crawl, the pool is resized accordingly, and sizing continues from
+ * there.
+ */
+public class ToePoolSizer implements Lifecycle, Runnable {
+    private static final Logger logger =
+        Logger.getLogger(ToePoolSizer.class.getName());
+
+    protected CrawlController controller;
+    public CrawlController getCrawlController() {
+        return controller;
+    }
+    @Autowired
+    public void setCrawlController(CrawlController controller) {
+        this.controller = controller;
+    }
+
+    protected BdbModule bdb;
+    public BdbModule getBdbModule() {
+        return bdb;
+    }
+    /** if present, its cache miss ratio counts as memory pressure */
+    @Autowired(required=false)
+    public void setBdbModule(BdbModule bdb) {
+        this.bdb = bdb;
+    }
+
+    /** fewest ToeThreads the pool is shrunk to */
+    protected int minToeThreads = 10;
+    public int getMinToeThreads() {
+        return minToeThreads;
+    }
+    public void setMinToeThreads(int minToeThreads) {
+        this.minToeThreads = minToeThreads;
+    }
+
+    /** most ToeThreads the pool is grown to */
+    protected int maxToeThreads = 1000;
+    public int getMaxToeThreads() {
+        return maxToeThreads;
+    }
+    public void setMaxToeThreads(int maxToeThreads) {
+        this.maxToeThreads = maxToeThreads;
+    }
+
+    /** seconds between sizing decisions */
+    protected int intervalSeconds = 30;
+    public int getIntervalSeconds() {
+        return intervalSeconds;
+    }
+    public void setIntervalSeconds(int intervalSeconds) {
+        this.intervalSeconds = intervalSeconds;
+    }
+
+    /** seconds after start before the first sample */
+    protected int initialDelaySeconds = 60;
+    public int getInitialDelaySeconds() {
+        return initialDelaySeconds;
+    }
+    public void setInitialDelaySeconds(int initialDelaySeconds) {
+        this.initialDelaySeconds = initialDelaySeconds;
+    }
+
+    /** size of each change, as a fraction of the current size */
+    protected double stepFraction = 0.1;
+    public double getStepFraction() {
+        return stepFraction;
+    }
+    public void setStepFraction(double stepFraction) {
+        this.stepFraction = stepFraction;
+    }
+
+    /** smallest change, in threads */
+    protected int minStep = 2;
+    public int getMinStep() {
+        return minStep;
+    }
+    public void setMinStep(int minStep) {
+        this.minStep = minStep;
+    }
+
+    /**
+     * Relative change in URIs/sec, after a change of size, regarded as
+     * significant.
+     */
+    protected double minImprovement = 0.05;
+    public double getMinImprovement() {
+        return minImprovement;
+    }
+    public void setMinImprovement(double minImprovement) {
+        this.minImprovement = minImprovement;
+    }
+
+    /** heap occupancy after GC (0 to 1) at which the pool shrinks */
+    protected double maxHeapOccupancy = 0.85;
+    public double getMaxHeapOccupancy() {
+        return maxHeapOccupancy;
+    }
+    public void setMaxHeapOccupancy(double maxHeapOccupancy) {
+        this.maxHeapOccupancy = maxHeapOccupancy;
+    }
+
+    /** fraction of elapsed time spent in GC at which the pool shrinks */
+    protected double maxGcFraction = 0.1;
+    public double getMaxGcFraction() {
+        return maxGcFraction;
+    }
+    public void setMaxGcFraction(double maxGcFraction) {
+        this.maxGcFraction = maxGcFraction;
+    }
+
+    /**
+     * Process CPU use, as a fraction of all processors (or, where process
+     * CPU time is unavailable, system load average per processor), at
+     * which the pool shrinks.
+     */
+    protected double maxCpuLoad = 0.9;
+    public double getMaxCpuLoad() {
+        return maxCpuLoad;
+    }
+    public void setMaxCpuLoad(double maxCpuLoad) {
+        this.maxCpuLoad = maxCpuLoad;
+    }
+
+    /** BDB-JE cache miss ratio (0 to 1) at which the pool shrinks */
+    protected double maxCacheMissRatio = 0.5;
+    public double getMaxCacheMissRatio() {
+        return maxCacheMissRatio;
+    }
+    public void setMaxCacheMissRatio(double maxCacheMissRatio) {
+        this.maxCacheMissRatio = maxCacheMissRatio;
+    }
+
+    /**
+     * Fraction of threads waiting for a URI from the frontier at which the
+     * pool shrinks: the frontier, not the thread count, is then limiting.
+     */
+    protected double maxWaitingFraction = 0.5;
+    public double getMaxWaitingFraction() {
+        return maxWaitingFraction;
+    }
+    public void setMaxWaitingFraction(double maxWaitingFraction) {
+        this.maxWaitingFraction = maxWaitingFraction;
+    }
+
+    /** fraction of threads fetching at which the pool tries growing */
+    protected double growFetchingFraction = 0.5;
+    public double getGrowFetchingFraction() {
+        return growFetchingFraction;
+    }
+    public void setGrowFetchingFraction(double growFetchingFraction) {
+        this.growFetchingFraction = growFetchingFraction;
+    }
+
+    /** decisions after a fruitless increase before trying to grow again */
+    protected int cooldownIntervals = 5;
+    public int getCooldownIntervals() {
+        return cooldownIntervals;
+    }
+    public void setCooldownIntervals(int cooldownIntervals) {
+        this.cooldownIntervals = cooldownIntervals;
+    }
+
+    /** bean names of fetch processors; threads in these count as fetching */
+    protected Pattern fetchProcessorPattern = Pattern.compile("(?i)fetch.*");
+    public String getFetchProcessorPattern() {
+        return fetchProcessorPattern.pattern();
+    }
+    public void setFetchProcessorPattern(String regex) {
+        this.fetchProcessorPattern = Pattern.compile(regex);
+    }
+
+    /** number of recent decisions kept for the report */
+    protected int historySize = 200;
+    public int getHistorySize() {
+        return historySize;
+    }
+    public void setHistorySize(int historySize) {
+        this.historySize = historySize;
+    }
+
+    /**
+     * Conditions over one interval.
+     */
+    public static class Sample {
+        public long timestamp;
+        public int toeCount;
+        public int waiting;
+        public int fetching;
+        public int processing;
+        public double urisPerSecond;
+        /** -1 if unknown */
+        public double cpuLoad = -1;
+        public double gcFraction;
+        public double heapOccupancy;
+        /** -1 if unknown */
+        public double cacheMissRatio = -1;
+
+        public double waitingFraction() {
+            return toeCount > 0 ? (double) waiting / toeCount : 0;
+        }
+
+        public double fetchingFraction() {
+            return toeCount > 0 ? (double) fetching / toeCount : 0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%.1f URIs/sec; threads %d waiting, %d fetching, %d processing; "
+                    + "cpu %s gc %.0f%% heap %.0f%% cacheMiss %s",
+                    urisPerSecond, waiting, fetching, processing,
+                    cpuLoad < 0 ? "?" : String.format("%.0f%%", cpuLoad * 100),
+                    gcFraction * 100, heapOccupancy * 100,
+                    cacheMissRatio < 0 ? "?" : String.format("%.0f%%", cacheMissRatio * 100));
+        }
+    }
+
+    /**
+     * A sizing decision: the sample it was based on, old and new sizes
+     * (equal when holding), and why.
+     */
+    public static class Decision {
+        public final Sample sample;
+        public final int fromSize;
+        public final int toSize;
+        public final String reason;
+
+        public Decision(Sample sample, int fromSize, int toSize, String reason) {
+            this.sample = sample;
+            this.fromSize = fromSize;
+            this.toSize = toSize;
+            this.reason = reason;
+        }
+
+        @Override
+        public String toString() {
+            return (toSize == fromSize ? "hold " + fromSize : fromSize + " -> " + toSize)
+                    + ": " + reason + " [" + sample + "]";
+        }
+    }
+
+    protected ScheduledExecutorService executor;
+
+    // previous cumulative readings, for per-interval rates
+    protected long lastSampleTime = 0;
+    protected long lastFinished;
+    protected long lastGcMillis;
+    protected long lastCpuNanos;
+    protected long lastCacheFetches;
+    protected long lastCacheMisses;
+
+    // hill-climbing state
+    /** +1 or -1 for the last change of size, 0 if none pending evaluation */
+    protected int lastDirection = 0;
+    /** URIs/sec before the last change */
+    protected double rateBeforeChange = 0;
+    protected int cooldown = 0;
+
+    protected final LinkedList<Decision> history = new LinkedList<Decision>();
+
+    public boolean isRunning() {
+        return executor != null && !executor.isShutdown();
+    }
+
+    public void start() {
+        if (isRunning()) {
+            return;
+        }
+        executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "ToePoolSizer");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        executor.scheduleWithFixedDelay(this, getInitialDelaySeconds(),
+                getIntervalSeconds(), TimeUnit.SECONDS);
+    }
+
+    public void stop() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    public void run() {
+        try {
+            ToePool pool = controller != null ? controller.getToePool() : null;
+            if (pool == null || !controller.isActive() || controller.isPaused()) {
+                // no meaningful rates across pauses
+                lastSampleTime = 0;
+                lastDirection = 0;
+                return;
+            }
+            Sample sample = sample(pool);
+            if (sample == null) {
+                return;
+            }
+            int size = pool.getTargetSize();
+            Decision decision = decide(sample, size);
+            if (decision.toSize != size) {
+                pool.setSize(decision.toSize);
+            }
+            record(decision);
+        } catch (RuntimeException e) {
+            logger.log(Level.WARNING, "problem sizing ToePool", e);
+        }
+    }
+
+    /**
+     * Take readings. The first call (after start or a pause) only
+     * establishes a baseline.
+     * 
+     * @return sample over the interval since the last call, or null
+     */
+    protected Sample sample(ToePool pool) {
+        long now = System.currentTimeMillis();
+        long finished = controller.getFrontier().finishedUriCount();
+        long gcMillis = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            gcMillis += Math.max(0, gc.getCollectionTime());
+        }
+        long cpuNanos = processCpuNanos();
+        long cacheFetches = 0;
+        long cacheMisses = 0;
+        if (bdb != null) {
+            Map<String, Long> cacheStats = bdb.getCacheStats();
+            if (cacheStats.containsKey("nodeFetches")) {
+                cacheFetches = cacheStats.get("nodeFetches");
+                cacheMisses = cacheStats.get("nodeFetchMisses");
+            }
+        }
+
+        Sample sample = null;
+        long elapsed = now - lastSampleTime;
+        if (lastSampleTime > 0 && elapsed > 0) {
+            sample = new Sample();
+            sample.timestamp = now;
+            sample.urisPerSecond = (finished - lastFinished) * 1000.0 / elapsed;
+            sample.gcFraction = (double) (gcMillis - lastGcMillis) / elapsed;
+            int processors = Runtime.getRuntime().availableProcessors();
+            if (cpuNanos >= 0 && lastCpuNanos >= 0) {
+                sample.cpuLoad = (cpuNanos - lastCpuNanos) / (elapsed * 1000000.0 * processors);
+            } else {
+                double loadAverage = ManagementFactory.getOperatingSystemMXBean().getSystemLoadAverage();
+                sample.cpuLoad = loadAverage >= 0 ? loadAverage / processors : -1;
+            }
+            long fetches = cacheFetches - lastCacheFetches;
+            if (fetches >= MIN_CACHE_FETCHES) {
+                sample.cacheMissRatio = (double) (cacheMisses - lastCacheMisses) / fetches;
+            }
+            sample.heapOccupancy = heapOccupancy();
+            tallyThreads(pool, sample);
+        }
+
+        lastSampleTime = now;
+        lastFinished = finished;
+        lastGcMillis = gcMillis;
+        lastCpuNanos = cpuNanos;
+        lastCacheFetches = cacheFetches;
+        lastCacheMisses = cacheMisses;
+        return sample;
+    }
+
+    /** fewest cache fetches in an interval for a meaningful miss ratio */
+    protected static final long MIN_CACHE_FETCHES = 1000;
+
+    /**
+     * Classify each ToeThread as waiting for a URI, fetching, or otherwise
+     * processing. Retiring ToeThreads are not counted, as the pool's size
+     * no longer includes them.
+     */
+    protected void tallyThreads(ToePool pool, Sample sample) {
+        for (ToeThread toe : pool.getToeThreads()) {
+            if (toe.shouldRetire()) {
+                continue;
+            }
+            Object step = toe.getStep();
+            if (step == ToeThread.Step.ABOUT_TO_GET_URI || step == ToeThread.Step.NASCENT) {
+                sample.waiting++;
+            } else if (step == ToeThread.Step.ABOUT_TO_BEGIN_PROCESSOR
+                    && fetchProcessorPattern.matcher(toe.getCurrentProcessorName()).matches()) {
+                sample.fetching++;
+            } else if (step != ToeThread.Step.FINISHED) {
+                sample.processing++;
+            } else {
+                continue;
+            }
+            sample.toeCount++;
+        }
+    }
+
+    /**
+     * @return cumulative CPU time of this process, or -1 if unavailable
+     */
+    protected long processCpuNanos() {
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        if (os instanceof com.sun.management.OperatingSystemMXBean) {
+            return ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuTime();
+        }
+        return -1;
+    }
+
+    /**
+     * @return occupancy of the largest heap pool (the old generation, with
+     *         the usual collectors) as of its last collection, or failing
+     *         that of the whole heap, as a fraction of its maximum
+     */
+    protected double heapOccupancy() {
+        MemoryUsage largest = null;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() != MemoryType.HEAP || !pool.isValid()) {
+                continue;
+            }
+            MemoryUsage afterGc = pool.getCollectionUsage();
+            if (afterGc != null && afterGc.getMax() > 0
+                    && (largest == null || afterGc.getMax() > largest.getMax())) {
+                largest = afterGc;
+            }
+        }
+        if (largest == null) {
+            largest = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+        }
+        return largest.getMax() > 0 ? (double) largest.getUsed() / largest.getMax() : 0;
+    }
+
+    /**
+     * Decide on a new size, given the latest sample and current size.
+     * Updates hill-climbing state.
+     */
+    protected Decision decide(Sample s, int size) {
+        int step = Math.max(minStep, (int) Math.round(size * stepFraction));
+        if (cooldown > 0) {
+            cooldown--;
+        }
+
+        if (s.heapOccupancy >= maxHeapOccupancy) {
+            return change(s, size, -step, String.format(
+                    "heap %.0f%% full after GC", s.heapOccupancy * 100));
+        }
+        if (s.gcFraction >= maxGcFraction) {
+            return change(s, size, -step, String.format(
+                    "%.0f%% of time in GC", s.gcFraction * 100));
+        }
+        if (s.cacheMissRatio >= maxCacheMissRatio) {
+            return change(s, size, -step, String.format(
+                    "BDB cache miss ratio %.0f%%", s.cacheMissRatio * 100));
+        }
+        if (s.cpuLoad >= maxCpuLoad) {
+            return change(s, size, -step, String.format(
+                    "CPU %.0f%% busy", s.cpuLoad * 100));
+        }
+        if (s.waitingFraction() >= maxWaitingFraction) {
+            return change(s, size, -step, String.format(
+                    "%.0f%% of threads waiting for frontier", s.waitingFraction() * 100));
+        }
+
+        if (lastDirection != 0 && rateBeforeChange > 0) {
+            double gain = (s.urisPerSecond - rateBeforeChange) / rateBeforeChange;
+            String gainString = String.format("%+.0f%% URIs/sec after last change", gain * 100);
+            if (gain >= minImprovement) {
+                return change(s, size, lastDirection * step, gainString + "; continuing");
+            } else if (gain <= -minImprovement) {
+                return change(s, size, -lastDirection * step, gainString + "; reversing");
+            } else if (lastDirection > 0) {
+                cooldown = cooldownIntervals;
+                return change(s, size, -step, gainString + "; reverting fruitless increase");
+            } else {
+                return hold(s, size, gainString);
+            }
+        }
+
+        if (s.fetchingFraction() >= growFetchingFraction && cooldown == 0) {
+            return change(s, size, step, String.format(
+                    "%.0f%% of threads fetching", s.fetchingFraction() * 100));
+        }
+        return hold(s, size, "steady");
+    }
+
+    protected Decision change(Sample s, int size, int delta, String reason) {
+        int newSize = Math.max(minToeThreads, Math.min(maxToeThreads, size + delta));
+        if (newSize == size) {
+            return hold(s, size, reason + " (at " + (delta < 0 ? "minimum" : "maximum") + ")");
+        }
+        lastDirection = delta > 0 ? 1 : -1;
+        rateBeforeChange = s.urisPerSecond;
+        return new Decision(s, size, newSize, reason);
+    }
+
+    protected Decision hold(Sample s, int size, String reason) {
+        lastDirection = 0;
+        return new Decision(s, size, size, reason);
+    }
+
+    protected void record(Decision decision) {
+        if (decision.toSize != decision.fromSize) {
+            logger.info("resizing ToePool " + decision);
+        } else if (logger.isLoggable(Level.FINE)) {
+            logger.fine(decision.toString());
+        }
+        synchronized (history) {
+            history.add(decision);
+            while (history.size() > historySize) {
+                history.removeFirst();
+            }
+        }
+    }
+
+    /**
+     * @return recent decisions, oldest first
+     */
+    public List<Decision> getHistory() {
+        synchronized (history) {
+            return new ArrayList<Decision>(history);
+        }
+    }
+
+    /**
+     * Write settings and recent decisions, as for the toe-pool-sizing
+     * report.
+     */
+    public void reportTo(PrintWriter writer) {
+        ToePool pool = controller != null ? controller.getToePool() : null;
+        writer.println("ToePool sizing: " + minToeThreads + " to " + maxToeThreads
+                + " threads, every " + intervalSeconds + "s");
+        writer.println("current size: " + (pool != null ? pool.getTargetSize() : "-"));
+        writer.println();
+        List<Decision> decisions = getHistory();
+        writer.println(decisions.size() + " most recent decisions:");
+        for (Decision decision : decisions) {
+            writer.print(ArchiveUtils.getLog17Date(decision.sample.timestamp));
+            writer.print(" ");
+            writer.println(decision);
+        }
+    }
+}
@@ -34,6 +34,7 @@ import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import org.archive.crawler.reporting.AlertThreadGroup;
 import org.archive.io.SinkHandlerLogThread;
 import org.archive.modules.CrawlURI;
 import org.archive.modules.Processor;
@@ -69,8 +70,15 @@ implements Reporter, ProgressStatisticsReporter,
         Logger.getLogger("org.archive.crawler.framework.ToeThread");
 
     private CrawlController controller;
+    private ToePool pool;
     private int serialNumber;
     
+    /**
+     * Thread actually running this ToeThread's loop: the ToeThread itself,
+     * or a virtual thread when the ToePool runs in virtual-thread mode.
+     */
+    private volatile Thread runner = null;
+    
     /**
      * Each ToeThead has an instance of HttpRecord that gets used
      * over and over by each request.
@@ -108,6 +116,7 @@ implements Reporter, ProgressStatisticsReporter,
         super(g,"ToeThread #" + sn);
         coreName="ToeThread #" + sn + ": ";
         controller = g.getController();
+        pool = g;
         serialNumber = sn;
         setPriority(DEFAULT_PRIORITY);
         int outBufferSize = controller.getRecorderOutBufferBytes();
@@ -121,6 +130,11 @@ implements Reporter, ProgressStatisticsReporter,
      * @see java.lang.Thread#run()
      */
     public void run() {
+        runner = Thread.currentThread();
+        if (runner != this) {
+            // running on a (virtual) thread outside the ToePool's group
+            AlertThreadGroup.setActingFor(this);
+        }
         String name = controller.getMetadata().getJobName();
         logger.fine(getName()+" started for order '"+name+"'");
         Recorder.setHttpRecorder(httpRecorder); 
@@ -208,18 +222,66 @@ implements Reporter, ProgressStatisticsReporter,
         } catch (OutOfMemoryError err) {
             seriousError(err);
         } finally {
-            controller.getFrontier().endDisposition();
-
+            // whatever ended the loop, the pool must stop counting this toe
+            try {
+                controller.getFrontier().endDisposition();
+            } finally {
+                setCurrentCuri(null);
+                try {
+                    // Do cleanup so that objects can be GC.
+                    this.httpRecorder.closeRecorders();
+                } finally {
+                    this.httpRecorder = null;
+
+                    logger.fine(getName()+" finished for order '"+name+"'");
+                    setStep(Step.FINISHED, null);
+                    controller = null;
+                    pool.toeFinished(this);
+                    if (runner != this) {
+                        AlertThreadGroup.setActingFor(null);
+                    }
+                }
+            }
         }
+    }
 
-        setCurrentCuri(null);
-        // Do cleanup so that objects can be GC.
-        this.httpRecorder.closeRecorders();
-        this.httpRecorder = null;
+    /**
+     * @return thread running this ToeThread's loop (which may be a virtual
+     * thread rather than this ToeThread), or this if not yet running
+     */
+    public Thread getRunner() {
+        Thread r = runner;
+        return r != null ? r : this;
+    }
 
-        logger.fine(getName()+" finished for order '"+name+"'");
-        setStep(Step.FINISHED, null);
-        controller = null;
+    /**
+     * @return whether this ToeThread's loop is running, on whatever thread
+     */
+    public boolean isRunning() {
+        Thread r = runner;
+        return r != null && r.isAlive();
+    }
+
+    /**
+     * Interrupt the thread actually running this ToeThread's loop.
+     */
+    @Override
+    public void interrupt() {
+        Thread r = runner;
+        if (r != null && r != this) {
+            r.interrupt();
+        } else {
+            super.interrupt();
+        }
+    }
+
+    @Override
+    public boolean isInterrupted() {
+        Thread r = runner;
+        if (r != null && r != this) {
+            return r.isInterrupted();
+        }
+        return super.isInterrupted();
     }
 
     /**
@@ -370,7 +432,7 @@ implements Reporter, ProgressStatisticsReporter,
      */
     public boolean isActive() {
         // if alive and not waiting in/for frontier.next(), we're 'active'
-        return this.isAlive() && (currentCuri != null) && !isInterrupted();
+        return isRunning() && (currentCuri != null) && !isInterrupted();
     }
     
     /**
@@ -453,7 +515,7 @@ implements Reporter, ProgressStatisticsReporter,
         pw.print(ArchiveUtils.formatMillisecondsToConventional(System.currentTimeMillis()-atStepSince));
         pw.println();
 
-        reportThread(this, pw);
+        reportThread(getRunner(), pw);
         pw.print("]");
         pw.println();
         
@@ -468,9 +530,10 @@ implements Reporter, ProgressStatisticsReporter,
         ThreadMXBean tmxb = ManagementFactory.getThreadMXBean();
         ThreadInfo info = tmxb.getThreadInfo(t.getId());
         pw.print("Java Thread State: ");
-        pw.println(info.getThreadState());
+        // no ThreadInfo is available for virtual threads
+        pw.println(info != null ? info.getThreadState() : t.getState());
         pw.print("Blocked/Waiting On: ");
-        if (info.getLockOwnerId() >= 0) {
+        if (info != null && info.getLockOwnerId() >= 0) {
             pw.print(info.getLockName());
             pw.print(" which is owned by ");
             pw.print(info.getLockOwnerName());
@@ -34,19 +34,20 @@ import static org.archive.modules.fetcher.FetchStatusCodes.S_TOO_MANY_LINK_HOPS;
 import static org.archive.modules.fetcher.FetchStatusCodes.S_UNATTEMPTED;
 
 import java.io.BufferedReader;
-import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Iterator;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import org.apache.commons.httpclient.HttpStatus;
 import org.apache.commons.httpclient.URIException;
@@ -64,7 +65,7 @@ import org.archive.modules.fetcher.FetchStats.Stage;
 import org.archive.modules.net.CrawlHost;
 import org.archive.modules.net.CrawlServer;
 import org.archive.modules.net.ServerCache;
-import org.archive.modules.seeds.SeedListener;
+import org.archive.modules.seeds.BulkSeedListener;
 import org.archive.modules.seeds.SeedModule;
 import org.archive.spring.HasKeyedProperties;
 import org.archive.spring.KeyedProperties;
@@ -85,7 +86,7 @@ import org.springframework.context.ApplicationListener;
  */
 public abstract class AbstractFrontier 
     implements Frontier,
-               SeedListener, 
+               BulkSeedListener, 
                HasKeyedProperties,
                ExtractorParameters,
                CrawlUriReceiver,
@@ -277,6 +278,9 @@ public abstract class AbstractFrontier
      */
     protected AtomicLong queueReadiedCount = new AtomicLong(0);
 
+    /** count of URIs handed out for processing */
+    protected AtomicLong emittedUriCount = new AtomicLong(0);
+
     /**
      * Crawl replay logger.
      * 
@@ -457,6 +461,7 @@ public abstract class AbstractFrontier
             crawlable = findEligibleURI();
             outboundLock.readLock().unlock();
         }
+        emittedUriCount.incrementAndGet();
         return crawlable;
     }
 
@@ -539,6 +544,47 @@ public abstract class AbstractFrontier
         }
     }
 
+    /**
+     * Arrange for the given CrawlURIs to be visited, if not already 
+     * scheduled/completed. All are first prepared (assigned overlays
+     * and queue keys), then offered to the uniq filter in queue-key
+     * order, so consecutive insertions tend to hit the same queue.
+     * 
+     * @see org.archive.crawler.framework.Frontier#scheduleAll(java.util.Collection)
+     */
+    public void scheduleAll(Collection<CrawlURI> curis) {
+        List<CrawlURI> prepared = new ArrayList<CrawlURI>(curis.size());
+        for (CrawlURI curi : curis) {
+            sheetOverlaysManager.applyOverlaysTo(curi);
+            if (curi.getClassKey() == null) {
+                try {
+                    KeyedProperties.loadOverridesFrom(curi);
+                    preparer.prepare(curi);
+                } finally {
+                    KeyedProperties.clearOverridesFrom(curi); 
+                }
+            }
+            prepared.add(curi);
+        }
+        Collections.sort(prepared, CLASS_KEY_ORDER);
+        for (CrawlURI curi : prepared) {
+            try {
+                KeyedProperties.loadOverridesFrom(curi);
+                processScheduleIfUnique(curi);
+            } finally {
+                KeyedProperties.clearOverridesFrom(curi); 
+            }
+        }
+    }
+
+    protected static final Comparator<CrawlURI> CLASS_KEY_ORDER = 
+        new Comparator<CrawlURI>() {
+            public int compare(CrawlURI a, CrawlURI b) {
+                return String.valueOf(a.getClassKey()).compareTo(
+                        String.valueOf(b.getClassKey()));
+            }
+        };
+
     /**
      * Accept the given CrawlURI for scheduling, as it has
      * passed the alreadyIncluded filter. 
@@ -744,6 +790,13 @@ public abstract class AbstractFrontier
         return futureUriCount.get(); 
     }
     
+    /**
+     * @return count of URIs handed out by {@link #next()} 
+     */
+    public long emittedUriCount() {
+        return emittedUriCount.get();
+    }
+    
     /**
      * (non-Javadoc)
      * 
@@ -805,6 +858,15 @@ public abstract class AbstractFrontier
     public void addedSeed(CrawlURI puri) {
         schedule(puri);
     }
+
+    /**
+     * Schedule a batch of seeds together.
+     * 
+     * @see org.archive.modules.seeds.BulkSeedListener#addedSeeds(java.util.List)
+     */
+    public void addedSeeds(List<CrawlURI> puris) {
+        scheduleAll(puris);
+    }
     
     /** 
      * Do nothing with non-seed lines
@@ -882,14 +944,15 @@ public abstract class AbstractFrontier
         }
         return false;
     }
-    
-    //  show import progress every this many lines
-    private final static int PROGRESS_INTERVAL = 1000000; 
 
     /**
      * Import URIs from the given file (in recover-log-like format, with
      * a 3-character 'type' tag preceding a URI with optional hops/via).
      * 
+     * Lines are parsed on several threads (see {@link RecoveryLogImporter});
+     * each parsed batch is included in URI order, or scheduled grouped by 
+     * queue.
+     * 
      * If 'includeOnly' is true, the URIs will only be imported into 
      * the frontier's alreadyIncluded structure, without being queued.
      * 
@@ -907,62 +970,38 @@ public abstract class AbstractFrontier
      * @throws IOException
      */
     public long importRecoverFormat(File source, boolean applyScope, 
-            boolean includeOnly, boolean forceFetch, String acceptTags) 
+            final boolean includeOnly, final boolean forceFetch, String acceptTags) 
     throws IOException {
-        DecideRule scope = (applyScope) ? getScope() : null;
-        FrontierJournal newJournal = getFrontierJournal();
-        Matcher m = Pattern.compile(acceptTags).matcher(""); 
-        BufferedReader br = ArchiveUtils.getBufferedReader(source);
-        String read;
-        int lineCount = 0; 
-        try {
-            while ((read = br.readLine())!=null) {
-                lineCount++;
-                if(read.length()<4) {
-                    continue;
-                }
-                String lineType = read.substring(0, 3);
-                m.reset(lineType);
-                if(m.matches()) {
-                    try {
-                        String uriHopsViaString = read.substring(3).trim();
-                        CrawlURI curi = CrawlURI.fromHopsViaString(uriHopsViaString);
-                        if(scope!=null) {
-                            sheetOverlaysManager.applyOverlaysTo(curi);
-                            try {
-                                KeyedProperties.loadOverridesFrom(curi);
-                                if(!scope.accepts(curi)) {
-                                    // skip out-of-scope URIs if so configured
-                                    continue;
-                                }
-                            } finally {
-                                KeyedProperties.clearOverridesFrom(curi); 
+        RecoveryLogImporter importer = new RecoveryLogImporter(acceptTags);
+        if (applyScope) {
+            importer.setScope(getScope(), sheetOverlaysManager);
+        }
+        final FrontierJournal newJournal = getFrontierJournal();
+        long lineCount = importer.importLog(source,
+            new RecoveryLogImporter.BatchHandler() {
+                public void handle(List<String> lines, List<CrawlURI> curis) {
+                    if (includeOnly) {
+                        // URI order, for locality in the uniq filter
+                        List<CrawlURI> sorted = new ArrayList<CrawlURI>(curis);
+                        Collections.sort(sorted, RecoveryLogImporter.URI_ORDER);
+                        for (CrawlURI curi : sorted) {
+                            considerIncluded(curi);
+                            if (newJournal != null) {
+                                newJournal.included(curi);
                             }
                         }
-                        if(includeOnly) {
-                            considerIncluded(curi);
-                            newJournal.included(curi);
-                        } else {
+                    } else {
+                        for (CrawlURI curi : curis) {
                             curi.setForceFetch(forceFetch);
-                            schedule(curi);
                         }
-                    } catch (URIException e) {
-                        logger.log(Level.WARNING,"Problem line: "+read, e);
+                        scheduleAll(curis);
                     }
                 }
-                if((lineCount%PROGRESS_INTERVAL)==0) {
-                    // every 1 million lines, print progress
-                    logger.info(
-                            "at line " + lineCount + (includeOnly?" (include-only)":"")
-                            + " alreadyIncluded count = " +
-                            discoveredUriCount());
-                }
-            }
-        } catch (EOFException e) {
-            // expected in some uncleanly-closed recovery logs; ignore
-        } finally {
-            br.close();
-        }
+            });
+        logger.info("imported " + importer.getUrisHandled() + " URIs from "
+                + lineCount + " lines of " + source
+                + (includeOnly ? " (include-only)" : "")
+                + "; alreadyIncluded count = " + discoveredUriCount());
         return lineCount;
     }
     
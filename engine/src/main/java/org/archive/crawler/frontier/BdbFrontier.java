@@ -159,7 +159,7 @@ implements Checkpointable, BeanNameAware {
                         getQueuePrecedencePolicy().queueCreated(q);
                         return q;
                     }});
-        return wq;
+        return indexed(wq);
     }
     
     @Override
@@ -291,6 +291,8 @@ implements Checkpointable, BeanNameAware {
         boolean isRecovery = (recoveryCheckpoint != null);
         this.allQueues = bdb.getObjectCache("allqueues", isRecovery, WorkQueue.class, BdbWorkQueue.class);
         if(isRecovery) {
+            // recovered queues will be indexed when first consulted
+            queueIndex.setComplete(false);
             // restore simple instance fields 
             JSONObject json = recoveryCheckpoint.loadJson(beanName);
             try {
@@ -23,6 +23,7 @@ import java.io.PrintWriter;
 import java.io.UnsupportedEncodingException;
 import java.math.BigInteger;
 import java.util.ArrayList;
+import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Pattern;
@@ -286,6 +287,43 @@ public class BdbMultipleWorkQueues {
         return retVal;
     }
     
+    /**
+     * Get up to max items of the queue with the given origin key prefix, 
+     * in queue order. 
+     * 
+     * @param origin key prefix of queue's 'cap' entry and all its items
+     * @param max maximum items to return
+     * @return list of CrawlURIs, possibly empty
+     * @throws DatabaseException
+     */
+    public List<CrawlURI> getQueued(byte[] origin, int max) 
+    throws DatabaseException {
+        List<CrawlURI> results = new ArrayList<CrawlURI>(max);
+        DatabaseEntry key = new DatabaseEntry(origin);
+        DatabaseEntry value = new DatabaseEntry();
+        Cursor cursor = null;
+        try {
+            cursor = pendingUrisDB.openCursor(null, null);
+            // start at queue's cap (zero-length value), then read onward
+            OperationStatus status = cursor.getSearchKey(key, value, null);
+            while (results.size() < max && status == OperationStatus.SUCCESS) {
+                status = cursor.getNext(key, value, null);
+                if (status != OperationStatus.SUCCESS
+                        || !ArchiveUtils.startsWith(key.getData(), origin)) {
+                    break;
+                }
+                if (value.getData().length > 0) {
+                    results.add((CrawlURI) crawlUriBinding.entryToObject(value));
+                }
+            }
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+        return results;
+    }
+
     protected OperationStatus getNextNearestItem(DatabaseEntry headKey,
             DatabaseEntry result) throws DatabaseException {
         Cursor cursor = null;
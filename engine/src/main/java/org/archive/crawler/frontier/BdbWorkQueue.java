@@ -22,6 +22,7 @@ import java.io.IOException;
 import java.io.Serializable;
 import java.io.UnsupportedEncodingException;
 import java.util.HashSet;
+import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -136,6 +137,18 @@ implements Serializable {
         return curi;
     }
 
+    @Override
+    protected List<CrawlURI> peekItems(final WorkQueueFrontier frontier, int max)
+    throws IOException {
+        final BdbMultipleWorkQueues queues = ((BdbFrontier) frontier)
+            .getWorkQueues();
+        try {
+            return queues.getQueued(origin, max);
+        } catch (DatabaseException e) {
+            throw new IOException(e);
+        }
+    }
+
     protected void insertItem(final WorkQueueFrontier frontier,
             final CrawlURI curi, boolean overwriteIfPresent) throws IOException {
         try {
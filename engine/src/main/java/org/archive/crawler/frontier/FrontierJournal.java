@@ -18,20 +18,20 @@
  */
 package org.archive.crawler.frontier;
 
-import java.io.BufferedReader;
-import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.CountDownLatch;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.regex.Pattern;
 
-import org.apache.commons.httpclient.URIException;
+import org.apache.commons.lang.StringUtils;
 import org.archive.crawler.framework.Frontier;
 import org.archive.io.CrawlerJournal;
 import org.archive.modules.CrawlURI;
-import org.archive.modules.deciderules.DecideRule;
-import org.archive.util.ArchiveUtils;
 import org.json.JSONObject;
 
 /**
@@ -58,14 +58,6 @@ public class FrontierJournal extends CrawlerJournal {
     public final static String F_REENQUEUED = "Fr ";
     public final static String F_SUCCESS = "Fs ";
     public final static String F_FAILURE = "Ff ";
-    
-    //  show recovery progress every this many lines
-    private final static int PROGRESS_INTERVAL = 1000000; 
-    
-    // once this many URIs are queued during recovery, allow 
-    // crawl to begin, while enqueuing of other URIs from log
-    // continues in background
-    private static final long ENOUGH_TO_START_CRAWLING = 100000;
 
     /**
      * Create a new recovery journal at the given location
@@ -119,6 +111,13 @@ public class FrontierJournal extends CrawlerJournal {
      * Utility method for scanning a recovery journal and applying it to
      * a Frontier.
      * 
+     * Both passes over the journal -- first noting completed URIs as 
+     * already-included, then scheduling -- parse and apply URIs on 
+     * several threads (param 'importThreads', default one per processor).
+     * This method returns, letting crawling resume, once the first pass 
+     * is done and the second has queued its first URIs; scheduling 
+     * continues in the background.
+     * 
      * @param params JSONObject of import parameters; see Frontier.importURIS()
      * @param frontier
      * @throws IOException
@@ -136,7 +135,7 @@ public class FrontierJournal extends CrawlerJournal {
         
         // first, fill alreadyIncluded with successes (and possibly failures),
         // and count the total lines
-        final int lines =
+        final long lines =
             importCompletionInfoFromLog(source, frontier, params);
         
         LOGGER.info("finished completion state; recovering queues from " +
@@ -144,7 +143,7 @@ public class FrontierJournal extends CrawlerJournal {
 
         // now, re-add anything that was in old frontier and not already
         // registered as finished. Do this in a separate thread that signals
-        // this thread once ENOUGH_TO_START_CRAWLING URIs have been queued. 
+        // this thread once URIs have started to be queued. 
         final CountDownLatch recoveredEnough = new CountDownLatch(1);
         new Thread(new Runnable() {
             public void run() {
@@ -154,176 +153,114 @@ public class FrontierJournal extends CrawlerJournal {
         }, "queuesRecoveryThread").start();
         
         try {
-            // wait until at least ENOUGH_TO_START_CRAWLING URIs queued
+            // wait until URIs are being queued
             recoveredEnough.await();
         } catch (InterruptedException e) {
             LOGGER.log(Level.WARNING,"interrupted",e);
         }
     }
     
+    /**
+     * @return regex matching the line tags of journal entries whose
+     * flags are set in params
+     */
+    protected static String tagsRegex(JSONObject params, String successes,
+            String failures, String scheduleds) {
+        List<String> tags = new ArrayList<String>();
+        if (!params.isNull(successes)) {
+            tags.add(Pattern.quote(F_SUCCESS));
+        }
+        if (!params.isNull(failures)) {
+            tags.add(Pattern.quote(F_FAILURE));
+        }
+        if (!params.isNull(scheduleds)) {
+            tags.add(Pattern.quote(F_ADD));
+        }
+        // with no tags, match nothing
+        return tags.isEmpty() ? "(?!)" : StringUtils.join(tags, "|");
+    }
+
     /**
      * Import just the SUCCESS (and possibly FAILURE) URIs from the given
-     * recovery log into the frontier as considered included. 
+     * recovery log into the frontier as considered included. Each parsed
+     * batch is applied in URI order, for locality in the uniq filter.
      * 
      * @param source recovery log file to use
-     * @param controller CrawlController of crawl to update
-     * @param retainFailures whether failure ('Ff') URIs should count as done
+     * @param frontier Frontier to update
+     * @param params JSONObject of import parameters
      * @return number of lines in recovery log (for reference)
      * @throws IOException
      */
-    private static int importCompletionInfoFromLog(File source, 
-            Frontier frontier, JSONObject params) throws IOException {
+    private static long importCompletionInfoFromLog(File source, 
+            final Frontier frontier, JSONObject params) throws IOException {
         // Scan log for 'Fs' (+maybe 'Ff') lines: add as 'alreadyIncluded'
-        boolean includeSuccesses = !params.isNull("includeSuccesses");
-        boolean includeFailures = !params.isNull("includeFailures");
-        boolean includeScheduleds = !params.isNull("includeScheduleds");
-        boolean scopeIncludes = !params.isNull("scopeIncludes");
-        
-        DecideRule scope = (scopeIncludes) ? frontier.getScope() : null;
-        FrontierJournal newJournal = frontier.getFrontierJournal();
-        
-        BufferedReader br = ArchiveUtils.getBufferedReader(source);
-        String read;
-        int lines = 0; 
-        try {
-            while ((read = br.readLine())!=null) {
-                lines++;
-                if(read.length()<4) {
-                    continue;
+        RecoveryLogImporter importer = new RecoveryLogImporter(tagsRegex(params,
+                "includeSuccesses", "includeFailures", "includeScheduleds"));
+        importer.setThreads(params.optInt("importThreads", 0));
+        if (!params.isNull("scopeIncludes")) {
+            importer.setScope(frontier.getScope(), null);
+        }
+        final FrontierJournal newJournal = frontier.getFrontierJournal();
+        return importer.importLog(source, new RecoveryLogImporter.BatchHandler() {
+            public void handle(List<String> lines, List<CrawlURI> curis) {
+                List<CrawlURI> sorted = new ArrayList<CrawlURI>(curis);
+                Collections.sort(sorted, RecoveryLogImporter.URI_ORDER);
+                for (CrawlURI caUri : sorted) {
+                    frontier.considerIncluded(caUri);
                 }
-                String lineType = read.substring(0, 3);
-                if(includeSuccesses && F_SUCCESS.equals(lineType) 
-                        || includeFailures && F_FAILURE.equals(lineType) 
-                        || includeScheduleds && F_ADD.equals(lineType)) {
-                    try {
-                        CrawlURI caUri = CrawlURI.fromHopsViaString(read.substring(3));
-                        if(scope!=null) {
-                            //TODO:SPRINGY
-///                            caUri.setStateProvider(controller.getSheetManager());
-                            // skip out-of-scope URIs if so configured
-                            if(!scope.accepts(caUri)) {
-                                continue;
-                            }
-                        }
-                        frontier.considerIncluded(caUri);
-                        if (newJournal != null) {
-                            // write same line as read
-                            newJournal.writeLine(read);
-                        }
-                    } catch (URIException e) {
-                        LOGGER.log(Level.WARNING,"bad hopsViaString: "+read.substring(3),e);
+                if (newJournal != null) {
+                    for (String read : lines) {
+                        // write same line as read
+                        newJournal.writeLine(read);
                     }
                 }
-                if((lines%PROGRESS_INTERVAL)==0) {
-                    // every 1 million lines, print progress
-                    LOGGER.info(
-                            "at line " + lines 
-                            + " alreadyIncluded count = " +
-                            frontier.discoveredUriCount());
-                }
             }
-        } catch (EOFException e) {
-            // expected in some uncleanly-closed recovery logs; ignore
-        } finally {
-            br.close();
-        }
-        return lines;
+        });
     }
 
     /**
      * Import all ADDs from given recovery log into the frontier's queues
-     * (excepting those the frontier drops as already having been included)
+     * (excepting those the frontier drops as already having been included).
+     * Each parsed batch is scheduled together, grouped by queue.
      * 
      * @param source recovery log file to use
-     * @param controller CrawlController of crawl to update
+     * @param frontier Frontier to update
      * @param params Map of options to apply
+     * @param lines number of lines in log, for reference
      * @param enough latch signalling 'enough' URIs queued to begin crawling
      */
-    private static void importQueuesFromLog(File source, Frontier frontier,
-            JSONObject params, int lines, CountDownLatch enough) {
-        BufferedReader br;
-        String read;
-        
-        long queuedAtStart = frontier.queuedUriCount();
-        long queuedDuringRecovery = 0;
-        int qLines = 0;
-        
-        boolean scheduleSuccesses = !params.isNull("scheduleSuccesses");
-        boolean scheduleFailures = !params.isNull("scheduleFailures");
-        boolean scheduleScheduleds = !params.isNull("scheduleScheduleds");
-        boolean scopeScheduleds = !params.isNull("scopeScheduleds");
-        boolean forceRevisit = !params.isNull("forceRevisit");
-        
-        DecideRule scope = (scopeScheduleds) ? frontier.getScope() : null;
+    private static void importQueuesFromLog(File source, final Frontier frontier,
+            JSONObject params, long lines, final CountDownLatch enough) {
+        final long queuedAtStart = frontier.queuedUriCount();
+        final boolean forceRevisit = !params.isNull("forceRevisit");
         
+        // Scan log for all 'F+' lines: if not alreadyIncluded, schedule for
+        // visitation
+        RecoveryLogImporter importer = new RecoveryLogImporter(tagsRegex(params,
+                "scheduleSuccesses", "scheduleFailures", "scheduleScheduleds"));
+        importer.setThreads(params.optInt("importThreads", 0));
+        if (!params.isNull("scopeScheduleds")) {
+            importer.setScope(frontier.getScope(), null);
+        }
+        long qLines = 0;
         try {
-            // Scan log for all 'F+' lines: if not alreadyIncluded, schedule for
-            // visitation
-            br = ArchiveUtils.getBufferedReader(source);
-            try {
-                while ((read = br.readLine())!=null) {
-                    qLines++;
-                    if(read.length()<4) {
-                        continue;
+            qLines = importer.importLog(source, new RecoveryLogImporter.BatchHandler() {
+                public void handle(List<String> read, List<CrawlURI> curis) {
+                    for (CrawlURI caUri : curis) {
+                        caUri.setForceFetch(forceRevisit);
                     }
-                    String lineType = read.substring(0, 3);
-                    if(scheduleSuccesses && F_SUCCESS.equals(lineType) 
-                            || scheduleFailures && F_FAILURE.equals(lineType) 
-                            || scheduleScheduleds && F_ADD.equals(lineType)) {
-                        
-                        try {
-                            CrawlURI caUri = CrawlURI.fromHopsViaString(read.substring(3));
-                            
-                            //TODO:SPRINGY
-//                            caUri.setStateProvider(controller.getSheetManager());
-                            if(scope!=null) {
-                                // skip out-of-scope URIs if so configured
-                                if(!scope.accepts(caUri)) {
-                                    continue;
-                                }
-                            }
-                            
-                            caUri.setForceFetch(forceRevisit);
-                            
-                            frontier.schedule(caUri);
-                            
-                            queuedDuringRecovery =
-                                frontier.queuedUriCount() - queuedAtStart;
-                            if(((queuedDuringRecovery + 1) %
-                                    ENOUGH_TO_START_CRAWLING) == 0) {
-                                enough.countDown();
-                            }
-                        } catch (URIException e) {
-                            LOGGER.log(Level.WARNING, "bad URI during " +
-                                "log-recovery of queue contents ",e);
-                            // and continue...
-                        } catch (RuntimeException e) {
-                            LOGGER.log(Level.SEVERE, "exception during " +
-                                    "log-recovery of queue contents ",e);
-                            // and continue, though this may be risky
-                            // if the exception wasn't a trivial NPE 
-                            // or wrapped interrupted-exception...
-                        }
-                    }
-                    if((qLines%PROGRESS_INTERVAL)==0) {
-                        // every 1 million lines, print progress
-                        LOGGER.info(
-                                "through line " 
-                                + qLines + "/" + lines 
-                                + " queued count = " +
-                                frontier.queuedUriCount());
+                    frontier.scheduleAll(curis);
+                    if (frontier.queuedUriCount() > queuedAtStart) {
+                        enough.countDown();
                     }
                 }
-            } catch (EOFException e) {
-                // no problem: untidy end of recovery journal
-            } finally {
-        	    br.close(); 
-            }
+            });
         } catch (IOException e) {
             LOGGER.log(Level.WARNING,"problem importQueuesFromLog",e);
         }
         LOGGER.info("finished recovering frontier from "+source+" "
-                +qLines+" lines processed");
+                +qLines+"/"+lines+" lines processed, "
+                +importer.getUrisHandled()+" URIs offered");
         enough.countDown();
     }
 }
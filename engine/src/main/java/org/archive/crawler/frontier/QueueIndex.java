@@ -0,0 +1,305 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.crawler.frontier;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * In-memory summary of every work queue's reportable metadata, with 
+ * sorted secondary indexes on size, error count, last activity, 
+ * precedence, and session balance, so questions like "which queues are 
+ * largest or most errored?" are answered without loading (deserializing)
+ * each queue from the frontier's BDB-backed queue cache.
+ * 
+ * <p>Queues report to the index whenever they are marked dirty. Each 
+ * indexed value sits in its index as an immutable (value, key) entry 
+ * which is replaced only when the value changes; readers iterate the 
+ * concurrent indexes without locking.
+ * 
+ * <p>An index begins complete for a fresh crawl. After checkpoint 
+ * recovery, queues report as they are touched, and the frontier fills in
+ * the rest with one pass over all queues when the index is first 
+ * consulted.
+ */
+public class QueueIndex {
+    public static enum Sort { 
+        SIZE, ERRORS, ACTIVITY, PRECEDENCE, BALANCE;
+        
+        /**
+         * @return Sort named (case-insensitively) by name, or null
+         */
+        public static Sort forName(String name) {
+            for (Sort sort : values()) {
+                if (sort.name().equalsIgnoreCase(name)) {
+                    return sort;
+                }
+            }
+            return null;
+        }
+    }
+
+    /** queue states as reported */
+    public static final String ACTIVE = "active";
+    public static final String INACTIVE = "inactive";
+    public static final String RETIRED = "retired";
+    public static final String EXHAUSTED = "exhausted";
+
+    /** entry in a sorted index; immutable */
+    protected static class Entry implements Comparable<Entry> {
+        final long value;
+        final String key;
+        Entry(long value, String key) {
+            this.value = value;
+            this.key = key;
+        }
+        public int compareTo(Entry o) {
+            if (value != o.value) {
+                return value < o.value ? -1 : 1;
+            }
+            return key.compareTo(o.key);
+        }
+    }
+
+    /** latest reported metadata of one queue */
+    public static class Summary {
+        protected final String key;
+        protected volatile long totalExpenditure;
+        protected volatile String state = EXHAUSTED;
+        // guarded by this; each also current in its index
+        protected Entry size;
+        protected Entry errors;
+        protected Entry activity;
+        protected Entry precedence;
+        protected Entry sessionBalance;
+
+        protected Summary(String key) {
+            this.key = key;
+        }
+        public String getKey() {
+            return key;
+        }
+        public synchronized long getSize() {
+            return size == null ? 0 : size.value;
+        }
+        public synchronized long getErrors() {
+            return errors == null ? 0 : errors.value;
+        }
+        public synchronized long getLastActivity() {
+            return activity == null ? 0 : activity.value;
+        }
+        public synchronized int getPrecedence() {
+            return precedence == null ? 0 : (int) precedence.value;
+        }
+        public synchronized long getSessionBalance() {
+            return sessionBalance == null ? 0 : sessionBalance.value;
+        }
+        public String getState() {
+            return state;
+        }
+        /**
+         * @return map suitable for XML/JSON rendering
+         */
+        public Map<String,Object> toMap() {
+            Map<String,Object> map = new LinkedHashMap<String,Object>();
+            map.put("queue", key);
+            map.put("size", getSize());
+            map.put("errors", getErrors());
+            map.put("lastActivity", getLastActivity());
+            map.put("precedence", getPrecedence());
+            map.put("sessionBalance", getSessionBalance());
+            map.put("totalExpenditure", totalExpenditure);
+            map.put("state", state);
+            return map;
+        }
+    }
+
+    /**
+     * Criteria queues must meet to be listed; unset criteria match all.
+     */
+    public static class Filter {
+        public String state;
+        public String keyPrefix;
+        public long minSize = Long.MIN_VALUE;
+        public long minErrors = Long.MIN_VALUE;
+        public int minPrecedence = Integer.MIN_VALUE;
+        public int maxPrecedence = Integer.MAX_VALUE;
+
+        public boolean accepts(Summary s) {
+            return (state == null || state.equals(s.getState()))
+                && (keyPrefix == null || s.getKey().startsWith(keyPrefix))
+                && s.getSize() >= minSize
+                && s.getErrors() >= minErrors
+                && s.getPrecedence() >= minPrecedence
+                && s.getPrecedence() <= maxPrecedence;
+        }
+    }
+
+    protected ConcurrentHashMap<String,Summary> summaries = 
+        new ConcurrentHashMap<String,Summary>();
+    protected ConcurrentSkipListSet<Entry> bySize = new ConcurrentSkipListSet<Entry>();
+    protected ConcurrentSkipListSet<Entry> byErrors = new ConcurrentSkipListSet<Entry>();
+    protected ConcurrentSkipListSet<Entry> byActivity = new ConcurrentSkipListSet<Entry>();
+    protected ConcurrentSkipListSet<Entry> byPrecedence = new ConcurrentSkipListSet<Entry>();
+    protected ConcurrentSkipListSet<Entry> byBalance = new ConcurrentSkipListSet<Entry>();
+
+    /** whether every queue is known to have reported */
+    protected volatile boolean complete = true;
+
+    public boolean isComplete() {
+        return complete;
+    }
+    public void setComplete(boolean complete) {
+        this.complete = complete;
+    }
+
+    /**
+     * Note the given queue's current metadata.
+     */
+    public void update(WorkQueue wq) {
+        String key = wq.getClassKey();
+        Summary s = summaries.get(key);
+        if (s == null) {
+            Summary created = new Summary(key);
+            s = summaries.putIfAbsent(key, created);
+            if (s == null) {
+                s = created;
+            }
+        }
+        s.totalExpenditure = wq.getTotalExpenditure();
+        s.state = stateOf(wq);
+        synchronized (s) {
+            s.size = reindex(bySize, s.size, wq.count, key);
+            s.errors = reindex(byErrors, s.errors, wq.errorCount, key);
+            s.activity = reindex(byActivity, s.activity, wq.lastDequeueTime, key);
+            s.precedence = reindex(byPrecedence, s.precedence, wq.getPrecedence(), key);
+            s.sessionBalance = reindex(byBalance, s.sessionBalance, 
+                    wq.getSessionBalance(), key);
+        }
+    }
+
+    protected static String stateOf(WorkQueue wq) {
+        if (wq.isRetired()) {
+            return RETIRED;
+        }
+        if (wq.active) {
+            return ACTIVE;
+        }
+        return wq.isManaged() ? INACTIVE : EXHAUSTED;
+    }
+
+    protected Entry reindex(NavigableSet<Entry> index, Entry current, 
+            long value, String key) {
+        if (current != null) {
+            if (current.value == value) {
+                return current;
+            }
+            index.remove(current);
+        }
+        Entry entry = new Entry(value, key);
+        index.add(entry);
+        return entry;
+    }
+
+    /**
+     * @return summary for the given queue key, or null if none reported
+     */
+    public Summary get(String key) {
+        return summaries.get(key);
+    }
+
+    /**
+     * @return count of queues reported
+     */
+    public int size() {
+        return summaries.size();
+    }
+
+    /**
+     * List queues meeting the given filter, in the given order.
+     * 
+     * @param sort ordering
+     * @param descending true for largest first
+     * @param filter criteria, or null for all
+     * @param offset count of matching queues to skip
+     * @param limit maximum count of queues to return
+     * @return matching summaries
+     */
+    public List<Summary> query(Sort sort, boolean descending, Filter filter, 
+            int offset, int limit) {
+        List<Summary> result = new ArrayList<Summary>(Math.min(limit, 1000));
+        Iterator<Summary> iter = iterator(sort, descending);
+        int skipped = 0;
+        while (iter.hasNext() && result.size() < limit) {
+            Summary s = iter.next();
+            if (s == null || (filter != null && !filter.accepts(s))) {
+                continue;
+            }
+            if (skipped < offset) {
+                skipped++;
+                continue;
+            }
+            result.add(s);
+        }
+        return result;
+    }
+
+    protected Iterator<Summary> iterator(Sort sort, boolean descending) {
+        NavigableSet<Entry> index = null;
+        switch (sort) {
+        case SIZE: index = bySize; break;
+        case ERRORS: index = byErrors; break;
+        case ACTIVITY: index = byActivity; break;
+        case PRECEDENCE: index = byPrecedence; break;
+        case BALANCE: index = byBalance; break;
+        default:
+            throw new IllegalArgumentException("unknown sort " + sort);
+        }
+        final Iterator<Entry> entries = 
+            descending ? index.descendingIterator() : index.iterator();
+        return new Iterator<Summary>() {
+            public boolean hasNext() {
+                return entries.hasNext();
+            }
+            public Summary next() {
+                // may be null in the rare race with a concurrent clear()
+                return summaries.get(entries.next().key);
+            }
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    public void clear() {
+        summaries.clear();
+        bySize.clear();
+        byErrors.clear();
+        byActivity.clear();
+        byPrecedence.clear();
+        byBalance.clear();
+    }
+}
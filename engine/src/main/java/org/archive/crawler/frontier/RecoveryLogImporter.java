@@ -0,0 +1,269 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.crawler.frontier;
+
+import java.io.BufferedReader;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.httpclient.URIException;
+import org.archive.crawler.spring.SheetOverlaysManager;
+import org.archive.modules.CrawlURI;
+import org.archive.modules.deciderules.DecideRule;
+import org.archive.spring.KeyedProperties;
+import org.archive.util.ArchiveUtils;
+
+/**
+ * Reads a recover-format log (3-character tag, then URI with optional
+ * hops/via; possibly gzipped) as a pipeline: one thread decompresses and
+ * splits the log into blocks of lines, while a pool of workers parses
+ * each block's URIs (the costly part), applies any scope, and passes
+ * the surviving URIs to a {@link BatchHandler} a block at a time.
+ * 
+ * <p>Blocks are handled concurrently and so in no particular order; the
+ * handler must be thread-safe, as frontier scheduling and inclusion are.
+ */
+public class RecoveryLogImporter {
+    private static final Logger LOGGER =
+        Logger.getLogger(RecoveryLogImporter.class.getName());
+
+    /** show import progress every this many lines */
+    protected static final int PROGRESS_INTERVAL = 1000000;
+
+    /** marks end of input to workers */
+    protected static final List<String> END = Collections.emptyList();
+
+    /**
+     * Receiver of batches of parsed URIs.
+     */
+    public interface BatchHandler {
+        /**
+         * @param lines accepted log lines
+         * @param curis URIs parsed from the lines, in the same order
+         */
+        void handle(List<String> lines, List<CrawlURI> curis);
+    }
+
+    /** URIs in ascending string order, for locality of uniq-filter inserts */
+    public static final Comparator<CrawlURI> URI_ORDER =
+        new Comparator<CrawlURI>() {
+            public int compare(CrawlURI a, CrawlURI b) {
+                return a.getURI().compareTo(b.getURI());
+            }
+        };
+
+    protected Pattern acceptTags;
+    protected DecideRule scope = null;
+    protected SheetOverlaysManager sheetOverlaysManager = null;
+    protected int threads = Runtime.getRuntime().availableProcessors();
+    protected int batchSize = 1000;
+
+    protected AtomicLong linesHandled = new AtomicLong(0);
+    protected AtomicLong urisHandled = new AtomicLong(0);
+
+    /**
+     * @param acceptTags regex; only lines whose 3-character tag matches
+     * are imported
+     */
+    public RecoveryLogImporter(String acceptTags) {
+        this.acceptTags = Pattern.compile(acceptTags);
+    }
+
+    /**
+     * @param scope if non-null, only URIs it accepts are imported
+     * @param sheetOverlaysManager if non-null, overlays are applied to 
+     * URIs before scoping
+     */
+    public void setScope(DecideRule scope,
+            SheetOverlaysManager sheetOverlaysManager) {
+        this.scope = scope;
+        this.sheetOverlaysManager = sheetOverlaysManager;
+    }
+
+    public void setThreads(int threads) {
+        if (threads > 0) {
+            this.threads = threads;
+        }
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public long getUrisHandled() {
+        return urisHandled.get();
+    }
+
+    /**
+     * Import the given log, returning after every accepted URI has been
+     * handled.
+     * 
+     * @param source log file (may be .gz compressed)
+     * @param handler receiver of parsed URIs
+     * @return number of lines in log
+     */
+    public long importLog(File source, final BatchHandler handler)
+    throws IOException {
+        final BlockingQueue<List<String>> blocks =
+            new ArrayBlockingQueue<List<String>>(threads * 2);
+        final AtomicInteger workerNumber = new AtomicInteger(0);
+        ExecutorService workers = Executors.newFixedThreadPool(threads,
+            new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "recoveryImport"
+                            + workerNumber.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        for (int i = 0; i < threads; i++) {
+            workers.execute(new Runnable() {
+                public void run() {
+                    try {
+                        List<String> block;
+                        while ((block = blocks.take()) != END) {
+                            try {
+                                process(block, handler);
+                            } catch (RuntimeException e) {
+                                // never let a worker die: the reader would
+                                // block forever on a full queue
+                                LOGGER.log(Level.SEVERE, "exception importing block of "
+                                        + block.size() + " lines", e);
+                            }
+                        }
+                        // let the other workers see the end, too
+                        blocks.put(END);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+        }
+
+        long lineCount = 0;
+        BufferedReader br = ArchiveUtils.getBufferedReader(source);
+        try {
+            List<String> block = new ArrayList<String>(batchSize);
+            String read;
+            try {
+                while ((read = br.readLine()) != null) {
+                    lineCount++;
+                    block.add(read);
+                    if (block.size() >= batchSize) {
+                        blocks.put(block);
+                        block = new ArrayList<String>(batchSize);
+                    }
+                }
+            } catch (EOFException e) {
+                // expected in some uncleanly-closed recovery logs; ignore
+            }
+            if (!block.isEmpty()) {
+                blocks.put(block);
+            }
+            blocks.put(END);
+            workers.shutdown();
+            while (!workers.awaitTermination(10, TimeUnit.SECONDS)) {
+                // keep waiting
+            }
+        } catch (InterruptedException e) {
+            workers.shutdownNow();
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted importing " + source);
+        } finally {
+            br.close();
+        }
+        return lineCount;
+    }
+
+    /**
+     * Parse, scope, and hand off one block of lines.
+     */
+    protected void process(List<String> block, BatchHandler handler) {
+        Matcher m = acceptTags.matcher("");
+        List<String> lines = new ArrayList<String>(block.size());
+        List<CrawlURI> curis = new ArrayList<CrawlURI>(block.size());
+        for (String read : block) {
+            if (read.length() < 4) {
+                continue;
+            }
+            m.reset(read.substring(0, 3));
+            if (!m.matches()) {
+                continue;
+            }
+            try {
+                CrawlURI curi = CrawlURI.fromHopsViaString(read.substring(3).trim());
+                if (scope != null && !inScope(curi)) {
+                    continue;
+                }
+                lines.add(read);
+                curis.add(curi);
+            } catch (URIException e) {
+                LOGGER.log(Level.WARNING, "Problem line: " + read, e);
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.WARNING, "Problem line: " + read, e);
+            }
+        }
+        if (!curis.isEmpty()) {
+            try {
+                handler.handle(lines, curis);
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.SEVERE, "exception during import of "
+                        + curis.size() + " URIs", e);
+                // and continue, though this may be risky
+            }
+        }
+        urisHandled.addAndGet(curis.size());
+        long before = linesHandled.getAndAdd(block.size());
+        if (before / PROGRESS_INTERVAL != (before + block.size()) / PROGRESS_INTERVAL) {
+            LOGGER.info("at line " + (before + block.size()) + ", "
+                    + urisHandled.get() + " URIs imported");
+        }
+    }
+
+    protected boolean inScope(CrawlURI curi) {
+        if (sheetOverlaysManager == null) {
+            return scope.accepts(curi);
+        }
+        sheetOverlaysManager.applyOverlaysTo(curi);
+        try {
+            KeyedProperties.loadOverridesFrom(curi);
+            return scope.accepts(curi);
+        } finally {
+            KeyedProperties.clearOverridesFrom(curi);
+        }
+    }
+}
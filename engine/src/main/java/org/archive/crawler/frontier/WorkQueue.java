@@ -22,8 +22,10 @@ package org.archive.crawler.frontier;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.Serializable;
+import java.util.Collections;
 import java.util.Date;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Delayed;
 import java.util.concurrent.TimeUnit;
@@ -114,6 +116,9 @@ public abstract class WorkQueue implements Frontier.FrontierGroup,
     protected FetchStats substats = new FetchStats();
 
     protected boolean retired;
+    
+    /** index to inform of changes, as learned from frontier */
+    transient protected QueueIndex queueIndex;
 
     public WorkQueue(final String pClassKey) {
         this.classKey = pClassKey;
@@ -146,6 +151,7 @@ public abstract class WorkQueue implements Frontier.FrontierGroup,
      */
     protected synchronized long enqueue(final WorkQueueFrontier frontier,
         CrawlURI curi) {
+        queueIndex = frontier.queueIndex;
         try {
             insert(frontier, curi, false);
         } catch (IOException e) {
@@ -169,6 +175,7 @@ public abstract class WorkQueue implements Frontier.FrontierGroup,
      * @return topmost queue item, or null
      */
     public synchronized CrawlURI peek(final WorkQueueFrontier frontier) {
+        queueIndex = frontier.queueIndex;
         if(peekItem == null && count > 0) {
             try {
                 peekItem = peekItem(frontier);
@@ -447,6 +454,51 @@ public abstract class WorkQueue implements Frontier.FrontierGroup,
     protected abstract CrawlURI peekItem(final WorkQueueFrontier frontier)
         throws IOException;
 
+    /**
+     * Returns up to max items from the front of the queue, in queue order
+     * (does not delete). This implementation returns only the first item;
+     * subclasses able to read further ahead should override.
+     * 
+     * @return list of items, possibly empty
+     * @throws IOException if there was a problem while peeking
+     */
+    protected List<CrawlURI> peekItems(final WorkQueueFrontier frontier, int max)
+        throws IOException {
+        CrawlURI first = peekItem(frontier);
+        if (first == null || max < 1) {
+            return Collections.emptyList();
+        }
+        return Collections.singletonList(first);
+    }
+
+    /**
+     * Return up to max of the items next due from this queue, for 
+     * components (such as history prefetchers) wishing to prepare for them.
+     * Items are copies: changes to them do not affect the queue.
+     * 
+     * @param frontier Work queues manager
+     * @param max maximum items to return
+     * @return list of upcoming items, possibly empty
+     */
+    public synchronized List<CrawlURI> peekUpcoming(final WorkQueueFrontier frontier, int max) {
+        if (count == 0) {
+            return Collections.emptyList();
+        }
+        try {
+            return peekItems(frontier, (int) Math.min(max, count));
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "problem peeking upcoming items of " + classKey, e);
+            return Collections.emptyList();
+        }
+    }
+
+    /**
+     * @return true if the queue is in an active session
+     */
+    public synchronized boolean isActive() {
+        return active;
+    }
+
     // 
     // Reporter
     //
@@ -686,6 +738,10 @@ public abstract class WorkQueue implements Frontier.FrontierGroup,
     @Override
     public void makeDirty() {
         cache.dirtyKey(getKey());
+        QueueIndex index = queueIndex;
+        if (index != null) {
+            index.update(this);
+        }
     }
 
     @Override
@@ -53,6 +53,7 @@ import java.util.regex.Pattern;
 import org.apache.commons.collections.iterators.ObjectArrayIterator;
 import org.archive.crawler.datamodel.UriUniqFilter;
 import org.archive.crawler.event.CrawlURIDispositionEvent;
+import org.archive.crawler.event.WorkQueueActivatedEvent;
 import org.archive.crawler.framework.ToeThread;
 import org.archive.crawler.frontier.precedence.BaseQueuePrecedencePolicy;
 import org.archive.crawler.frontier.precedence.QueuePrecedencePolicy;
@@ -232,6 +233,58 @@ implements Closeable,
         this.uriUniqFilter = uriUniqFilter;
     }
 
+    /** summaries of all queues, for reporting without loading queues */
+    protected transient QueueIndex queueIndex = new QueueIndex();
+
+    /**
+     * Return the index of queue metadata, first completing it with one 
+     * pass over all queues if necessary (as after checkpoint recovery).
+     * 
+     * @return QueueIndex
+     */
+    public QueueIndex getQueueIndex() {
+        if (!queueIndex.isComplete()) {
+            synchronized (queueIndex) {
+                if (!queueIndex.isComplete() && allQueues != null) {
+                    long startMs = System.currentTimeMillis();
+                    for (String key : allQueues.keySet()) {
+                        WorkQueue wq = indexed(allQueues.get(key));
+                        if (wq != null) {
+                            queueIndex.update(wq);
+                        }
+                    }
+                    queueIndex.setComplete(true);
+                    logger.info("indexed " + queueIndex.size() + " queues in " 
+                            + (System.currentTimeMillis() - startMs) + "ms");
+                }
+            }
+        }
+        return queueIndex;
+    }
+
+    /**
+     * Look up a single queue by key, without creating it. 
+     * 
+     * @return the queue, or null if none exists
+     */
+    public WorkQueue getExistingQueue(String classKey) {
+        return allQueues == null ? null : indexed(allQueues.get(classKey));
+    }
+
+    /**
+     * Attach the queue index to a queue, if not already attached. The 
+     * reference is transient, so a queue evicted from the cache and later 
+     * reloaded arrives without it.
+     * 
+     * @return the given queue
+     */
+    protected WorkQueue indexed(WorkQueue wq) {
+        if (wq != null && wq.queueIndex == null) {
+            wq.queueIndex = queueIndex;
+        }
+        return wq;
+    }
+
     /**
      * Constructor.
      */
@@ -534,7 +587,7 @@ implements Closeable,
         
         String key = getRetiredQueues().poll();
         while (key != null) {
-            WorkQueue q = (WorkQueue)this.allQueues.get(key);
+            WorkQueue q = indexed(this.allQueues.get(key));
             if(q != null) {
                 synchronized (q) {
                     unretireQueue(q);
@@ -587,6 +640,8 @@ implements Closeable,
             // find a non-empty ready queue, if any 
             // TODO: refactor to untangle these loops, early-exits, etc!
             WorkQueue readyQ = null;
+            // queue beginning a session, announced once its lock is released
+            WorkQueue activated = null;
             findauri: while(true) {
                 findaqueue: do {
                     String key = readyClassQueues.poll();
@@ -625,7 +680,11 @@ implements Closeable,
                         continue;
                     }
                     // queue has gone 'in process'
+                    boolean activating = !readyQ.isActive();
                     readyQ.considerActive();
+                    if (activating) {
+                        activated = readyQ;
+                    }
                     readyQ.setWakeTime(0); // clear obsolete wake time, if any
 
                     // we know readyQ is not empty (getCount()!=0) so peek()
@@ -655,6 +714,14 @@ implements Closeable,
                         }
                     }
                 } while (readyQ == null);
+
+                if (activated != null) {
+                    // unless deactivated or retired on budget meanwhile
+                    if (activated == readyQ) {
+                        appCtx.publishEvent(new WorkQueueActivatedEvent(this, readyQ));
+                    }
+                    activated = null;
+                }
                 
                 if (readyQ == null) {
                     // no queues left in ready or readiable
@@ -777,7 +844,7 @@ implements Closeable,
                     updateHighestWaiting(expectedPrecedence);
                 }
 
-                WorkQueue candidateQ = (WorkQueue) this.allQueues.get(workQueueKey);
+                WorkQueue candidateQ = indexed(this.allQueues.get(workQueueKey));
                 if (candidateQ.getPrecedence() > expectedPrecedence) {
                     // queue demoted since placed; re-deactivate
                     synchronized (candidateQ) {
@@ -23,6 +23,12 @@ package org.archive.crawler.postprocessor;
 import static org.archive.modules.fetcher.FetchStatusCodes.S_DEFERRED;
 import static org.archive.modules.fetcher.FetchStatusCodes.S_PREREQUISITE_UNSCHEDULABLE_FAILURE;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
 import org.archive.crawler.framework.Frontier;
 import org.archive.crawler.reporting.CrawlerLoggerModule;
 import org.archive.crawler.spring.SheetOverlaysManager;
@@ -47,6 +53,9 @@ public class CandidatesProcessor extends Processor {
 
     @SuppressWarnings("unused")
     private static final long serialVersionUID = -3L;
+
+    private static final Logger logger =
+        Logger.getLogger(CandidatesProcessor.class.getName());
     
     /**
      * Candidate chain
@@ -158,6 +167,49 @@ public class CandidatesProcessor extends Processor {
      * @throws InterruptedException
      */
     public int runCandidateChain(CrawlURI candidate, CrawlURI source) throws InterruptedException {
+        return runCandidateChain(candidate, source, null);
+    }
+
+    /**
+     * Run candidatesChain on each of a batch of candidates, then schedule
+     * all those with nonnegative status in a single call to
+     * {@link Frontier#scheduleAll(Collection)}, which lets the frontier
+     * group insertions by queue. Suited to bulk external sources of URIs.
+     * A candidate whose chain throws a RuntimeException is logged and
+     * skipped, so one bad URI does not cost the rest of the batch.
+     * 
+     * @param candidates CrawlURIs to consider
+     * @param source CrawlURI from which candidates were discovered, or null
+     * @return number of candidates with nonnegative status at end of
+     *         candidate chain execution (all of which were scheduled)
+     * @throws InterruptedException
+     */
+    public int runCandidateChains(Collection<CrawlURI> candidates, CrawlURI source) throws InterruptedException {
+        List<CrawlURI> toSchedule = new ArrayList<CrawlURI>(candidates.size());
+        int accepted = 0;
+        for (CrawlURI candidate : candidates) {
+            try {
+                if (runCandidateChain(candidate, source, toSchedule) >= 0) {
+                    accepted++;
+                }
+            } catch (RuntimeException e) {
+                logger.log(Level.SEVERE, "problem running candidate chain on "
+                        + candidate + "; skipping", e);
+            }
+        }
+        if (!toSchedule.isEmpty()) {
+            frontier.scheduleAll(toSchedule);
+        }
+        return accepted;
+    }
+
+    /**
+     * @param toSchedule if not null, candidates to be scheduled are added
+     *        here rather than scheduled immediately (seed promotions are
+     *        always handled immediately)
+     */
+    protected int runCandidateChain(CrawlURI candidate, CrawlURI source,
+            Collection<CrawlURI> toSchedule) throws InterruptedException {
         // at least for duration of candidatechain, offer
         // access to full CrawlURI of via
         candidate.setFullVia(source); 
@@ -184,6 +236,8 @@ public class CandidatesProcessor extends Processor {
                      */
                     candidate.setForceFetch(true);
                     getSeeds().addSeed(candidate); // triggers scheduling
+                } else if (toSchedule != null) {
+                    toSchedule.add(candidate);
                 } else {
                     
                     frontier.schedule(candidate);
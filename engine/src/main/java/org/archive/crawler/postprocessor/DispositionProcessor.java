@@ -26,7 +26,11 @@ import static org.archive.modules.fetcher.FetchStatusCodes.S_CONNECT_FAILED;
 import static org.archive.modules.fetcher.FetchStatusCodes.S_CONNECT_LOST;
 import static org.archive.modules.fetcher.FetchStatusCodes.S_DEEMED_NOT_FOUND;
 import static org.archive.modules.fetcher.FetchStatusCodes.S_DEFERRED;
+import static org.archive.modules.fetcher.FetchStatusCodes.S_TIMEOUT;
 
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.util.Map;
 import java.util.logging.Logger;
 
@@ -39,6 +43,7 @@ import org.archive.modules.net.CrawlServer;
 import org.archive.modules.net.IgnoreRobotsPolicy;
 import org.archive.modules.net.Robotstxt;
 import org.archive.modules.net.ServerCache;
+import org.archive.modules.net.ServerPolitenessStats;
 import org.springframework.beans.factory.annotation.Autowired;
 
 
@@ -148,6 +153,111 @@ public class DispositionProcessor extends Processor {
         kp.put("forceRetire",force);
     }
     
+    /**
+     * Whether to adapt politeness delays to each server's history rather
+     * than to the last fetch alone. When enabled, the delay is based on a
+     * moving average of the server's fetch latency, scaled up when the
+     * server shows distress (429/503 responses, connection failures,
+     * timeouts) and relaxed back down (toward minDelayMs) while it stays
+     * healthy; Retry-After response headers are also honored, up to
+     * respectRetryAfterUpToSeconds. Delays remain bounded by minDelayMs and
+     * maxDelayMs (except as extended by Crawl-delay or Retry-After).
+     */
+    {
+        setAdaptivePoliteness(false);
+    }
+    public boolean getAdaptivePoliteness() {
+        return (Boolean) kp.get("adaptivePoliteness");
+    }
+    public void setAdaptivePoliteness(boolean adaptive) {
+        kp.put("adaptivePoliteness",adaptive);
+    }
+    
+    /**
+     * With adaptivePoliteness, weight (0-1] given each new fetch in a
+     * server's moving averages of latency, error, and distress rates. 
+     */
+    {
+        setAdaptiveSmoothing(0.2f);
+    }
+    public float getAdaptiveSmoothing() {
+        return (Float) kp.get("adaptiveSmoothing");
+    }
+    public void setAdaptiveSmoothing(float smoothing) {
+        kp.put("adaptiveSmoothing",smoothing);
+    }
+    
+    /**
+     * With adaptivePoliteness, factor by which a server's delay scale 
+     * grows after each fetch showing distress.
+     */
+    {
+        setAdaptiveBackoffFactor(2.0f);
+    }
+    public float getAdaptiveBackoffFactor() {
+        return (Float) kp.get("adaptiveBackoffFactor");
+    }
+    public void setAdaptiveBackoffFactor(float factor) {
+        kp.put("adaptiveBackoffFactor",factor);
+    }
+    
+    /**
+     * With adaptivePoliteness, factor by which a server's delay scale 
+     * shrinks after each healthy fetch (one neither failing nor much slower
+     * than the server's average), while its recent error rate is low.
+     */
+    {
+        setAdaptiveRecoveryFactor(0.9f);
+    }
+    public float getAdaptiveRecoveryFactor() {
+        return (Float) kp.get("adaptiveRecoveryFactor");
+    }
+    public void setAdaptiveRecoveryFactor(float factor) {
+        kp.put("adaptiveRecoveryFactor",factor);
+    }
+    
+    /**
+     * With adaptivePoliteness, smallest multiple of delayFactor a 
+     * consistently fast, healthy server's delays may shrink to.
+     */
+    {
+        setAdaptiveMinDelayScale(0.2f);
+    }
+    public float getAdaptiveMinDelayScale() {
+        return (Float) kp.get("adaptiveMinDelayScale");
+    }
+    public void setAdaptiveMinDelayScale(float scale) {
+        kp.put("adaptiveMinDelayScale",scale);
+    }
+    
+    /**
+     * With adaptivePoliteness, largest multiple of delayFactor a 
+     * distressed server's delays may grow to.
+     */
+    {
+        setAdaptiveMaxDelayScale(16.0f);
+    }
+    public float getAdaptiveMaxDelayScale() {
+        return (Float) kp.get("adaptiveMaxDelayScale");
+    }
+    public void setAdaptiveMaxDelayScale(float scale) {
+        kp.put("adaptiveMaxDelayScale",scale);
+    }
+    
+    /**
+     * With adaptivePoliteness, longest 'Retry-After' (on 429 and 503
+     * responses) to respect, in seconds.
+     */
+    {
+        setRespectRetryAfterUpToSeconds(300);
+    }
+    public int getRespectRetryAfterUpToSeconds() {
+        return (Integer) kp.get("respectRetryAfterUpToSeconds");
+    }
+    public void setRespectRetryAfterUpToSeconds(int respect) {
+        kp.put("respectRetryAfterUpToSeconds",respect);
+    }
+    
     /**
      * Auto-discovered module providing configured (or overridden)
      * User-Agent value and RobotsHonoringPolicy
@@ -206,6 +316,12 @@ public class DispositionProcessor extends Processor {
             }
         }
         
+        // update server history for adaptive politeness
+        if (getAdaptivePoliteness() && server != null 
+                && (scheme.equals("http") || scheme.equals("https"))) {
+            updatePolitenessStats(curi, server.getPolitenessStats());
+        }
+        
         // set politeness delay
         curi.setPolitenessDelay(politenessDelayFor(curi));
         
@@ -235,7 +351,20 @@ public class DispositionProcessor extends Processor {
 
             long completeTime = curi.getFetchCompletedTime();
             long durationTaken = (completeTime - curi.getFetchBeginTime());
-            durationToWait = (long)(getDelayFactor() * durationTaken);
+            ServerPolitenessStats stats = null;
+            if (getAdaptivePoliteness()) {
+                CrawlServer s = getServerCache().getServerFor(curi.getUURI());
+                if (s != null) {
+                    stats = s.getPolitenessStats();
+                }
+            }
+            if (stats != null && stats.getSamples() > 0) {
+                // server's recent history rather than last fetch alone
+                durationToWait = (long)(getDelayFactor() * stats.getDelayScale()
+                        * stats.getLatencyMs());
+            } else {
+                durationToWait = (long)(getDelayFactor() * durationTaken);
+            }
 
             long minDelay = getMinDelayMs();
             if (minDelay > durationToWait) {
@@ -272,6 +401,15 @@ public class DispositionProcessor extends Processor {
             }
             
             long now = System.currentTimeMillis();
+            if (stats != null) {
+                long retryAfterWait = Math.min(stats.getRetryAfterTime() - now,
+                        getRespectRetryAfterUpToSeconds() * 1000L);
+                if (retryAfterWait > durationToWait) {
+                    // wait at least as long as server requested
+                    durationToWait = retryAfterWait;
+                }
+            }
+            
             int maxBandwidthKB = getMaxPerHostBandwidthUsageKbSec();
             if (maxBandwidthKB > 0) {
                 // Enforce bandwidth limit
@@ -292,4 +430,72 @@ public class DispositionProcessor extends Processor {
         }
         return durationToWait;
     }
+    
+    /**
+     * Fold the outcome of the given fetch into its server's history, and
+     * grow or relax the server's delay scale accordingly.
+     * 
+     * @param curi the CrawlURI just fetched (or attempted)
+     * @param stats the server's politeness history
+     */
+    protected void updatePolitenessStats(CrawlURI curi, ServerPolitenessStats stats) {
+        Map<String,Object> cdata = curi.getData();
+        if (!cdata.containsKey(A_FETCH_BEGAN_TIME)
+                || !cdata.containsKey(A_FETCH_COMPLETED_TIME)) {
+            // no fetch attempted
+            return;
+        }
+        long durationTaken = curi.getFetchCompletedTime() - curi.getFetchBeginTime();
+        int status = curi.getFetchStatus();
+        boolean distress = status == 429 || status == 503 
+                || status == S_CONNECT_FAILED || status == S_CONNECT_LOST 
+                || status == S_TIMEOUT;
+        boolean error = distress || status < 0 || status >= 500;
+        double priorLatency = stats.getLatencyMs();
+        stats.noteFetch(durationTaken, error, distress, getAdaptiveSmoothing());
+        
+        if (distress) {
+            stats.adjustDelayScale(getAdaptiveBackoffFactor(), 
+                    getAdaptiveMinDelayScale(), getAdaptiveMaxDelayScale());
+            if (status == 429 || status == 503) {
+                long retryAfter = parseRetryAfter(
+                        curi.getHttpResponseHeader("Retry-After"), 
+                        System.currentTimeMillis());
+                if (retryAfter > 0) {
+                    stats.setRetryAfterTime(retryAfter);
+                }
+            }
+        } else if (!error && stats.getErrorRate() < 0.5
+                && (priorLatency < 0 || durationTaken <= 2 * priorLatency)) {
+            stats.adjustDelayScale(getAdaptiveRecoveryFactor(), 
+                    getAdaptiveMinDelayScale(), getAdaptiveMaxDelayScale());
+        }
+    }
+    
+    /**
+     * Interpret a Retry-After header value, either delay-seconds or an
+     * HTTP-date.
+     * 
+     * @param value header value, or null
+     * @param now current time in ms
+     * @return time (ms since epoch) before which to not retry, or -1 if 
+     * value is absent or unparseable
+     */
+    protected static long parseRetryAfter(String value, long now) {
+        if (value == null) {
+            return -1;
+        }
+        value = value.trim();
+        try {
+            return now + 1000L * Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            // not delay-seconds; try HTTP-date
+        }
+        try {
+            return ZonedDateTime.parse(value, 
+                    DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+        } catch (DateTimeParseException e) {
+            return -1;
+        }
+    }
 }
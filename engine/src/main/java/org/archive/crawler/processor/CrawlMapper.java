@@ -59,6 +59,9 @@ import st.ata.util.FPGenerator;
  *
  * <p>If using the JMX importUris operation importing URLs dropped by
  * a {@link CrawlMapper} instance, use <code>recoveryLog</code> style.
+ *
+ * <p>If a {@link PeerUriExchange} is configured, URIs mapped to any of
+ * its peers are sent to that peer directly instead of being logged.
  * 
  * @author gojomo
  * @version $Date$, $Revision$
@@ -139,6 +142,18 @@ public abstract class CrawlMapper extends Processor implements Lifecycle {
         this.diversionDir = path; 
     }
     
+    /**
+     * Optional exchange for sending URIs straight to peer crawlers; URIs 
+     * for targets that aren't among its peers are still logged.
+     */
+    protected PeerUriExchange peerExchange = null;
+    public PeerUriExchange getPeerExchange() {
+        return this.peerExchange;
+    }
+    public void setPeerExchange(PeerUriExchange exchange) {
+        this.peerExchange = exchange;
+    }
+
     /**
      * Number of timestamp digits to use as prefix of log names (grouping all
      * diversions from that period in a single log). Default is 10 (hourly log
@@ -281,6 +296,10 @@ public abstract class CrawlMapper extends Processor implements Lifecycle {
         if(recentlySeen(cauri)) {
             return;
         }
+        if(peerExchange != null && peerExchange.hasPeer(target)) {
+            peerExchange.send(target, cauri);
+            return;
+        }
         PrintWriter diversionLog = getDiversionLog(target);
         diversionLog.print(cauri.getClassKey());
         diversionLog.print(" ");
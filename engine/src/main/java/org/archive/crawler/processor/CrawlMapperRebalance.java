@@ -0,0 +1,192 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.crawler.processor;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.apache.commons.cli.PosixParser;
+import org.archive.net.PublicSuffixes;
+import org.archive.util.WeightedConsistentHash;
+
+/**
+ * Command-line tool previewing a change to {@link HashCrawlMapper} 
+ * configuration: given queue keys (one per line, as from a frontier 
+ * report), lists each key which would move to a different crawler, and
+ * summarizes moves and per-crawler key counts.
+ * 
+ * <p>A configuration is either a crawler count N (the default modulo 
+ * mapping onto crawlers 0..N-1) or a weight list like 
+ * <code>a:1,b:1,c:2.5</code> (weighted consistent hashing).
+ */
+public class CrawlMapperRebalance {
+    /** one configuration, as HashCrawlMapper would apply it */
+    protected static class Mapping {
+        long crawlerCount;
+        WeightedConsistentHash hash;
+
+        Mapping(String spec) {
+            if (spec.indexOf(':') < 0) {
+                crawlerCount = Long.parseLong(spec.trim());
+                return;
+            }
+            hash = new WeightedConsistentHash(parseWeights(spec));
+        }
+
+        String map(String key, String reduceRegex) {
+            return hash != null 
+                ? HashCrawlMapper.mapString(key, reduceRegex, hash)
+                : HashCrawlMapper.mapString(key, reduceRegex, crawlerCount);
+        }
+    }
+
+    /**
+     * @param spec weights like 'a:1,b:2.5'
+     * @return map of crawler name to weight, in given order
+     */
+    public static Map<String,Double> parseWeights(String spec) {
+        Map<String,Double> weights = new LinkedHashMap<String,Double>();
+        for (String entry : spec.split(",")) {
+            int colon = entry.lastIndexOf(':');
+            if (colon < 0) {
+                throw new IllegalArgumentException("not name:weight: " + entry);
+            }
+            weights.put(entry.substring(0, colon).trim(),
+                    Double.valueOf(entry.substring(colon + 1).trim()));
+        }
+        return weights;
+    }
+
+    /**
+     * Compare mappings of all keys read, printing moved keys 
+     * ('key from to') to out, and returning summary text.
+     */
+    public static String compare(BufferedReader keys, String current, 
+            String proposed, String reduceRegex, PrintStream out) 
+    throws IOException {
+        Mapping from = new Mapping(current);
+        Mapping to = new Mapping(proposed);
+        Map<String,Long> beforeCounts = new TreeMap<String,Long>();
+        Map<String,Long> afterCounts = new TreeMap<String,Long>();
+        Map<String,Long> moveCounts = new TreeMap<String,Long>();
+        long total = 0;
+        long moved = 0;
+        String key;
+        while ((key = keys.readLine()) != null) {
+            key = key.trim();
+            if (key.length() == 0 || key.startsWith("#")) {
+                continue;
+            }
+            total++;
+            String a = from.map(key, reduceRegex);
+            String b = to.map(key, reduceRegex);
+            increment(beforeCounts, a);
+            increment(afterCounts, b);
+            if (!a.equals(b)) {
+                moved++;
+                increment(moveCounts, a + " -> " + b);
+                out.println(key + " " + a + " " + b);
+            }
+        }
+        StringBuilder summary = new StringBuilder();
+        summary.append(moved).append(" of ").append(total).append(" keys move");
+        if (total > 0) {
+            summary.append(String.format(" (%.1f%%)", 100.0 * moved / total));
+        }
+        summary.append("\n");
+        for (Map.Entry<String,Long> e : moveCounts.entrySet()) {
+            summary.append("  ").append(e.getKey()).append(": ")
+                .append(e.getValue()).append("\n");
+        }
+        summary.append("keys per crawler, current -> proposed:\n");
+        TreeMap<String,Long> all = new TreeMap<String,Long>(beforeCounts);
+        all.putAll(afterCounts);
+        for (String crawler : all.keySet()) {
+            summary.append("  ").append(crawler).append(": ")
+                .append(count(beforeCounts, crawler)).append(" -> ")
+                .append(count(afterCounts, crawler)).append("\n");
+        }
+        return summary.toString();
+    }
+
+    protected static void increment(Map<String,Long> counts, String key) {
+        counts.put(key, count(counts, key) + 1);
+    }
+
+    protected static long count(Map<String,Long> counts, String key) {
+        Long n = counts.get(key);
+        return n == null ? 0 : n;
+    }
+
+    private static void usage(HelpFormatter formatter, Options options,
+            int exitCode) {
+        formatter.printHelp("java org.archive.crawler.processor.CrawlMapperRebalance "
+                + "--current N|NAME:WEIGHT,... --proposed N|NAME:WEIGHT,... "
+                + "[QUEUE_KEYS_FILE]", options);
+        System.exit(exitCode);
+    }
+
+    public static void main(String[] args) throws ParseException, IOException {
+        Options options = new Options();
+        options.addOption(new Option("h", "help", false,
+            "Prints this message and exits."));
+        options.addOption(new Option("c", "current", true,
+            "Current configuration: crawler count, or name:weight list."));
+        options.addOption(new Option("p", "proposed", true,
+            "Proposed configuration: crawler count, or name:weight list."));
+        options.addOption(new Option("r", "reduce-regex", true,
+            "Regex whose first match in each key is hashed (default: the "
+            + "PublicSuffixes topmost-assigned-SURT-prefix regex, as "
+            + "HashCrawlMapper uses by default; '' for whole keys)."));
+        PosixParser parser = new PosixParser();
+        CommandLine cmdline = parser.parse(options, args, false);
+        HelpFormatter formatter = new HelpFormatter();
+        if (cmdline.hasOption('h') || !cmdline.hasOption('c') 
+                || !cmdline.hasOption('p')) {
+            usage(formatter, options, 0);
+        }
+        String reduceRegex = cmdline.hasOption('r') 
+            ? cmdline.getOptionValue('r')
+            : PublicSuffixes.getTopmostAssignedSurtPrefixRegex();
+        @SuppressWarnings("unchecked")
+        List<String> rest = cmdline.getArgList();
+        BufferedReader keys = new BufferedReader(new InputStreamReader(
+                rest.isEmpty() ? System.in : new FileInputStream(rest.get(0)), 
+                "UTF-8"));
+        try {
+            System.err.print(compare(keys, cmdline.getOptionValue('c'),
+                    cmdline.getOptionValue('p'), reduceRegex, System.out));
+        } finally {
+            keys.close();
+        }
+    }
+}
@@ -18,12 +18,15 @@
  */
 package org.archive.crawler.processor;
 
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.regex.Matcher;
 
 import org.archive.crawler.framework.Frontier;
 import org.archive.modules.CrawlURI;
 import org.archive.net.PublicSuffixes;
 import org.archive.util.TextUtils;
+import org.archive.util.WeightedConsistentHash;
 import org.springframework.beans.factory.annotation.Autowired;
 
 import st.ata.util.FPGenerator;
@@ -32,6 +35,13 @@ import st.ata.util.FPGenerator;
  * Maps URIs to one of N crawler names by applying a hash to the
  * URI's (possibly-transformed) classKey. 
  * 
+ * <p>By default, the hash is taken modulo crawlerCount, naming crawlers 
+ * 0..N-1. If crawlerWeights are supplied instead, crawlers are named by
+ * their keys, and each gets a share of keys proportional to its weight
+ * via a {@link WeightedConsistentHash}, so that changing the set of 
+ * crawlers or their weights moves as few keys as possible. (See 
+ * {@link CrawlMapperRebalance} to preview such a change.)
+ * 
  * @author gojomo
  * @version $Date$, $Revision$
  */
@@ -61,6 +71,32 @@ public class HashCrawlMapper extends CrawlMapper {
         this.crawlerCount = count;
     }
 
+    /**
+     * Crawler names, with their relative capacities. If nonempty, used in
+     * place of crawlerCount, mapping by weighted consistent hashing.
+     */
+    protected Map<String,Double> crawlerWeights = 
+        new LinkedHashMap<String,Double>();
+    public Map<String,Double> getCrawlerWeights() {
+        return this.crawlerWeights;
+    }
+    public void setCrawlerWeights(Map<String,Double> weights) {
+        this.crawlerWeights = weights;
+        this.weightedHash = null;
+    }
+
+    /** lookup structure built from crawlerWeights */
+    protected volatile WeightedConsistentHash weightedHash;
+
+    protected WeightedConsistentHash getWeightedHash() {
+        WeightedConsistentHash hash = weightedHash;
+        if (hash == null && !getCrawlerWeights().isEmpty()) {
+            hash = new WeightedConsistentHash(getCrawlerWeights());
+            weightedHash = hash;
+        }
+        return hash;
+    }
+
     /**
      * Whether to use the PublicSuffixes-supplied reduce regex.
      * 
@@ -108,6 +144,10 @@ public class HashCrawlMapper extends CrawlMapper {
         // get classKey, via frontier to generate if necessary
         String key = frontier.getClassKey(cauri);
         String reduceRegex = getReduceRegex(cauri);
+        WeightedConsistentHash hash = getWeightedHash();
+        if (hash != null) {
+            return mapString(key, reduceRegex, hash);
+        }
         return mapString(key, reduceRegex, getCrawlerCount()); 
     }
 
@@ -121,7 +161,21 @@ public class HashCrawlMapper extends CrawlMapper {
 
     public static String mapString(String key, String reducePattern,
             long bucketCount) {
+        key = reduceKey(key, reducePattern);
+        long fp = FPGenerator.std64.fp(key);
+        long bucket = fp % bucketCount;
+        return Long.toString(bucket >= 0 ? bucket : -bucket);
+    }
+
+    public static String mapString(String key, String reducePattern,
+            WeightedConsistentHash hash) {
+        return hash.nodeFor(FPGenerator.std64.fp(reduceKey(key, reducePattern)));
+    }
 
+    /**
+     * @return first match of reducePattern in key, if any; otherwise key
+     */
+    public static String reduceKey(String key, String reducePattern) {
         if (reducePattern != null && reducePattern.length()>0) {
             Matcher matcher = TextUtils.getMatcher(reducePattern,key);
             if(matcher.find()) {
@@ -129,8 +183,6 @@ public class HashCrawlMapper extends CrawlMapper {
             }
             TextUtils.recycleMatcher(matcher);
         }
-        long fp = FPGenerator.std64.fp(key);
-        long bucket = fp % bucketCount;
-        return Long.toString(bucket >= 0 ? bucket : -bucket);
+        return key;
     }
-}
\ No newline at end of file
+}
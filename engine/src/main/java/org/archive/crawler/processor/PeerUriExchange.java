@@ -0,0 +1,764 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.crawler.processor;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.apache.commons.httpclient.URIException;
+import org.archive.crawler.framework.Frontier;
+import org.archive.modules.CrawlURI;
+import org.archive.spring.ConfigPath;
+import org.archive.util.fingerprint.ArrayLongFPCache;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.Lifecycle;
+
+import st.ata.util.FPGenerator;
+
+/**
+ * Exchanges URIs directly between cooperating crawlers over TCP, as an
+ * alternative to a {@link CrawlMapper}'s diversion logs. 
+ * 
+ * <p>Each crawler listens on a port. URIs sent to a peer are queued,
+ * gathered into batches, deflate-compressed, and written as one frame 
+ * (4-byte length, then compressed lines of 'URI hopsPath via'); the peer 
+ * schedules the batch into its frontier, then acknowledges it. Any batch
+ * not acknowledged, and any URI offered while the peer is unreachable or 
+ * its queue is full, is appended to a spill file, which is replayed to 
+ * the peer once it can be reached again (including after a restart).
+ *
+ * <p>Received URIs are checked against a cache of recently-received 
+ * fingerprints before being offered to the frontier, whose own uniq 
+ * filter then applies as usual.
+ *
+ * <p>There is no authentication: the listener binds only to 
+ * {@link #getListenAddress()} (loopback by default), and connections
+ * from hosts other than the configured peers (and any listed in
+ * {@link #getAcceptFrom()}) are dropped.
+ * 
+ * @version $Date$, $Revision$
+ */
+public class PeerUriExchange implements Lifecycle {
+    private static final Logger logger =
+        Logger.getLogger(PeerUriExchange.class.getName());
+
+    /** largest frame accepted from a peer */
+    protected static final int MAX_FRAME_BYTES = 64 * 1024 * 1024;
+    /** largest frame accepted from a peer, once inflated */
+    protected static final int MAX_INFLATED_BYTES = 64 * 1024 * 1024;
+    protected static final int ACK = 1;
+
+    protected Frontier frontier;
+    public Frontier getFrontier() {
+        return this.frontier;
+    }
+    @Autowired(required=false)
+    public void setFrontier(Frontier frontier) {
+        this.frontier = frontier;
+    }
+
+    /**
+     * Port on which to listen for URIs from peers; 0 for any free port, 
+     * or -1 not to listen.
+     */
+    protected int listenPort = -1;
+    public int getListenPort() {
+        return this.listenPort;
+    }
+    public void setListenPort(int port) {
+        this.listenPort = port;
+    }
+
+    /**
+     * Local address on which to listen. Loopback by default; set to the
+     * address of the interface facing the peer crawlers to exchange URIs
+     * between hosts.
+     */
+    protected String listenAddress = "127.0.0.1";
+    public String getListenAddress() {
+        return this.listenAddress;
+    }
+    public void setListenAddress(String address) {
+        this.listenAddress = address;
+    }
+
+    /**
+     * Hosts, besides those of {@link #getPeers()}, allowed to send URIs
+     * to this crawler (as for peers which only send).
+     */
+    protected List<String> acceptFrom = new ArrayList<String>();
+    public List<String> getAcceptFrom() {
+        return this.acceptFrom;
+    }
+    public void setAcceptFrom(List<String> hosts) {
+        this.acceptFrom = hosts;
+    }
+
+    /**
+     * Peer crawlers, by the node names a {@link CrawlMapper} maps to, 
+     * with their 'host:port' listening addresses.
+     */
+    protected Map<String,String> peers = new HashMap<String,String>();
+    public Map<String,String> getPeers() {
+        return this.peers;
+    }
+    public void setPeers(Map<String,String> peers) {
+        this.peers = peers;
+    }
+
+    /**
+     * Maximum URIs per batch sent to a peer.
+     */
+    protected int batchSize = 1000;
+    public int getBatchSize() {
+        return this.batchSize;
+    }
+    public void setBatchSize(int size) {
+        this.batchSize = size;
+    }
+
+    /**
+     * URIs held in memory, per peer, awaiting sending; beyond this, URIs 
+     * are spilled to disk.
+     */
+    protected int maxQueuedPerPeer = 100000;
+    public int getMaxQueuedPerPeer() {
+        return this.maxQueuedPerPeer;
+    }
+    public void setMaxQueuedPerPeer(int max) {
+        this.maxQueuedPerPeer = max;
+    }
+
+    /**
+     * Seconds to wait after failing to reach a peer before trying again;
+     * meanwhile, URIs for the peer are spilled to disk.
+     */
+    protected int retryDelaySeconds = 30;
+    public int getRetryDelaySeconds() {
+        return this.retryDelaySeconds;
+    }
+    public void setRetryDelaySeconds(int seconds) {
+        this.retryDelaySeconds = seconds;
+    }
+
+    /**
+     * Directory for spill files of URIs not yet delivered to peers.
+     */
+    protected ConfigPath spillDir = 
+        new ConfigPath("peer spill subdirectory","diversions");
+    public ConfigPath getSpillDir() {
+        return this.spillDir;
+    }
+    public void setSpillDir(ConfigPath path) {
+        this.spillDir = path;
+    }
+
+    protected Map<String,PeerSender> senders = 
+        new HashMap<String,PeerSender>();
+    protected ServerSocket serverSocket;
+    protected Thread acceptor;
+    protected List<Socket> inbound = new CopyOnWriteArrayList<Socket>();
+    protected ArrayLongFPCache recentlyReceived;
+    protected volatile boolean isRunning = false;
+
+    protected AtomicLong sentCount = new AtomicLong(0);
+    protected AtomicLong spilledCount = new AtomicLong(0);
+    protected AtomicLong receivedCount = new AtomicLong(0);
+    protected AtomicLong duplicateCount = new AtomicLong(0);
+
+    public boolean isRunning() {
+        return isRunning;
+    }
+
+    public synchronized void start() {
+        if (isRunning) {
+            return;
+        }
+        if (getListenPort() >= 0 && getFrontier() == null) {
+            throw new IllegalStateException(
+                    "listening for peer URIs requires a frontier");
+        }
+        recentlyReceived = new ArrayLongFPCache();
+        getSpillDir().getFile().mkdirs();
+        for (Map.Entry<String,String> peer : getPeers().entrySet()) {
+            PeerSender sender = new PeerSender(peer.getKey(), peer.getValue());
+            senders.put(peer.getKey(), sender);
+            sender.start();
+        }
+        if (getListenPort() >= 0) {
+            try {
+                serverSocket = new ServerSocket();
+                serverSocket.setReuseAddress(true);
+                serverSocket.bind(new InetSocketAddress(
+                        InetAddress.getByName(getListenAddress()), getListenPort()));
+            } catch (IOException e) {
+                throw new IllegalStateException("unable to listen on "
+                        + getListenAddress() + ":" + getListenPort(), e);
+            }
+            acceptor = new Thread("PeerUriExchange listener :" 
+                    + serverSocket.getLocalPort()) {
+                public void run() {
+                    acceptConnections();
+                }
+            };
+            acceptor.setDaemon(true);
+            acceptor.start();
+        }
+        isRunning = true;
+    }
+
+    public synchronized void stop() {
+        if (!isRunning) {
+            return;
+        }
+        isRunning = false;
+        if (serverSocket != null) {
+            closeQuietly(serverSocket);
+        }
+        for (Socket socket : inbound) {
+            closeQuietly(socket);
+        }
+        for (PeerSender sender : senders.values()) {
+            sender.finish();
+        }
+        senders.clear();
+    }
+
+    /**
+     * @return port actually listened on, or -1 if not listening
+     */
+    public int getBoundPort() {
+        return serverSocket == null ? -1 : serverSocket.getLocalPort();
+    }
+
+    /**
+     * @return true if the named node is a peer reachable by this exchange
+     */
+    public boolean hasPeer(String name) {
+        return senders.containsKey(name);
+    }
+
+    /**
+     * Queue the given URI for sending to the named peer. Never blocks 
+     * on the network: if the peer's queue is full, the URI is spilled
+     * to disk.
+     */
+    public void send(String peer, CrawlURI curi) {
+        send(peer, curi.toString() + " " + curi.getPathFromSeed() + " " 
+                + curi.flattenVia());
+    }
+
+    protected void send(String peer, String line) {
+        PeerSender sender = senders.get(peer);
+        if (sender == null) {
+            throw new IllegalArgumentException("no such peer: " + peer);
+        }
+        sender.offer(line);
+    }
+
+    protected void acceptConnections() {
+        // until stop() closes the server socket
+        while (true) {
+            final Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (IOException e) {
+                if (serverSocket.isClosed()) {
+                    return;
+                }
+                logger.log(Level.WARNING, "accept failed", e);
+                continue;
+            }
+            if (!isAllowedSender(socket.getInetAddress())) {
+                logger.warning("refused connection from "
+                        + socket.getRemoteSocketAddress() + ": not a configured peer");
+                closeQuietly(socket);
+                continue;
+            }
+            inbound.add(socket);
+            Thread reader = new Thread("PeerUriExchange from " 
+                    + socket.getRemoteSocketAddress()) {
+                public void run() {
+                    try {
+                        readFrames(socket);
+                    } finally {
+                        inbound.remove(socket);
+                        closeQuietly(socket);
+                    }
+                }
+            };
+            reader.setDaemon(true);
+            reader.start();
+        }
+    }
+
+    /**
+     * @return true if the given address is that of a configured peer or
+     *         acceptFrom host (resolved afresh, as connections are rare)
+     */
+    protected boolean isAllowedSender(InetAddress remote) {
+        Set<String> hosts = new HashSet<String>(getAcceptFrom());
+        for (String address : getPeers().values()) {
+            int colon = address.lastIndexOf(':');
+            hosts.add(colon < 0 ? address : address.substring(0, colon));
+        }
+        for (String host : hosts) {
+            try {
+                for (InetAddress allowed : InetAddress.getAllByName(host)) {
+                    if (allowed.equals(remote)) {
+                        return true;
+                    }
+                }
+            } catch (IOException e) {
+                logger.log(Level.FINE, "unable to resolve peer " + host, e);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Read, schedule, and acknowledge frames until the peer disconnects.
+     */
+    protected void readFrames(Socket socket) {
+        try {
+            DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            while (true) {
+                int length;
+                try {
+                    length = in.readInt();
+                } catch (IOException e) {
+                    // peer closed connection
+                    return;
+                }
+                if (length < 0 || length > MAX_FRAME_BYTES) {
+                    logger.warning("bad frame length " + length + " from "
+                            + socket.getRemoteSocketAddress());
+                    return;
+                }
+                byte[] frame = new byte[length];
+                in.readFully(frame);
+                receive(decodeLines(frame));
+                out.write(ACK);
+                out.flush();
+            }
+        } catch (IOException e) {
+            if (isRunning) {
+                logger.log(Level.WARNING, "problem reading from " 
+                        + socket.getRemoteSocketAddress(), e);
+            }
+        }
+    }
+
+    /**
+     * Schedule received lines into the frontier, skipping those received 
+     * recently.
+     */
+    protected void receive(List<String> lines) {
+        List<CrawlURI> curis = new ArrayList<CrawlURI>(lines.size());
+        for (String line : lines) {
+            receivedCount.incrementAndGet();
+            if (recentlyReceived(line)) {
+                duplicateCount.incrementAndGet();
+                continue;
+            }
+            try {
+                curis.add(CrawlURI.fromHopsViaString(line));
+            } catch (URIException e) {
+                logger.log(Level.WARNING, "bad URI from peer: " + line, e);
+            }
+        }
+        if (!curis.isEmpty()) {
+            frontier.scheduleAll(curis);
+        }
+    }
+
+    protected boolean recentlyReceived(String line) {
+        int space = line.indexOf(' ');
+        long fp = FPGenerator.std64.fp(space < 0 ? line : line.substring(0, space));
+        synchronized (recentlyReceived) {
+            return !recentlyReceived.add(fp);
+        }
+    }
+
+    protected static byte[] encodeLines(List<String> lines) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        Writer w = new OutputStreamWriter(new DeflaterOutputStream(bytes), "UTF-8");
+        for (String line : lines) {
+            w.write(line);
+            w.write('\n');
+        }
+        w.close();
+        return bytes.toByteArray();
+    }
+
+    protected static List<String> decodeLines(byte[] frame) throws IOException {
+        return decodeLines(frame, MAX_INFLATED_BYTES);
+    }
+
+    /**
+     * @throws IOException if the frame is corrupt, or inflates beyond
+     *         maxInflatedBytes
+     */
+    protected static List<String> decodeLines(byte[] frame, int maxInflatedBytes) 
+    throws IOException {
+        InputStream inflater = new InflaterInputStream(new ByteArrayInputStream(frame));
+        ByteArrayOutputStream inflated = new ByteArrayOutputStream(
+                Math.min(frame.length * 4, 1024 * 1024));
+        byte[] buf = new byte[16 * 1024];
+        int n;
+        while ((n = inflater.read(buf)) >= 0) {
+            if (inflated.size() + n > maxInflatedBytes) {
+                throw new IOException("frame inflates beyond " 
+                        + maxInflatedBytes + " bytes");
+            }
+            inflated.write(buf, 0, n);
+        }
+        BufferedReader r = new BufferedReader(new InputStreamReader(
+                new ByteArrayInputStream(inflated.toByteArray()), "UTF-8"));
+        List<String> lines = new ArrayList<String>();
+        String line;
+        while ((line = r.readLine()) != null) {
+            if (line.length() > 0) {
+                lines.add(line);
+            }
+        }
+        return lines;
+    }
+
+    protected static void closeQuietly(java.io.Closeable c) {
+        try {
+            c.close();
+        } catch (IOException e) {
+            // ignore
+        }
+    }
+
+    /**
+     * Sends URIs queued for one peer, spilling what cannot be delivered.
+     */
+    protected class PeerSender extends Thread {
+        protected final String peer;
+        protected final String host;
+        protected final int port;
+        protected final BlockingQueue<String> queue;
+        protected final File spillFile;
+        protected final Object spillLock = new Object();
+        protected volatile boolean running = true;
+        protected Socket socket;
+        protected DataOutputStream out;
+        protected DataInputStream in;
+        protected long nextConnectTime = 0;
+
+        public PeerSender(String peer, String address) {
+            super("PeerUriExchange to " + peer);
+            setDaemon(true);
+            this.peer = peer;
+            int colon = address.lastIndexOf(':');
+            if (colon < 0) {
+                throw new IllegalArgumentException(
+                        "peer address not host:port: " + address);
+            }
+            this.host = address.substring(0, colon);
+            this.port = Integer.parseInt(address.substring(colon + 1));
+            this.queue = new LinkedBlockingQueue<String>(getMaxQueuedPerPeer());
+            this.spillFile = new File(getSpillDir().getFile(), "to-" + peer + ".spill");
+        }
+
+        public void offer(String line) {
+            if (!queue.offer(line)) {
+                spill(Collections.singletonList(line));
+            }
+        }
+
+        public void run() {
+            List<String> batch = new ArrayList<String>(getBatchSize());
+            while (running || !queue.isEmpty()) {
+                try {
+                    String first = queue.poll(1, TimeUnit.SECONDS);
+                    if (first != null) {
+                        batch.add(first);
+                        queue.drainTo(batch, getBatchSize() - 1);
+                    }
+                } catch (InterruptedException e) {
+                    // finishing; drain what remains
+                    queue.drainTo(batch);
+                    running = false;
+                }
+                if (!replaySpill()) {
+                    // peer unreachable: keep everything on disk, in order
+                    spill(batch);
+                } else if (!batch.isEmpty() && !deliver(batch)) {
+                    spill(batch);
+                }
+                batch.clear();
+            }
+            disconnect();
+        }
+
+        /**
+         * Stop sending, spilling anything still queued.
+         */
+        public void finish() {
+            running = false;
+            interrupt();
+            try {
+                join(10000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            List<String> rest = new ArrayList<String>();
+            queue.drainTo(rest);
+            spill(rest);
+        }
+
+        /**
+         * Send one batch, waiting for its acknowledgement.
+         * 
+         * @return true if peer acknowledged the batch
+         */
+        protected boolean deliver(List<String> batch) {
+            if (!ensureConnected()) {
+                return false;
+            }
+            try {
+                byte[] frame = encodeLines(batch);
+                out.writeInt(frame.length);
+                out.write(frame);
+                out.flush();
+                if (in.read() != ACK) {
+                    throw new SocketException("no acknowledgement");
+                }
+                sentCount.addAndGet(batch.size());
+                return true;
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "failed sending " + batch.size() 
+                        + " URIs to " + peer, e);
+                disconnect();
+                nextConnectTime = System.currentTimeMillis() 
+                    + getRetryDelaySeconds() * 1000L;
+                return false;
+            }
+        }
+
+        protected boolean ensureConnected() {
+            if (socket != null) {
+                return true;
+            }
+            if (System.currentTimeMillis() < nextConnectTime) {
+                return false;
+            }
+            try {
+                socket = new Socket();
+                socket.connect(new InetSocketAddress(host, port), 10000);
+                socket.setSoTimeout(5 * 60 * 1000);
+                socket.setTcpNoDelay(true);
+                out = new DataOutputStream(
+                        new BufferedOutputStream(socket.getOutputStream()));
+                in = new DataInputStream(socket.getInputStream());
+                return true;
+            } catch (IOException e) {
+                logger.info("unable to reach peer " + peer + " at " + host 
+                        + ":" + port + " (" + e + "); spilling");
+                disconnect();
+                nextConnectTime = System.currentTimeMillis() 
+                    + getRetryDelaySeconds() * 1000L;
+                return false;
+            }
+        }
+
+        protected void disconnect() {
+            if (socket != null) {
+                closeQuietly(socket);
+            }
+            socket = null;
+            out = null;
+            in = null;
+        }
+
+        protected void spill(List<String> lines) {
+            if (lines.isEmpty()) {
+                return;
+            }
+            synchronized (spillLock) {
+                try {
+                    Writer w = new OutputStreamWriter(
+                            new FileOutputStream(spillFile, true), "UTF-8");
+                    try {
+                        for (String line : lines) {
+                            w.write(line);
+                            w.write('\n');
+                        }
+                    } finally {
+                        w.close();
+                    }
+                    spilledCount.addAndGet(lines.size());
+                } catch (IOException e) {
+                    logger.log(Level.SEVERE, "unable to spill " + lines.size() 
+                            + " URIs for " + peer + " to " + spillFile, e);
+                }
+            }
+        }
+
+        /**
+         * Deliver any spilled URIs, oldest first.
+         * 
+         * @return true if nothing remains spilled
+         */
+        protected boolean replaySpill() {
+            File replaying = new File(spillFile.getPath() + ".replaying");
+            synchronized (spillLock) {
+                if (!replaying.exists()) {
+                    if (!spillFile.exists()) {
+                        return true;
+                    }
+                    if (!ensureConnected()) {
+                        return false;
+                    }
+                    spillFile.renameTo(replaying);
+                }
+            }
+            List<String> batch = new ArrayList<String>(getBatchSize());
+            try {
+                BufferedReader r = new BufferedReader(new InputStreamReader(
+                        new FileInputStream(replaying), "UTF-8"));
+                try {
+                    String line;
+                    while ((line = r.readLine()) != null) {
+                        batch.add(line);
+                        if (batch.size() >= getBatchSize()) {
+                            if (!deliver(batch)) {
+                                respill(batch, r);
+                                return false;
+                            }
+                            batch.clear();
+                        }
+                    }
+                    if (!batch.isEmpty() && !deliver(batch)) {
+                        respill(batch, r);
+                        return false;
+                    }
+                } finally {
+                    r.close();
+                }
+            } catch (IOException e) {
+                logger.log(Level.SEVERE, "problem replaying " + replaying, e);
+                return false;
+            }
+            replaying.delete();
+            synchronized (spillLock) {
+                return !spillFile.exists();
+            }
+        }
+
+        /**
+         * Move undelivered remainder of a replay back ahead of any newer 
+         * spill.
+         */
+        protected void respill(List<String> batch, BufferedReader rest)
+        throws IOException {
+            File replaying = new File(spillFile.getPath() + ".replaying");
+            File remainder = new File(spillFile.getPath() + ".remainder");
+            synchronized (spillLock) {
+                Writer w = new OutputStreamWriter(
+                        new FileOutputStream(remainder), "UTF-8");
+                try {
+                    for (String line : batch) {
+                        w.write(line);
+                        w.write('\n');
+                    }
+                    String line;
+                    while ((line = rest.readLine()) != null) {
+                        w.write(line);
+                        w.write('\n');
+                    }
+                    if (spillFile.exists()) {
+                        BufferedReader newer = new BufferedReader(new InputStreamReader(
+                                new FileInputStream(spillFile), "UTF-8"));
+                        try {
+                            while ((line = newer.readLine()) != null) {
+                                w.write(line);
+                                w.write('\n');
+                            }
+                        } finally {
+                            newer.close();
+                        }
+                    }
+                } finally {
+                    w.close();
+                }
+                spillFile.delete();
+                replaying.delete();
+                remainder.renameTo(spillFile);
+            }
+        }
+    }
+
+    public long getSentCount() {
+        return sentCount.get();
+    }
+
+    public long getSpilledCount() {
+        return spilledCount.get();
+    }
+
+    public long getReceivedCount() {
+        return receivedCount.get();
+    }
+
+    public long getDuplicateCount() {
+        return duplicateCount.get();
+    }
+}
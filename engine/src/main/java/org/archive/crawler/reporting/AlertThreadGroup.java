@@ -38,6 +38,11 @@ public class AlertThreadGroup extends ThreadGroup {
     protected int count;
     protected LinkedList<Logger> loggers = new LinkedList<Logger>(); 
     static protected ThreadLocal<Logger> threadLogger = new ThreadLocal<Logger>();
+    /** 
+     * Thread on whose behalf the current thread runs, for threads (such as
+     * virtual threads) which cannot themselves be placed in a thread group.
+     */
+    static protected ThreadLocal<Thread> actingFor = new ThreadLocal<Thread>();
     
     public AlertThreadGroup(String name) {
         super(name);
@@ -60,8 +65,21 @@ public class AlertThreadGroup extends ThreadGroup {
         threadLogger.set(logger); 
     }
 
+    /**
+     * Declare that the current thread runs on behalf of the given thread,
+     * whose thread group and log context should be used for alerts. 
+     */
+    public static void setActingFor(Thread thread) {
+        actingFor.set(thread);
+    }
+
+    protected static Thread effectiveCurrentThread() {
+        Thread t = actingFor.get();
+        return t != null ? t : Thread.currentThread();
+    }
+
     public static AlertThreadGroup current() {
-        Thread t = Thread.currentThread();
+        Thread t = effectiveCurrentThread();
         ThreadGroup th = t.getThreadGroup();
         while ((th != null) && !(th instanceof AlertThreadGroup)) {
             th = th.getParent();
@@ -95,7 +113,7 @@ public class AlertThreadGroup extends ThreadGroup {
     public void publish(LogRecord record) {
         String orig = record.getMessage();
         StringBuilder newMessage = new StringBuilder(256);
-        Thread current = Thread.currentThread();
+        Thread current = effectiveCurrentThread();
         newMessage.append(orig).append(" (in thread '");
         newMessage.append(current.getName()).append("'");
         if (current instanceof SinkHandlerLogThread) {
@@ -0,0 +1,298 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.crawler.reporting;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.archive.bdb.BdbModule;
+import org.archive.crawler.datamodel.UriUniqFilter;
+import org.archive.crawler.framework.CrawlController;
+import org.archive.crawler.framework.CrawlJob;
+import org.archive.crawler.framework.Engine;
+import org.archive.crawler.framework.Frontier;
+import org.archive.crawler.frontier.AbstractFrontier;
+import org.archive.crawler.frontier.WorkQueueFrontier;
+import org.archive.crawler.util.CrawledBytesHistotable;
+import org.archive.modules.writer.WriterPoolProcessor;
+import org.archive.spring.PathSharingContext;
+
+/**
+ * Snapshot of engine and crawl metrics in the Prometheus text exposition
+ * format, for scraping by monitoring systems.
+ * 
+ * <p>Values are read only from sources that are cheap to consult and 
+ * take no frontier-wide lock: atomic counters, sizes of concurrent 
+ * collections, the most recent statistics snapshot (for rates), and BDB
+ * 'fast' statistics. Unlike the text reports, nothing is regenerated 
+ * per request, so frequent scraping is harmless.
+ */
+public class CrawlMetrics {
+    public static final String PREFIX = "heritrix_";
+
+    /** one metric family: all samples of one name, with type and help */
+    protected static class Family {
+        String type;
+        String help;
+        List<String> samples = new ArrayList<String>();
+    }
+
+    protected Map<String,Family> families = new LinkedHashMap<String,Family>();
+
+    /**
+     * Add a gauge sample.
+     * 
+     * @param name metric name, without prefix
+     * @param help description
+     * @param labels preformatted labels (see {@link #label}), or ""
+     * @param value sample value
+     */
+    public void gauge(String name, String help, String labels, double value) {
+        sample("gauge", name, help, labels, value);
+    }
+
+    /**
+     * Add a counter sample; name should end in "_total".
+     * 
+     * @see #gauge(String, String, String, double)
+     */
+    public void counter(String name, String help, String labels, double value) {
+        sample("counter", name, help, labels, value);
+    }
+
+    protected void sample(String type, String name, String help, 
+            String labels, double value) {
+        Family family = families.get(name);
+        if (family == null) {
+            family = new Family();
+            family.type = type;
+            family.help = help;
+            families.put(name, family);
+        }
+        StringBuilder sb = new StringBuilder(PREFIX).append(name);
+        if (labels.length() > 0) {
+            sb.append('{').append(labels).append('}');
+        }
+        sb.append(' ').append(format(value));
+        family.samples.add(sb.toString());
+    }
+
+    protected static String format(double value) {
+        if (Double.isNaN(value)) {
+            return "NaN";
+        }
+        if (Double.isInfinite(value)) {
+            return value > 0 ? "+Inf" : "-Inf";
+        }
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            return Long.toString((long) value);
+        }
+        return Double.toString(value);
+    }
+
+    /**
+     * @return a label pair, value escaped as the text format requires
+     */
+    public static String label(String name, String value) {
+        StringBuilder sb = new StringBuilder(name).append("=\"");
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' || c == '"') {
+                sb.append('\\').append(c);
+            } else if (c == '\n') {
+                sb.append("\\n");
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+    /**
+     * Write all families, each sample of a name grouped under a single
+     * HELP and TYPE, as the format requires.
+     */
+    public void writeTo(Writer writer) throws IOException {
+        for (Map.Entry<String,Family> e : families.entrySet()) {
+            Family family = e.getValue();
+            writer.write("# HELP " + PREFIX + e.getKey() + " " + family.help + "\n");
+            writer.write("# TYPE " + PREFIX + e.getKey() + " " + family.type + "\n");
+            for (String sample : family.samples) {
+                writer.write(sample);
+                writer.write('\n');
+            }
+        }
+    }
+
+    /**
+     * Collect metrics for the engine and every job with a running crawl.
+     */
+    public void collect(Engine engine) {
+        Runtime rt = Runtime.getRuntime();
+        gauge("heap_used_bytes", "Java heap in use", "", 
+                rt.totalMemory() - rt.freeMemory());
+        gauge("heap_max_bytes", "Maximum Java heap", "", rt.maxMemory());
+        List<CrawlJob> jobs;
+        synchronized (engine) {
+            // as in job scans, which may alter the map
+            jobs = new ArrayList<CrawlJob>(engine.getJobConfigs().values());
+        }
+        gauge("jobs", "Known crawl jobs", "", jobs.size());
+        for (CrawlJob job : jobs) {
+            if (job.isRunning()) {
+                collect(job);
+            }
+        }
+    }
+
+    /**
+     * Collect metrics for one running job, labelled with its name.
+     */
+    public void collect(CrawlJob job) {
+        CrawlController cc = job.getCrawlController();
+        PathSharingContext ac = job.getJobContext();
+        if (cc == null || ac == null) {
+            return;
+        }
+        String labels = label("job", job.getShortName());
+        gauge("job_paused", "Whether the crawl is paused", labels, 
+                cc.isPaused() ? 1 : 0);
+
+        collectFrontier(cc.getFrontier(), labels);
+
+        gauge("toe_threads", "Worker threads", labels, cc.getToeCount());
+        gauge("toe_threads_active", "Worker threads processing a URI", labels, 
+                cc.getActiveToeCount());
+        gauge("toe_threads_max", "Configured worker thread count", labels, 
+                cc.getMaxToeThreads());
+
+        StatisticsTracker stats = cc.getStatisticsTracker();
+        if (stats != null) {
+            CrawlStatSnapshot snapshot = stats.listSnapshots().peek();
+            if (snapshot != null) {
+                // as of the last progress-statistics interval
+                gauge("docs_per_second", "URIs fetched per second, last interval", 
+                        labels, snapshot.currentDocsPerSecond);
+                gauge("kib_per_second", "KiB fetched per second, last interval", 
+                        labels, snapshot.currentKiBPerSec);
+            }
+            counter("crawled_bytes_total", "Content bytes fetched", labels, 
+                    stats.crawledBytes.getTotalBytes());
+            counter("novel_bytes_total", "Content bytes fetched not seen before", 
+                    labels, stats.crawledBytes.get(CrawledBytesHistotable.NOVEL));
+            gauge("elapsed_seconds", "Crawl time, excluding pauses", labels, 
+                    stats.getCrawlElapsedTime() / 1000d);
+        }
+
+        for (Map.Entry<String,BdbModule> e 
+                : ac.getBeansOfType(BdbModule.class, false, false).entrySet()) {
+            String bdbLabels = labels + "," + label("module", e.getKey());
+            Map<String,Long> cache = e.getValue().getCacheStats();
+            if (cache.isEmpty()) {
+                continue;
+            }
+            counter("bdb_node_fetches_total", "BDB btree node fetches", 
+                    bdbLabels, cache.get("nodeFetches"));
+            counter("bdb_node_fetch_misses_total", 
+                    "BDB btree node fetches not satisfied by cache", 
+                    bdbLabels, cache.get("nodeFetchMisses"));
+            long fetches = cache.get("nodeFetches");
+            gauge("bdb_cache_hit_ratio", "BDB cache hit ratio since start", 
+                    bdbLabels, fetches == 0 ? 1 
+                        : 1 - (double) cache.get("nodeFetchMisses") / fetches);
+            gauge("bdb_cache_bytes", "BDB cache size", bdbLabels, 
+                    cache.get("cacheBytes"));
+        }
+
+        for (Map.Entry<String,WriterPoolProcessor> e 
+                : ac.getBeansOfType(WriterPoolProcessor.class, false, false).entrySet()) {
+            String writerLabels = labels + "," + label("processor", e.getKey());
+            counter("writer_pool_borrows_total", "Writers borrowed from pool", 
+                    writerLabels, e.getValue().getPoolBorrowCount());
+            counter("writer_pool_wait_seconds_total", 
+                    "Time spent waiting for a pool writer", 
+                    writerLabels, e.getValue().getPoolWaitMillis() / 1000d);
+        }
+    }
+
+    protected void collectFrontier(Frontier frontier, String labels) {
+        counter("discovered_uris_total", "URIs discovered", labels, 
+                frontier.discoveredUriCount());
+        gauge("queued_uris", "URIs queued", labels, frontier.queuedUriCount());
+        gauge("future_uris", "URIs scheduled for a future time", labels, 
+                frontier.futureUriCount());
+        counter("succeeded_fetches_total", "URIs fetched successfully", labels,
+                frontier.succeededFetchCount());
+        counter("failed_fetches_total", "URIs failed", labels, 
+                frontier.failedFetchCount());
+        counter("disregarded_uris_total", "URIs disregarded", labels, 
+                frontier.disregardedUriCount());
+        if (frontier instanceof AbstractFrontier) {
+            counter("emitted_uris_total", "URIs handed out for processing", 
+                    labels, ((AbstractFrontier) frontier).emittedUriCount());
+        }
+        if (frontier instanceof WorkQueueFrontier) {
+            WorkQueueFrontier wqf = (WorkQueueFrontier) frontier;
+            Map<String,Object> queues = wqf.shortReportMap();
+            if (queues != null) {
+                for (Map.Entry<String,Object> e : queues.entrySet()) {
+                    if (e.getValue() instanceof Number) {
+                        String name = "frontier_" + snakeCase(e.getKey());
+                        if (e.getKey().endsWith("Count")) {
+                            counter(name.replaceAll("_count$", "_total"),
+                                    "Frontier " + e.getKey(), labels, 
+                                    ((Number) e.getValue()).doubleValue());
+                        } else {
+                            gauge(name, "Frontier " + e.getKey(), labels, 
+                                    ((Number) e.getValue()).doubleValue());
+                        }
+                    }
+                }
+            }
+            UriUniqFilter uniq = wqf.getUriUniqFilter();
+            if (uniq != null) {
+                gauge("uniq_filter_size", "URIs remembered by the already-seen filter", 
+                        labels, uniq.count());
+                gauge("uniq_filter_pending", "URIs awaiting already-seen test", 
+                        labels, uniq.pending());
+            }
+        }
+    }
+
+    /**
+     * @return camelCase name as snake_case, eg "readyQueues" to "ready_queues"
+     */
+    protected static String snakeCase(String name) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (Character.isUpperCase(c)) {
+                sb.append('_').append(Character.toLowerCase(c));
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+}
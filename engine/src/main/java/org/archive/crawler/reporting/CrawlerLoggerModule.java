@@ -39,6 +39,7 @@ import org.archive.crawler.io.RuntimeErrorFormatter;
 import org.archive.crawler.io.StatisticsLogFormatter;
 import org.archive.crawler.io.UriErrorFormatter;
 import org.archive.crawler.io.UriProcessingFormatter;
+import org.archive.crawler.util.LogLineIndex;
 import org.archive.crawler.util.Logs;
 import org.archive.io.GenerationFileHandler;
 import org.archive.modules.SimpleFileLoggerProvider;
@@ -279,6 +280,8 @@ public class CrawlerLoggerModule
         addToManifest(filename, MANIFEST_LOG_FILE, shouldManifest);
         logger.setUseParentHandlers(false);
         this.fileHandlers.put(logger, fh);
+        // start the log's line index, kept current across rotations
+        LogLineIndex.forFile(new File(filename));
     }
     
     public Logger setupSimpleLog(String logName) {
@@ -328,7 +331,16 @@ public class CrawlerLoggerModule
             throws IOException {
         for (Logger l : fileHandlers.keySet()) {
             GenerationFileHandler gfh = (GenerationFileHandler) fileHandlers.get(l);
+            File current = new File((String) gfh.getFilenameSeries().get(0));
             GenerationFileHandler newGfh = gfh.rotate(generationSuffix, "", mergeOld);
+            if (mergeOld) {
+                LogLineIndex.forget(current);
+            } else {
+                // carry the index over to the rotated file, so paging and
+                // searching it needn't rescan
+                LogLineIndex.rotated(current,
+                        new File((String) newGfh.getFilenameSeries().get(1)));
+            }
             
             if (gfh.shouldManifest()) {
                 addToManifest((String) newGfh.getFilenameSeries().get(1),
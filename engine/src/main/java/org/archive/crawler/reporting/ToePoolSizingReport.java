@@ -0,0 +1,55 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.crawler.reporting;
+
+import java.io.PrintWriter;
+import java.util.Map;
+
+import org.archive.crawler.framework.ToePoolSizer;
+
+/**
+ * Settings and recent decisions of any {@link ToePoolSizer} in the crawl.
+ * Not among the default reports; add to the StatisticsTracker's reports
+ * list when using a ToePoolSizer.
+ */
+public class ToePoolSizingReport extends Report {
+
+    @Override
+    public void write(PrintWriter writer, StatisticsTracker stats) {
+        Map<String, ToePoolSizer> sizers = stats.appCtx != null
+                ? stats.appCtx.getBeansOfType(ToePoolSizer.class)
+                : null;
+        if (sizers == null || sizers.isEmpty()) {
+            writer.println("no ToePoolSizer configured");
+            return;
+        }
+        for (Map.Entry<String, ToePoolSizer> entry : sizers.entrySet()) {
+            writer.println("[" + entry.getKey() + "]");
+            entry.getValue().reportTo(writer);
+            writer.println();
+        }
+    }
+
+    @Override
+    public String getFilename() {
+        return "toe-pool-sizing-report.txt";
+    }
+
+}
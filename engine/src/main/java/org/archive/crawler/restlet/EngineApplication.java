@@ -65,6 +65,8 @@ public class EngineApplication extends Application {
             .setMatchingMode(Template.MODE_EQUALS);
         router.attach("/engine/",EngineResource.class)
             .setMatchingMode(Template.MODE_EQUALS);
+        router.attach("/engine/metrics",MetricsResource.class)
+            .setMatchingMode(Template.MODE_EQUALS);
 
         Directory alljobsdir = new Directory(
                 getContext(),
@@ -111,6 +113,8 @@ public class EngineApplication extends Application {
         router.attach("/engine/job/{job}/beans",BeanBrowseResource.class);
         router.attach("/engine/job/{job}/beans/{beanPath}",BeanBrowseResource.class);
         router.attach("/engine/job/{job}/script",ScriptResource.class);
+        router.attach("/engine/job/{job}/frontier/queues",FrontierQueuesResource.class);
+        router.attach("/engine/job/{job}/frontier/queues/{queue}",FrontierQueuesResource.class);
 
         // static files (won't serve directory, but will serve files in it)
         String resource = "clap://class/org/archive/crawler/restlet";
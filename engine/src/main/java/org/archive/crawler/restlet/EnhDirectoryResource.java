@@ -104,7 +104,8 @@ public class EnhDirectoryResource extends DirectoryServerResource {
                                 this,
                                 f.getFirstValue("pos"),
                                 f.getFirstValue("lines"),
-                                f.getFirstValue("reverse")));
+                                f.getFirstValue("reverse"),
+                                f.getFirstValue("time")));
                     };
                 }
             }
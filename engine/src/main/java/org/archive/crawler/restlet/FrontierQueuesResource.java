@@ -0,0 +1,192 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.crawler.restlet;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.archive.crawler.framework.CrawlController;
+import org.archive.crawler.framework.Frontier;
+import org.archive.crawler.frontier.QueueIndex;
+import org.archive.crawler.frontier.WorkQueue;
+import org.archive.crawler.frontier.WorkQueueFrontier;
+import org.archive.modules.CrawlURI;
+import org.archive.util.TextUtils;
+import org.json.JSONObject;
+import org.restlet.Context;
+import org.restlet.Request;
+import org.restlet.Response;
+import org.restlet.data.CharacterSet;
+import org.restlet.data.Form;
+import org.restlet.data.MediaType;
+import org.restlet.data.Status;
+import org.restlet.representation.Representation;
+import org.restlet.representation.Variant;
+import org.restlet.representation.WriterRepresentation;
+import org.restlet.resource.ResourceException;
+
+/**
+ * Restlet Resource listing a running crawl's frontier queues from the 
+ * frontier's {@link QueueIndex}, sorted, filtered and paginated per 
+ * query parameters:
+ * 
+ * <ul>
+ * <li>sort: size (default), errors, activity, precedence, or balance</li>
+ * <li>order: desc (default) or asc</li>
+ * <li>offset, limit: page of results (default 0, 100; limit at most 10000)</li>
+ * <li>state: active, inactive, retired, or exhausted</li>
+ * <li>prefix: queue key prefix</li>
+ * <li>minSize, minErrors, minPrecedence, maxPrecedence</li>
+ * </ul>
+ * 
+ * With a {queue} path element, describes that one queue, including its
+ * next few URIs ('head' parameter, default 10), loading only that queue.
+ */
+public class FrontierQueuesResource extends JobRelatedResource {
+    public static final int DEFAULT_LIMIT = 100;
+    public static final int MAX_LIMIT = 10000;
+    public static final int DEFAULT_HEAD = 10;
+
+    protected String queueKey;
+
+    @Override
+    public void init(Context ctx, Request req, Response res) {
+        super.init(ctx, req, res);
+        getVariants().add(new Variant(MediaType.APPLICATION_JSON));
+        getVariants().add(new Variant(MediaType.APPLICATION_XML));
+        String queue = (String) req.getAttributes().get("queue");
+        if (queue != null) {
+            queueKey = TextUtils.urlUnescape(queue);
+        }
+    }
+
+    protected WorkQueueFrontier getFrontier() {
+        CrawlController cc = cj.getCrawlController();
+        if (cc == null || !cj.isRunning()) {
+            throw new ResourceException(Status.CLIENT_ERROR_NOT_FOUND, 
+                    "job '" + cj.getShortName() + "' has no running crawl");
+        }
+        Frontier frontier = cc.getFrontier();
+        if (!(frontier instanceof WorkQueueFrontier)) {
+            throw new ResourceException(Status.CLIENT_ERROR_NOT_FOUND, 
+                    "frontier has no work queues");
+        }
+        return (WorkQueueFrontier) frontier;
+    }
+
+    @Override
+    protected Representation get(Variant variant) throws ResourceException {
+        final Map<String,Object> model = queueKey == null 
+            ? makeListModel(getQuery()) : makeQueueModel(getQuery());
+        final String rootTag = queueKey == null ? "queues" : "queue";
+        Representation representation;
+        if (variant.getMediaType() == MediaType.APPLICATION_XML) {
+            representation = new WriterRepresentation(MediaType.APPLICATION_XML) {
+                public void write(Writer writer) throws IOException {
+                    XmlMarshaller.marshalDocument(writer, rootTag, model);
+                }
+            };
+        } else {
+            representation = new WriterRepresentation(MediaType.APPLICATION_JSON) {
+                public void write(Writer writer) throws IOException {
+                    writer.write(new JSONObject(model).toString());
+                }
+            };
+        }
+        representation.setCharacterSet(CharacterSet.UTF_8);
+        return representation;
+    }
+
+    protected Map<String,Object> makeListModel(Form query) {
+        QueueIndex.Sort sort = QueueIndex.Sort.SIZE;
+        if (query.getFirstValue("sort") != null) {
+            sort = QueueIndex.Sort.forName(query.getFirstValue("sort"));
+            if (sort == null) {
+                throw new ResourceException(Status.CLIENT_ERROR_BAD_REQUEST, 
+                    "unknown sort: " + query.getFirstValue("sort"));
+            }
+        }
+        boolean descending = !"asc".equalsIgnoreCase(query.getFirstValue("order"));
+        int offset = intParam(query, "offset", 0);
+        int limit = Math.min(intParam(query, "limit", DEFAULT_LIMIT), MAX_LIMIT);
+
+        QueueIndex.Filter filter = new QueueIndex.Filter();
+        filter.state = query.getFirstValue("state");
+        filter.keyPrefix = query.getFirstValue("prefix");
+        filter.minSize = intParam(query, "minSize", Integer.MIN_VALUE);
+        filter.minErrors = intParam(query, "minErrors", Integer.MIN_VALUE);
+        filter.minPrecedence = intParam(query, "minPrecedence", Integer.MIN_VALUE);
+        filter.maxPrecedence = intParam(query, "maxPrecedence", Integer.MAX_VALUE);
+
+        QueueIndex index = getFrontier().getQueueIndex();
+        List<Map<String,Object>> queues = new ArrayList<Map<String,Object>>();
+        for (QueueIndex.Summary summary 
+                : index.query(sort, descending, filter, offset, limit)) {
+            queues.add(summary.toMap());
+        }
+        Map<String,Object> model = new LinkedHashMap<String,Object>();
+        model.put("totalQueues", index.size());
+        model.put("sort", sort.name().toLowerCase());
+        model.put("order", descending ? "desc" : "asc");
+        model.put("offset", offset);
+        model.put("limit", limit);
+        model.put("queues", queues);
+        return model;
+    }
+
+    protected Map<String,Object> makeQueueModel(Form query) {
+        WorkQueueFrontier frontier = getFrontier();
+        WorkQueue wq = frontier.getExistingQueue(queueKey);
+        if (wq == null) {
+            throw new ResourceException(Status.CLIENT_ERROR_NOT_FOUND, 
+                    "no queue '" + queueKey + "'");
+        }
+        Map<String,Object> model = new LinkedHashMap<String,Object>();
+        QueueIndex.Summary summary = frontier.getQueueIndex().get(queueKey);
+        if (summary != null) {
+            model.putAll(summary.toMap());
+        }
+        model.put("report", wq.shortReportMap());
+        List<String> head = new ArrayList<String>();
+        int max = Math.min(intParam(query, "head", DEFAULT_HEAD), MAX_LIMIT);
+        for (CrawlURI curi : wq.peekUpcoming(frontier, max)) {
+            head.add(curi.getURI());
+        }
+        model.put("head", head);
+        return model;
+    }
+
+    protected int intParam(Form query, String name, int defaultValue) {
+        String value = query.getFirstValue(name);
+        if (value == null || value.length() == 0) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw new ResourceException(Status.CLIENT_ERROR_BAD_REQUEST, 
+                    "not a number: " + name + "=" + value);
+        }
+    }
+}
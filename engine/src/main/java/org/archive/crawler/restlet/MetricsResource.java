@@ -0,0 +1,60 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.crawler.restlet;
+
+import java.io.IOException;
+import java.io.Writer;
+
+import org.archive.crawler.reporting.CrawlMetrics;
+import org.restlet.Context;
+import org.restlet.Request;
+import org.restlet.Response;
+import org.restlet.data.CharacterSet;
+import org.restlet.data.MediaType;
+import org.restlet.representation.Representation;
+import org.restlet.representation.Variant;
+import org.restlet.representation.WriterRepresentation;
+import org.restlet.resource.ResourceException;
+
+/**
+ * Restlet Resource serving engine and running-crawl metrics in the 
+ * Prometheus text exposition format. See {@link CrawlMetrics}.
+ */
+public class MetricsResource extends BaseResource {
+
+    @Override
+    public void init(Context ctx, Request req, Response res) {
+        super.init(ctx, req, res);
+        getVariants().add(new Variant(MediaType.TEXT_PLAIN));
+    }
+
+    @Override
+    protected Representation get(Variant variant) throws ResourceException {
+        final CrawlMetrics metrics = new CrawlMetrics();
+        metrics.collect(((EngineApplication)getApplication()).getEngine());
+        Representation representation = new WriterRepresentation(MediaType.TEXT_PLAIN) {
+            public void write(Writer writer) throws IOException {
+                metrics.writeTo(writer);
+            }
+        };
+        representation.setCharacterSet(CharacterSet.UTF_8);
+        return representation;
+    }
+}
@@ -33,6 +33,7 @@ import java.util.List;
 import org.apache.commons.lang.StringEscapeUtils;
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.lang.math.LongRange;
+import org.archive.crawler.util.LogLineIndex;
 import org.archive.util.FileUtils;
 import org.restlet.data.CharacterSet;
 import org.restlet.data.Form;
@@ -56,6 +57,9 @@ public class PagedRepresentation extends CharacterRepresentation {
     
     /** position in file around which to fetch lines **/
     protected long position;
+    /** if set, log timestamp (14/17-digit or ISO8601) to seek to, 
+     * overriding position **/
+    protected String time;
     /** desired line count; negative to go back from position; default 128 **/
     protected int lineCount;
     /** whether to display lines in reversed order (latest first) **/
@@ -75,7 +79,7 @@ public class PagedRepresentation extends CharacterRepresentation {
     
     public PagedRepresentation(FileRepresentation representation,
             EnhDirectoryResource resource, String pos, String lines,
-            String reverse) {
+            String reverse, String time) {
         super(MediaType.TEXT_HTML);
         fileRepresentation = representation;
         dirResource = resource; 
@@ -83,6 +87,7 @@ public class PagedRepresentation extends CharacterRepresentation {
         position = StringUtils.isBlank(pos) ? 0 : Long.parseLong(pos);
         lineCount = StringUtils.isBlank(lines) ? 128 : Integer.parseInt(lines);
         reversedOrder = "y".equals(reverse);
+        this.time = StringUtils.isBlank(time) ? null : time.trim();
         
         // TODO: remove if not necessary in future?
         setCharacterSet(CharacterSet.UTF_8);
@@ -106,6 +111,13 @@ public class PagedRepresentation extends CharacterRepresentation {
      */
     protected void loadLines() throws IOException {
         this.file = fileRepresentation.getFile();
+        if (time != null) {
+            // seek via the log's sparse line index, rather than scanning
+            long millis = LogLineIndex.parseTime(time);
+            if (millis != LogLineIndex.UNKNOWN_TIME) {
+                position = LogLineIndex.forFile(file).offsetForTime(millis);
+            }
+        }
         this.lines = new LinkedList<String>();
         this.range = FileUtils.pagedLines(file, position, lineCount, lines, 128);
         // bounce against the front of the file: don't show runt (fewer
@@ -37,7 +37,9 @@ public class EngineModel extends LinkedHashMap<String, Object> {
 			String urlBaseRef) {
 		List<Map<String, Object>> jobList;
 		jobList = new ArrayList<Map<String,Object>>();
-        // Generate list of jobs
+        // Generate list of jobs, picking up any job directories changed
+        // since last listing
+        engine.refreshJobConfigs();
         ArrayList<Map.Entry<String,CrawlJob>> jobConfigurations = new ArrayList<Map.Entry<String,CrawlJob>>(engine.getJobConfigs().entrySet());
         Collections.sort(jobConfigurations, new Comparator<Map.Entry<String, CrawlJob>>() {
             public int compare(Map.Entry<String, CrawlJob> cj1, Map.Entry<String, CrawlJob> cj2) {
@@ -36,8 +36,8 @@ import java.util.logging.Logger;
 import org.archive.modules.CrawlURI;
 import org.archive.spring.OverlayMapsSource;
 import org.archive.spring.Sheet;
-import org.archive.util.PrefixFinder;
 import org.archive.util.SurtPrefixSet;
+import org.archive.util.SurtPrefixTrieSet;
 import org.springframework.beans.BeansException;
 import org.springframework.beans.TypeMismatchException;
 import org.springframework.beans.factory.BeanFactory;
@@ -63,6 +63,8 @@ BeanFactoryAware, OverlayMapsSource, ApplicationListener<ApplicationEvent> {
     protected SortedSet<DecideRuledSheetAssociation> ruleAssociations = 
         new ConcurrentSkipListSet<DecideRuledSheetAssociation>();
     protected NavigableMap<String,List<String>> sheetNamesBySurt = new ConcurrentSkipListMap<String,List<String>>(); 
+    /** trie of all keys of sheetNamesBySurt, for fast lookup of all matching prefixes */
+    protected SurtPrefixTrieSet sheetSurts = new SurtPrefixTrieSet(false);
     
     /** all sheets by (bean)name*/
     protected Map<String,Sheet> sheetsByName = new ConcurrentHashMap<String, Sheet>();
@@ -99,6 +101,8 @@ BeanFactoryAware, OverlayMapsSource, ApplicationListener<ApplicationEvent> {
     
     /**
      * Sheet names, by the SURT prefix to which they should be applied.
+     * Prefixes added directly to this map, rather than through 
+     * addSurtAssociation(), are only noticed at context refresh.
      * 
      * @return map of Sheet names by their configured SURT
      */
@@ -139,6 +143,7 @@ BeanFactoryAware, OverlayMapsSource, ApplicationListener<ApplicationEvent> {
         }
         sheetNames.add(sheetName); 
         sheetNamesBySurt.put(prefix, sheetNames); 
+        sheetSurts.add(prefix);
     }
     
     public boolean removeSurtAssociation(String prefix, String sheetName) {
@@ -147,7 +152,13 @@ BeanFactoryAware, OverlayMapsSource, ApplicationListener<ApplicationEvent> {
             // no such association
             return false; 
         }
-        return sheetNames.remove(sheetName); 
+        boolean removed = sheetNames.remove(sheetName); 
+        if(sheetNames.isEmpty()) {
+            // last sheet for prefix: drop the prefix, too
+            sheetNamesBySurt.remove(prefix, sheetNames);
+            sheetSurts.remove(prefix);
+        }
+        return removed;
     }
 
     /** 
@@ -191,6 +202,8 @@ BeanFactoryAware, OverlayMapsSource, ApplicationListener<ApplicationEvent> {
             for(Sheet s: sheetsByName.values()) {
                 s.prime(); // exception if Sheet can't target overridable properties
             }
+            // compile all SURT associations into a single trie snapshot
+            sheetSurts.addAll(sheetNamesBySurt.keySet());
             // log warning for any sheets named but not present
             HashSet<String> allSheetNames = new HashSet<String>();
             for(DecideRuledSheetAssociation assoc : ruleAssociations) {
@@ -317,9 +330,13 @@ BeanFactoryAware, OverlayMapsSource, ApplicationListener<ApplicationEvent> {
         // apply SURT-based overlays
         curi.getOverlayNames().clear(); // clear previous info
         String effectiveSurt = SurtPrefixSet.getCandidateSurt(curi.getPolicyBasisUURI());
-        List<String> foundPrefixes = PrefixFinder.findKeys(sheetNamesBySurt, effectiveSurt);       
+        List<String> foundPrefixes = sheetSurts.findPrefixes(effectiveSurt);
         for(String prefix : foundPrefixes) {
-            for(String name : sheetNamesBySurt.get(prefix)) {
+            List<String> names = sheetNamesBySurt.get(prefix);
+            if(names == null) {
+                continue;
+            }
+            for(String name : names) {
                 curi.getOverlayNames().add(name);
             }
         }
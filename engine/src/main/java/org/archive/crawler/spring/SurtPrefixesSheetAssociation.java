@@ -26,6 +26,10 @@ import org.springframework.beans.factory.annotation.Required;
 /**
  * SheetAssociation applied on the basis of matching SURT prefixes. 
  * 
+ * All such associations are compiled by the SheetOverlaysManager into
+ * one SURT prefix trie, so lookup cost does not grow with the number of
+ * associated prefixes.
+ * 
  * @author gojomo
  */
 public class SurtPrefixesSheetAssociation extends SheetAssociation {
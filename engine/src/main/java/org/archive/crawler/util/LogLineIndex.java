@@ -0,0 +1,385 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.crawler.util;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.archive.util.ArchiveUtils;
+
+/**
+ * Sparse index of a growing line-oriented log file: the byte offset of
+ * every Nth line, and the timestamp leading each such line (if any), so
+ * that a reader can seek near any line number or time without scanning
+ * from the start of the file.
+ *
+ * <p>The index is maintained incrementally: each {@link #update()} scans
+ * only bytes appended since the last. If the file shrinks (as when it is
+ * replaced), the index is rebuilt. Lines are assumed to end in '\n'.
+ *
+ * <p>Indexes are shared through {@link #forFile(File)}, so
+ * {@link org.archive.crawler.reporting.CrawlerLoggerModule} can keep the
+ * indexes of the logs it writes current across rotations, and
+ * {@link LogReader} can use them for paging and searching. Shared indexes
+ * of files which no longer exist are dropped, and beyond
+ * {@link #MAX_SHARED_INDEXES} the least recently used are dropped too.
+ */
+public class LogLineIndex {
+    /** default count of lines between index entries */
+    public static final int DEFAULT_INTERVAL = 1000;
+
+    public static final long UNKNOWN_TIME = Long.MIN_VALUE;
+
+    /** most shared indexes kept, as many rotated logs may be read */
+    public static final int MAX_SHARED_INDEXES = 256;
+
+    protected static final ConcurrentMap<File,LogLineIndex> INDEXES =
+        new ConcurrentHashMap<File,LogLineIndex>();
+
+    /**
+     * @return the shared index for the given file, created if necessary
+     */
+    public static LogLineIndex forFile(File file) {
+        File key = file.getAbsoluteFile();
+        LogLineIndex index = INDEXES.get(key);
+        if (index == null) {
+            prune();
+            LogLineIndex created = new LogLineIndex(key, DEFAULT_INTERVAL);
+            index = INDEXES.putIfAbsent(key, created);
+            if (index == null) {
+                index = created;
+            }
+        }
+        index.lastUsed = System.currentTimeMillis();
+        return index;
+    }
+
+    /**
+     * Drop shared indexes of files which no longer exist, then the least
+     * recently used until there is room for one more.
+     */
+    protected static void prune() {
+        for (Iterator<Map.Entry<File,LogLineIndex>> iter = INDEXES.entrySet().iterator(); 
+                iter.hasNext();) {
+            if (!iter.next().getKey().exists()) {
+                iter.remove();
+            }
+        }
+        while (INDEXES.size() >= MAX_SHARED_INDEXES) {
+            Map.Entry<File,LogLineIndex> oldest = null;
+            for (Map.Entry<File,LogLineIndex> entry : INDEXES.entrySet()) {
+                if (oldest == null || entry.getValue().lastUsed < oldest.getValue().lastUsed) {
+                    oldest = entry;
+                }
+            }
+            if (oldest == null) {
+                break;
+            }
+            INDEXES.remove(oldest.getKey(), oldest.getValue());
+        }
+    }
+
+    /**
+     * Note that the given file has been renamed, as on log rotation: its
+     * index is brought current and carried over to the new name, so the
+     * rotated log needn't be rescanned.
+     */
+    public static void rotated(File from, File to) throws IOException {
+        LogLineIndex index = INDEXES.remove(from.getAbsoluteFile());
+        if (index == null) {
+            return;
+        }
+        synchronized (index) {
+            index.file = to.getAbsoluteFile();
+            index.update();
+        }
+        INDEXES.put(index.file, index);
+    }
+
+    /**
+     * Drop any shared index for the given file.
+     */
+    public static void forget(File file) {
+        INDEXES.remove(file.getAbsoluteFile());
+    }
+
+    protected File file;
+    protected final int interval;
+    /** when last handed out by {@link #forFile(File)} */
+    protected volatile long lastUsed;
+
+    /** offsets[k] is the offset of line k*interval (0-based) */
+    protected long[] offsets = new long[16];
+    /** times[k] is the timestamp of line k*interval, or UNKNOWN_TIME */
+    protected long[] times = new long[16];
+    protected int sampleCount;
+    protected int timesParsed;
+    /** count of complete lines indexed */
+    protected long lineCount;
+    /** offset just past last complete line indexed */
+    protected long indexedLength;
+
+    public LogLineIndex(File file, int interval) {
+        this.file = file;
+        this.interval = interval;
+        reset();
+    }
+
+    protected void reset() {
+        sampleCount = 1;
+        offsets[0] = 0;
+        times[0] = UNKNOWN_TIME;
+        timesParsed = 0;
+        lineCount = 0;
+        indexedLength = 0;
+    }
+
+    /**
+     * Bring the index up to date with the file's current contents.
+     */
+    public synchronized void update() throws IOException {
+        long length = file.length();
+        if (length < indexedLength) {
+            reset();
+        }
+        if (length > indexedLength) {
+            scan(length);
+        }
+        parseTimes();
+    }
+
+    protected void scan(long length) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            FileChannel channel = in.getChannel();
+            channel.position(indexedLength);
+            ByteBuffer buf = ByteBuffer.allocate(64 * 1024);
+            long pos = indexedLength;
+            while (pos < length && channel.read(buf) > 0) {
+                buf.flip();
+                int limit = (int) Math.min(buf.limit(), length - pos);
+                for (int i = 0; i < limit; i++) {
+                    if (buf.get(i) == '\n') {
+                        lineCount++;
+                        indexedLength = pos + i + 1;
+                        if (lineCount % interval == 0) {
+                            addSample(indexedLength);
+                        }
+                    }
+                }
+                pos += limit;
+                buf.clear();
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    protected void addSample(long offset) {
+        if (sampleCount == offsets.length) {
+            offsets = Arrays.copyOf(offsets, sampleCount * 2);
+            times = Arrays.copyOf(times, sampleCount * 2);
+        }
+        offsets[sampleCount] = offset;
+        times[sampleCount] = UNKNOWN_TIME;
+        sampleCount++;
+    }
+
+    /**
+     * Read the leading timestamps of sampled lines which are now complete.
+     */
+    protected void parseTimes() throws IOException {
+        if (timesParsed >= sampleCount
+                || (long) timesParsed * interval >= lineCount) {
+            return;
+        }
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            byte[] head = new byte[32];
+            while (timesParsed < sampleCount
+                    && (long) timesParsed * interval < lineCount) {
+                raf.seek(offsets[timesParsed]);
+                int n = raf.read(head);
+                times[timesParsed] = n > 0 ? parseTime(new String(head, 0, n, "ISO-8859-1")) : UNKNOWN_TIME;
+                timesParsed++;
+            }
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * @param line start of a log line
+     * @return millis of the line's leading ISO8601, 17- or 14-digit
+     * timestamp, or UNKNOWN_TIME
+     */
+    public static long parseTime(String line) {
+        int end = 0;
+        while (end < line.length() && " \t\n".indexOf(line.charAt(end)) < 0) {
+            end++;
+        }
+        String digits = line.substring(0, end).replaceAll("[-T:.Z]", "");
+        try {
+            if (digits.length() == 17) {
+                return ArchiveUtils.parse17DigitDate(digits).getTime();
+            } else if (digits.length() == 14) {
+                return ArchiveUtils.parse14DigitDate(digits).getTime();
+            }
+        } catch (ParseException e) {
+            // not a timestamp
+        }
+        return UNKNOWN_TIME;
+    }
+
+    /**
+     * Find the indexed position at or before the given line.
+     *
+     * @param lineNumber line number, counting from 1
+     * @return two-element array: byte offset, and the (1-based) number of
+     * the line starting at that offset
+     */
+    public synchronized long[] seekLine(long lineNumber) throws IOException {
+        update();
+        int k = (int) Math.min(Math.max(0, (lineNumber - 1) / interval),
+                sampleCount - 1);
+        return new long[] {offsets[k], (long) k * interval + 1};
+    }
+
+    /**
+     * Find the position of the first line logged at or after the given
+     * time, assuming timestamps ascend through the file: the index narrows
+     * the search to one interval of lines, which is then scanned.
+     *
+     * @param millis time, in milliseconds since epoch
+     * @return byte offset of a line start
+     */
+    public synchronized long offsetForTime(long millis) throws IOException {
+        update();
+        int low = 0;
+        int high = timesParsed - 1;
+        int found = 0;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            // use the nearest sampled time at or before mid
+            int known = mid;
+            while (known >= low && times[known] == UNKNOWN_TIME) {
+                known--;
+            }
+            if (known < low) {
+                low = mid + 1;
+            } else if (times[known] < millis) {
+                found = known;
+                low = mid + 1;
+            } else {
+                high = known - 1;
+            }
+        }
+        return scanForTime(offsets[found], millis);
+    }
+
+    /**
+     * @return offset of first line at or after start whose leading
+     * timestamp is at or after millis, or the indexed end if none
+     */
+    protected long scanForTime(long start, long millis) throws IOException {
+        BufferedInputStream in =
+            new BufferedInputStream(new FileInputStream(file), 64 * 1024);
+        try {
+            long skipped = 0;
+            while (skipped < start) {
+                long n = in.skip(start - skipped);
+                if (n <= 0) {
+                    return start;
+                }
+                skipped += n;
+            }
+            byte[] head = new byte[32];
+            long lineStart = start;
+            long pos = start;
+            int headLength = 0;
+            int b;
+            while (lineStart < indexedLength && (b = in.read()) >= 0) {
+                pos++;
+                if (b == '\n') {
+                    long time = parseTime(new String(head, 0, headLength, "ISO-8859-1"));
+                    if (time != UNKNOWN_TIME && time >= millis) {
+                        return lineStart;
+                    }
+                    lineStart = pos;
+                    headLength = 0;
+                } else if (headLength < head.length) {
+                    head[headLength++] = (byte) b;
+                }
+            }
+            return lineStart;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Divide the indexed portion of the file into about the given number
+     * of chunks, each beginning at a line start.
+     *
+     * @return list of three-element arrays: start offset, (1-based) number
+     * of the first line, and number of the line after the chunk
+     */
+    public synchronized List<long[]> chunks(int count) throws IOException {
+        update();
+        List<long[]> chunks = new ArrayList<long[]>(count);
+        // only samples whose lines begin before the indexed end
+        int usable = (int) Math.min(sampleCount, (lineCount + interval - 1) / interval);
+        if (usable == 0) {
+            return chunks;
+        }
+        int step = Math.max(1, (usable + count - 1) / count);
+        for (int k = 0; k < usable; k += step) {
+            long endLine = k + step < usable
+                ? (long) (k + step) * interval + 1 : lineCount + 1;
+            chunks.add(new long[] {offsets[k], (long) k * interval + 1, endLine});
+        }
+        return chunks;
+    }
+
+    public synchronized long getLineCount() {
+        return lineCount;
+    }
+
+    public synchronized long getIndexedLength() {
+        return indexedLength;
+    }
+
+    public File getFile() {
+        return file;
+    }
+}
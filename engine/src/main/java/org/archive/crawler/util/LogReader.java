@@ -20,6 +20,7 @@ package org.archive.crawler.util;
 
 import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
@@ -27,7 +28,16 @@ import java.io.InputStreamReader;
 import java.io.RandomAccessFile;
 import java.text.DecimalFormat;
 import java.text.NumberFormat;
+import java.util.ArrayList;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
@@ -40,6 +50,11 @@ import org.archive.util.ArchiveUtils;
  * files containing repeated lines with similar information).
  * <p>
  * All methods are static.
+ * <p>
+ * Reads by line number, and regular-expression searches which need no
+ * following context lines, consult a {@link LogLineIndex} of the file, so
+ * they seek near the wanted lines rather than reading from the start, and
+ * search separate chunks of large files in parallel.
  *
  * @author Kristinn Sigurdsson
  */
@@ -108,13 +123,29 @@ public class LogReader
         File f = new File(aFileName);
         long logsize = f.length();
         try {
-            return get(new FileReader(aFileName),lineNumber,n,logsize);
-        } catch (FileNotFoundException e) {
+            long[] start = LogLineIndex.forFile(f).seekLine(lineNumber);
+            InputStreamReader reader = readerAt(f, start[0]);
+            try {
+                return get(reader, (int) (lineNumber - start[1] + 1), n, logsize);
+            } finally {
+                reader.close();
+            }
+        } catch (IOException e) {
             e.printStackTrace();
             return null;
         }
     }
 
+    /**
+     * @return reader of the given file from the given byte offset
+     */
+    protected static InputStreamReader readerAt(File f, long offset)
+    throws IOException {
+        FileInputStream in = new FileInputStream(f);
+        in.getChannel().position(offset);
+        return new InputStreamReader(in);
+    }
+
     /**
      * Gets a portion of a log spread across a numbered series of files.
      *
@@ -221,8 +252,13 @@ public class LogReader
     public static int findFirstLineContaining(String aFileName, String regex)
     {
         try {
-            return findFirstLineContaining(new FileReader(aFileName), regex);
-        } catch (FileNotFoundException e) {
+            List<Object[]> found = findMatches(new File(aFileName),
+                    Pattern.compile(regex), 1);
+            return found.isEmpty() ? -1 : ((Long) found.get(0)[0]).intValue();
+        } catch (IOException e) {
+            e.printStackTrace();
+            return -1;
+        } catch (PatternSyntaxException e) {
             e.printStackTrace();
             return -1;
         }
@@ -373,8 +409,35 @@ public class LogReader
                                         boolean prependLineNumbers,
                                         int skipFirstMatches,
                                         int numberOfMatches) {
+        File f = new File(aFileName);
+        if (addLines < 1) {
+            // only matching lines wanted: search indexed chunks in parallel
+            StringBuffer ret = new StringBuffer();
+            String info = "";
+            try {
+                int limit = numberOfMatches > 0
+                    ? skipFirstMatches + numberOfMatches : Integer.MAX_VALUE;
+                List<Object[]> found =
+                    findMatches(f, Pattern.compile(regex), limit);
+                for (int i = skipFirstMatches; i < found.size(); i++) {
+                    if (prependLineNumbers) {
+                        ret.append(found.get(i)[0]);
+                        ret.append(". ");
+                    }
+                    ret.append(found.get(i)[1]);
+                    ret.append("\n");
+                }
+                info = buildDisplayingHeader(ret.length(), f.length());
+            } catch (IOException e) {
+                e.printStackTrace();
+                return null;
+            } catch (PatternSyntaxException e) {
+                ret = new StringBuffer(e.getMessage());
+            }
+            String[] tmp = {ret.toString(),info};
+            return tmp;
+        }
         try {
-            File f = new File(aFileName);
             return getByRegex(
                     new FileReader(f), 
                     regex, 
@@ -389,6 +452,129 @@ public class LogReader
         }
     }
 
+    /** chunks to divide a file into per search thread */
+    protected static final int CHUNKS_PER_THREAD = 4;
+
+    protected static ExecutorService searchExecutor;
+
+    protected static synchronized ExecutorService getSearchExecutor() {
+        if (searchExecutor == null) {
+            searchExecutor = Executors.newFixedThreadPool(
+                Runtime.getRuntime().availableProcessors(),
+                new ThreadFactory() {
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "LogReader search");
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+        }
+        return searchExecutor;
+    }
+
+    /**
+     * Find lines of the given file matching the given pattern, searching
+     * chunks of the file in parallel. Results are assembled in file order,
+     * and searching stops once the limit is reached. The last chunk runs to
+     * the end of the file, so lines not yet indexed (including a final line
+     * still being written) are searched too.
+     *
+     * @param f file to search
+     * @param p pattern lines must match
+     * @param limit maximum number of matches to return
+     * @return list of two-element arrays: Long line number (counting from
+     * 1) and String line
+     */
+    protected static List<Object[]> findMatches(final File f, final Pattern p,
+            final int limit) throws IOException {
+        LogLineIndex index = LogLineIndex.forFile(f);
+        List<long[]> chunks = index.chunks(
+            Runtime.getRuntime().availableProcessors() * CHUNKS_PER_THREAD);
+        if (chunks.isEmpty()) {
+            chunks.add(new long[] {0, 1, Long.MAX_VALUE});
+        } else {
+            chunks.get(chunks.size() - 1)[2] = Long.MAX_VALUE;
+        }
+        final AtomicBoolean done = new AtomicBoolean(false);
+        List<Future<List<Object[]>>> futures =
+            new ArrayList<Future<List<Object[]>>>(chunks.size());
+        for (final long[] chunk : chunks) {
+            futures.add(getSearchExecutor().submit(new Callable<List<Object[]>>() {
+                public List<Object[]> call() throws IOException {
+                    return searchChunk(f, p, chunk[0], chunk[1], chunk[2],
+                        limit, done);
+                }
+            }));
+        }
+        List<Object[]> found = new ArrayList<Object[]>();
+        try {
+            for (Future<List<Object[]>> future : futures) {
+                if (found.size() < limit) {
+                    List<Object[]> matches = future.get();
+                    found.addAll(matches.subList(0,
+                        Math.min(matches.size(), limit - found.size())));
+                    if (found.size() >= limit) {
+                        done.set(true);
+                    }
+                } else {
+                    future.cancel(true);
+                }
+            }
+        } catch (InterruptedException e) {
+            done.set(true);
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            done.set(true);
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+        return found;
+    }
+
+    protected static List<Object[]> searchChunk(File f, Pattern p,
+            long start, long firstLine, long endLine, int limit,
+            AtomicBoolean done)
+    throws IOException {
+        List<Object[]> matches = new ArrayList<Object[]>();
+        InputStreamReader reader = readerAt(f, start);
+        try {
+            BufferedReader bf = new BufferedReader(reader, 8192);
+            Matcher m = p.matcher("");
+            long i = firstLine;
+            String line;
+            while (i < endLine && !done.get() && (line = bf.readLine()) != null) {
+                m.reset(line);
+                if (m.matches()) {
+                    matches.add(new Object[] {i, line});
+                    if (matches.size() >= limit) {
+                        break;
+                    }
+                }
+                i++;
+            }
+        } finally {
+            reader.close();
+        }
+        return matches;
+    }
+
+    /**
+     * Find the byte offset in the given file from which to read to reach
+     * the first line logged at or after the given time, using the file's
+     * {@link LogLineIndex}.
+     *
+     * @param aFileName The filename of the log/file
+     * @param millis time, in milliseconds since epoch
+     * @return offset at a line start, or 0 if no earlier position is known
+     */
+    public static long offsetForTime(String aFileName, long millis)
+    throws IOException {
+        return LogLineIndex.forFile(new File(aFileName)).offsetForTime(millis);
+    }
+
     /**
      * Returns all lines in a log/file matching a given regular expression.  
      * Possible to get lines immediately following the matched line.  Also 
@@ -15,4 +15,38 @@ public class EngineTest extends TmpDirTestCase {
         FileUtils.deleteDirectory(dummyJobsDir); 
     }
 
+    public void testRefreshJobConfigs() throws Exception {
+        File jobsDir = new File(getTmpDir(),"refreshJobsDir"); 
+        FileUtils.deleteDirectory(jobsDir);
+        assertTrue(jobsDir.mkdirs());
+        Engine engine = new Engine(jobsDir);
+        assertTrue(engine.getJobConfigs().isEmpty());
+
+        // job directory appears before its configuration, as when copied
+        File jobDir = new File(jobsDir, "newjob");
+        assertTrue(jobDir.mkdirs());
+        awaitRefresh(engine, jobDir.getName(), false);
+        FileUtils.writeStringToFile(new File(jobDir, "crawler-beans.cxml"), 
+                "<beans/>");
+        awaitRefresh(engine, jobDir.getName(), true);
+
+        FileUtils.deleteDirectory(jobDir);
+        awaitRefresh(engine, jobDir.getName(), false);
+        engine.shutdown();
+        FileUtils.deleteDirectory(jobsDir); 
+    }
+
+    protected void awaitRefresh(Engine engine, String job, boolean present) 
+    throws InterruptedException {
+        // filesystem watch events may lag slightly
+        for (int i = 0; i < 100; i++) {
+            engine.refreshJobConfigs();
+            if (engine.getJobConfigs().containsKey(job) == present) {
+                return;
+            }
+            Thread.sleep(50);
+        }
+        fail(job + (present ? " not found" : " still present"));
+    }
+
 }
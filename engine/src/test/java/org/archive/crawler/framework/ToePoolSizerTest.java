@@ -0,0 +1,115 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.crawler.framework;
+
+import junit.framework.TestCase;
+
+import org.archive.crawler.framework.ToePoolSizer.Decision;
+import org.archive.crawler.framework.ToePoolSizer.Sample;
+
+public class ToePoolSizerTest extends TestCase {
+    protected ToePoolSizer sizer;
+
+    @Override
+    protected void setUp() throws Exception {
+        sizer = new ToePoolSizer();
+        sizer.setMinToeThreads(10);
+        sizer.setMaxToeThreads(200);
+        sizer.setStepFraction(0.1);
+        sizer.setCooldownIntervals(3);
+    }
+
+    protected Sample sample(double rate, int waiting, int fetching, int processing) {
+        Sample s = new Sample();
+        s.urisPerSecond = rate;
+        s.waiting = waiting;
+        s.fetching = fetching;
+        s.processing = processing;
+        s.toeCount = waiting + fetching + processing;
+        s.cpuLoad = 0.3;
+        s.gcFraction = 0.01;
+        s.heapOccupancy = 0.4;
+        return s;
+    }
+
+    public void testGrowsWhileFetchBoundAndImproving() {
+        Decision d = sizer.decide(sample(100, 5, 80, 15), 100);
+        assertEquals(110, d.toSize);
+        d = sizer.decide(sample(120, 5, 90, 15), 110);
+        assertEquals(121, d.toSize);
+        // worse: reverse
+        d = sizer.decide(sample(100, 5, 100, 16), 121);
+        assertEquals(109, d.toSize);
+    }
+
+    public void testRevertsFruitlessIncreaseThenCoolsDown() {
+        assertEquals(110, sizer.decide(sample(100, 5, 80, 15), 100).toSize);
+        Decision d = sizer.decide(sample(101, 5, 90, 15), 110);
+        assertEquals(99, d.toSize);
+        // shrink back cost nothing: hold
+        assertEquals(99, sizer.decide(sample(101, 5, 80, 14), 99).toSize);
+        // still cooling down, despite mostly fetching
+        assertEquals(99, sizer.decide(sample(101, 5, 80, 14), 99).toSize);
+        assertEquals(109, sizer.decide(sample(101, 5, 80, 14), 99).toSize);
+    }
+
+    public void testShrinksUnderPressure() {
+        Sample s = sample(100, 5, 80, 15);
+        s.heapOccupancy = 0.9;
+        Decision d = sizer.decide(s, 100);
+        assertEquals(90, d.toSize);
+        assertTrue(d.reason, d.reason.contains("heap"));
+
+        s = sample(100, 5, 80, 15);
+        s.gcFraction = 0.2;
+        assertEquals(81, sizer.decide(s, 90).toSize);
+
+        s = sample(100, 5, 80, 15);
+        s.cpuLoad = 0.95;
+        assertEquals(73, sizer.decide(s, 81).toSize);
+
+        s = sample(100, 5, 80, 15);
+        s.cacheMissRatio = 0.7;
+        assertEquals(66, sizer.decide(s, 73).toSize);
+    }
+
+    public void testShrinksWhenWaitingOnFrontier() {
+        Decision d = sizer.decide(sample(50, 60, 20, 20), 100);
+        assertEquals(90, d.toSize);
+        assertTrue(d.reason, d.reason.contains("waiting"));
+    }
+
+    public void testHoldsAtBounds() {
+        Sample s = sample(100, 5, 5, 5);
+        s.heapOccupancy = 0.95;
+        Decision d = sizer.decide(s, 10);
+        assertEquals(10, d.toSize);
+        assertTrue(d.reason, d.reason.contains("minimum"));
+
+        d = sizer.decide(sample(100, 5, 180, 15), 200);
+        assertEquals(200, d.toSize);
+        assertTrue(d.reason, d.reason.contains("maximum"));
+    }
+
+    public void testHoldsWhenProcessingBound() {
+        Decision d = sizer.decide(sample(100, 5, 20, 75), 100);
+        assertEquals(100, d.toSize);
+    }
+}
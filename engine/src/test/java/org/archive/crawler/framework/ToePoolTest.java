@@ -0,0 +1,83 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.crawler.framework;
+
+import org.archive.crawler.reporting.AlertThreadGroup;
+import org.archive.spring.ConfigPath;
+import org.archive.util.TmpDirTestCase;
+
+public class ToePoolTest extends TmpDirTestCase {
+
+    /** pool whose toes are registered but never run, so stay retiring */
+    protected static class IdleToePool extends ToePool {
+        public IdleToePool(CrawlController c) {
+            super(new AlertThreadGroup("test"), c);
+        }
+        @Override
+        protected void launch(ToeThread newThread) {
+        }
+    }
+
+    protected ToePool pool;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        CrawlController controller = new CrawlController();
+        controller.setScratchDir(new ConfigPath("test", getTmpDir().getAbsolutePath()));
+        pool = new IdleToePool(controller);
+    }
+
+    protected int retiring() {
+        int count = 0;
+        for (ToeThread toe : pool.getToeThreads()) {
+            if (toe.shouldRetire()) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public void testShrinkThenGrowWhileRetiring() {
+        pool.setSize(10);
+        assertEquals(10, pool.getToeCount());
+        assertEquals(0, retiring());
+
+        pool.setSize(4);
+        assertEquals(4, pool.getRetainedToeCount());
+        assertEquals(6, retiring());
+
+        // retiring toes still finishing don't count toward the new size
+        pool.setSize(8);
+        assertEquals(8, pool.getRetainedToeCount());
+        assertEquals(14, pool.getToeCount());
+        assertEquals(6, retiring());
+
+        // nor are they spared in place of live ones
+        pool.setSize(5);
+        assertEquals(5, pool.getRetainedToeCount());
+        assertEquals(9, retiring());
+        assertEquals(5, pool.getTargetSize());
+
+        ToePoolSizer.Sample sample = new ToePoolSizer.Sample();
+        new ToePoolSizer().tallyThreads(pool, sample);
+        assertEquals(5, sample.toeCount);
+    }
+}
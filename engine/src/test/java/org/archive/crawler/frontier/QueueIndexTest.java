@@ -0,0 +1,146 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.crawler.frontier;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.archive.modules.CrawlURI;
+
+public class QueueIndexTest extends TestCase {
+
+    /** queue holding only counters */
+    protected static class TestQueue extends WorkQueue {
+        private static final long serialVersionUID = 1L;
+        TestQueue(String key, long count, long errors, long lastDequeue) {
+            super(key);
+            this.count = count;
+            this.errorCount = errors;
+            this.lastDequeueTime = lastDequeue;
+        }
+        protected void insertItem(WorkQueueFrontier frontier, CrawlURI curi, 
+                boolean overwriteIfPresent) {
+        }
+        protected long deleteMatchingFromQueue(WorkQueueFrontier frontier, 
+                String match) {
+            return 0;
+        }
+        protected void deleteItem(WorkQueueFrontier frontier, CrawlURI item) {
+        }
+        protected CrawlURI peekItem(WorkQueueFrontier frontier) {
+            return null;
+        }
+    }
+
+    protected List<String> keys(List<QueueIndex.Summary> summaries) {
+        List<String> keys = new ArrayList<String>();
+        for (QueueIndex.Summary s : summaries) {
+            keys.add(s.getKey());
+        }
+        return keys;
+    }
+
+    public void testSortAndPage() {
+        QueueIndex index = new QueueIndex();
+        index.update(new TestQueue("a", 10, 0, 300));
+        index.update(new TestQueue("b", 30, 5, 100));
+        index.update(new TestQueue("c", 20, 2, 200));
+        assertEquals(3, index.size());
+        assertEquals(Arrays.asList("b", "c", "a"), 
+                keys(index.query(QueueIndex.Sort.SIZE, true, null, 0, 10)));
+        assertEquals(Arrays.asList("c"), 
+                keys(index.query(QueueIndex.Sort.SIZE, true, null, 1, 1)));
+        assertEquals(Arrays.asList("a", "c", "b"), 
+                keys(index.query(QueueIndex.Sort.ERRORS, false, null, 0, 10)));
+        assertEquals(Arrays.asList("a", "c", "b"), 
+                keys(index.query(QueueIndex.Sort.ACTIVITY, true, null, 0, 10)));
+        assertEquals(Arrays.asList("a", "b", "c"), 
+                keys(index.query(QueueIndex.Sort.PRECEDENCE, false, null, 0, 10)));
+    }
+
+    public void testUpdateReindexes() {
+        QueueIndex index = new QueueIndex();
+        TestQueue a = new TestQueue("a", 10, 0, 0);
+        index.update(a);
+        index.update(new TestQueue("b", 5, 0, 0));
+        a.count = 1;
+        index.update(a);
+        assertEquals(Arrays.asList("b", "a"), 
+                keys(index.query(QueueIndex.Sort.SIZE, true, null, 0, 10)));
+        // stale entry gone from index
+        assertEquals(2, index.bySize.size());
+        assertEquals(1, index.get("a").getSize());
+    }
+
+    public void testBalanceIndexed() {
+        QueueIndex index = new QueueIndex();
+        TestQueue a = new TestQueue("a", 1, 0, 0);
+        a.setSessionBudget(300);
+        index.update(a);
+        TestQueue b = new TestQueue("b", 1, 0, 0);
+        b.setSessionBudget(100);
+        index.update(b);
+        TestQueue c = new TestQueue("c", 1, 0, 0);
+        c.setSessionBudget(200);
+        index.update(c);
+        assertEquals(Arrays.asList("a", "c", "b"), 
+                keys(index.query(QueueIndex.Sort.BALANCE, true, null, 0, 10)));
+        a.setSessionBudget(50);
+        index.update(a);
+        assertEquals(Arrays.asList("a", "b", "c"), 
+                keys(index.query(QueueIndex.Sort.BALANCE, false, null, 0, 10)));
+        // stale entry gone from index
+        assertEquals(3, index.byBalance.size());
+        assertEquals(50, index.get("a").getSessionBalance());
+        assertEquals(3, index.byPrecedence.size());
+    }
+
+    public void testReattachedAfterReload() {
+        BdbFrontier frontier = new BdbFrontier();
+        // as deserialized from the queue cache, without its transient index
+        TestQueue a = new TestQueue("a", 1, 0, 0);
+        assertNull(a.queueIndex);
+        assertSame(a, frontier.indexed(a));
+        assertSame(frontier.queueIndex, a.queueIndex);
+        assertNull(frontier.indexed(null));
+    }
+
+    public void testFilter() {
+        QueueIndex index = new QueueIndex();
+        index.update(new TestQueue("com,example,", 10, 3, 0));
+        index.update(new TestQueue("com,example,www,", 20, 0, 0));
+        index.update(new TestQueue("org,example,", 30, 1, 0));
+        QueueIndex.Filter filter = new QueueIndex.Filter();
+        filter.keyPrefix = "com,";
+        assertEquals(Arrays.asList("com,example,www,", "com,example,"), 
+                keys(index.query(QueueIndex.Sort.SIZE, true, filter, 0, 10)));
+        filter.minErrors = 1;
+        assertEquals(Arrays.asList("com,example,"), 
+                keys(index.query(QueueIndex.Sort.SIZE, true, filter, 0, 10)));
+        filter = new QueueIndex.Filter();
+        filter.state = QueueIndex.EXHAUSTED;
+        assertEquals(3, index.query(QueueIndex.Sort.SIZE, true, filter, 0, 10).size());
+        filter.state = QueueIndex.ACTIVE;
+        assertTrue(index.query(QueueIndex.Sort.SIZE, true, filter, 0, 10).isEmpty());
+    }
+}
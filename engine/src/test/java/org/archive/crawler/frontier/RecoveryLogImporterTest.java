@@ -0,0 +1,128 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.crawler.frontier;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.GZIPOutputStream;
+
+import org.archive.modules.CrawlURI;
+import org.archive.modules.deciderules.DecideResult;
+import org.archive.modules.deciderules.DecideRule;
+import org.archive.util.TmpDirTestCase;
+
+public class RecoveryLogImporterTest extends TmpDirTestCase {
+
+    protected File writeLog(int count) throws Exception {
+        File log = new File(getTmpDir(), "RecoveryLogImporterTest.recover.gz");
+        Writer w = new OutputStreamWriter(
+                new GZIPOutputStream(new FileOutputStream(log)), "UTF-8");
+        try {
+            for (int i = 0; i < count; i++) {
+                w.write(FrontierJournal.F_ADD + "http://example" + (i % 10)
+                        + ".com/" + i + " L http://example.com/\n");
+                if (i % 3 == 0) {
+                    w.write(FrontierJournal.F_SUCCESS + "http://example" + (i % 10)
+                            + ".com/" + i + " L http://example.com/\n");
+                }
+            }
+            w.write("F+ not a uri\n");
+            w.write("Fs\n");
+        } finally {
+            w.close();
+        }
+        return log;
+    }
+
+    public void testImportLog() throws Exception {
+        File log = writeLog(10000);
+        RecoveryLogImporter importer = new RecoveryLogImporter("F\\+ ");
+        importer.setThreads(4);
+        importer.setBatchSize(97);
+        final List<String> imported =
+            Collections.synchronizedList(new ArrayList<String>());
+        long lines = importer.importLog(log, new RecoveryLogImporter.BatchHandler() {
+            public void handle(List<String> lines, List<CrawlURI> curis) {
+                assertEquals(lines.size(), curis.size());
+                for (int i = 0; i < curis.size(); i++) {
+                    assertTrue(lines.get(i).contains(curis.get(i).getURI()));
+                    assertEquals("L", curis.get(i).getPathFromSeed());
+                    imported.add(curis.get(i).getURI());
+                }
+            }
+        });
+        assertEquals(10000 + 3334 + 2, lines);
+        assertEquals(10000, imported.size());
+        assertEquals(10000, importer.getUrisHandled());
+        Set<String> unique = new HashSet<String>(imported);
+        assertEquals(10000, unique.size());
+        assertTrue(unique.contains("http://example7.com/9997"));
+    }
+
+    public void testAcceptTags() throws Exception {
+        File log = writeLog(100);
+        RecoveryLogImporter importer = new RecoveryLogImporter("Fs ");
+        final List<CrawlURI> imported =
+            Collections.synchronizedList(new ArrayList<CrawlURI>());
+        importer.importLog(log, new RecoveryLogImporter.BatchHandler() {
+            public void handle(List<String> lines, List<CrawlURI> curis) {
+                imported.addAll(curis);
+            }
+        });
+        assertEquals(34, imported.size());
+    }
+
+    public void testPoisonLinesSkipped() throws Exception {
+        File log = writeLog(1000);
+        RecoveryLogImporter importer = new RecoveryLogImporter("F\\+ ");
+        // fewer workers than poisoned blocks: a dead worker would hang import
+        importer.setThreads(2);
+        importer.setBatchSize(10);
+        importer.setScope(new DecideRule() {
+            private static final long serialVersionUID = 1L;
+            @Override
+            protected DecideResult innerDecide(CrawlURI uri) {
+                if (uri.getURI().endsWith("5")) {
+                    throw new IllegalStateException("poison " + uri);
+                }
+                return DecideResult.ACCEPT;
+            }
+        }, null);
+        final List<String> imported =
+            Collections.synchronizedList(new ArrayList<String>());
+        importer.importLog(log, new RecoveryLogImporter.BatchHandler() {
+            public void handle(List<String> lines, List<CrawlURI> curis) {
+                for (CrawlURI curi : curis) {
+                    imported.add(curi.getURI());
+                }
+            }
+        });
+        assertEquals(900, imported.size());
+        assertTrue(imported.contains("http://example4.com/994"));
+        assertFalse(imported.contains("http://example5.com/995"));
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.crawler.postprocessor;
+
+import junit.framework.TestCase;
+
+import org.archive.modules.CrawlMetadata;
+import org.archive.modules.CrawlURI;
+import org.archive.modules.fetcher.DefaultServerCache;
+import org.archive.modules.net.ServerPolitenessStats;
+import org.archive.net.UURIFactory;
+
+/**
+ * Tests for {@link DispositionProcessor}'s adaptive politeness.
+ */
+public class DispositionProcessorTest extends TestCase {
+    protected DispositionProcessor processor;
+    protected DefaultServerCache serverCache;
+
+    @Override
+    protected void setUp() throws Exception {
+        serverCache = new DefaultServerCache();
+        processor = new DispositionProcessor();
+        processor.setServerCache(serverCache);
+        processor.setMetadata(new CrawlMetadata());
+        processor.setAdaptivePoliteness(true);
+        processor.setDelayFactor(5.0f);
+        processor.setMinDelayMs(1000);
+        processor.setMaxDelayMs(60000);
+    }
+
+    protected CrawlURI fetched(int status, long durationMs) throws Exception {
+        CrawlURI curi = new CrawlURI(UURIFactory.getInstance("http://www.example.com/"));
+        long now = System.currentTimeMillis();
+        curi.setFetchBeginTime(now - durationMs);
+        curi.setFetchCompletedTime(now);
+        curi.setFetchStatus(status);
+        return curi;
+    }
+
+    protected ServerPolitenessStats stats(CrawlURI curi) {
+        return serverCache.getServerFor(curi.getUURI()).getPolitenessStats();
+    }
+
+    public void testBacksOffOnDistressAndRecovers() throws Exception {
+        CrawlURI curi = fetched(200, 1000);
+        processor.process(curi);
+        long healthyDelay = curi.getPolitenessDelay();
+        assertTrue(healthyDelay <= 5000);
+
+        for (int i = 0; i < 3; i++) {
+            curi = fetched(503, 1000);
+            processor.process(curi);
+        }
+        assertTrue(stats(curi).getDistressRate() > 0);
+        long distressedDelay = curi.getPolitenessDelay();
+        assertTrue(distressedDelay > 4 * healthyDelay);
+
+        for (int i = 0; i < 50; i++) {
+            curi = fetched(200, 1000);
+            processor.process(curi);
+        }
+        // relaxed below the plain delayFactor multiple, to minDelayMs
+        assertEquals(1000, curi.getPolitenessDelay());
+    }
+
+    public void testSingleSlowFetchSmoothed() throws Exception {
+        CrawlURI curi = null;
+        for (int i = 0; i < 10; i++) {
+            curi = fetched(200, 400);
+            processor.process(curi);
+        }
+        curi = fetched(200, 10000);
+        processor.process(curi);
+        // non-adaptive would wait 50000
+        assertTrue(curi.getPolitenessDelay() < 20000);
+    }
+
+    public void testHonorsRetryAfter() throws Exception {
+        CrawlURI curi = fetched(429, 100);
+        curi.putHttpResponseHeader("Retry-After", "120");
+        processor.process(curi);
+        assertTrue(curi.getPolitenessDelay() > 100000);
+        assertTrue(curi.getPolitenessDelay() <= 120000);
+    }
+
+    public void testParseRetryAfter() {
+        long now = 1000000L;
+        assertEquals(now + 30000, DispositionProcessor.parseRetryAfter(" 30", now));
+        assertEquals(784111777000L, 
+                DispositionProcessor.parseRetryAfter("Sun, 06 Nov 1994 08:49:37 GMT", now));
+        assertEquals(-1, DispositionProcessor.parseRetryAfter("soon", now));
+        assertEquals(-1, DispositionProcessor.parseRetryAfter(null, now));
+    }
+}
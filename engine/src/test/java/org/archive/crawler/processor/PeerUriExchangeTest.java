@@ -0,0 +1,204 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.crawler.processor;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.archive.crawler.framework.Frontier;
+import org.archive.spring.ConfigPath;
+import org.archive.util.TmpDirTestCase;
+
+public class PeerUriExchangeTest extends TmpDirTestCase {
+
+    /**
+     * Exchange which collects received lines rather than scheduling them.
+     */
+    protected static class CollectingExchange extends PeerUriExchange {
+        List<String> received = Collections.synchronizedList(new ArrayList<String>());
+        @Override
+        protected void receive(List<String> lines) {
+            for (String line : lines) {
+                if (!recentlyReceived(line)) {
+                    received.add(line);
+                }
+            }
+        }
+    }
+
+    protected CollectingExchange makeExchange(String name, int listenPort) {
+        CollectingExchange exchange = new CollectingExchange();
+        File spill = new File(getTmpDir(), "PeerUriExchangeTest-" + name);
+        spill.mkdirs();
+        exchange.setSpillDir(new ConfigPath("spill", spill.getAbsolutePath()));
+        exchange.setListenPort(listenPort);
+        exchange.setBatchSize(7);
+        exchange.setRetryDelaySeconds(0);
+        if (listenPort >= 0) {
+            // received lines are collected, never scheduled
+            exchange.setFrontier((Frontier) Proxy.newProxyInstance(
+                    Frontier.class.getClassLoader(), new Class<?>[] {Frontier.class},
+                    new InvocationHandler() {
+                        public Object invoke(Object proxy, Method method, Object[] args) {
+                            throw new UnsupportedOperationException(method.getName());
+                        }
+                    }));
+            exchange.getAcceptFrom().add("localhost");
+        }
+        return exchange;
+    }
+
+    protected int freePort() throws Exception {
+        ServerSocket s = new ServerSocket(0);
+        int port = s.getLocalPort();
+        s.close();
+        return port;
+    }
+
+    protected void waitFor(List<String> received, int count) throws InterruptedException {
+        for (int i = 0; i < 200 && received.size() < count; i++) {
+            Thread.sleep(50);
+        }
+    }
+
+    public void testEncodeDecode() throws Exception {
+        List<String> lines = Arrays.asList("http://example.com/ L http://example.com/x",
+                "http://example.com/\u00e9 LL http://example.com/");
+        assertEquals(lines, PeerUriExchange.decodeLines(PeerUriExchange.encodeLines(lines)));
+    }
+
+    public void testInflatedSizeLimited() throws Exception {
+        StringBuilder longLine = new StringBuilder("http://example.com/");
+        for (int i = 0; i < 10000; i++) {
+            longLine.append('a');
+        }
+        byte[] frame = PeerUriExchange.encodeLines(
+                Arrays.asList(longLine.toString(), longLine.toString()));
+        // highly compressible: frame is far smaller than its content
+        assertTrue(frame.length < 1000);
+        assertEquals(2, PeerUriExchange.decodeLines(frame, 30000).size());
+        try {
+            PeerUriExchange.decodeLines(frame, 15000);
+            fail("expected oversized frame to be refused");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    public void testListenRequiresFrontier() throws Exception {
+        CollectingExchange b = makeExchange("nofrontier", 0);
+        b.setFrontier(null);
+        try {
+            b.start();
+            fail("expected start without frontier to fail");
+        } catch (IllegalStateException e) {
+            // expected
+        } finally {
+            b.stop();
+        }
+    }
+
+    public void testUnknownSenderRefused() throws Exception {
+        CollectingExchange b = makeExchange("refusing", 0);
+        b.getAcceptFrom().clear();
+        b.start();
+        CollectingExchange a = makeExchange("refused", -1);
+        a.getPeers().put("1", "localhost:" + b.getBoundPort());
+        a.start();
+        try {
+            for (int i = 0; i < 10; i++) {
+                a.send("1", "http://example.com/" + i + " L http://example.com/");
+            }
+            for (int i = 0; i < 100 && a.getSpilledCount() < 10; i++) {
+                Thread.sleep(50);
+            }
+            assertEquals(0, b.received.size());
+            // (replays of the spill may be refused and spilled again)
+            assertTrue(a.getSpilledCount() >= 10);
+        } finally {
+            a.stop();
+            b.stop();
+        }
+    }
+
+    public void testExchange() throws Exception {
+        CollectingExchange b = makeExchange("b", 0);
+        b.start();
+        CollectingExchange a = makeExchange("a", -1);
+        a.getPeers().put("1", "localhost:" + b.getBoundPort());
+        a.start();
+        try {
+            assertTrue(a.hasPeer("1"));
+            assertFalse(a.hasPeer("2"));
+            for (int i = 0; i < 50; i++) {
+                a.send("1", "http://example.com/" + i + " L http://example.com/");
+            }
+            // duplicate dropped by receiver
+            a.send("1", "http://example.com/0 L http://example.com/");
+            waitFor(b.received, 50);
+            assertEquals(50, b.received.size());
+            assertEquals("http://example.com/0 L http://example.com/", b.received.get(0));
+            assertEquals(0, a.getSpilledCount());
+        } finally {
+            a.stop();
+            b.stop();
+        }
+        assertEquals(51, a.getSentCount());
+    }
+
+    public void testSpillAndReplay() throws Exception {
+        int port = freePort();
+        CollectingExchange a = makeExchange("spilling", -1);
+        a.getPeers().put("1", "localhost:" + port);
+        a.start();
+        CollectingExchange b = null;
+        try {
+            for (int i = 0; i < 20; i++) {
+                a.send("1", "http://example.com/" + i + " L http://example.com/");
+            }
+            for (int i = 0; i < 100 && a.getSpilledCount() < 20; i++) {
+                Thread.sleep(50);
+            }
+            assertEquals(20, a.getSpilledCount());
+
+            b = makeExchange("receiving", port);
+            b.start();
+            waitFor(b.received, 20);
+            assertEquals(20, b.received.size());
+            // order preserved through the spill
+            assertEquals("http://example.com/0 L http://example.com/", b.received.get(0));
+            assertEquals("http://example.com/19 L http://example.com/", b.received.get(19));
+        } finally {
+            a.stop();
+            if (b != null) {
+                b.stop();
+            }
+        }
+        assertFalse(new File(a.getSpillDir().getFile(), "to-1.spill").exists());
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.crawler.reporting;
+
+import java.io.StringWriter;
+
+import junit.framework.TestCase;
+
+public class CrawlMetricsTest extends TestCase {
+
+    public void testFamiliesGrouped() throws Exception {
+        CrawlMetrics metrics = new CrawlMetrics();
+        metrics.gauge("queued_uris", "URIs queued", CrawlMetrics.label("job", "a"), 5);
+        metrics.counter("failed_fetches_total", "URIs failed", CrawlMetrics.label("job", "a"), 2);
+        metrics.gauge("queued_uris", "URIs queued", CrawlMetrics.label("job", "b"), 0.5);
+        metrics.gauge("jobs", "Known crawl jobs", "", 2);
+        StringWriter out = new StringWriter();
+        metrics.writeTo(out);
+        assertEquals(
+                "# HELP heritrix_queued_uris URIs queued\n"
+                + "# TYPE heritrix_queued_uris gauge\n"
+                + "heritrix_queued_uris{job=\"a\"} 5\n"
+                + "heritrix_queued_uris{job=\"b\"} 0.5\n"
+                + "# HELP heritrix_failed_fetches_total URIs failed\n"
+                + "# TYPE heritrix_failed_fetches_total counter\n"
+                + "heritrix_failed_fetches_total{job=\"a\"} 2\n"
+                + "# HELP heritrix_jobs Known crawl jobs\n"
+                + "# TYPE heritrix_jobs gauge\n"
+                + "heritrix_jobs 2\n",
+                out.toString());
+    }
+
+    public void testLabelEscaping() {
+        assertEquals("job=\"a\\\"b\\\\c\\nd\"", CrawlMetrics.label("job", "a\"b\\c\nd"));
+    }
+
+    public void testFormat() {
+        assertEquals("NaN", CrawlMetrics.format(Double.NaN));
+        assertEquals("+Inf", CrawlMetrics.format(Double.POSITIVE_INFINITY));
+        assertEquals("-3", CrawlMetrics.format(-3));
+        assertEquals("1.0E20", CrawlMetrics.format(1e20));
+    }
+
+    public void testSnakeCase() {
+        assertEquals("ready_queues", CrawlMetrics.snakeCase("readyQueues"));
+        assertEquals("total", CrawlMetrics.snakeCase("total"));
+    }
+}
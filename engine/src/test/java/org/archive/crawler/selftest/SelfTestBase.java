@@ -243,7 +243,7 @@ public abstract class SelfTestBase extends TmpDirTestCase {
             }
         }
         r = new File(r, "selftest");
-        r = new File(r, getSelfTestName());
+        r = new File(r, getTestDataName());
         if (!r.exists()) {
             throw new IllegalStateException("No testdata directory: " 
                     + r.getAbsolutePath());
@@ -284,6 +284,15 @@ public abstract class SelfTestBase extends TmpDirTestCase {
         return full.substring(i + 1);
     }
     
+    /**
+     * Name of the testdata directory to use; by default the same as the
+     * self test's name, but tests varying only crawl configuration may
+     * share another's.
+     */
+    protected String getTestDataName() {
+        return getSelfTestName();
+    }
+    
     protected void verifyArcsClosed() {
         File arcsDir = getArcDir();
         if (!arcsDir.exists()) {
@@ -0,0 +1,194 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.crawler.selftest;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.List;
+import java.util.logging.Logger;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.io.FileUtils;
+import org.archive.crawler.framework.ToePool;
+import org.archive.crawler.framework.ToeThread;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+
+/**
+ * Measures ToeThreads run on virtual threads against a synthetic site whose
+ * pages each take {@link #LATENCY_MS} to serve, spread over enough queues
+ * to keep {@link #TOES} toes busy. Logs elapsed time, pages per second,
+ * and peak counts of live platform threads, in all and running ToeThreads;
+ * {@link PlatformToeThreadsSelfTest} runs the same crawl on platform 
+ * threads for comparison.
+ */
+public class VirtualToeThreadsSelfTest extends SelfTestBase {
+    private static final Logger logger = 
+        Logger.getLogger(VirtualToeThreadsSelfTest.class.getName());
+
+    protected static final int TOES = 200;
+    protected static final int PAGES = 2000;
+    protected static final long LATENCY_MS = 100;
+
+    protected long launchTime;
+    protected long elapsedMs;
+    protected int peakThreads;
+    protected volatile int peakToeThreads;
+    protected volatile boolean sampling;
+
+    protected boolean isUseVirtualToeThreads() {
+        return true;
+    }
+
+    @Override
+    protected String getTestDataName() {
+        // content is synthetic; only conf is used
+        return "SimpleSelfTest";
+    }
+
+    @Override
+    protected String changeGlobalConfig(String config) {
+        config = config.replace("@@MORE_PROPERTIES@@", 
+                "crawlController.useVirtualToeThreads=" + isUseVirtualToeThreads() + "\n"
+                + "crawlController.maxToeThreads=" + TOES + "\n"
+                + "preparer.queueAssignmentPolicy.parallelQueues=" + TOES + "\n"
+                + "disposition.delayFactor=0\n"
+                + "disposition.minDelayMs=0\n"
+                + "disposition.maxDelayMs=0");
+        return super.changeGlobalConfig(config);
+    }
+
+    @Override
+    protected void startHttpServer() throws Exception {
+        // enough to serve every toe at once
+        Server server = new Server(new QueuedThreadPool(TOES + 50));
+        ServerConnector sc = new ServerConnector(server);
+        sc.setHost("127.0.0.1");
+        sc.setPort(7777);
+        server.addConnector(sc);
+        server.setHandler(new AbstractHandler() {
+            public void handle(String target, Request baseRequest,
+                    HttpServletRequest request, HttpServletResponse response)
+                    throws IOException {
+                StringBuilder html = new StringBuilder("<html><body>\n");
+                if (target.equals("/index.html")) {
+                    for (int i = 0; i < PAGES; i++) {
+                        html.append("<a href=\"/p/").append(i).append(".html\">")
+                            .append(i).append("</a>\n");
+                    }
+                } else if (target.startsWith("/p/")) {
+                    try {
+                        // stand-in for network latency
+                        Thread.sleep(LATENCY_MS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    html.append("page ").append(target).append("\n");
+                } else {
+                    response.sendError(HttpServletResponse.SC_NOT_FOUND);
+                    baseRequest.setHandled(true);
+                    return;
+                }
+                html.append("</body></html>\n");
+                response.setContentType("text/html");
+                response.getWriter().write(html.toString());
+                baseRequest.setHandled(true);
+            }
+        });
+        this.httpServer = server;
+        server.start();
+    }
+
+    @Override
+    protected void startHeritrix(String path) throws Exception {
+        ManagementFactory.getThreadMXBean().resetPeakThreadCount();
+        launchTime = System.currentTimeMillis();
+        sampling = true;
+        Thread sampler = new Thread("toe thread sampler") {
+            public void run() {
+                while (sampling) {
+                    int toes = 0;
+                    // platform threads only; virtual threads are not listed
+                    for (Thread t : Thread.getAllStackTraces().keySet()) {
+                        if (t instanceof ToeThread) {
+                            toes++;
+                        }
+                    }
+                    peakToeThreads = Math.max(peakToeThreads, toes);
+                    try {
+                        Thread.sleep(50);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+        };
+        sampler.setDaemon(true);
+        sampler.start();
+        super.startHeritrix(path);
+    }
+
+    @Override
+    protected void waitForCrawlFinish() throws Exception {
+        super.waitForCrawlFinish();
+        sampling = false;
+        elapsedMs = System.currentTimeMillis() - launchTime;
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        peakThreads = threads.getPeakThreadCount();
+    }
+
+    protected int countFetchedPages() throws IOException {
+        File crawlLog = new File(getLogsDir(), "crawl.log");
+        List<String> lines = FileUtils.readLines(crawlLog);
+        int fetched = 0;
+        for (String line : lines) {
+            String[] fields = line.split(" +");
+            if (fields.length > 3 && "200".equals(fields[1]) 
+                    && fields[3].contains("/p/")) {
+                fetched++;
+            }
+        }
+        return fetched;
+    }
+
+    @Override
+    protected void verify() throws Exception {
+        int fetched = countFetchedPages();
+        boolean virtual = isUseVirtualToeThreads() && ToePool.isVirtualThreadsAvailable();
+        logger.info((virtual ? "virtual" : "platform") + " toe threads: " 
+                + fetched + " pages in " + elapsedMs + "ms, " 
+                + (fetched * 1000L / Math.max(1, elapsedMs)) + " pages/s, " 
+                + peakThreads + " peak live platform threads, " 
+                + peakToeThreads + " of them ToeThreads");
+        assertEquals(PAGES, fetched);
+        if (virtual) {
+            assertEquals(0, peakToeThreads);
+        } else {
+            assertTrue("peak ToeThreads " + peakToeThreads, peakToeThreads >= TOES);
+        }
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.crawler.util;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.archive.util.ArchiveUtils;
+
+public class LogLineIndexTest extends TestCase {
+    protected static final long BASE_TIME = 1500000000000L;
+
+    protected File log;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        log = File.createTempFile("LogLineIndexTest", ".log");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        LogLineIndex.forget(log);
+        log.delete();
+        super.tearDown();
+    }
+
+    protected static String line(int i) {
+        return ArchiveUtils.getLog17Date(BASE_TIME + i * 1000L)
+            + " line " + i + (i % 7 == 0 ? " seven" : "");
+    }
+
+    /** append lines numbered from (1-based) first through last */
+    protected void append(int first, int last) throws IOException {
+        FileWriter w = new FileWriter(log, true);
+        try {
+            for (int i = first; i <= last; i++) {
+                w.write(line(i) + "\n");
+            }
+        } finally {
+            w.close();
+        }
+    }
+
+    protected String lineAt(long offset) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(log, "r");
+        try {
+            raf.seek(offset);
+            return raf.readLine();
+        } finally {
+            raf.close();
+        }
+    }
+
+    public void testSeekAndIncrementalUpdate() throws IOException {
+        append(1, 2500);
+        LogLineIndex index = new LogLineIndex(log, 100);
+        long[] start = index.seekLine(1234);
+        assertEquals(1201, start[1]);
+        assertEquals(line(1201), lineAt(start[0]));
+        assertEquals(2500, index.getLineCount());
+
+        append(2501, 3050);
+        start = index.seekLine(3050);
+        assertEquals(3001, start[1]);
+        assertEquals(line(3001), lineAt(start[0]));
+        assertEquals(3050, index.getLineCount());
+
+        // past end: last indexed position
+        assertEquals(3001, index.seekLine(99999)[1]);
+    }
+
+    public void testChunksCoverAllLines() throws IOException {
+        append(1, 1050);
+        LogLineIndex index = new LogLineIndex(log, 100);
+        List<long[]> chunks = index.chunks(4);
+        long expectedLine = 1;
+        for (long[] chunk : chunks) {
+            assertEquals(expectedLine, chunk[1]);
+            assertEquals(line((int) chunk[1]), lineAt(chunk[0]));
+            expectedLine = chunk[2];
+        }
+        assertEquals(1051, expectedLine);
+    }
+
+    public void testOffsetForTime() throws IOException {
+        append(1, 5000);
+        LogLineIndex index = new LogLineIndex(log, 100);
+        assertEquals(line(3456), lineAt(index.offsetForTime(BASE_TIME + 3456 * 1000L)));
+        assertEquals(line(3457), lineAt(index.offsetForTime(BASE_TIME + 3456 * 1000L + 1)));
+        assertEquals(0, index.offsetForTime(0));
+        assertEquals(log.length(), index.offsetForTime(Long.MAX_VALUE));
+    }
+
+    public void testLogReader() throws IOException {
+        append(1, 5000);
+        String[] got = LogReader.get(log.getPath(), 4321, 3);
+        assertEquals(line(4321) + "\n" + line(4322) + "\n" + line(4323) + "\n", got[0]);
+
+        assertEquals(7, LogReader.findFirstLineContaining(log.getPath(), ".* seven"));
+        assertEquals(-1, LogReader.findFirstLineContaining(log.getPath(), ".* eight"));
+        // bad pattern is an error, not an exception
+        assertEquals(-1, LogReader.findFirstLineContaining(log.getPath(), "[unclosed"));
+
+        // 3rd through 5th matches, numbered
+        got = LogReader.getByRegex(log.getPath(), ".* seven", 0, true, 2, 3);
+        assertEquals("21. " + line(21) + "\n28. " + line(28) + "\n35. " + line(35) + "\n",
+                got[0]);
+        // all matches
+        got = LogReader.getByRegex(log.getPath(), ".* seven", 0, false, 0, 0);
+        assertEquals(5000 / 7, got[0].split("\n").length);
+        assertTrue(got[0].endsWith(line(4998) + "\n"));
+    }
+
+    public void testUnterminatedLastLine() throws IOException {
+        FileWriter w = new FileWriter(log);
+        try {
+            w.write("partial seven");
+        } finally {
+            w.close();
+        }
+        assertEquals(1, LogReader.findFirstLineContaining(log.getPath(), ".* seven"));
+
+        log.delete();
+        LogLineIndex.forget(log);
+        append(1, 1006);
+        w = new FileWriter(log, true);
+        try {
+            w.write("partial seven");
+        } finally {
+            w.close();
+        }
+        String[] got = LogReader.getByRegex(log.getPath(), ".* seven", 0, true, 0, 0);
+        assertTrue(got[0].endsWith("1007. partial seven\n"));
+    }
+
+    public void testRotated() throws IOException {
+        append(1, 1500);
+        LogLineIndex index = LogLineIndex.forFile(log);
+        index.update();
+        File rotated = new File(log.getPath() + ".1");
+        assertTrue(log.renameTo(rotated));
+        try {
+            LogLineIndex.rotated(log, rotated);
+            assertSame(index, LogLineIndex.forFile(rotated));
+            assertEquals(rotated.getAbsoluteFile(), index.getFile());
+            assertEquals(1500, index.getLineCount());
+            assertNotSame(index, LogLineIndex.forFile(log));
+        } finally {
+            LogLineIndex.forget(rotated);
+            rotated.delete();
+        }
+    }
+
+    public void testSharedIndexesPruned() throws IOException {
+        LogLineIndex index = LogLineIndex.forFile(log);
+        File gone = File.createTempFile("LogLineIndexTest", ".log");
+        LogLineIndex.forFile(gone);
+        assertTrue(gone.delete());
+        // indexes of missing files dropped when another is created
+        File other = File.createTempFile("LogLineIndexTest", ".log");
+        try {
+            LogLineIndex.forFile(other);
+            assertFalse(LogLineIndex.INDEXES.containsKey(gone.getAbsoluteFile()));
+            assertSame(index, LogLineIndex.forFile(log));
+        } finally {
+            LogLineIndex.forget(other);
+            other.delete();
+        }
+
+        // least recently used dropped beyond the limit
+        File[] many = new File[LogLineIndex.MAX_SHARED_INDEXES + 1];
+        try {
+            for (int i = 0; i < many.length; i++) {
+                many[i] = File.createTempFile("LogLineIndexTest", ".log");
+                LogLineIndex.forFile(many[i]);
+            }
+            assertTrue(LogLineIndex.INDEXES.size() <= LogLineIndex.MAX_SHARED_INDEXES);
+            assertTrue(LogLineIndex.INDEXES.containsKey(many[many.length - 1].getAbsoluteFile()));
+        } finally {
+            for (File f : many) {
+                if (f != null) {
+                    LogLineIndex.forget(f);
+                    f.delete();
+                }
+            }
+        }
+    }
+}
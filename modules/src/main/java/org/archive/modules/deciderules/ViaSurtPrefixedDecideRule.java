@@ -24,6 +24,7 @@ import java.util.List;
 
 import org.archive.modules.CrawlURI;
 import org.archive.util.SurtPrefixSet;
+import org.archive.util.SurtPrefixTrieSet;
 import org.springframework.beans.factory.annotation.Required;
 
 /**
@@ -37,10 +38,10 @@ public class ViaSurtPrefixedDecideRule extends PredicatedDecideRule {
 
     private static final long serialVersionUID = 1L;
     
-    protected SurtPrefixSet surtPrefixes = new SurtPrefixSet();
+    protected SurtPrefixTrieSet surtPrefixes = new SurtPrefixTrieSet();
 
     public List<String> getSurtPrefixes() {
-        return new ArrayList<String>(surtPrefixes);
+        return new ArrayList<String>(surtPrefixes.getPrefixes());
     }
     @Required
     public void setSurtPrefixes(List<String> surtPrefixes) {
@@ -50,6 +51,7 @@ public class ViaSurtPrefixedDecideRule extends PredicatedDecideRule {
             for(String surt : surtPrefixes) {
                 this.surtPrefixes.considerAsAddDirective(surt);
             }
+            this.surtPrefixes.merge();
         }
     }
 
@@ -62,7 +64,7 @@ public class ViaSurtPrefixedDecideRule extends PredicatedDecideRule {
      */
     @Override
     protected boolean evaluate(CrawlURI uri) {
-        if (uri.getVia() != null && getSurtPrefixes() !=null){
+        if (uri.getVia() != null) {
             return surtPrefixes.containsPrefixOf(SurtPrefixSet.getCandidateSurt(uri.getVia()));
         }
         else
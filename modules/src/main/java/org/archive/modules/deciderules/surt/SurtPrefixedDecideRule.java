@@ -23,6 +23,8 @@ import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -34,11 +36,12 @@ import org.archive.io.ReadSource;
 import org.archive.modules.CrawlURI;
 import org.archive.modules.deciderules.DecideResult;
 import org.archive.modules.deciderules.PredicatedDecideRule;
-import org.archive.modules.seeds.SeedListener;
+import org.archive.modules.seeds.BulkSeedListener;
 import org.archive.modules.seeds.SeedModule;
 import org.archive.net.UURI;
 import org.archive.spring.ConfigFile;
 import org.archive.util.SurtPrefixSet;
+import org.archive.util.SurtPrefixTrieSet;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -63,7 +66,7 @@ import org.springframework.context.event.ContextStartedEvent;
  * @author gojomo
  */
 public class SurtPrefixedDecideRule extends PredicatedDecideRule implements
-        SeedListener, ApplicationListener<ApplicationEvent>, Checkpointable,
+        BulkSeedListener, ApplicationListener<ApplicationEvent>, Checkpointable,
         BeanNameAware {
     
     private static final long serialVersionUID = 3L;
@@ -157,12 +160,24 @@ public class SurtPrefixedDecideRule extends PredicatedDecideRule implements
         }
     }
     
-    protected SurtPrefixSet surtPrefixes = new SurtPrefixSet();
+    /**
+     * Whether to hold the compiled SURT prefix trie in direct (off-heap)
+     * buffers. Useful when scopes hold many millions of prefixes.
+     */
+    public boolean getSurtPrefixesOffHeap() {
+        return surtPrefixes.getOffHeap();
+    }
+    public void setSurtPrefixesOffHeap(boolean offHeap) {
+        surtPrefixes.setOffHeap(offHeap);
+    }
+
+    protected SurtPrefixTrieSet surtPrefixes = new SurtPrefixTrieSet();
 
     public SurtPrefixedDecideRule() {
     }
     
     public void concludedSeedBatch() {
+        surtPrefixes.merge();
         dumpSurtPrefixSet();
     }
  
@@ -249,6 +264,22 @@ public class SurtPrefixedDecideRule extends PredicatedDecideRule implements
         }
     }
     
+    /**
+     * If appropriate, convert a batch of seeds into prefix-additions,
+     * without rebuilding the prefix trie per seed.
+     * 
+     * @see org.archive.modules.seeds.BulkSeedListener#addedSeeds(java.util.List)
+     */
+    public void addedSeeds(List<CrawlURI> curis) {
+        if(getSeedsAsSurtPrefixes()) {
+            List<String> prefixes = new ArrayList<String>(curis.size());
+            for(CrawlURI curi : curis) {
+                prefixes.add(prefixFrom(curi.getURI()));
+            }
+            surtPrefixes.addAll(prefixes);
+        }
+    }
+    
     protected String prefixFrom(String uri) {
         return SurtPrefixSet.prefixFromPlainForceHttp(uri);
     }
@@ -295,9 +326,11 @@ public class SurtPrefixedDecideRule extends PredicatedDecideRule implements
                 JSONObject json = recoveryCheckpoint.loadJson(beanName);
                 try {
                     JSONArray jsonArray = json.getJSONArray("surtPrefixes");
+                    List<String> recovered = new ArrayList<String>(jsonArray.length());
                     for (int i = 0; i < jsonArray.length(); i++) {
-                        surtPrefixes.add(jsonArray.getString(i));
+                        recovered.add(jsonArray.getString(i));
                     }
+                    surtPrefixes.addAll(recovered);
                 } catch (JSONException e) {
                     throw new IllegalStateException(e);
                 }
@@ -322,7 +355,7 @@ public class SurtPrefixedDecideRule extends PredicatedDecideRule implements
             throws IOException {
         try {
             JSONObject json = new JSONObject();
-            json.put("surtPrefixes", surtPrefixes);
+            json.put("surtPrefixes", surtPrefixes.getPrefixes());
             checkpointInProgress.saveJson(beanName, json);
         } catch (JSONException e) {
             throw new RuntimeException(e);
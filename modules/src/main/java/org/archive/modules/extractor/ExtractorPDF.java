@@ -18,17 +18,17 @@
  */
 package org.archive.modules.extractor;
 
-import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Logger;
 
 import org.apache.commons.httpclient.URIException;
-import org.archive.io.SinkHandlerLogThread;
+import org.apache.commons.io.IOUtils;
 import org.archive.modules.CrawlURI;
 import org.archive.net.UURI;
 import org.archive.net.UURIFactory;
-import org.archive.util.FileUtils;
 
 /** Allows the caller to process a CrawlURI representing a PDF
  *  for the purpose of extracting URIs
@@ -58,53 +58,80 @@ public class ExtractorPDF extends ContentExtractor {
         kp.put("maxSizeToParse",threshold);
     }
 
+    /**
+     * The maximum CPU time, in milliseconds, to spend looking for links in
+     * one PDF. Links found before the limit is reached are kept. 0 means
+     * no limit.
+     */
+    {
+        setMaxParseCpuMs(10*1000L); // 10 seconds
+    }
+    public long getMaxParseCpuMs() {
+        return (Long) kp.get("maxParseCpuMs");
+    }
+    public void setMaxParseCpuMs(long maxParseCpuMs) {
+        kp.put("maxParseCpuMs",maxParseCpuMs);
+    }
+
+    protected AtomicLong numberOfPdfsParsed = new AtomicLong(0);
+    protected AtomicLong numberOfPdfsTooLarge = new AtomicLong(0);
+    protected AtomicLong numberOfPdfsFailed = new AtomicLong(0);
+    protected AtomicLong numberOfPdfsTruncated = new AtomicLong(0);
+    protected AtomicLong bytesParsed = new AtomicLong(0);
+    protected AtomicLong parseNanos = new AtomicLong(0);
+
     public ExtractorPDF() {
     }
     
     @Override
     protected boolean shouldExtract(CrawlURI uri) {
+        String ct = uri.getContentType();
+        if ((ct == null) || !ct.startsWith("application/pdf")) {
+            return false;
+        }
+
         long max = getMaxSizeToParse();
         if (uri.getRecorder().getRecordedInput().getSize() > max) {
+            numberOfPdfsTooLarge.incrementAndGet();
             return false;
         }
-
-        String ct = uri.getContentType();
-        return (ct != null) && (ct.startsWith("application/pdf"));
+        return true;
     }
     
     
     protected boolean innerExtract(CrawlURI curi){
-        File tempFile;
-
-        int sn;
-	Thread thread = Thread.currentThread();
-        if (thread instanceof SinkHandlerLogThread) {
-            sn = ((SinkHandlerLogThread)thread).getSerialNumber();
-        } else {
-            sn = System.identityHashCode(thread);
-        }
-        try {
-            tempFile = File.createTempFile("tt" + sn , "tmp.pdf");
-        } catch (IOException ioe) {
-            throw new RuntimeException(ioe);
-        }
-
+        long startNanos = System.nanoTime();
         PDFParser parser;
         ArrayList<String> uris;
+        InputStream in = null;
         try {
-            curi.getRecorder().copyContentBodyTo(tempFile);
-            parser = new PDFParser(tempFile.getAbsolutePath());
-            uris = parser.extractURIs();
+            // parse straight from the recorder; documents are bounded by
+            // maxSizeToParse, so holding one in memory is fine
+            in = curi.getRecorder().getContentReplayInputStream();
+            parser = new PDFParser(in);
+            uris = parser.extractURIs(getMaxParseCpuMs());
         } catch (IOException e) {
+            numberOfPdfsFailed.incrementAndGet();
             curi.getNonFatalFailures().add(e);
             return false;
         } catch (RuntimeException e) {
             // Truncated/corrupt  PDFs may generate ClassCast exceptions, or
             // other problems
+            numberOfPdfsFailed.incrementAndGet();
             curi.getNonFatalFailures().add(e);
             return false;
         } finally {
-            FileUtils.deleteSoonerOrLater(tempFile);
+            IOUtils.closeQuietly(in);
+        }
+
+        numberOfPdfsParsed.incrementAndGet();
+        bytesParsed.addAndGet(curi.getContentSize());
+        parseNanos.addAndGet(System.nanoTime() - startNanos);
+        if (parser.isTruncated()) {
+            numberOfPdfsTruncated.incrementAndGet();
+            curi.getAnnotations().add("pdfParseTimeLimit");
+            LOGGER.info("stopped looking for links in " + curi + " after "
+                    + getMaxParseCpuMs() + "ms CPU time");
         }
         
         if (uris == null) {
@@ -131,4 +158,17 @@ public class ExtractorPDF extends ContentExtractor {
         // Set flag to indicate that link extraction is completed.
         return true;
     }
+
+    @Override
+    public String report() {
+        StringBuffer ret = new StringBuffer();
+        ret.append(super.report());
+        long nanos = parseNanos.get();
+        long kbPerSec = nanos > 0 ? (long) (bytesParsed.get() / 1024.0 / (nanos / 1e9)) : 0;
+        ret.append("  " + numberOfPdfsParsed + " pdfs parsed (" + kbPerSec + " KB/sec)\n");
+        ret.append("  " + numberOfPdfsTooLarge + " pdfs skipped as too large, "
+                + numberOfPdfsFailed + " failed, "
+                + numberOfPdfsTruncated + " stopped at time limit\n");
+        return ret.toString();
+    }
 }
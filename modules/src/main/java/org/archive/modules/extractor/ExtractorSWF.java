@@ -18,6 +18,7 @@
  */
 package org.archive.modules.extractor;
 
+import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.logging.Logger;
@@ -97,6 +98,8 @@ public class ExtractorSWF extends ContentExtractor {
             if (documentStream == null) {
                 return false;
             }
+            // the swf parser reads a byte at a time
+            documentStream = new BufferedInputStream(documentStream, 64 * 1024);
 
             // Create SWF action that will add discovered URIs to CrawlURI
             // alist(s).
@@ -18,6 +18,7 @@
  */
 package org.archive.modules.extractor;
 
+import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.regex.Matcher;
@@ -358,7 +359,10 @@ public class ExtractorUniversal extends ContentExtractor {
     protected boolean innerExtract(CrawlURI curi) {
         InputStream instream = null;
         try {
-            instream = curi.getRecorder().getContentReplayInputStream();
+            // scanned a byte at a time; don't let each read reach the
+            // recorder's backing file
+            instream = new BufferedInputStream(
+                    curi.getRecorder().getContentReplayInputStream(), 64 * 1024);
             int ch = instream.read();
             StringBuffer lookat = new StringBuffer();
             long counter = 0;
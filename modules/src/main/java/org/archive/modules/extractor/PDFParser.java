@@ -26,8 +26,12 @@ import com.lowagie.text.pdf.PRIndirectReference;
 import com.lowagie.text.pdf.PdfArray;
 
 import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
 import java.util.*;
 
+import org.apache.commons.io.IOUtils;
+
 
 /** Supports PDF parsing operations.  For now this primarily means
  *  extracting URIs, but the logic in extractURIs() could easily be adopted/extended
@@ -37,16 +41,23 @@ import java.util.*;
  *
  */
 //TODO make this more effecient, it currently had to read the whole file into memory
-// before processing can begin, and appears to take much longer than it "should"
-// to parse small, but admittedly complex, documents.
+// before processing can begin
 public class PDFParser {
 
+    /** objects visited between checks of the time budget */
+    protected static final int TIME_CHECK_INTERVAL = 64;
+
     protected ArrayList<String> foundURIs;
-    protected ArrayList<ArrayList<Integer>> encounteredReferences;
+    /** generation and object number, packed, of references already followed */
+    protected Set<Long> encounteredReferences;
     protected PdfReader documentReader;
     protected byte[] document;
     protected PdfDictionary catalog;
 
+    protected long budgetEndNanos = Long.MAX_VALUE;
+    protected int visitCount;
+    protected boolean truncated;
+
     public PDFParser(String doc) throws IOException {
         resetState();
         getInFromFile(doc);
@@ -57,19 +68,29 @@ public class PDFParser {
         document = doc;
         initialize();
     }
+    /**
+     * Read the document from the given stream, for example a recorder's
+     * content replay stream, without an intermediate file.
+     * @param in stream positioned at start of document; not closed
+     * @throws IOException
+     */
+    public PDFParser(InputStream in) throws IOException{
+        resetState();
+        document = IOUtils.toByteArray(in);
+        initialize();
+    }
 
     /** Reinitialize the object as though a new one were created.
      */
     protected void resetState(){
         foundURIs = new ArrayList<String>();
-        encounteredReferences = new ArrayList<ArrayList<Integer>>();
+        encounteredReferences = new HashSet<Long>();
         documentReader = null;
         document = null;
         catalog = null;
-
-        for(int i=0; i < encounteredReferences.size(); i++){
-            encounteredReferences.add(new ArrayList<Integer>());
-        }
+        budgetEndNanos = Long.MAX_VALUE;
+        visitCount = 0;
+        truncated = false;
     }
 
     /**
@@ -100,14 +121,12 @@ public class PDFParser {
      * @throws IOException
      */
     protected void getInFromFile(String doc) throws IOException{
-        File documentOnDisk = new File(doc);
-
-        long length = documentOnDisk.length();
-        document = new byte[(int)length];
-
-        FileInputStream inStream = new FileInputStream(documentOnDisk);
-
-        inStream.read(document);
+        FileInputStream inStream = new FileInputStream(new File(doc));
+        try {
+            document = IOUtils.toByteArray(inStream);
+        } finally {
+            inStream.close();
+        }
     }
 
     /**
@@ -119,26 +138,11 @@ public class PDFParser {
      * @return True if already seen.
      */
     protected boolean haveSeen(int generation, int id){
+        return encounteredReferences.contains(referenceKey(generation, id));
+    }
 
-        // if we can't store this generation grow our list until we can
-        if(generation >= encounteredReferences.size()){
-            for(int i=encounteredReferences.size(); i <= generation; i++){
-                encounteredReferences.add(new ArrayList<Integer>());
-            }
-
-            // clearly we haven't seen it
-            return false;
-        }
-
-        ArrayList<Integer> generationList
-         = encounteredReferences.get(generation);
-        
-        for (int i: generationList) {
-            if(i == id){
-                return true;
-            }
-        }
-        return false;
+    protected static long referenceKey(int generation, int id) {
+        return ((long) generation << 32) | (id & 0xffffffffL);
     }
 
     /**
@@ -148,8 +152,7 @@ public class PDFParser {
      * @param id
      */
     protected void markAsSeen(int generation, int id){
-        ArrayList<Integer> objectIds = encounteredReferences.get(generation);
-        objectIds.add(id);
+        encounteredReferences.add(referenceKey(generation, id));
     }
 
     /**
@@ -186,6 +189,56 @@ public class PDFParser {
         return getURIs();
     }
 
+    /**
+     * Extract URIs as {@link #extractURIs()} does, but stop walking the
+     * document once the current thread has used the given CPU time on it.
+     * URIs found by then are still returned; {@link #isTruncated()} tells
+     * whether the walk was cut short.
+     * @param maxCpuMs CPU time budget in milliseconds, or 0 for no limit
+     * @return URIs found
+     */
+    public ArrayList<String> extractURIs(long maxCpuMs){
+        if (maxCpuMs > 0) {
+            budgetEndNanos = threadTimeNanos() + maxCpuMs * 1000000L;
+        }
+        return extractURIs();
+    }
+
+    /**
+     * @return true if the last extraction stopped at its time budget
+     */
+    public boolean isTruncated() {
+        return truncated;
+    }
+
+    /**
+     * @return CPU time of current thread, or wall-clock time if the JVM
+     * cannot measure thread CPU time or has it disabled
+     */
+    protected long threadTimeNanos() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads.isCurrentThreadCpuTimeSupported() 
+                && threads.isThreadCpuTimeEnabled()) {
+            long cpuTime = threads.getCurrentThreadCpuTime();
+            if (cpuTime >= 0) {
+                return cpuTime;
+            }
+        }
+        return System.nanoTime();
+    }
+
+    protected boolean overBudget() {
+        if (truncated) {
+            return true;
+        }
+        if (budgetEndNanos != Long.MAX_VALUE
+                && ++visitCount % TIME_CHECK_INTERVAL == 0
+                && threadTimeNanos() > budgetEndNanos) {
+            truncated = true;
+        }
+        return truncated;
+    }
+
     /**
      * Parse a PdfDictionary, looking for URIs recursively and adding
      * them to foundURIs
@@ -193,6 +246,9 @@ public class PDFParser {
      */
     @SuppressWarnings("unchecked")
     protected void extractURIs(PdfObject entity){
+            if (overBudget()) {
+                return;
+            }
 
             // deal with dictionaries
             if(entity.isDictionary()){
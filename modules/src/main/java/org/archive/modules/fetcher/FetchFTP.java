@@ -46,6 +46,7 @@ import org.archive.modules.Processor;
 import org.archive.modules.extractor.Hop;
 import org.archive.modules.extractor.LinkContext;
 import org.archive.net.ClientFTP;
+import org.archive.net.ClientSessionPool;
 import org.archive.net.UURI;
 import org.archive.net.UURIFactory;
 import org.archive.util.Recorder;
@@ -226,11 +227,63 @@ public class FetchFTP extends Processor  {
         kp.put("soTimeoutMs",timeout);
     }
      
+    /**
+     * Whether to keep control connections open between fetches, and reuse
+     * them for later fetches from the same server with the same credentials,
+     * skipping connect and login. At most one idle connection is kept per
+     * server and credentials.
+     */
+    {
+        setReuseConnections(true);
+    }
+    public boolean getReuseConnections() {
+        return (Boolean) kp.get("reuseConnections");
+    }
+    public void setReuseConnections(boolean reuseConnections) {
+        kp.put("reuseConnections",reuseConnections);
+    }
+
+    /**
+     * Idle control connections are closed after this many seconds. Should
+     * be below the idle timeout of typical servers, and is usually well
+     * above the politeness delay between fetches from one server.
+     */
+    {
+        setIdleTimeoutSeconds(30);
+    }
+    public int getIdleTimeoutSeconds() {
+        return (Integer) kp.get("idleTimeoutSeconds");
+    }
+    public void setIdleTimeoutSeconds(int timeout) {
+        kp.put("idleTimeoutSeconds",timeout);
+    }
+
+    protected ClientSessionPool<ClientFTP> sessionPool =
+            new ClientSessionPool<ClientFTP>() {
+                @Override
+                protected boolean isAlive(ClientFTP client) {
+                    return client.isAlive();
+                }
+                @Override
+                protected void close(ClientFTP client) {
+                    disconnect(client);
+                }
+            };
+    public ClientSessionPool<ClientFTP> getSessionPool() {
+        return sessionPool;
+    }
+
     /**
      * Constructs a new <code>FetchFTP</code>.
      */
     public FetchFTP() {
     }
+
+    @Override
+    public void stop() {
+        super.stop();
+        sessionPool.closeAll();
+    }
     
     @Override
     protected boolean shouldProcess(CrawlURI curi) {
@@ -273,14 +326,28 @@ public class FetchFTP extends Processor  {
     @Override
     protected void innerProcess(CrawlURI curi) throws InterruptedException {
         curi.setFetchBeginTime(System.currentTimeMillis());
-        ClientFTP client = new ClientFTP();
+        String poolKey = null;
+        ClientFTP client = null;
+        if (getReuseConnections()) {
+            poolKey = sessionPoolKey(curi);
+            sessionPool.setIdleTimeoutMs(getIdleTimeoutSeconds() * 1000L);
+            client = sessionPool.checkout(poolKey);
+        }
+        boolean reused = client != null;
+        if (reused) {
+            client.resetControlConversation();
+        } else {
+            client = new ClientFTP();
+        }
         Recorder recorder = curi.getRecorder();
         
+        boolean reusable = false;
         try {
             if (logger.isLoggable(Level.FINE)) {
-                logger.fine("attempting to fetch ftp uri: " + curi);
+                logger.fine("attempting to fetch ftp uri: " + curi
+                        + (reused ? " on reused connection" : ""));
             }
-            fetch(curi, client, recorder);
+            reusable = fetch(curi, client, recorder, reused);
         } catch (IOException e) {
             if (logger.isLoggable(Level.INFO)) {
                 logger.info(curi + ": " + e);
@@ -288,12 +355,29 @@ public class FetchFTP extends Processor  {
             curi.getNonFatalFailures().add(e);
             curi.setFetchStatus(FetchStatusCodes.S_CONNECT_FAILED);
         } finally {
-            disconnect(client);
             curi.setFetchCompletedTime(System.currentTimeMillis());
-            curi.getData().put(A_FTP_CONTROL_CONVERSATION, client.getControlConversation());
+            if (poolKey != null && reusable && client.isConnected()) {
+                // conversation must be captured before another thread can
+                // check the client out
+                curi.getData().put(A_FTP_CONTROL_CONVERSATION, client.getControlConversation());
+                sessionPool.checkin(poolKey, client);
+            } else {
+                disconnect(client);
+                curi.getData().put(A_FTP_CONTROL_CONVERSATION, client.getControlConversation());
+            }
         }
     }
 
+    /**
+     * @return key under which a logged-in connection for the given curi
+     * may be pooled: server, user and password digest
+     */
+    protected String sessionPoolKey(CrawlURI curi) {
+        UURI uuri = curi.getUURI();
+        String[] auth = getAuth(curi);
+        return ClientSessionPool.sessionKey(uuri.getHost(), uuri.getPort(), auth[0], auth[1]);
+    }
+
     /**
      * A {@link SocketFactory} much like javax.net.DefaultSocketFactory,
      * except that the createSocket() methods that open connections support a
@@ -355,35 +439,42 @@ public class FetchFTP extends Processor  {
      * @param curi      the URI of the document to fetch
      * @param client    the FTPClient to use for the fetch
      * @param recorder  the recorder to preserve the document in
+     * @param reused    whether the client is already connected and logged in
+     * @return whether the control connection is left in a state fit for
+     *   reuse by another fetch
      * @throws IOException  if a network or protocol error occurs
      * @throws InterruptedException  if the thread is interrupted
      */
-    private void fetch(CrawlURI curi, ClientFTP client, Recorder recorder) 
-    throws IOException, InterruptedException {
-        // Connect to the FTP server.
+    private boolean fetch(CrawlURI curi, ClientFTP client, Recorder recorder,
+            boolean reused) throws IOException, InterruptedException {
         UURI uuri = curi.getUURI();
-        int port = uuri.getPort();
-        if (port == -1) {
-            port = 21;
-        }
+        boolean reusable = true;
+        if (!reused) {
+            // Connect to the FTP server.
+            int port = uuri.getPort();
+            if (port == -1) {
+                port = 21;
+            }
+
+            if (socketFactory == null) {
+                socketFactory = new SocketFactoryWithTimeout();
+            }
+            socketFactory.setConnectTimeoutMs(getSoTimeoutMs());
+            client.setSocketFactory(socketFactory);
+            client.setConnectTimeout(getSoTimeoutMs());
+            client.setDefaultTimeout(getSoTimeoutMs());
+            client.setDataTimeout(getSoTimeoutMs());
+
+            client.connect(uuri.getHost(), port);
 
-        if (socketFactory == null) {
-            socketFactory = new SocketFactoryWithTimeout();
+            // Authenticate.
+            String[] auth = getAuth(curi);
+            reusable = client.login(auth[0], auth[1]);
+        } else {
+            client.setDataTimeout(getSoTimeoutMs());
         }
-        socketFactory.setConnectTimeoutMs(getSoTimeoutMs());
-        client.setSocketFactory(socketFactory);
-        client.setConnectTimeout(getSoTimeoutMs());
-        client.setDefaultTimeout(getSoTimeoutMs());
-        client.setDataTimeout(getSoTimeoutMs());
-        
-        client.connect(uuri.getHost(), port);
-        
         client.setSoTimeout(getSoTimeoutMs());  // must be after connect()
         
-        // Authenticate.
-        String[] auth = getAuth(curi);
-        client.login(auth[0], auth[1]);
-        
         // The given resource may or may not be a directory.
         // To figure out which is which, execute a CD command to
         // the UURI's path.  If CD works, it's a directory.
@@ -416,6 +507,8 @@ public class FetchFTP extends Processor  {
         } catch (IOException e) {
             // try it again, see AbstractFrontier.needsRetrying()
             curi.setFetchStatus(FetchStatusCodes.S_CONNECT_LOST);
+            // control connection may be awaiting a reply we won't read
+            reusable = false;
         }
 
         // Save the streams in the CURI, where downstream processors
@@ -474,6 +567,7 @@ public class FetchFTP extends Processor  {
         }
 
         addParent(curi);
+        return reusable;
     }
     
     
@@ -24,6 +24,7 @@ import org.archive.modules.Processor;
 import org.archive.modules.extractor.Hop;
 import org.archive.modules.extractor.LinkContext;
 import org.archive.net.ClientSFTP;
+import org.archive.net.ClientSessionPool;
 import org.archive.net.UURI;
 import org.archive.net.UURIFactory;
 import org.archive.util.Recorder;
@@ -211,6 +212,55 @@ public class FetchSFTP extends Processor {
 		kp.put("soTimeoutMs", timeout);
 	}
 
+	/**
+	 * Whether to keep SSH sessions open between fetches, and reuse them for
+	 * later fetches from the same server with the same credentials, skipping
+	 * the SSH handshake and authentication. At most one idle session is kept
+	 * per server and credentials.
+	 */
+	{
+		setReuseConnections(true);
+	}
+
+	public boolean getReuseConnections() {
+		return (Boolean) kp.get("reuseConnections");
+	}
+
+	public void setReuseConnections(boolean reuseConnections) {
+		kp.put("reuseConnections", reuseConnections);
+	}
+
+	/**
+	 * Idle sessions are closed after this many seconds.
+	 */
+	{
+		setIdleTimeoutSeconds(30);
+	}
+
+	public int getIdleTimeoutSeconds() {
+		return (Integer) kp.get("idleTimeoutSeconds");
+	}
+
+	public void setIdleTimeoutSeconds(int timeout) {
+		kp.put("idleTimeoutSeconds", timeout);
+	}
+
+	protected ClientSessionPool<ClientSFTP> sessionPool = new ClientSessionPool<ClientSFTP>() {
+		@Override
+		protected boolean isAlive(ClientSFTP client) {
+			return client.isAlive();
+		}
+
+		@Override
+		protected void close(ClientSFTP client) {
+			disconnect(client);
+		}
+	};
+
+	public ClientSessionPool<ClientSFTP> getSessionPool() {
+		return sessionPool;
+	}
+
 	/**
 	 * Constructs a new <code>FetchSFTP</code>.
 	 */
@@ -218,6 +268,12 @@ public class FetchSFTP extends Processor {
 		//
 	}
 
+	@Override
+	public void stop() {
+		super.stop();
+		sessionPool.closeAll();
+	}
+
 	@Override
 	protected boolean shouldProcess(CrawlURI curi) {
 		if (!curi.getUURI().getScheme().equals("sftp")) {
@@ -246,14 +302,27 @@ public class FetchSFTP extends Processor {
 	@Override
 	protected void innerProcess(CrawlURI curi) throws InterruptedException {
 		curi.setFetchBeginTime(System.currentTimeMillis());
-		ClientSFTP client = new ClientSFTP();
+		String poolKey = null;
+		ClientSFTP client = null;
+		if (getReuseConnections()) {
+			poolKey = sessionPoolKey(curi);
+			sessionPool.setIdleTimeoutMs(getIdleTimeoutSeconds() * 1000L);
+			client = sessionPool.checkout(poolKey);
+		}
+		boolean reused = client != null;
+		if (reused) {
+			client.resetControlConversation();
+		} else {
+			client = new ClientSFTP();
+		}
 		Recorder recorder = curi.getRecorder();
 
+		boolean reusable = false;
 		try {
 			if (logger.isLoggable(Level.FINE)) {
-				logger.fine("attempting to fetch sftp uri: " + curi);
+				logger.fine("attempting to fetch sftp uri: " + curi + (reused ? " on reused session" : ""));
 			}
-			fetch(curi, client, recorder);
+			reusable = fetch(curi, client, recorder, reused);
 		} catch (IOException e) {
 			if (logger.isLoggable(Level.INFO)) {
 				logger.info(curi + ": " + e);
@@ -261,40 +330,60 @@ public class FetchSFTP extends Processor {
 			curi.getNonFatalFailures().add(e);
 			curi.setFetchStatus(FetchStatusCodes.S_CONNECT_FAILED);
 		} finally {
-			disconnect(client);
 			curi.setFetchCompletedTime(System.currentTimeMillis());
 			curi.getData().put(A_FTP_CONTROL_CONVERSATION, client.getControlConversation());
+			if (poolKey != null && reusable && client.isConnected()) {
+				sessionPool.checkin(poolKey, client);
+			} else {
+				disconnect(client);
+			}
 		}
 	}
 
+	/**
+	 * @return key under which a connected session for the given curi may be
+	 *         pooled: server, user and password digest
+	 */
+	protected String sessionPoolKey(CrawlURI curi) {
+		UURI uuri = curi.getUURI();
+		String[] auth = getAuth(curi);
+		return ClientSessionPool.sessionKey(uuri.getHost(), uuri.getPort(), auth[0], auth[1]);
+	}
+
 	/**
 	 * Fetches a document from an SFTP server.
 	 * 
 	 * @param curi the URI of the document to fetch
 	 * @param client the SFTPClient to use for the fetch
 	 * @param recorder the recorder to preserve the document in
+	 * @param reused whether the client already has an open sftp channel
+	 * @return whether the session is fit for reuse by another fetch
 	 * @throws IOException if a network or protocol error occurs
 	 * @throws InterruptedException if the thread is interrupted
 	 */
-	private void fetch(CrawlURI curi, ClientSFTP client, Recorder recorder)
+	private boolean fetch(CrawlURI curi, ClientSFTP client, Recorder recorder, boolean reused)
 			throws IOException, InterruptedException {
-		// Connect to the FTP server.
 		UURI uuri = curi.getUURI();
-		int port = uuri.getPort();
-		if (port == -1) {
-			port = 22;
-		}
+		ChannelSftp channelSftp = null;
 
-		String[] arrayOfString = getAuth(curi);
-		client.connect(arrayOfString[0], uuri.getHost(), port, arrayOfString[1]);
+		if (reused) {
+			channelSftp = client.getChannelSftp();
+		} else {
+			// Connect to the FTP server.
+			int port = uuri.getPort();
+			if (port == -1) {
+				port = 22;
+			}
 
-		ChannelSftp channelSftp = null;
+			String[] arrayOfString = getAuth(curi);
+			client.connect(arrayOfString[0], uuri.getHost(), port, arrayOfString[1]);
 
-		try {
-			channelSftp = client.openSFTPChannel();
-		} catch (JSchException jSchException) {
-			jSchException.printStackTrace();
-			curi.getData().put(A_RUNTIME_EXCEPTION, jSchException);
+			try {
+				channelSftp = client.openSFTPChannel();
+			} catch (JSchException jSchException) {
+				jSchException.printStackTrace();
+				curi.getData().put(A_RUNTIME_EXCEPTION, jSchException);
+			}
 		}
 
 		boolean isDirectory = false;
@@ -349,7 +438,6 @@ public class FetchSFTP extends Processor {
 			} finally {
 
 				recorder.close();
-				client.disconnect();
 				curi.setContentSize(recorder.getRecordedInput().getSize());
 
 				if (isDirectory) {
@@ -373,6 +461,7 @@ public class FetchSFTP extends Processor {
 		}
 
 		addParent(curi);
+		return channelSftp != null;
 	}
 
 	@SuppressWarnings("unchecked")
@@ -0,0 +1,417 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.modules.fetcher;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import org.apache.http.client.CookieStore;
+import org.apache.http.cookie.ClientCookie;
+import org.apache.http.cookie.Cookie;
+import org.apache.http.impl.cookie.BasicClientCookie;
+import org.apache.http.impl.cookie.BasicClientCookie2;
+import org.archive.bdb.BdbModule;
+import org.archive.checkpointing.Checkpoint;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import com.google.common.net.InternetDomainName;
+import com.sleepycat.bind.tuple.StringBinding;
+import com.sleepycat.bind.tuple.TupleBinding;
+import com.sleepycat.bind.tuple.TupleInput;
+import com.sleepycat.bind.tuple.TupleOutput;
+import com.sleepycat.collections.StoredSortedMap;
+import com.sleepycat.je.Database;
+import com.sleepycat.je.DatabaseException;
+
+/**
+ * Cookie store keeping each registered domain's cookies (those of the
+ * domain and all its subdomains) together as one list, persisted in bdb
+ * under the domain in a compact binary encoding, with a bounded in-memory
+ * LRU working set of recently used domains.
+ * 
+ * <p>Unlike {@link BdbCookieStore}, a lookup for a host whose domain is in
+ * the working set touches no database and deserializes nothing: it reads
+ * just the host's and parent domains' cookies from the registered domain's
+ * in-memory sorted map. Expired cookies are dropped lazily, as lookups
+ * encounter them. Changes are written back only when a domain 
+ * leaves the working set, at checkpoints, and at stop, so a burst of
+ * cookie updates on one domain costs one database write.
+ * 
+ * <p>Cookies set for a public suffix (such as "com"), which browsers
+ * refuse, are stored but not offered to hosts under other domains.
+ */
+public class ShardedBdbCookieStore extends AbstractCookieStore implements
+        FetchHTTPCookieStore, CookieStore {
+
+    protected BdbModule bdb;
+    @Autowired
+    public void setBdbModule(BdbModule bdb) {
+        this.bdb = bdb;
+    }
+
+    public static String COOKIEDB_NAME = "hc_cookies_by_domain";
+
+    /**
+     * Maximum number of registered domains whose cookies are kept in
+     * memory. 
+     */
+    protected int maxCachedDomains = 10000;
+    public int getMaxCachedDomains() {
+        return maxCachedDomains;
+    }
+    public void setMaxCachedDomains(int maxCachedDomains) {
+        this.maxCachedDomains = maxCachedDomains;
+    }
+
+    /**
+     * One registered domain's cookies, keyed by {@link #sortableKey(Cookie)}
+     * and so grouped by cookie domain. Modified only while holding the
+     * store's lock, but may be read without locking.
+     */
+    protected static class DomainCookies {
+        protected final ConcurrentSkipListMap<String,Cookie> cookies =
+            new ConcurrentSkipListMap<String,Cookie>();
+        protected boolean dirty = false;
+    }
+
+    private transient Database cookieDb;
+    private transient StoredSortedMap<String,List<Cookie>> storedCookies;
+    /** working set, in access order; guarded by this */
+    private transient LinkedHashMap<String,DomainCookies> cache;
+
+    public void prepare() {
+        try {
+            BdbModule.BdbConfig dbConfig = new BdbModule.BdbConfig();
+            dbConfig.setTransactional(false);
+            dbConfig.setAllowCreate(true);
+            dbConfig.setSortedDuplicates(false);
+            cookieDb = bdb.openDatabase(COOKIEDB_NAME, dbConfig,
+                    isCheckpointRecovery);
+            storedCookies = new StoredSortedMap<String,List<Cookie>>(cookieDb,
+                    new StringBinding(), new CookieListBinding(), true);
+        } catch (DatabaseException e) {
+            throw new RuntimeException(e);
+        }
+        cache = new LinkedHashMap<String,DomainCookies>(1024, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+            @Override
+            protected boolean removeEldestEntry(Entry<String,DomainCookies> eldest) {
+                if (size() > getMaxCachedDomains()) {
+                    writeBack(eldest.getKey(), eldest.getValue());
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    @Override
+    public void stop() {
+        if (isRunning()) {
+            flush();
+        }
+        super.stop();
+    }
+
+    /**
+     * @param host normalized host or domain
+     * @return the registered domain (public suffix plus one label) under
+     * which cookies for the given host are grouped
+     */
+    protected String registeredDomainFor(String host) {
+        if (InternetDomainName.isValid(host)) {
+            InternetDomainName domain = InternetDomainName.from(host);
+            if (domain.isUnderPublicSuffix()) {
+                return domain.topPrivateDomain().toString();
+            }
+        }
+        return host;
+    }
+
+    /**
+     * Get the in-memory cookies of the given registered domain, reading
+     * them from the database if not already in the working set. Caller must
+     * hold this object's lock.
+     */
+    protected DomainCookies domainCookies(String registeredDomain) {
+        DomainCookies dc = cache.get(registeredDomain);
+        if (dc == null) {
+            dc = new DomainCookies();
+            List<Cookie> stored = storedCookies.get(registeredDomain);
+            if (stored != null) {
+                for (Cookie cookie : stored) {
+                    dc.cookies.put(sortableKey(cookie), cookie);
+                }
+            }
+            cache.put(registeredDomain, dc);
+        }
+        return dc;
+    }
+
+    protected void writeBack(String registeredDomain, DomainCookies dc) {
+        if (!dc.dirty) {
+            return;
+        }
+        if (dc.cookies.isEmpty()) {
+            storedCookies.remove(registeredDomain);
+        } else {
+            storedCookies.put(registeredDomain, 
+                    new ArrayList<Cookie>(dc.cookies.values()));
+        }
+        dc.dirty = false;
+    }
+
+    /**
+     * Write all changed domains' cookies to the database.
+     */
+    public synchronized void flush() {
+        for (Entry<String,DomainCookies> entry : cache.entrySet()) {
+            writeBack(entry.getKey(), entry.getValue());
+        }
+    }
+
+    @Override
+    public synchronized void addCookieImpl(Cookie cookie) {
+        String domain = normalizeHost(cookie.getDomain());
+        DomainCookies dc = domainCookies(registeredDomainFor(domain));
+        if (!cookie.isExpired(new Date())) {
+            dc.cookies.put(sortableKey(cookie), cookie);
+        } else {
+            dc.cookies.remove(sortableKey(cookie));
+        }
+        dc.dirty = true;
+    }
+
+    /**
+     * Returns a {@link LimitedCookieStoreFacade} whose
+     * {@link LimitedCookieStoreFacade#getCookies()} method returns only cookies
+     * from {@code host} and its parent domains, if applicable.
+     */
+    public CookieStore cookieStoreFor(String host) {
+        String registeredDomain = registeredDomainFor(host);
+        DomainCookies dc;
+        synchronized (this) {
+            dc = domainCookies(registeredDomain);
+        }
+        List<Cookie> matching = new ArrayList<Cookie>();
+        Date now = null;
+        // host itself, then parent domains down to the registered domain
+        String domain = host;
+        while (true) {
+            char chAfterDelim = (char)(((int)';')+1); 
+            for (Cookie cookie : dc.cookies.subMap(domain + ";", domain + chAfterDelim).values()) {
+                if (cookie.getExpiryDate() != null) {
+                    if (now == null) {
+                        now = new Date();
+                    }
+                    if (cookie.isExpired(now)) {
+                        removeExpired(dc, cookie);
+                        continue;
+                    }
+                }
+                matching.add(cookie);
+            }
+            int dot = domain.indexOf('.');
+            if (domain.equals(registeredDomain) || dot < 0) {
+                break;
+            }
+            domain = domain.substring(dot + 1);
+        }
+        return new LimitedCookieStoreFacade(
+                Collections.unmodifiableList(matching));
+    }
+
+    protected synchronized void removeExpired(DomainCookies dc, Cookie cookie) {
+        // if dc has meanwhile left the working set, the expired cookie 
+        // is simply found (and dropped) again later
+        if (dc.cookies.remove(sortableKey(cookie), cookie)) {
+            dc.dirty = true;
+        }
+    }
+
+    @Override
+    public synchronized void startCheckpoint(Checkpoint checkpointInProgress) {
+        // persist changes, so they are included in BdbModule's checkpoint
+        flush();
+    }
+    @Override
+    public void doCheckpoint(Checkpoint checkpointInProgress)
+            throws IOException {
+        // do nothing; handled by map checkpoint via BdbModule
+    }
+    @Override
+    public void finishCheckpoint(Checkpoint checkpointInProgress) {
+        // do nothing; handled by map checkpoint via BdbModule
+    }
+
+    /** are we a checkpoint recovery? (in which case, reuse stored cookie data?) */
+    protected boolean isCheckpointRecovery = false; 
+    @Override
+    public void setRecoveryCheckpoint(Checkpoint recoveryCheckpoint) {
+        // just remember that we are doing checkpoint-recovery;
+        // actual state recovery happens via BdbModule
+        isCheckpointRecovery = true;
+    }
+
+    @Override
+    public synchronized void clear() {
+        cache.clear();
+        storedCookies.clear();
+    }
+
+    /**
+     * @return a list of all cookies; requires a full database scan
+     */
+    @Override
+    public synchronized List<Cookie> getCookies() {
+        if (storedCookies == null) {
+            return null;
+        }
+        flush();
+        List<Cookie> all = new ArrayList<Cookie>();
+        // toArray() (via constructor) closes its cursor, unlike iterator()
+        for (List<Cookie> domainCookies : new ArrayList<List<Cookie>>(storedCookies.values())) {
+            all.addAll(domainCookies);
+        }
+        return Collections.unmodifiableList(all);
+    }
+
+    @Override
+    public synchronized boolean clearExpired(Date date) {
+        boolean removed = false;
+        for (DomainCookies dc : cache.values()) {
+            for (Entry<String,Cookie> entry : dc.cookies.entrySet()) {
+                if (entry.getValue().isExpired(date)) {
+                    dc.cookies.remove(entry.getKey());
+                    dc.dirty = true;
+                    removed = true;
+                }
+            }
+        }
+        // domains not in working set are expired lazily, when next used
+        return removed;
+    }
+
+    /**
+     * Compact binary encoding of a list of cookies. Cookie attributes (as
+     * consulted by httpclient's cookie specs) are preserved along with the
+     * usual cookie fields.
+     */
+    public static class CookieListBinding extends TupleBinding<List<Cookie>> {
+        protected static final String[] ATTRIBUTES = {
+            ClientCookie.VERSION_ATTR, ClientCookie.PATH_ATTR,
+            ClientCookie.DOMAIN_ATTR, ClientCookie.MAX_AGE_ATTR,
+            ClientCookie.SECURE_ATTR, ClientCookie.COMMENT_ATTR,
+            ClientCookie.EXPIRES_ATTR, ClientCookie.PORT_ATTR,
+            ClientCookie.COMMENTURL_ATTR, ClientCookie.DISCARD_ATTR };
+
+        @Override
+        public List<Cookie> entryToObject(TupleInput input) {
+            int count = input.readPackedInt();
+            List<Cookie> cookies = new ArrayList<Cookie>(count);
+            for (int i = 0; i < count; i++) {
+                boolean isCookie2 = input.readBoolean();
+                String name = input.readString();
+                String value = input.readString();
+                BasicClientCookie cookie;
+                if (isCookie2) {
+                    BasicClientCookie2 cookie2 = new BasicClientCookie2(name, value);
+                    cookie2.setCommentURL(input.readString());
+                    int portCount = input.readPackedInt();
+                    if (portCount >= 0) {
+                        int[] ports = new int[portCount];
+                        for (int p = 0; p < portCount; p++) {
+                            ports[p] = input.readPackedInt();
+                        }
+                        cookie2.setPorts(ports);
+                    }
+                    cookie2.setDiscard(input.readBoolean());
+                    cookie = cookie2;
+                } else {
+                    cookie = new BasicClientCookie(name, value);
+                }
+                cookie.setDomain(input.readString());
+                cookie.setPath(input.readString());
+                long expiry = input.readLong();
+                cookie.setExpiryDate(expiry != Long.MIN_VALUE ? new Date(expiry) : null);
+                cookie.setSecure(input.readBoolean());
+                cookie.setVersion(input.readPackedInt());
+                cookie.setComment(input.readString());
+                int attributeCount = input.readPackedInt();
+                for (int a = 0; a < attributeCount; a++) {
+                    cookie.setAttribute(input.readString(), input.readString());
+                }
+                cookies.add(cookie);
+            }
+            return cookies;
+        }
+
+        @Override
+        public void objectToEntry(List<Cookie> cookies, TupleOutput output) {
+            output.writePackedInt(cookies.size());
+            for (Cookie cookie : cookies) {
+                boolean isCookie2 = cookie instanceof BasicClientCookie2;
+                output.writeBoolean(isCookie2);
+                output.writeString(cookie.getName());
+                output.writeString(cookie.getValue());
+                if (isCookie2) {
+                    output.writeString(cookie.getCommentURL());
+                    int[] ports = cookie.getPorts();
+                    output.writePackedInt(ports != null ? ports.length : -1);
+                    if (ports != null) {
+                        for (int port : ports) {
+                            output.writePackedInt(port);
+                        }
+                    }
+                    // discard flag only observable through isPersistent()
+                    output.writeBoolean(cookie.getExpiryDate() != null 
+                            && !cookie.isPersistent());
+                }
+                output.writeString(cookie.getDomain());
+                output.writeString(cookie.getPath());
+                output.writeLong(cookie.getExpiryDate() != null 
+                        ? cookie.getExpiryDate().getTime() : Long.MIN_VALUE);
+                output.writeBoolean(cookie.isSecure());
+                output.writePackedInt(cookie.getVersion());
+                output.writeString(cookie.getComment());
+                List<String> attributes = new ArrayList<String>();
+                if (cookie instanceof ClientCookie) {
+                    ClientCookie clientCookie = (ClientCookie) cookie;
+                    for (String attribute : ATTRIBUTES) {
+                        if (clientCookie.containsAttribute(attribute)) {
+                            attributes.add(attribute);
+                            attributes.add(clientCookie.getAttribute(attribute));
+                        }
+                    }
+                }
+                output.writePackedInt(attributes.size() / 2);
+                for (String s : attributes) {
+                    output.writeString(s);
+                }
+            }
+        }
+    }
+}
@@ -72,6 +72,10 @@ public class CrawlServer implements Serializable, FetchStats.HasFetchStats, Iden
     // used to drive exponentially increasing retry timeout or decision
     // to 'freeze' entire class (queue) of URIs
     protected int consecutiveConnectionErrors = 0;
+    
+    // responsiveness history, for adaptive politeness; created lazily
+    // as may be absent from servers persisted by earlier versions
+    protected ServerPolitenessStats politenessStats;
 
     /**
      * Set of credentials.
@@ -213,6 +217,17 @@ public class CrawlServer implements Serializable, FetchStats.HasFetchStats, Iden
         this.consecutiveConnectionErrors = 0;
     }
 
+    /**
+     * @return running latency/error history of this server, used by 
+     * adaptive politeness
+     */
+    public synchronized ServerPolitenessStats getPolitenessStats() {
+        if (politenessStats == null) {
+            politenessStats = new ServerPolitenessStats();
+        }
+        return politenessStats;
+    }
+
     /**
      * @return Credential avatars for this server.  Returns null if none.
      */
@@ -320,6 +335,7 @@ public class CrawlServer implements Serializable, FetchStats.HasFetchStats, Iden
         kryo.register(CrawlServer.class);
         kryo.autoregister(FetchStats.class); 
         kryo.autoregister(Robotstxt.class);
+        kryo.autoregister(ServerPolitenessStats.class);
         kryo.setRegistrationOptional(true); 
     }
     
@@ -0,0 +1,117 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.modules.net;
+
+import java.io.Serializable;
+
+/**
+ * Running history of a server's responsiveness, used to adapt politeness
+ * delays: exponentially-weighted moving averages of fetch latency, error
+ * rate, and "distress" rate (429/503 responses and connection failures),
+ * plus a delay scale which grows on distress and relaxes on healthy
+ * fetches.
+ */
+public class ServerPolitenessStats implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    /** EWMA of fetch duration in ms; negative until first sample */
+    protected double latencyMs = -1;
+    /** EWMA of fraction of fetches which were errors */
+    protected double errorRate = 0;
+    /** EWMA of fraction of fetches showing server distress */
+    protected double distressRate = 0;
+    /** multiple applied to the usual delay-factor-derived delay */
+    protected double delayScale = 1.0;
+    /** time (ms since epoch) before which server asked not to be contacted */
+    protected long retryAfterTime = 0;
+    protected long samples = 0;
+
+    /**
+     * Note the outcome of one fetch.
+     *
+     * @param durationMs time fetch took
+     * @param error whether the fetch failed or got an error response
+     * @param distress whether the server signaled overload
+     * @param smoothing weight (0-1] given the new sample in averages
+     */
+    public synchronized void noteFetch(long durationMs, boolean error,
+            boolean distress, double smoothing) {
+        if (latencyMs < 0) {
+            latencyMs = durationMs;
+        } else {
+            latencyMs += smoothing * (durationMs - latencyMs);
+        }
+        errorRate += smoothing * ((error ? 1.0 : 0.0) - errorRate);
+        distressRate += smoothing * ((distress ? 1.0 : 0.0) - distressRate);
+        samples++;
+    }
+
+    /**
+     * Multiply the delay scale by the given factor, keeping it within
+     * the given bounds.
+     *
+     * @return the new delay scale
+     */
+    public synchronized double adjustDelayScale(double factor, 
+            double minScale, double maxScale) {
+        delayScale = Math.max(minScale, Math.min(maxScale, delayScale * factor));
+        return delayScale;
+    }
+
+    /**
+     * Note server's request (as by a Retry-After header) not to be
+     * contacted before the given time.
+     */
+    public synchronized void setRetryAfterTime(long time) {
+        retryAfterTime = Math.max(retryAfterTime, time);
+    }
+
+    public synchronized long getRetryAfterTime() {
+        return retryAfterTime;
+    }
+
+    public synchronized double getLatencyMs() {
+        return latencyMs;
+    }
+
+    public synchronized double getErrorRate() {
+        return errorRate;
+    }
+
+    public synchronized double getDistressRate() {
+        return distressRate;
+    }
+
+    public synchronized double getDelayScale() {
+        return delayScale;
+    }
+
+    public synchronized long getSamples() {
+        return samples;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "latencyMs=" + Math.round(latencyMs) 
+            + " errorRate=" + errorRate 
+            + " distressRate=" + distressRate
+            + " delayScale=" + delayScale;
+    }
+}
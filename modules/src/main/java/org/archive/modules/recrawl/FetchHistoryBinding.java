@@ -0,0 +1,159 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.modules.recrawl;
+
+import static org.archive.modules.CoreAttributeConstants.A_FETCH_BEGAN_TIME;
+import static org.archive.modules.recrawl.RecrawlAttributeConstants.A_CONTENT_DIGEST;
+import static org.archive.modules.recrawl.RecrawlAttributeConstants.A_ETAG_HEADER;
+import static org.archive.modules.recrawl.RecrawlAttributeConstants.A_FETCH_HISTORY;
+import static org.archive.modules.recrawl.RecrawlAttributeConstants.A_LAST_MODIFIED_HEADER;
+import static org.archive.modules.recrawl.RecrawlAttributeConstants.A_REFERENCE_LENGTH;
+import static org.archive.modules.recrawl.RecrawlAttributeConstants.A_STATUS;
+import static org.archive.modules.recrawl.RecrawlAttributeConstants.A_WRITE_TAG;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import com.sleepycat.bind.tuple.TupleBinding;
+import com.sleepycat.bind.tuple.TupleInput;
+import com.sleepycat.bind.tuple.TupleOutput;
+
+/**
+ * Compact, fixed-schema binding for URI fetch history, as an alternative to
+ * Java serialization of a CrawlURI's entire data map. Only the fetch
+ * history entries' usual fields (status, fetch time, content digest, etag,
+ * last-modified, reference length, write tag) are stored; any other data
+ * is dropped.
+ * 
+ * <p>Each record is a format version byte, the history length, then per
+ * history entry a bitmask of present fields followed by those fields in
+ * packed binary form.
+ */
+@SuppressWarnings("rawtypes")
+public class FetchHistoryBinding extends TupleBinding<Map> {
+    protected static final byte FORMAT_VERSION = 1;
+
+    protected static final int HAS_STATUS = 1;
+    protected static final int HAS_FETCH_BEGAN_TIME = 1 << 1;
+    protected static final int HAS_CONTENT_DIGEST = 1 << 2;
+    protected static final int HAS_ETAG = 1 << 3;
+    protected static final int HAS_LAST_MODIFIED = 1 << 4;
+    protected static final int HAS_REFERENCE_LENGTH = 1 << 5;
+    protected static final int HAS_WRITE_TAG = 1 << 6;
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public Map entryToObject(TupleInput input) {
+        byte version = input.readByte();
+        if (version != FORMAT_VERSION) {
+            throw new IllegalArgumentException("unknown fetch history format " + version);
+        }
+        Map<String,Object> result = new HashMap<String,Object>();
+        int length = input.readPackedInt();
+        if (length > 0) {
+            HashMap<String,Object>[] history = new HashMap[length];
+            for (int i = 0; i < length; i++) {
+                int fields = input.readUnsignedByte();
+                if (fields == 0) {
+                    continue;
+                }
+                HashMap<String,Object> entry = new HashMap<String,Object>();
+                if ((fields & HAS_STATUS) != 0) {
+                    entry.put(A_STATUS, input.readPackedInt());
+                }
+                if ((fields & HAS_FETCH_BEGAN_TIME) != 0) {
+                    entry.put(A_FETCH_BEGAN_TIME, input.readPackedLong());
+                }
+                if ((fields & HAS_CONTENT_DIGEST) != 0) {
+                    entry.put(A_CONTENT_DIGEST, input.readString());
+                }
+                if ((fields & HAS_ETAG) != 0) {
+                    entry.put(A_ETAG_HEADER, input.readString());
+                }
+                if ((fields & HAS_LAST_MODIFIED) != 0) {
+                    entry.put(A_LAST_MODIFIED_HEADER, input.readString());
+                }
+                if ((fields & HAS_REFERENCE_LENGTH) != 0) {
+                    entry.put(A_REFERENCE_LENGTH, input.readPackedLong());
+                }
+                if ((fields & HAS_WRITE_TAG) != 0) {
+                    entry.put(A_WRITE_TAG, input.readString());
+                }
+                history[i] = entry;
+            }
+            result.put(A_FETCH_HISTORY, history);
+        }
+        return result;
+    }
+
+    @Override
+    public void objectToEntry(Map data, TupleOutput output) {
+        output.writeByte(FORMAT_VERSION);
+        Map[] history = (Map[]) data.get(A_FETCH_HISTORY);
+        if (history == null) {
+            output.writePackedInt(0);
+            return;
+        }
+        output.writePackedInt(history.length);
+        for (Map entry : history) {
+            if (entry == null) {
+                output.writeByte(0);
+                continue;
+            }
+            Object status = entry.get(A_STATUS);
+            Object fetchBeganTime = entry.get(A_FETCH_BEGAN_TIME);
+            Object digest = entry.get(A_CONTENT_DIGEST);
+            Object etag = entry.get(A_ETAG_HEADER);
+            Object lastModified = entry.get(A_LAST_MODIFIED_HEADER);
+            Object referenceLength = entry.get(A_REFERENCE_LENGTH);
+            Object writeTag = entry.get(A_WRITE_TAG);
+            int fields = (status != null ? HAS_STATUS : 0)
+                    | (fetchBeganTime != null ? HAS_FETCH_BEGAN_TIME : 0)
+                    | (digest != null ? HAS_CONTENT_DIGEST : 0)
+                    | (etag != null ? HAS_ETAG : 0)
+                    | (lastModified != null ? HAS_LAST_MODIFIED : 0)
+                    | (referenceLength != null ? HAS_REFERENCE_LENGTH : 0)
+                    | (writeTag != null ? HAS_WRITE_TAG : 0);
+            // an entry with no known fields is still an entry, not null
+            output.writeByte(fields != 0 ? fields : 0x80);
+            if (status != null) {
+                output.writePackedInt(((Number) status).intValue());
+            }
+            if (fetchBeganTime != null) {
+                output.writePackedLong(((Number) fetchBeganTime).longValue());
+            }
+            if (digest != null) {
+                output.writeString(digest.toString());
+            }
+            if (etag != null) {
+                output.writeString(etag.toString());
+            }
+            if (lastModified != null) {
+                output.writeString(lastModified.toString());
+            }
+            if (referenceLength != null) {
+                output.writePackedLong(((Number) referenceLength).longValue());
+            }
+            if (writeTag != null) {
+                output.writeString(writeTag.toString());
+            }
+        }
+    }
+}
@@ -0,0 +1,716 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.modules.recrawl;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+import org.archive.checkpointing.Checkpoint;
+import org.archive.checkpointing.Checkpointable;
+import org.archive.modules.CrawlURI;
+import org.archive.spring.ConfigPath;
+import org.archive.util.FileUtils;
+import org.springframework.context.Lifecycle;
+
+/**
+ * Content digest history store backed by a memory-mapped, open-addressing
+ * hash table, as an alternative to {@link BdbContentDigestHistory}. Payload
+ * digests are uniformly random, so once a BDB-backed history outgrows the
+ * JE cache nearly every lookup misses the cache; here a lookup touches one
+ * page of the table and one page of the history log.
+ * 
+ * <p>Histories are appended to a log, each record carrying the raw digest,
+ * its key, and the history map (original URL, WARC record id, filename,
+ * offset, date, count). The table has fixed-size slots, each holding a
+ * digest prefix and the log position of the digest's latest record. The
+ * log is the record of truth: the table is persisted on {@link #stop()}
+ * and at each checkpoint, along with how much of the log it covers, and on
+ * start any later log records are replayed into it (or, if the table is 
+ * missing or unusable, the whole log). A torn record at the end of the log,
+ * as from a crash, is truncated away. After a crash the table may already
+ * hold some of the replayed records, so the digest count is recounted from
+ * the table, and if any slot points past the end of the surviving log the
+ * table is rebuilt from the whole log.
+ * 
+ * <p>Must be a toplevel bean in crawler-beans.cxml in order to receive
+ * {@link Lifecycle} events.
+ * 
+ * @see AbstractContentDigestHistory
+ */
+public class MappedContentDigestHistory extends AbstractContentDigestHistory 
+implements Checkpointable, Lifecycle {
+
+    private static final Logger logger = 
+            Logger.getLogger(MappedContentDigestHistory.class.getName());
+
+    protected static final String INDEX_FILENAME = "digest-index.dat";
+    protected static final String HEADER_FILENAME = "digest-index.header";
+    protected static final String LOG_FILENAME = "digest-history.log";
+    protected static final int HEADER_MAGIC = 0x48444932; // "HDI2"
+
+    /** bytes per hash table slot */
+    protected static final int SLOT_BYTES = 32;
+    /** offset within slot of (log position + 1) of record; 0 if slot empty */
+    protected static final int SLOT_LOG_POSITION = 0;
+    /** offset within slot of digest length */
+    protected static final int SLOT_DIGEST_LENGTH = 8;
+    /** offset within slot of digest prefix */
+    protected static final int SLOT_DIGEST = 9;
+    /** digest bytes kept in slot */
+    protected static final int SLOT_DIGEST_BYTES = SLOT_BYTES - SLOT_DIGEST;
+    /** bytes per mapped region of the table; a multiple of SLOT_BYTES */
+    protected static final int SEGMENT_BYTES = 1 << 30;
+    /** bytes of log record header: payload length, payload crc */
+    protected static final int RECORD_HEADER_BYTES = 8;
+
+    protected static final byte TYPE_STRING = 'S';
+    protected static final byte TYPE_INT = 'I';
+    protected static final byte TYPE_LONG = 'J';
+
+    /**
+     * Directory for the history log and hash table.
+     */
+    protected ConfigPath dir = new ConfigPath("content digest history directory", "digestHistory");
+    public ConfigPath getDir() {
+        return dir;
+    }
+    public void setDir(ConfigPath dir) {
+        this.dir = dir;
+    }
+
+    /**
+     * Initial number of hash table slots (rounded up to a power of 2). The
+     * table doubles when more than {@link #getMaxLoadFactor()} full; size 
+     * this to the expected number of distinct digests to avoid rehashing 
+     * during the crawl. Each slot takes {@value #SLOT_BYTES} bytes.
+     */
+    protected long initialCapacity = 1 << 20;
+    public long getInitialCapacity() {
+        return initialCapacity;
+    }
+    public void setInitialCapacity(long initialCapacity) {
+        this.initialCapacity = initialCapacity;
+    }
+
+    /**
+     * Fraction of hash table slots which may be full before the table is
+     * doubled. Lower values mean shorter probe sequences.
+     */
+    protected float maxLoadFactor = 0.7f;
+    public float getMaxLoadFactor() {
+        return maxLoadFactor;
+    }
+    public void setMaxLoadFactor(float maxLoadFactor) {
+        this.maxLoadFactor = maxLoadFactor;
+    }
+
+    protected RandomAccessFile logFile;
+    protected FileChannel logChannel;
+    protected long logLength;
+
+    protected MappedByteBuffer[] segments;
+    /** number of slots; a power of 2 */
+    protected long capacity;
+    /** number of full slots */
+    protected long count;
+    /** whether the header read on start was written by a clean stop */
+    protected boolean cleanShutdown;
+
+    /** readers share the table and log; appends and rehashing are exclusive */
+    protected final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    @Override
+    public void start() {
+        if (isRunning()) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            File directory = getDir().getFile();
+            FileUtils.ensureWriteableDirectory(directory);
+            logFile = new RandomAccessFile(new File(directory, LOG_FILENAME), "rw");
+            logChannel = logFile.getChannel();
+
+            File index = new File(directory, INDEX_FILENAME);
+            long indexedLogLength = readHeader(new File(directory, HEADER_FILENAME));
+            if (indexedLogLength < 0 || indexedLogLength > logChannel.size()
+                    || index.length() != capacity * SLOT_BYTES) {
+                // no usable table: rebuild from whole log
+                resetIndex(index);
+                indexedLogLength = 0;
+                cleanShutdown = true;
+            }
+            segments = mapIndex(index, capacity);
+            replayLog(indexedLogLength);
+            if (!cleanShutdown && !recountSlots()) {
+                logger.warning("content digest index refers past end of " 
+                        + LOG_FILENAME + "; rebuilding from whole log");
+                resetIndex(index);
+                segments = mapIndex(index, capacity);
+                replayLog(0);
+            }
+            // until the next clean stop, a restart must not trust the count
+            saveIndex(false);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return segments != null;
+    }
+
+    @Override
+    public void stop() {
+        if (!isRunning()) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            saveIndex(true);
+            logFile.close();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            segments = null;
+            logFile = null;
+            logChannel = null;
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void startCheckpoint(Checkpoint checkpointInProgress) {
+    }
+
+    @Override
+    public void doCheckpoint(Checkpoint checkpointInProgress) throws IOException {
+        lock.writeLock().lock();
+        try {
+            if (isRunning()) {
+                saveIndex(false);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void finishCheckpoint(Checkpoint checkpointInProgress) {
+    }
+
+    @Override
+    public void setRecoveryCheckpoint(Checkpoint recoveryCheckpoint) {
+        // log and table in the history directory are recovered on start
+    }
+
+    /**
+     * Force the table and log to disk, then record in the header how much 
+     * of the log the table covers. Caller must hold the write lock.
+     * 
+     * @param clean whether this is a clean stop, after which the header's
+     *   count may be trusted
+     */
+    protected void saveIndex(boolean clean) throws IOException {
+        for (MappedByteBuffer segment : segments) {
+            segment.force();
+        }
+        logChannel.force(true);
+        writeHeader(new File(getDir().getFile(), HEADER_FILENAME), clean);
+    }
+
+    protected void resetIndex(File index) throws IOException {
+        if (index.exists() && !index.delete()) {
+            throw new IOException("unable to delete " + index);
+        }
+        capacity = Long.highestOneBit(Math.max(15, initialCapacity - 1)) << 1;
+        count = 0;
+    }
+
+    /**
+     * Set the count from the full slots of the table, rehashing if that
+     * leaves it too full. Needed after an unclean stop, when the table may 
+     * have been saved with slots added after the header was written.
+     * 
+     * @return false if some slot points past the end of the log
+     */
+    protected boolean recountSlots() throws IOException {
+        long full = 0;
+        for (long slot = 0; slot < capacity; slot++) {
+            long position = segmentFor(segments, slot).getLong(offsetOf(slot) + SLOT_LOG_POSITION) - 1;
+            if (position >= logLength) {
+                return false;
+            }
+            if (position >= 0) {
+                full++;
+            }
+        }
+        if (full != count) {
+            logger.info("recounted " + full + " digests in content digest index (header had "
+                    + count + ")");
+            count = full;
+        }
+        while (count > capacity * maxLoadFactor) {
+            rehash(capacity * 2);
+        }
+        return true;
+    }
+
+    /**
+     * Read table size, count, and the log length covered by the table, as
+     * of the last stop or checkpoint.
+     * 
+     * @return log length covered, or -1 if no usable header
+     */
+    protected long readHeader(File headerFile) {
+        if (!headerFile.exists()) {
+            return -1;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new FileInputStream(headerFile));
+            if (in.readInt() != HEADER_MAGIC) {
+                logger.warning("ignoring unrecognized " + headerFile);
+                return -1;
+            }
+            capacity = in.readLong();
+            count = in.readLong();
+            long indexedLogLength = in.readLong();
+            cleanShutdown = in.readBoolean();
+            return indexedLogLength;
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "ignoring unreadable " + headerFile, e);
+            return -1;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+        }
+    }
+
+    protected void writeHeader(File headerFile, boolean clean) throws IOException {
+        File tmp = new File(headerFile.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(tmp));
+        try {
+            out.writeInt(HEADER_MAGIC);
+            out.writeLong(capacity);
+            out.writeLong(count);
+            out.writeLong(logLength);
+            out.writeBoolean(clean);
+        } finally {
+            out.close();
+        }
+        if (!tmp.renameTo(headerFile)) {
+            throw new IOException("unable to rename " + tmp + " to " + headerFile);
+        }
+    }
+
+    protected static MappedByteBuffer[] mapIndex(File index, long slots) throws IOException {
+        long bytes = slots * SLOT_BYTES;
+        MappedByteBuffer[] mapped = new MappedByteBuffer[(int) ((bytes + SEGMENT_BYTES - 1) / SEGMENT_BYTES)];
+        RandomAccessFile raf = new RandomAccessFile(index, "rw");
+        try {
+            raf.setLength(bytes);
+            for (int i = 0; i < mapped.length; i++) {
+                long start = (long) i * SEGMENT_BYTES;
+                mapped[i] = raf.getChannel().map(FileChannel.MapMode.READ_WRITE,
+                        start, Math.min(SEGMENT_BYTES, bytes - start));
+            }
+        } finally {
+            // mappings remain valid after close
+            raf.close();
+        }
+        return mapped;
+    }
+
+    /**
+     * Index all log records from the given position, truncating any torn 
+     * record at the end of the log.
+     */
+    protected void replayLog(long from) throws IOException {
+        long size = logChannel.size();
+        long position = from;
+        long replayed = 0;
+        // kept current so a rehash during replay saves a consistent header
+        logLength = from;
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_BYTES);
+        while (position + RECORD_HEADER_BYTES <= size) {
+            header.clear();
+            readFully(position, header);
+            int length = header.getInt(0);
+            if (length <= 0 || position + RECORD_HEADER_BYTES + length > size) {
+                break;
+            }
+            ByteBuffer payload = ByteBuffer.allocate(length);
+            readFully(position + RECORD_HEADER_BYTES, payload);
+            if (crcOf(payload.array()) != header.getInt(4)) {
+                break;
+            }
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload.array()));
+            byte[] digest = new byte[in.readUnsignedShort()];
+            in.readFully(digest);
+            put(digest, position);
+            position += RECORD_HEADER_BYTES + length;
+            logLength = position;
+            replayed++;
+        }
+        if (position < size) {
+            logger.warning("truncating " + (size - position) 
+                    + " bytes of incomplete records from end of " + LOG_FILENAME);
+            logChannel.truncate(position);
+        }
+        logLength = position;
+        if (replayed > 0) {
+            logger.info("indexed " + replayed + " content digest history records from " 
+                    + LOG_FILENAME + "; " + count + " digests in " + capacity + " slots");
+        }
+    }
+
+    protected void readFully(long position, ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) {
+            if (logChannel.read(buf, position + buf.position()) < 0) {
+                throw new EOFException();
+            }
+        }
+    }
+
+    protected static int crcOf(byte[] bytes) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, bytes.length);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Slot hash from leading digest bytes, which are kept in the slot, so
+     * the table can be rehashed without consulting the log. Digests are
+     * presumed well distributed, but are mixed anyway.
+     */
+    protected static long hashOf(byte[] digest, int length) {
+        long h = 0;
+        for (int i = 0; i < 8; i++) {
+            h = (h << 8) | (i < length ? digest[i] & 0xff : 0);
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    protected static ByteBuffer segmentFor(MappedByteBuffer[] table, long slot) {
+        return table[(int) (slot * SLOT_BYTES / SEGMENT_BYTES)];
+    }
+
+    protected static int offsetOf(long slot) {
+        return (int) (slot * SLOT_BYTES % SEGMENT_BYTES);
+    }
+
+    /**
+     * Whether the slot holds the given digest. Only the leading 
+     * {@value #SLOT_DIGEST_BYTES} bytes are compared; callers reading the 
+     * log record compare the full key.
+     */
+    protected static boolean slotMatches(ByteBuffer segment, int offset, byte[] digest) {
+        if ((segment.get(offset + SLOT_DIGEST_LENGTH) & 0xff) != Math.min(digest.length, 255)) {
+            return false;
+        }
+        int n = Math.min(digest.length, SLOT_DIGEST_BYTES);
+        for (int i = 0; i < n; i++) {
+            if (segment.get(offset + SLOT_DIGEST + i) != digest[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return slot holding digest, or else empty slot where it belongs
+     */
+    protected long probe(byte[] digest) {
+        long mask = capacity - 1;
+        long slot = hashOf(digest, Math.min(digest.length, SLOT_DIGEST_BYTES)) & mask;
+        while (true) {
+            ByteBuffer segment = segmentFor(segments, slot);
+            int offset = offsetOf(slot);
+            if (segment.getLong(offset + SLOT_LOG_POSITION) == 0 
+                    || slotMatches(segment, offset, digest)) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    /**
+     * Point digest's slot at the given log position. Caller must hold the 
+     * write lock.
+     */
+    protected void put(byte[] digest, long logPosition) throws IOException {
+        long slot = probe(digest);
+        ByteBuffer segment = segmentFor(segments, slot);
+        int offset = offsetOf(slot);
+        if (segment.getLong(offset + SLOT_LOG_POSITION) == 0) {
+            segment.put(offset + SLOT_DIGEST_LENGTH, (byte) Math.min(digest.length, 255));
+            for (int i = 0; i < Math.min(digest.length, SLOT_DIGEST_BYTES); i++) {
+                segment.put(offset + SLOT_DIGEST + i, digest[i]);
+            }
+            count++;
+        }
+        segment.putLong(offset + SLOT_LOG_POSITION, logPosition + 1);
+        if (count > capacity * maxLoadFactor) {
+            rehash(capacity * 2);
+        }
+    }
+
+    /**
+     * Move all slots to a new table of the given size, built alongside the
+     * current one and then renamed over it. The header is rewritten to match,
+     * so that a restart after a crash can still use the new table.
+     */
+    protected void rehash(long newCapacity) throws IOException {
+        File index = new File(getDir().getFile(), INDEX_FILENAME);
+        File tmp = new File(index.getPath() + ".tmp");
+        MappedByteBuffer[] newSegments = mapIndex(tmp, newCapacity);
+        long mask = newCapacity - 1;
+        byte[] slotBytes = new byte[SLOT_BYTES];
+        for (long slot = 0; slot < capacity; slot++) {
+            ByteBuffer segment = segmentFor(segments, slot);
+            int offset = offsetOf(slot);
+            if (segment.getLong(offset + SLOT_LOG_POSITION) == 0) {
+                continue;
+            }
+            for (int i = 0; i < SLOT_BYTES; i++) {
+                slotBytes[i] = segment.get(offset + i);
+            }
+            int digestLength = Math.min(slotBytes[SLOT_DIGEST_LENGTH] & 0xff, SLOT_DIGEST_BYTES);
+            byte[] digestPrefix = new byte[digestLength];
+            System.arraycopy(slotBytes, SLOT_DIGEST, digestPrefix, 0, digestLength);
+            long newSlot = hashOf(digestPrefix, digestLength) & mask;
+            while (segmentFor(newSegments, newSlot).getLong(offsetOf(newSlot) + SLOT_LOG_POSITION) != 0) {
+                newSlot = (newSlot + 1) & mask;
+            }
+            ByteBuffer newSegment = segmentFor(newSegments, newSlot);
+            int newOffset = offsetOf(newSlot);
+            for (int i = 0; i < SLOT_BYTES; i++) {
+                newSegment.put(newOffset + i, slotBytes[i]);
+            }
+        }
+        if (!tmp.renameTo(index)) {
+            throw new IOException("unable to rename " + tmp + " to " + index);
+        }
+        segments = newSegments;
+        capacity = newCapacity;
+        saveIndex(false);
+        if (logger.isLoggable(Level.FINE)) {
+            logger.fine("rehashed content digest index to " + capacity + " slots");
+        }
+    }
+
+    /**
+     * Read the history map from the log record at the given position. 
+     * 
+     * @return history map, or null if the record is not for the given key
+     */
+    protected Map<String, Object> readRecord(long position, String key) throws IOException {
+        if (position + RECORD_HEADER_BYTES > logLength) {
+            return null;
+        }
+        // usually the whole record, in one read
+        ByteBuffer buf = ByteBuffer.allocate(512);
+        buf.limit((int) Math.min(buf.capacity(), logLength - position));
+        readFully(position, buf);
+        int length = buf.getInt(0);
+        if (length <= 0 || position + RECORD_HEADER_BYTES + length > logLength) {
+            return null;
+        }
+        if (RECORD_HEADER_BYTES + length > buf.capacity()) {
+            ByteBuffer whole = ByteBuffer.allocate(RECORD_HEADER_BYTES + length);
+            buf.flip();
+            whole.put(buf);
+            readFully(position, whole);
+            buf = whole;
+        }
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(
+                buf.array(), RECORD_HEADER_BYTES, length));
+        in.skipBytes(in.readUnsignedShort());
+        if (!key.equals(in.readUTF())) {
+            return null;
+        }
+        int entries = in.readInt();
+        Map<String, Object> history = new HashMap<String, Object>(entries * 2);
+        for (int i = 0; i < entries; i++) {
+            String name = in.readUTF();
+            byte type = in.readByte();
+            if (type == TYPE_STRING) {
+                byte[] utf8 = new byte[in.readInt()];
+                in.readFully(utf8);
+                history.put(name, new String(utf8, "UTF-8"));
+            } else if (type == TYPE_INT) {
+                history.put(name, in.readInt());
+            } else if (type == TYPE_LONG) {
+                history.put(name, in.readLong());
+            } else {
+                throw new IOException("unknown value type " + type + " in record at " + position);
+            }
+        }
+        return history;
+    }
+
+    /**
+     * Encode a log record: payload length and crc, then digest, key, and
+     * history entries. Entries of types other than String, Integer and 
+     * Long are not stored.
+     */
+    protected static byte[] encodeRecord(byte[] digest, String key, Map<String, Object> history) 
+            throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeShort(digest.length);
+        out.write(digest);
+        out.writeUTF(key);
+        int entries = 0;
+        for (Object value : history.values()) {
+            if (value instanceof String || value instanceof Integer || value instanceof Long) {
+                entries++;
+            }
+        }
+        out.writeInt(entries);
+        for (Map.Entry<String, Object> entry : history.entrySet()) {
+            Object value = entry.getValue();
+            if (value instanceof String) {
+                out.writeUTF(entry.getKey());
+                out.writeByte(TYPE_STRING);
+                byte[] utf8 = ((String) value).getBytes("UTF-8");
+                out.writeInt(utf8.length);
+                out.write(utf8);
+            } else if (value instanceof Integer) {
+                out.writeUTF(entry.getKey());
+                out.writeByte(TYPE_INT);
+                out.writeInt((Integer) value);
+            } else if (value instanceof Long) {
+                out.writeUTF(entry.getKey());
+                out.writeByte(TYPE_LONG);
+                out.writeLong((Long) value);
+            } else if (value != null) {
+                logger.warning("not storing content digest history entry " 
+                        + entry.getKey() + " of type " + value.getClass().getName());
+            }
+        }
+        out.flush();
+        byte[] payload = bytes.toByteArray();
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_BYTES + payload.length);
+        record.putInt(payload.length);
+        record.putInt(crcOf(payload));
+        record.put(payload);
+        return record.array();
+    }
+
+    @Override
+    public void load(CrawlURI curi) {
+        // make this call in all cases so that the value is initialized and
+        // WARCWriterProcessor knows it should put the info in there
+        HashMap<String, Object> contentDigestHistory = curi.getContentDigestHistory();
+
+        String key = persistKeyFor(curi);
+        Map<String, Object> loadedHistory = null;
+        lock.readLock().lock();
+        try {
+            long slot = probe(curi.getContentDigest());
+            long position = segmentFor(segments, slot).getLong(offsetOf(slot) + SLOT_LOG_POSITION) - 1;
+            if (position >= 0) {
+                loadedHistory = readRecord(position, key);
+            }
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "problem loading history by digest " + key 
+                    + " for uri " + curi, e);
+        } finally {
+            lock.readLock().unlock();
+        }
+        if (loadedHistory != null) {
+            if (logger.isLoggable(Level.FINER)) {
+                logger.finer("loaded history by digest " + key
+                        + " for uri " + curi + " - " + loadedHistory);
+            }
+            contentDigestHistory.putAll(loadedHistory);
+        }
+    }
+
+    @Override
+    public void store(CrawlURI curi) {
+        if (!curi.hasContentDigestHistory()
+                || curi.getContentDigestHistory().isEmpty()) {
+            return;
+        }
+        String key = persistKeyFor(curi);
+        if (logger.isLoggable(Level.FINER)) {
+            logger.finer("storing history by digest " + key
+                    + " for uri " + curi + " - "
+                    + curi.getContentDigestHistory());
+        }
+        byte[] digest = curi.getContentDigest();
+        lock.writeLock().lock();
+        try {
+            ByteBuffer record = ByteBuffer.wrap(
+                    encodeRecord(digest, key, curi.getContentDigestHistory()));
+            long position = logLength;
+            while (record.hasRemaining()) {
+                logChannel.write(record, position + record.position());
+            }
+            logLength += record.capacity();
+            put(digest, position);
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "problem storing history by digest " + key 
+                    + " for uri " + curi, e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return number of distinct digests in the history
+     */
+    public long getCount() {
+        return count;
+    }
+}
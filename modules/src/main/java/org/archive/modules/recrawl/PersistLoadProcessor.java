@@ -20,7 +20,13 @@ package org.archive.modules.recrawl;
 
 import java.io.IOException;
 import java.net.URL;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -29,6 +35,7 @@ import org.archive.modules.CrawlURI;
 import org.archive.spring.ConfigFile;
 import org.archive.spring.ConfigPath;
 
+import com.sleepycat.collections.StoredIterator;
 import com.sleepycat.je.DatabaseException;
 
 /**
@@ -81,12 +88,74 @@ public class PersistLoadProcessor extends PersistOnlineProcessor {
         this.preloadSourceUrl = preloadSourceUrl;
     }
     
+    /**
+     * Whether, on the first lookup for a host, to read the history of up to
+     * prefetchMaxPerHost of that host's URIs in one sequential scan (keys
+     * are SURT-ordered, so a host's history is contiguous), answering later
+     * lookups for the host from memory. As a host's URIs are crawled from
+     * one queue, this replaces many random reads with one range read 
+     * per queue. If the scan read all of a host's history, first lookups 
+     * of URIs not found in it are answered (with no history) without
+     * reading the store at all.
+     */
+    protected boolean prefetchHostHistory = false;
+    public boolean getPrefetchHostHistory() {
+        return prefetchHostHistory;
+    }
+    public void setPrefetchHostHistory(boolean prefetchHostHistory) {
+        this.prefetchHostHistory = prefetchHostHistory;
+    }
+    
+    /** Maximum history records prefetched per host. */
+    protected int prefetchMaxPerHost = 1000;
+    public int getPrefetchMaxPerHost() {
+        return prefetchMaxPerHost;
+    }
+    public void setPrefetchMaxPerHost(int prefetchMaxPerHost) {
+        this.prefetchMaxPerHost = prefetchMaxPerHost;
+    }
+    
+    /** Maximum number of hosts whose prefetched history is kept. */
+    protected int prefetchMaxHosts = 1000;
+    public int getPrefetchMaxHosts() {
+        return prefetchMaxHosts;
+    }
+    public void setPrefetchMaxHosts(int prefetchMaxHosts) {
+        this.prefetchMaxHosts = prefetchMaxHosts;
+    }
+    
+    /**
+     * History prefetched for one host; only used while synchronized on it.
+     */
+    @SuppressWarnings("rawtypes")
+    protected static class HostHistory {
+        /** prefetched records not yet consumed */
+        protected final Map<String,Map> records = new HashMap<String,Map>();
+        /** 
+         * whether records held all the host's history when read, so that 
+         * a key neither in records nor looked up before has no history
+         */
+        protected boolean exhaustive;
+        /** keys looked up since the prefetch, whose history may since be stored */
+        protected final Set<String> lookedUp = new HashSet<String>();
+    }
+
+    /** 
+     * prefetched history by host key prefix, in access order
+     */
+    protected LinkedHashMap<String,HostHistory> prefetched = 
+        new LinkedHashMap<String,HostHistory>(1024, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+            @Override
+            protected boolean removeEldestEntry(Entry<String,HostHistory> eldest) {
+                return size() > getPrefetchMaxHosts();
+            }
+        };
+    
     @Override
     protected void innerProcess(CrawlURI curi) throws InterruptedException {
         String pkey = persistKeyFor(curi);
-        @SuppressWarnings("unchecked")
-        Map<String, Object> prior = 
-        	(Map<String,Object>) store.get(pkey);
+        Map<String, Object> prior = loadHistory(pkey);
         if(prior!=null) {
             // merge in keys
             prior.keySet().removeAll(curi.getData().keySet());
@@ -94,6 +163,84 @@ public class PersistLoadProcessor extends PersistOnlineProcessor {
         }
     }
 
+    /**
+     * @param pkey persist key, as from {@link #persistKeyFor(CrawlURI)}
+     * @return stored data for key, or null if none
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    protected Map<String,Object> loadHistory(String pkey) {
+        if (getPrefetchHostHistory()) {
+            String hostPrefix = hostPrefixOf(pkey);
+            if (hostPrefix != null) {
+                HostHistory hostHistory = prefetchedFor(hostPrefix);
+                synchronized (hostHistory) {
+                    // each prefetched record is used once: any later lookup
+                    // (as after a refetch) must see the latest stored data
+                    Map found = hostHistory.records.remove(pkey);
+                    if (hostHistory.exhaustive) {
+                        if (hostHistory.lookedUp.size() >= getPrefetchMaxPerHost()) {
+                            // stop remembering; use the store from now on
+                            hostHistory.exhaustive = false;
+                            hostHistory.lookedUp.clear();
+                        } else if (hostHistory.lookedUp.add(pkey) && found == null) {
+                            // first lookup, and none prefetched: none stored
+                            return null;
+                        }
+                    }
+                    if (found != null) {
+                        return found;
+                    }
+                }
+            }
+        }
+        return store.get(pkey);
+    }
+    
+    /**
+     * @return portion of SURT persist key through the end of the host 
+     * (and port), or null if none found
+     */
+    protected static String hostPrefixOf(String pkey) {
+        int close = pkey.indexOf(')');
+        return close > 0 ? pkey.substring(0, close + 1) : null;
+    }
+    
+    /**
+     * Get (reading from the store on first request) the prefetched history
+     * for keys with the given host prefix.
+     */
+    @SuppressWarnings("rawtypes")
+    protected HostHistory prefetchedFor(String hostPrefix) {
+        synchronized (prefetched) {
+            HostHistory hostHistory = prefetched.get(hostPrefix);
+            if (hostHistory != null) {
+                return hostHistory;
+            }
+        }
+        // scan outside lock; a rare concurrent duplicate scan is harmless
+        HostHistory hostHistory = new HostHistory();
+        int max = getPrefetchMaxPerHost();
+        Iterator<Entry<String,Map>> iter = store.subMap(
+                hostPrefix, hostPrefix + Character.MAX_VALUE).entrySet().iterator();
+        try {
+            while (iter.hasNext() && hostHistory.records.size() < max) {
+                Entry<String,Map> entry = iter.next();
+                hostHistory.records.put(entry.getKey(), entry.getValue());
+            }
+            hostHistory.exhaustive = !iter.hasNext();
+        } finally {
+            StoredIterator.close(iter);
+        }
+        synchronized (prefetched) {
+            HostHistory existing = prefetched.get(hostPrefix);
+            if (existing != null) {
+                return existing;
+            }
+            prefetched.put(hostPrefix, hostHistory);
+            return hostHistory;
+        }
+    }
+
     @Override
     protected boolean shouldProcess(CrawlURI uri) {
         return shouldLoad(uri);
@@ -0,0 +1,535 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.modules.recrawl;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.SerializationUtils;
+import org.archive.util.ArchiveUtils;
+
+import com.sleepycat.bind.EntryBinding;
+import com.sleepycat.bind.tuple.StringBinding;
+import com.sleepycat.je.Database;
+import com.sleepycat.je.DatabaseEntry;
+
+/**
+ * Bulk loader of a persist log (as written by {@link PersistLogProcessor})
+ * into a history database, for seeding a crawl with very large prior 
+ * history. 
+ * 
+ * <p>Works in two phases. First, the log is split into runs of 
+ * {@link #getRunSize()} lines, which worker threads decode, re-encode in
+ * the target database's format, sort by key, and write to temporary run
+ * files. Second, the runs are merged and written to the database in key 
+ * order, the access pattern cheapest for a deferred-write btree. As with
+ * a sequential replay of the log, where a key appears more than once the
+ * last occurrence wins.
+ * 
+ * <p>Progress is kept in the work directory: completed run files survive
+ * interruption, and the merge periodically syncs the database and notes 
+ * the last key written. Rerunning with the same source, target, and work
+ * directory resumes where the prior attempt stopped. The work directory is
+ * removed on success.
+ */
+public class PersistLogBulkLoader {
+    private static final Logger logger =
+        Logger.getLogger(PersistLogBulkLoader.class.getName());
+
+    protected static final String MERGE_PROGRESS_FILE = "merge.progress";
+
+    protected File source;
+    protected Database db;
+    @SuppressWarnings("rawtypes")
+    protected EntryBinding<Map> valueBinding;
+    protected File workDir;
+
+    protected int threads = Runtime.getRuntime().availableProcessors();
+    public int getThreads() {
+        return threads;
+    }
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    /** source lines per sorted run; bounds memory used per worker */
+    protected int runSize = 100000;
+    public int getRunSize() {
+        return runSize;
+    }
+    public void setRunSize(int runSize) {
+        this.runSize = runSize;
+    }
+
+    /** most run files merged at once, bounding open files */
+    protected int maxMergeWidth = 256;
+    public int getMaxMergeWidth() {
+        return maxMergeWidth;
+    }
+    public void setMaxMergeWidth(int maxMergeWidth) {
+        this.maxMergeWidth = maxMergeWidth;
+    }
+
+    /** records written between database syncs (and progress notes) */
+    protected int syncInterval = 1000000;
+    public int getSyncInterval() {
+        return syncInterval;
+    }
+    public void setSyncInterval(int syncInterval) {
+        this.syncInterval = syncInterval;
+    }
+
+    /**
+     * @param source persist log file
+     * @param db target database, with String keys
+     * @param valueBinding binding for target database values
+     * @param workDir directory for run files and progress notes
+     */
+    @SuppressWarnings("rawtypes")
+    public PersistLogBulkLoader(File source, Database db,
+            EntryBinding<Map> valueBinding, File workDir) {
+        this.source = source;
+        this.db = db;
+        this.valueBinding = valueBinding;
+        this.workDir = workDir;
+    }
+
+    /**
+     * Load the whole source into the database, resuming any prior
+     * interrupted load using the same work directory.
+     * 
+     * @return number of distinct keys written
+     */
+    public long load() throws IOException, InterruptedException {
+        org.archive.util.FileUtils.ensureWriteableDirectory(workDir);
+        List<File> runs = sortRuns();
+        int level = 0;
+        while (runs.size() > maxMergeWidth) {
+            runs = mergeLevel(runs, ++level);
+        }
+        long count = mergeRuns(runs);
+        FileUtils.deleteDirectory(workDir);
+        return count;
+    }
+
+    protected File runFile(int index) {
+        return new File(workDir, String.format("run-%06d.bin", index));
+    }
+
+    /**
+     * Phase one: split source into sorted run files, in parallel. Runs
+     * already completed by an earlier attempt are reused.
+     * 
+     * @return run files, in source order
+     */
+    protected List<File> sortRuns() throws IOException, InterruptedException {
+        long start = System.currentTimeMillis();
+        List<File> runs = new ArrayList<File>();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        LinkedList<Future<Integer>> inFlight = new LinkedList<Future<Integer>>();
+        BufferedReader reader = ArchiveUtils.getBufferedReader(source);
+        long records = 0;
+        try {
+            int runIndex = 0;
+            while (true) {
+                File run = runFile(runIndex);
+                List<String> lines = run.exists() ? null : new ArrayList<String>(runSize);
+                int read = 0;
+                String line;
+                while (read < runSize && (line = reader.readLine()) != null) {
+                    if (lines != null) {
+                        lines.add(line);
+                    }
+                    read++;
+                }
+                if (read == 0) {
+                    break;
+                }
+                runs.add(run);
+                if (lines != null) {
+                    inFlight.add(pool.submit(new SortRunTask(lines, 
+                            (long) runIndex * runSize, run)));
+                } else {
+                    logger.info("reusing completed " + run);
+                }
+                runIndex++;
+                // bound lines held in memory
+                while (inFlight.size() > threads) {
+                    records += waitFor(inFlight.removeFirst());
+                    logProgress("sorted", records, start);
+                }
+            }
+            while (!inFlight.isEmpty()) {
+                records += waitFor(inFlight.removeFirst());
+                logProgress("sorted", records, start);
+            }
+        } finally {
+            IOUtils.closeQuietly(reader);
+            pool.shutdownNow();
+        }
+        logger.info("sorted " + source + " into " + runs.size() + " runs");
+        return runs;
+    }
+
+    protected int waitFor(Future<Integer> future) throws IOException, InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    protected void logProgress(String what, long records, long startTime) {
+        long elapsed = Math.max(1, System.currentTimeMillis() - startTime);
+        logger.info(what + " " + records + " records in " 
+                + ArchiveUtils.formatMillisecondsToConventional(elapsed) 
+                + " (" + (records * 1000 / elapsed) + "/sec)");
+    }
+
+    /**
+     * One decoded record, with key and value as database bytes.
+     */
+    protected static class Record {
+        protected final long seq;
+        protected final byte[] key;
+        protected final byte[] value;
+
+        protected Record(long seq, byte[] key, byte[] value) {
+            this.seq = seq;
+            this.key = key;
+            this.value = value;
+        }
+
+        protected void writeTo(DataOutputStream out) throws IOException {
+            out.writeLong(seq);
+            out.writeInt(key.length);
+            out.write(key);
+            out.writeInt(value.length);
+            out.write(value);
+        }
+
+        /** @return next record, or null at end of stream */
+        protected static Record readFrom(DataInputStream in) throws IOException {
+            long seq;
+            try {
+                seq = in.readLong();
+            } catch (EOFException e) {
+                return null;
+            }
+            byte[] key = new byte[in.readInt()];
+            in.readFully(key);
+            byte[] value = new byte[in.readInt()];
+            in.readFully(value);
+            return new Record(seq, key, value);
+        }
+    }
+
+    /** 
+     * Database (unsigned bytewise) key order, then source order.
+     */
+    protected static final Comparator<Record> RECORD_ORDER = new Comparator<Record>() {
+        @Override
+        public int compare(Record a, Record b) {
+            int cmp = compareKeys(a.key, b.key);
+            if (cmp != 0) {
+                return cmp;
+            }
+            return a.seq < b.seq ? -1 : (a.seq > b.seq ? 1 : 0);
+        }
+    };
+
+    protected static int compareKeys(byte[] a, byte[] b) {
+        int length = Math.min(a.length, b.length);
+        for (int i = 0; i < length; i++) {
+            int cmp = (a[i] & 0xff) - (b[i] & 0xff);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return a.length - b.length;
+    }
+
+    protected static byte[] bytesOf(DatabaseEntry entry) {
+        return Arrays.copyOfRange(entry.getData(), entry.getOffset(), 
+                entry.getOffset() + entry.getSize());
+    }
+
+    /**
+     * Decode, sort, and write one run of source lines.
+     */
+    protected class SortRunTask implements Callable<Integer> {
+        protected List<String> lines;
+        protected long firstSeq;
+        protected File run;
+
+        protected SortRunTask(List<String> lines, long firstSeq, File run) {
+            this.lines = lines;
+            this.firstSeq = firstSeq;
+            this.run = run;
+        }
+
+        @SuppressWarnings("rawtypes")
+        @Override
+        public Integer call() throws IOException {
+            List<Record> records = new ArrayList<Record>(lines.size());
+            DatabaseEntry keyEntry = new DatabaseEntry();
+            DatabaseEntry valueEntry = new DatabaseEntry();
+            long seq = firstSeq;
+            for (String line : lines) {
+                seq++;
+                if (line.length() == 0) {
+                    continue;
+                }
+                String[] splits = line.split(" ");
+                if (splits.length != 2) {
+                    logger.severe("bad line has " + splits.length + " fields (should be 2): " + line);
+                    continue;
+                }
+                Map alist;
+                try {
+                    alist = (Map) SerializationUtils.deserialize(
+                            Base64.decodeBase64(splits[1].getBytes("UTF-8")));
+                } catch (Exception e) {
+                    logger.severe("caught exception " + e + " deserializing line: " + line);
+                    continue;
+                }
+                StringBinding.stringToEntry(splits[0], keyEntry);
+                valueBinding.objectToEntry(alist, valueEntry);
+                records.add(new Record(seq, bytesOf(keyEntry), bytesOf(valueEntry)));
+            }
+            lines = null;
+            Collections.sort(records, RECORD_ORDER);
+
+            // write under temporary name, so only complete runs are reused
+            File tmp = new File(run.getPath() + ".tmp");
+            DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16));
+            try {
+                for (Record record : records) {
+                    record.writeTo(out);
+                }
+            } finally {
+                out.close();
+            }
+            if (!tmp.renameTo(run)) {
+                throw new IOException("unable to rename " + tmp + " to " + run);
+            }
+            return records.size();
+        }
+    }
+
+    /**
+     * Source of records from one run file, for merging.
+     */
+    protected static class RunReader {
+        protected DataInputStream in;
+        protected Record current;
+
+        protected RunReader(File run) throws IOException {
+            in = new DataInputStream(new BufferedInputStream(
+                    new FileInputStream(run), 1 << 16));
+            advance();
+        }
+
+        protected void advance() throws IOException {
+            current = Record.readFrom(in);
+            if (current == null) {
+                in.close();
+            }
+        }
+    }
+
+    /**
+     * Merge groups of runs into fewer, longer runs, keeping all records.
+     * Inputs are kept (until the whole load completes) so that an 
+     * interrupted load can resume.
+     * 
+     * @return merged run files
+     */
+    protected List<File> mergeLevel(List<File> runs, int level) throws IOException {
+        List<File> merged = new ArrayList<File>();
+        for (int i = 0; i < runs.size(); i += maxMergeWidth) {
+            File out = new File(workDir, 
+                    String.format("merge-%d-%06d.bin", level, merged.size()));
+            merged.add(out);
+            if (out.exists()) {
+                continue;
+            }
+            List<File> group = runs.subList(i, Math.min(runs.size(), i + maxMergeWidth));
+            File tmp = new File(out.getPath() + ".tmp");
+            DataOutputStream dataOut = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16));
+            List<RunReader> readers = new ArrayList<RunReader>();
+            try {
+                PriorityQueue<RunReader> queue = openRuns(group, readers);
+                RunReader reader;
+                while ((reader = queue.poll()) != null) {
+                    reader.current.writeTo(dataOut);
+                    reader.advance();
+                    if (reader.current != null) {
+                        queue.add(reader);
+                    }
+                }
+            } finally {
+                dataOut.close();
+                for (RunReader reader : readers) {
+                    IOUtils.closeQuietly(reader.in);
+                }
+            }
+            if (!tmp.renameTo(out)) {
+                throw new IOException("unable to rename " + tmp + " to " + out);
+            }
+        }
+        logger.info("merged " + runs.size() + " runs into " + merged.size());
+        return merged;
+    }
+
+    /**
+     * Open the given runs, adding readers to the given list (for later
+     * closing).
+     * 
+     * @return queue of nonempty runs, in order of their current records
+     */
+    protected PriorityQueue<RunReader> openRuns(List<File> runs, 
+            List<RunReader> readers) throws IOException {
+        PriorityQueue<RunReader> queue = new PriorityQueue<RunReader>(
+                Math.max(1, runs.size()), new Comparator<RunReader>() {
+                    @Override
+                    public int compare(RunReader a, RunReader b) {
+                        return RECORD_ORDER.compare(a.current, b.current);
+                    }
+                });
+        for (File run : runs) {
+            RunReader reader = new RunReader(run);
+            readers.add(reader);
+            if (reader.current != null) {
+                queue.add(reader);
+            }
+        }
+        return queue;
+    }
+
+    /**
+     * Phase two: merge runs into the database in key order, keeping the
+     * last-in-source record for each key. Resumes after the last key noted
+     * as synced by an earlier attempt.
+     * 
+     * @return number of keys written (including any by earlier attempts)
+     */
+    protected long mergeRuns(List<File> runs) throws IOException {
+        long start = System.currentTimeMillis();
+        File progressFile = new File(workDir, MERGE_PROGRESS_FILE);
+        byte[] resumeAfter = null;
+        long count = 0;
+        if (progressFile.exists()) {
+            String[] progress = FileUtils.readFileToString(progressFile).trim().split(" ");
+            count = Long.parseLong(progress[0]);
+            resumeAfter = Base64.decodeBase64(progress[1].getBytes("UTF-8"));
+            logger.info("resuming merge after " + count + " records");
+        }
+
+        List<RunReader> readers = new ArrayList<RunReader>();
+        try {
+            PriorityQueue<RunReader> queue = openRuns(runs, readers);
+            DatabaseEntry keyEntry = new DatabaseEntry();
+            DatabaseEntry valueEntry = new DatabaseEntry();
+            long sinceSync = 0;
+            Record pending = null;
+            while (true) {
+                RunReader reader = queue.poll();
+                Record next = reader != null ? reader.current : null;
+                if (pending != null 
+                        && (next == null || compareKeys(pending.key, next.key) != 0)) {
+                    // pending is last occurrence of its key
+                    if (resumeAfter == null || compareKeys(pending.key, resumeAfter) > 0) {
+                        keyEntry.setData(pending.key);
+                        valueEntry.setData(pending.value);
+                        db.put(null, keyEntry, valueEntry);
+                        count++;
+                        if (++sinceSync >= syncInterval) {
+                            db.sync();
+                            noteProgress(progressFile, count, pending.key);
+                            logProgress("merged", count, start);
+                            sinceSync = 0;
+                        }
+                    }
+                }
+                if (next == null) {
+                    break;
+                }
+                pending = next;
+                reader.advance();
+                if (reader.current != null) {
+                    queue.add(reader);
+                }
+            }
+            db.sync();
+        } finally {
+            for (RunReader reader : readers) {
+                IOUtils.closeQuietly(reader.in);
+            }
+        }
+        logProgress("merged", count, start);
+        return count;
+    }
+
+    protected void noteProgress(File progressFile, long count, byte[] lastKey) {
+        File tmp = new File(progressFile.getPath() + ".tmp");
+        try {
+            FileUtils.writeStringToFile(tmp, count + " " 
+                    + new String(Base64.encodeBase64(lastKey), "UTF-8"));
+            progressFile.delete();
+            if (!tmp.renameTo(progressFile)) {
+                logger.warning("unable to note merge progress in " + progressFile);
+            }
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "unable to note merge progress", e);
+        }
+    }
+}
@@ -56,6 +56,23 @@ implements Lifecycle {
     public void setHistoryDbName(String name) {
         this.historyDbName = name; 
     }
+    
+    /**
+     * Whether to store only fetch history, in a compact fixed binary 
+     * format with prefix-compressed keys (see {@link FetchHistoryBinding}),
+     * rather than Java-serialized CrawlURI data. Load and store processors 
+     * sharing a history database must agree. A database in the other
+     * format cannot be read; with the default historyDbName, compact
+     * history is kept in a separately-named database. Existing history 
+     * may be converted with {@link PersistProcessor#main(String[])}.
+     */
+    protected boolean compactHistory = false;
+    public boolean getCompactHistory() {
+        return compactHistory;
+    }
+    public void setCompactHistory(boolean compactHistory) {
+        this.compactHistory = compactHistory;
+    }
 
     @SuppressWarnings("unchecked")
     protected StoredSortedMap<String,Map> store;
@@ -74,16 +91,31 @@ implements Lifecycle {
         }
         StoredSortedMap<String,Map> historyMap;
         try {
-            StoredClassCatalog classCatalog = bdb.getClassCatalog();
-            BdbModule.BdbConfig dbConfig = HISTORY_DB_CONFIG;
+            if (getCompactHistory()) {
+                String dbName = getHistoryDbName();
+                if (URI_HISTORY_DBNAME.equals(dbName)) {
+                    // never interpret serialized-map records as compact
+                    dbName = COMPACT_URI_HISTORY_DBNAME;
+                }
+                historyDb = bdb.openDatabase(dbName, COMPACT_HISTORY_DB_CONFIG, true);
+                historyMap = 
+                    new StoredSortedMap<String,Map>(
+                            historyDb,
+                            new StringBinding(), 
+                            new FetchHistoryBinding(), 
+                            true);
+            } else {
+                StoredClassCatalog classCatalog = bdb.getClassCatalog();
+                BdbModule.BdbConfig dbConfig = HISTORY_DB_CONFIG;
 
-            historyDb = bdb.openDatabase(getHistoryDbName(), dbConfig, true);
-            historyMap = 
-                new StoredSortedMap<String,Map>(
-                        historyDb,
-                        new StringBinding(), 
-                        new SerialBinding<Map>(classCatalog,Map.class), 
-                        true);
+                historyDb = bdb.openDatabase(getHistoryDbName(), dbConfig, true);
+                historyMap = 
+                    new StoredSortedMap<String,Map>(
+                            historyDb,
+                            new StringBinding(), 
+                            new SerialBinding<Map>(classCatalog,Map.class), 
+                            true);
+            }
         } catch (DatabaseException e) {
         	throw new RuntimeException(e);
         }
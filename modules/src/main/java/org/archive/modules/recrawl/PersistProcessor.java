@@ -46,6 +46,7 @@ import org.archive.util.bdbje.EnhancedEnvironment;
 import org.archive.util.iterator.LineReadingIterator;
 import org.json.JSONObject;
 
+import com.sleepycat.bind.EntryBinding;
 import com.sleepycat.bind.serial.SerialBinding;
 import com.sleepycat.bind.serial.StoredClassCatalog;
 import com.sleepycat.bind.tuple.StringBinding;
@@ -73,6 +74,9 @@ public abstract class PersistProcessor extends AbstractPersistProcessor {
     /** name of history Database */
     public static final String URI_HISTORY_DBNAME = "uri_history";
     
+    /** name of compact-format history Database */
+    public static final String COMPACT_URI_HISTORY_DBNAME = "uri_history_compact";
+    
     public static final BdbModule.BdbConfig HISTORY_DB_CONFIG;
     static {
         BdbModule.BdbConfig dbConfig = new BdbModule.BdbConfig();
@@ -81,6 +85,16 @@ public abstract class PersistProcessor extends AbstractPersistProcessor {
         dbConfig.setDeferredWrite(true);
         HISTORY_DB_CONFIG = dbConfig;
     }
+    
+    public static final BdbModule.BdbConfig COMPACT_HISTORY_DB_CONFIG;
+    static {
+        BdbModule.BdbConfig dbConfig = new BdbModule.BdbConfig();
+        dbConfig.setTransactional(false);
+        dbConfig.setAllowCreate(true);
+        dbConfig.setDeferredWrite(true);
+        dbConfig.setKeyPrefixing(true);
+        COMPACT_HISTORY_DB_CONFIG = dbConfig;
+    }
 
     public PersistProcessor() {
     }
@@ -220,6 +234,29 @@ public abstract class PersistProcessor extends AbstractPersistProcessor {
      */
     public static int populatePersistEnv(String sourcePath, File envFile)
         throws IOException {
+        return populatePersistEnv(sourcePath, envFile, false);
+    }
+
+    /**
+     * Populates a new environment db from an old environment db or a persist
+     * log, optionally converting to the compact history format (see 
+     * {@link FetchHistoryBinding}). If path to new environment is not 
+     * provided, only logs the entries that would have been populated.
+     * 
+     * @param sourcePath
+     *            source of old entries: can be a path to an existing
+     *            environment db, or a URL or path to a persist log
+     * @param envFile
+     *            path to new environment db (or null for a dry run)
+     * @param compact
+     *            whether to write compact-format history, to the 
+     *            {@value #COMPACT_URI_HISTORY_DBNAME} database
+     * @return number of records
+     * @throws DatabaseException
+     * @throws IOException
+     */
+    public static int populatePersistEnv(String sourcePath, File envFile, 
+            boolean compact) throws IOException {
         int count = 0;
         StoredSortedMap<String,Map> historyMap = null;
         EnhancedEnvironment targetEnv = null;
@@ -230,12 +267,19 @@ public abstract class PersistProcessor extends AbstractPersistProcessor {
             // set up target environment
             FileUtils.ensureWriteableDirectory(envFile);
             targetEnv = setupCopyEnvironment(envFile);
-            classCatalog = targetEnv.getClassCatalog();
-            historyDB = targetEnv.openDatabase(null, URI_HISTORY_DBNAME, 
-                    HISTORY_DB_CONFIG.toDatabaseConfig());
-            historyMap = new StoredSortedMap<String,Map>(historyDB, 
-                    new StringBinding(), new SerialBinding<Map>(classCatalog,
-                        Map.class), true);
+            if (compact) {
+                historyDB = targetEnv.openDatabase(null, COMPACT_URI_HISTORY_DBNAME, 
+                        COMPACT_HISTORY_DB_CONFIG.toDatabaseConfig());
+                historyMap = new StoredSortedMap<String,Map>(historyDB, 
+                        new StringBinding(), new FetchHistoryBinding(), true);
+            } else {
+                classCatalog = targetEnv.getClassCatalog();
+                historyDB = targetEnv.openDatabase(null, URI_HISTORY_DBNAME, 
+                        HISTORY_DB_CONFIG.toDatabaseConfig());
+                historyMap = new StoredSortedMap<String,Map>(historyDB, 
+                        new StringBinding(), new SerialBinding<Map>(classCatalog,
+                            Map.class), true);
+            }
         }
 
         try {
@@ -256,6 +300,64 @@ public abstract class PersistProcessor extends AbstractPersistProcessor {
         return count;
     }
 
+    /**
+     * Populates a new environment db from a large persist log using a
+     * {@link PersistLogBulkLoader}: the log is decoded and sorted in 
+     * parallel, then written to the db in key order. If interrupted, 
+     * rerunning with the same arguments resumes the load. (A source
+     * environment db is already in key order, so is simply copied.)
+     * 
+     * @param sourcePath
+     *            path to persist log or existing environment db
+     * @param envFile
+     *            path to new environment db
+     * @param compact
+     *            whether to write compact-format history, to the 
+     *            {@value #COMPACT_URI_HISTORY_DBNAME} database
+     * @param threads
+     *            number of decoding/sorting threads
+     * @return number of records
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public static long bulkPopulatePersistEnv(String sourcePath, File envFile,
+            boolean compact, int threads) throws IOException, InterruptedException {
+        File sourceFile = new File(sourcePath);
+        if (sourceFile.isDirectory()) {
+            return populatePersistEnv(sourcePath, envFile, compact);
+        }
+        FileUtils.ensureWriteableDirectory(envFile);
+        EnhancedEnvironment targetEnv = setupCopyEnvironment(envFile);
+        Database historyDB = null;
+        long count = 0;
+        try {
+            EntryBinding<Map> valueBinding;
+            if (compact) {
+                historyDB = targetEnv.openDatabase(null, COMPACT_URI_HISTORY_DBNAME, 
+                        COMPACT_HISTORY_DB_CONFIG.toDatabaseConfig());
+                valueBinding = new FetchHistoryBinding();
+            } else {
+                historyDB = targetEnv.openDatabase(null, URI_HISTORY_DBNAME, 
+                        HISTORY_DB_CONFIG.toDatabaseConfig());
+                valueBinding = new SerialBinding<Map>(targetEnv.getClassCatalog(),
+                        Map.class);
+            }
+            File workDir = new File(envFile.getAbsoluteFile().getParentFile(), 
+                    envFile.getName() + "-bulkload");
+            PersistLogBulkLoader loader = new PersistLogBulkLoader(sourceFile, 
+                    historyDB, valueBinding, workDir);
+            loader.setThreads(threads);
+            count = loader.load();
+            logger.info(count + " records imported from " + sourcePath + " to BDB env " + envFile);
+        } finally {
+            if (historyDB != null) {
+                historyDB.close();
+            }
+            targetEnv.close();
+        }
+        return count;
+    }
+
     /**
      * Populates a given StoredSortedMap (history map) from an old 
      * environment db or a persist log. If a map is not provided, only 
@@ -306,20 +408,45 @@ public abstract class PersistProcessor extends AbstractPersistProcessor {
     /**
      * Utility main for importing a log into a BDB-JE environment or moving a
      * database between environments (2 arguments), or simply dumping a log
-     * to stderr in a more readable format (1 argument). 
+     * to stderr in a more readable format (1 argument). With a leading
+     * "-compact" argument, the target environment receives compact-format
+     * history, migrating existing history for use with compactHistory. 
      * 
      * @param args command-line arguments
      * @throws DatabaseException
      * @throws IOException
      */
-    public static void main(String[] args) throws DatabaseException, IOException {
+    public static void main(String[] args) throws DatabaseException, IOException, 
+            InterruptedException {
         Handler handler = new ConsoleHandler();
         handler.setLevel(Level.ALL);
         handler.setFormatter(new OneLineSimpleLogger());
         logger.addHandler(handler);
         logger.setUseParentHandlers(false);
 
-        if (args.length == 2) {
+        boolean compact = false;
+        int bulkThreads = 0;
+        int firstArg = 0;
+        for (; firstArg < args.length && args[firstArg].startsWith("-"); firstArg++) {
+            if (args[firstArg].equals("-compact")) {
+                compact = true;
+            } else if (args[firstArg].equals("-bulk")) {
+                bulkThreads = Runtime.getRuntime().availableProcessors();
+            } else if (args[firstArg].startsWith("-bulk=")) {
+                bulkThreads = Integer.parseInt(args[firstArg].substring("-bulk=".length()));
+            } else {
+                firstArg = args.length; // show usage
+            }
+        }
+        if (firstArg > 0 && args.length - firstArg == 2) {
+            logger.setLevel(Level.INFO);
+            if (bulkThreads > 0) {
+                bulkPopulatePersistEnv(args[firstArg], new File(args[firstArg + 1]), 
+                        compact, bulkThreads);
+            } else {
+                populatePersistEnv(args[firstArg], new File(args[firstArg + 1]), compact);
+            }
+        } else if (args.length == 2) {
             logger.setLevel(Level.INFO);
             populatePersistEnv(args[0], new File(args[1]));
         } else if (args.length == 1) {
@@ -327,11 +454,17 @@ public abstract class PersistProcessor extends AbstractPersistProcessor {
             populatePersistEnv(args[0], null);
         } else {
             System.out.println("Arguments: ");
-            System.out.println("    source [target]");
+            System.out.println("    [-compact] [-bulk[=threads]] source [target]");
             System.out.println(
                 "...where source is either a txtser log file or BDB env dir");
             System.out.println(
-                "and target, if present, is a BDB env dir. ");
+                "and target, if present, is a BDB env dir. With -compact, ");
+            System.out.println(
+                "target history is written in compact format. With -bulk, ");
+            System.out.println(
+                "a log is decoded and sorted in parallel before loading; ");
+            System.out.println(
+                "an interrupted bulk load resumes if rerun.");
             return;
         }
     }
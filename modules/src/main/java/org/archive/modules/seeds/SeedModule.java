@@ -22,6 +22,7 @@ package org.archive.modules.seeds;
 import java.io.File;
 import java.io.Serializable;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 import org.archive.modules.CrawlURI;
@@ -60,6 +61,21 @@ public abstract class SeedModule implements Serializable
             l.addedSeed(curi);
         }
     }
+    /**
+     * Announce a batch of seeds: in one call to listeners able to take
+     * batches, and one seed at a time to all others.
+     */
+    protected void publishAddedSeeds(List<CrawlURI> curis) {
+        for (SeedListener l: seedListeners) {
+            if (l instanceof BulkSeedListener) {
+                ((BulkSeedListener) l).addedSeeds(curis);
+            } else {
+                for (CrawlURI curi : curis) {
+                    l.addedSeed(curi);
+                }
+            }
+        }
+    }
     protected void publishNonSeedLine(String line) {
         for (SeedListener l: seedListeners) {
             l.nonseedLine(line);
@@ -24,8 +24,18 @@ import java.io.File;
 import java.io.IOException;
 import java.io.Reader;
 import java.io.Writer;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -85,6 +95,35 @@ implements ReadSource {
         this.blockAwaitingSeedLines = blockAwaitingSeedLines;
     }
 
+    /**
+     * Number of threads with which to parse and canonicalize seeds. The
+     * default, 1, announces seeds one at a time as they are read. Larger
+     * values parse chunks of seedBatchSize lines in parallel, and announce
+     * each chunk's seeds as a batch, letting listeners such as the frontier
+     * and SURT-prefix scopes insert in bulk. Worthwhile for seed lists of
+     * millions of lines; combine with blockAwaitingSeedLines to begin 
+     * crawling while later chunks are still loading.
+     */
+    protected int seedLoadingThreads = 1;
+    public int getSeedLoadingThreads() {
+        return seedLoadingThreads;
+    }
+    public void setSeedLoadingThreads(int seedLoadingThreads) {
+        this.seedLoadingThreads = seedLoadingThreads;
+    }
+
+    /**
+     * Number of seeds-source lines per parallel-loading chunk; only 
+     * relevant when seedLoadingThreads is greater than 1.
+     */
+    protected int seedBatchSize = 10000;
+    public int getSeedBatchSize() {
+        return seedBatchSize;
+    }
+    public void setSeedBatchSize(int seedBatchSize) {
+        this.seedBatchSize = seedBatchSize;
+    }
+
     public TextSeedModule() {
     }
 
@@ -132,6 +171,10 @@ implements ReadSource {
      * another thread to proceed after a configurable number of lines processed
      */
     protected void announceSeedsFromReader(BufferedReader reader, CountDownLatch latchOrNull) {
+        if(getSeedLoadingThreads()>1) {
+            announceSeedsInParallel(reader, latchOrNull);
+            return;
+        }
         String s;
         Iterator<String> iter = 
             new RegexLineIterator(
@@ -161,6 +204,127 @@ implements ReadSource {
         publishConcludedSeedBatch(); 
     }
     
+    /**
+     * Announce all seeds (and nonseed possible-directive lines) from
+     * the given Reader, parsing chunks of lines on a pool of 
+     * seedLoadingThreads threads. Chunks are announced in source order,
+     * each as soon as it (and all before it) have been parsed. 
+     * 
+     * @param reader source of seed/directive lines
+     * @param latchOrNull if non-null, sent countDown after each line
+     */
+    protected void announceSeedsInParallel(BufferedReader reader, CountDownLatch latchOrNull) {
+        Iterator<String> iter = 
+            new RegexLineIterator(
+                    new LineReadingIterator(reader),
+                    RegexLineIterator.COMMENT_LINE,
+                    RegexLineIterator.NONWHITESPACE_ENTRY_TRAILING_COMMENT,
+                    RegexLineIterator.ENTRY);
+        int threads = getSeedLoadingThreads();
+        int batchSize = Math.max(1, getSeedBatchSize());
+        ExecutorService pool = Executors.newFixedThreadPool(threads, 
+                new ThreadFactory() {
+                    AtomicInteger count = new AtomicInteger(0);
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "seedParser-" + count.incrementAndGet());
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+        // bound the number of parsed-but-unannounced chunks held in memory
+        LinkedList<Future<List<Object>>> inFlight = new LinkedList<Future<List<Object>>>();
+        long seedCount = 0;
+        long startTime = System.currentTimeMillis();
+        try {
+            List<String> chunk = new ArrayList<String>(batchSize);
+            while (iter.hasNext()) {
+                chunk.add(iter.next());
+                if (chunk.size() >= batchSize || !iter.hasNext()) {
+                    inFlight.add(pool.submit(new ParseSeedLinesTask(chunk)));
+                    chunk = new ArrayList<String>(batchSize);
+                }
+                while (inFlight.size() > threads * 2 
+                        || (!iter.hasNext() && !inFlight.isEmpty())) {
+                    seedCount += announceParsed(inFlight.removeFirst().get(), latchOrNull);
+                }
+            }
+        } catch (InterruptedException e) {
+            logger.warning("interrupted while loading seeds");
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            logger.log(Level.SEVERE, "problem parsing seeds", e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+        if (logger.isLoggable(Level.INFO)) {
+            logger.info("announced " + seedCount + " seeds in " 
+                    + (System.currentTimeMillis() - startTime) + "ms");
+        }
+        publishConcludedSeedBatch(); 
+    }
+
+    /**
+     * Announce one parsed chunk, in order: runs of seeds as batches, 
+     * interleaved with any nonseed lines.
+     * 
+     * @param parsed CrawlURI seeds and String nonseed lines
+     * @return count of seeds announced
+     */
+    protected int announceParsed(List<Object> parsed, CountDownLatch latchOrNull) {
+        int seedCount = 0;
+        List<CrawlURI> batch = new ArrayList<CrawlURI>(parsed.size());
+        for (Object item : parsed) {
+            if (item instanceof CrawlURI) {
+                batch.add((CrawlURI) item);
+                continue;
+            }
+            if (!batch.isEmpty()) {
+                publishAddedSeeds(batch);
+                seedCount += batch.size();
+                batch = new ArrayList<CrawlURI>(parsed.size());
+            }
+            nonseedLine((String) item);
+        }
+        if (!batch.isEmpty()) {
+            publishAddedSeeds(batch);
+            seedCount += batch.size();
+        }
+        if (latchOrNull != null) {
+            for (int i = 0; i < parsed.size(); i++) {
+                latchOrNull.countDown();
+            }
+        }
+        return seedCount;
+    }
+
+    /**
+     * Parses a chunk of lines into seed CrawlURIs or (for lines that are
+     * not seeds) the line Strings, preserving order.
+     */
+    protected class ParseSeedLinesTask implements Callable<List<Object>> {
+        protected List<String> lines;
+        public ParseSeedLinesTask(List<String> lines) {
+            this.lines = lines;
+        }
+        public List<Object> call() {
+            List<Object> parsed = new ArrayList<Object>(lines.size());
+            for (String line : lines) {
+                if (!Character.isLetterOrDigit(line.charAt(0))) {
+                    parsed.add(line);
+                    continue;
+                }
+                String uri = fixupSeedLine(line);
+                try {
+                    parsed.add(seedFor(uri, line));
+                } catch (URIException e) {
+                    // try as nonseed line as fallback
+                    parsed.add(uri);
+                }
+            }
+            return parsed;
+        }
+    }
+
     /**
      * Handle a read line that is probably a seed.
      * 
@@ -168,24 +332,46 @@ implements ReadSource {
      */
     protected void seedLine(String uri) {
         String originalUri = uri;
+        uri = fixupSeedLine(uri);
+        try {
+            publishAddedSeed(seedFor(uri, originalUri));
+        } catch (URIException e) {
+            // try as nonseed line as fallback
+            nonseedLine(uri);
+        }
+    }
+
+    /**
+     * @param uri seed line
+     * @return seed line, with http:// scheme added if it had none
+     */
+    protected String fixupSeedLine(String uri) {
         if (!uri.matches("[a-zA-Z][\\w+\\-]+:.*")) { // Rfc2396 s3.1 scheme,
                                                      // minus '.'
             // Does not begin with scheme, so try http://
             uri = "http://" + uri;
         }
-        try {
-            UURI uuri = UURIFactory.getInstance(uri);
-            CrawlURI curi = new CrawlURI(uuri);
-            curi.setSeed(true);
-            curi.setSchedulingDirective(SchedulingConstants.MEDIUM);
-            if (getSourceTagSeeds()) {
-                curi.setSourceTag(originalUri);
-            }
-            publishAddedSeed(curi);
-        } catch (URIException e) {
-            // try as nonseed line as fallback
-            nonseedLine(uri);
+        return uri;
+    }
+
+    /**
+     * Create the seed CrawlURI for the given (fixed-up) seed line. 
+     * Safe to call from multiple threads.
+     * 
+     * @param uri seed URI
+     * @param originalUri seed line as read, for source-tagging
+     * @return seed CrawlURI
+     * @throws URIException if uri cannot be parsed
+     */
+    protected CrawlURI seedFor(String uri, String originalUri) throws URIException {
+        UURI uuri = UURIFactory.getInstance(uri);
+        CrawlURI curi = new CrawlURI(uuri);
+        curi.setSeed(true);
+        curi.setSchedulingDirective(SchedulingConstants.MEDIUM);
+        if (getSourceTagSeeds()) {
+            curi.setSourceTag(originalUri);
         }
+        return curi;
     }
     
     /**
@@ -119,7 +119,7 @@ public class ARCWriterProcessor extends WriterPoolProcessor {
     protected ProcessResult write(CrawlURI curi, long recordLength, 
             InputStream in, String ip)
     throws IOException {
-        WriterPoolMember writer = getPool().borrowFile();
+        WriterPoolMember writer = borrowWriter();
         long position = writer.getPosition();
         // See if we need to open a new file because we've exceeded maxBytes.
         // Call to checkFileSize will open new file if we're at maximum for
@@ -25,6 +25,7 @@
  */
 package org.archive.modules.writer;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.FilenameFilter;
@@ -39,6 +40,15 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Pattern;
 
@@ -83,6 +93,11 @@ import org.archive.util.FileUtils;
    system. For example, if several threads try to create the same directory at
    the same time, only one can win. Therefore, there should be at most one
    access to a server at a given time.
+   <p>
+   Optionally, files may be written by background threads (see
+   {@link #setWriterThreads(int)}), so that ToeThreads do not wait on
+   file system metadata operations. All files for one host are then written
+   by the same background thread.
    
    @author Howard Lee Gayle
 */
@@ -318,12 +333,207 @@ public class MirrorWriterProcessor extends Processor {
         this.underscoreSet = list; 
     }
 
+    /**
+     * Number of background threads writing mirror files. With 0, files are
+     * written by the ToeThread that fetched them. Otherwise, the fetched body
+     * is copied to memory and queued, and the ToeThread moves on. In that
+     * case the mirror-path attribute is not recorded on the CrawlURI, since
+     * the path is not yet known when processing of the URI finishes.
+     */
+    protected int writerThreads = 0;
+    public int getWriterThreads() {
+        return writerThreads;
+    }
+    public void setWriterThreads(int writerThreads) {
+        this.writerThreads = writerThreads;
+    }
+
+    /**
+     * Maximum number of files queued for background writing, across all
+     * writer threads. ToeThreads wait when the queue for their host's
+     * writer is full.
+     */
+    protected int writerQueueSize = 256;
+    public int getWriterQueueSize() {
+        return writerQueueSize;
+    }
+    public void setWriterQueueSize(int writerQueueSize) {
+        this.writerQueueSize = writerQueueSize;
+    }
+
+    /**
+     * Bodies larger than this are not copied for background writing, to
+     * bound memory used by queued files; instead, the ToeThread waits while
+     * its host's writer thread writes the body from the recorder.
+     */
+    protected long maxQueuedBodyBytes = 256 * 1024;
+    public long getMaxQueuedBodyBytes() {
+        return maxQueuedBodyBytes;
+    }
+    public void setMaxQueuedBodyBytes(long maxQueuedBodyBytes) {
+        this.maxQueuedBodyBytes = maxQueuedBodyBytes;
+    }
+
+    /**
+     * If positive, once this many files have been written to one directory
+     * during this crawl, further files for that directory go into
+     * subdirectories named by a two-hex-digit hash of the URI. This keeps
+     * very wide directories manageable, at the cost of relative links
+     * between the sharded files no longer resolving. 0 disables.
+     */
+    protected int maxDirectoryWidth = 0;
+    public int getMaxDirectoryWidth() {
+        return maxDirectoryWidth;
+    }
+    public void setMaxDirectoryWidth(int maxDirectoryWidth) {
+        this.maxDirectoryWidth = maxDirectoryWidth;
+    }
+
+    /**
+     * Number of directories remembered as existing and writable, sparing
+     * file system checks when writing further files into them.
+     */
+    protected int maxCachedDirectories = 100000;
+    public int getMaxCachedDirectories() {
+        return maxCachedDirectories;
+    }
+    public void setMaxCachedDirectories(int maxCachedDirectories) {
+        this.maxCachedDirectories = maxCachedDirectories;
+    }
+
     /** An empty Map.*/
     private static final Map<String,String> EMPTY_MAP
      = Collections.unmodifiableMap(new TreeMap<String,String>());
 
+    /** Name of subdirectory holding shards of a wide directory. */
+    protected static final String SHARD_DIRECTORY_PREFIX = "_shard";
+
+    /**
+     * Directories known to exist and be writable, mapped to count of files
+     * written into each by this processor.
+     */
+    protected ConcurrentHashMap<String,AtomicInteger> knownDirectories =
+        new ConcurrentHashMap<String,AtomicInteger>();
+
+    protected AsyncWriter[] asyncWriters = null;
+    protected AtomicLong queuedWrites = new AtomicLong(0);
+    protected AtomicLong failedAsyncWrites = new AtomicLong(0);
+
     public MirrorWriterProcessor() {
     }
+
+    @Override
+    public void start() {
+        if (isRunning()) {
+            return;
+        }
+        super.start();
+        if (getWriterThreads() > 0) {
+            int perThread = Math.max(1, getWriterQueueSize() / getWriterThreads());
+            asyncWriters = new AsyncWriter[getWriterThreads()];
+            for (int i = 0; i < asyncWriters.length; i++) {
+                asyncWriters[i] = new AsyncWriter(i, perThread);
+                asyncWriters[i].start();
+            }
+        }
+    }
+
+    @Override
+    public void stop() {
+        if (asyncWriters != null) {
+            // drain queued files before finishing
+            for (AsyncWriter w : asyncWriters) {
+                w.finish();
+            }
+            for (AsyncWriter w : asyncWriters) {
+                try {
+                    w.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            asyncWriters = null;
+        }
+        super.stop();
+    }
+
+    /**
+     * Background thread writing queued mirror files, in order.
+     */
+    protected class AsyncWriter extends Thread {
+        protected final BlockingQueue<Runnable> queue;
+        protected final Runnable finish = new Runnable() {
+            public void run() {
+            }
+        };
+
+        protected AsyncWriter(int index, int capacity) {
+            super("MirrorWriter-" + index);
+            setDaemon(true);
+            queue = new ArrayBlockingQueue<Runnable>(capacity);
+        }
+
+        protected void enqueue(Runnable write) throws InterruptedException {
+            queue.put(write);
+            queuedWrites.incrementAndGet();
+        }
+
+        protected void finish() {
+            try {
+                queue.put(finish);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                Runnable write;
+                try {
+                    write = queue.take();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (write == finish) {
+                    return;
+                }
+                try {
+                    write.run();
+                } catch (RuntimeException e) {
+                    logger.log(Level.WARNING, "problem writing mirror file", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return number of files queued for background writing but not yet
+     * written
+     */
+    public int getQueuedWriteCount() {
+        int count = 0;
+        AsyncWriter[] writers = asyncWriters;
+        if (writers != null) {
+            for (AsyncWriter w : writers) {
+                count += w.queue.size();
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public String report() {
+        StringBuffer ret = new StringBuffer();
+        ret.append(super.report());
+        if (getWriterThreads() > 0) {
+            ret.append("  " + queuedWrites + " files queued for background writing, "
+                    + getQueuedWriteCount() + " queued, "
+                    + failedAsyncWrites + " failed\n");
+        }
+        return ret.toString();
+    }
     
     @Override
     protected boolean shouldProcess(CrawlURI curi) {
@@ -348,9 +558,6 @@ public class MirrorWriterProcessor extends Processor {
 
         String baseDir = getPath().getFile().getAbsolutePath();
 
-        // Already have a path for this URI.
-        boolean reCrawl = curi.getData().containsKey(A_MIRROR_PATH);
-
         /*
           The file system path, relative to the value of ATTR_PATH, where
           this resource should be written.  The intent is to
@@ -362,30 +569,32 @@ public class MirrorWriterProcessor extends Processor {
           and placed on the AList by some other module,
           such as the frontier.
         */
-        String mps = null;
-        File destFile = null; // Write resource contents to this file.
-        try {
-            if (reCrawl) {
-                mps = (String)curi.getData().get(A_MIRROR_PATH);
-                destFile = new File(baseDir + File.separator + mps);
-                File parent = destFile.getParentFile();
-                if (null != parent) {
-                    FileUtils.ensureWriteableDirectory(parent);
-                }
-            } else {
-                URIToFileReturn r = null; // Return from uriToFile().
-                try {
-                     r = uriToFile(baseDir, curi);
-                } catch (AttributeNotFoundException e) {
-                    logger.warning(e.getLocalizedMessage());
-                    return;
+        String knownPath = (String) curi.getData().get(A_MIRROR_PATH);
+
+        AsyncWriter[] writers = asyncWriters;
+        if (writers != null) {
+            try {
+                if (recis.getResponseContentLength() <= getMaxQueuedBodyBytes()) {
+                    writeInBackground(writers, curi, recis, baseDir, knownPath);
+                } else {
+                    // still via the host's writer, which alone makes its dirs
+                    String mps = writeAndWait(writerFor(writers, curi), 
+                            curi, recis, baseDir, knownPath);
+                    if (knownPath == null && mps != null) {
+                        curi.getData().put(A_MIRROR_PATH, mps);
+                    }
                 }
-                destFile = r.getFile();
-                mps = r.getRelativePath();
+            } catch (IOException e) {
+                curi.getNonFatalFailures().add(e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
             }
-            logger.info(uuri.toString() + " -> " + destFile.getPath());
-            writeToPath(recis, destFile);
-            if (!reCrawl) {
+            return;
+        }
+
+        try {
+            String mps = writeMirrorFile(curi, baseDir, knownPath, recis, null);
+            if (knownPath == null && mps != null) {
                 curi.getData().put(A_MIRROR_PATH, mps);
             }
         } catch (IOException e) {
@@ -393,6 +602,141 @@ public class MirrorWriterProcessor extends Processor {
         }
     }
 
+    /**
+     * Copy the body out of the recorder, which the ToeThread will reuse,
+     * and queue it for writing by the writer responsible for its host.
+     */
+    protected void writeInBackground(AsyncWriter[] writers,
+            final CrawlURI curi, RecordingInputStream recis,
+            final String baseDir, final String knownPath)
+            throws IOException, InterruptedException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream(
+                (int) Math.max(0, recis.getResponseContentLength()));
+        ReplayInputStream replayis = recis.getMessageBodyReplayInputStream();
+        try {
+            replayis.readFullyTo(body);
+        } finally {
+            IOUtils.closeQuietly(replayis);
+        }
+        final byte[] bytes = body.toByteArray();
+        writerFor(writers, curi).enqueue(new Runnable() {
+            public void run() {
+                try {
+                    writeMirrorFile(curi, baseDir, knownPath, null, bytes);
+                } catch (IOException e) {
+                    failedAsyncWrites.incrementAndGet();
+                    logger.warning("problem writing mirror file for " + curi
+                            + ": " + e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Have the given writer write the body straight from the recorder,
+     * waiting until it has done so.
+     *
+     * @return mirror path relative to baseDir, or null if none could be
+     * determined
+     */
+    protected String writeAndWait(AsyncWriter writer, final CrawlURI curi,
+            final RecordingInputStream recis, final String baseDir,
+            final String knownPath) throws IOException, InterruptedException {
+        FutureTask<String> write = new FutureTask<String>(new Callable<String>() {
+            public String call() throws IOException {
+                return writeMirrorFile(curi, baseDir, knownPath, recis, null);
+            }
+        });
+        writer.enqueue(write);
+        try {
+            return write.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    /**
+     * @return the writer responsible for the given URI's host; all files
+     * for one host are written by one writer, so never concurrently create
+     * the same directories
+     */
+    protected AsyncWriter writerFor(AsyncWriter[] writers, CrawlURI curi) {
+        String host = curi.getUURI().getHost();
+        return writers[Math.abs((host == null ? 0 : host.hashCode()) % writers.length)];
+    }
+
+    /**
+     * Work out the mirror path for the given URI, creating any needed
+     * directories, and write the body there, from either the recorder or
+     * the given bytes.
+     *
+     * @param knownPath mirror path already assigned to this URI, or null
+     * @return mirror path relative to baseDir, or null if none could be
+     * determined
+     */
+    protected String writeMirrorFile(CrawlURI curi, String baseDir,
+            String knownPath, RecordingInputStream recis, byte[] bytes)
+            throws IOException {
+        String mps = knownPath;
+        File destFile = null; // Write resource contents to this file.
+        if (mps != null) {
+            destFile = new File(baseDir + File.separator + mps);
+            File parent = destFile.getParentFile();
+            if (null != parent && !knownDirectories.containsKey(parent.getPath())) {
+                FileUtils.ensureWriteableDirectory(parent);
+                noteDirectory(parent);
+            }
+        } else {
+            URIToFileReturn r = null; // Return from uriToFile().
+            try {
+                 r = uriToFile(baseDir, curi);
+            } catch (AttributeNotFoundException e) {
+                logger.warning(e.getLocalizedMessage());
+                return null;
+            }
+            destFile = r.getFile();
+            mps = r.getRelativePath();
+        }
+        logger.info(curi.getUURI().toString() + " -> " + destFile.getPath());
+        if (bytes != null) {
+            writeToPath(bytes, destFile);
+        } else {
+            writeToPath(recis, destFile);
+        }
+        File parent = destFile.getParentFile();
+        AtomicInteger count = parent == null ? null : knownDirectories.get(parent.getPath());
+        if (count != null) {
+            count.incrementAndGet();
+        }
+        return mps;
+    }
+
+    /**
+     * Remember that the given directory exists and is writable.
+     */
+    protected void noteDirectory(File dir) {
+        if (knownDirectories.size() >= getMaxCachedDirectories()) {
+            // crude, but keeps memory bounded; directories are rechecked
+            knownDirectories.clear();
+        }
+        knownDirectories.putIfAbsent(dir.getPath(), new AtomicInteger(0));
+    }
+
+    /**
+     * @return true if the given directory has had at least
+     * maxDirectoryWidth files written to it
+     */
+    protected boolean isWide(File dir) {
+        if (getMaxDirectoryWidth() <= 0) {
+            return false;
+        }
+        AtomicInteger count = knownDirectories.get(dir.getPath());
+        return count != null && count.get() >= getMaxDirectoryWidth();
+    }
+
     /**
        Gets the directory in which the file will reside.
        Any directories needed are created.
@@ -667,6 +1011,15 @@ public class MirrorWriterProcessor extends Processor {
         }
         URIToFileReturn r = dirPath(baseDir, host, port, segs,
                                     maxPathLen - maxSegLen);
+        if (null != r && isWide(r.getFile())) {
+            String shard = SHARD_DIRECTORY_PREFIX + String.format("%02x",
+                    curi.getUURI().toString().hashCode() & 0xff);
+            new DirSegment(shard, 0, shard.length(), maxSegLen, caseSensitive,
+                    curi, EMPTY_MAP, null, null, null).addToPath(r);
+            if (r.longerThan(maxPathLen - maxSegLen)) {
+                r = null;
+            }
+        }
         if (null == r) {
 
             // The path is too long.
@@ -683,6 +1036,28 @@ public class MirrorWriterProcessor extends Processor {
         return r;
     }
 
+    /**
+       Writes bytes already copied out of the recorder into a file,
+       by way of a temporary file, as {@link #writeToPath(RecordingInputStream, File)}
+       does.
+       @param bytes the contents of the resource
+       @param dest the destination file
+       @throws IOException on I/O error
+    */
+    private void writeToPath(byte[] bytes, File dest) throws IOException {
+        File tf = new File (dest.getPath() + "N");
+        FileOutputStream fos = new FileOutputStream(tf);
+        try {
+            fos.write(bytes);
+        } finally {
+            IOUtils.closeQuietly(fos);
+        }
+        if (!tf.renameTo(dest)) {
+            throw new IOException("Can not rename " + tf.getAbsolutePath()
+                                  + " to " + dest.getAbsolutePath());
+        }
+    }
+
     /**
        Copies a resource into a file.
        A temporary file is created and then atomically renamed to
@@ -958,6 +1333,11 @@ public class MirrorWriterProcessor extends Processor {
                 }
                 File fsf = currentPath.getFile();
                 File f = new File(fsf, segStr);
+                if (knownDirectories.containsKey(f.getPath())) {
+                    // exact-match writable directory, found or made earlier
+                    currentPath.append(f, segStr);
+                    return;
+                }
                 int er = existsMaybeCaseSensitive(fsf, segStr, f);
                 switch (er) {
                 case EXISTS_NOT:
@@ -965,6 +1345,7 @@ public class MirrorWriterProcessor extends Processor {
                         throw new IOException("Can not mkdir "
                                               + f.getAbsolutePath());
                     }
+                    noteDirectory(f);
                     currentPath.append(f, segStr);
                     return; // Created new directory.
 
@@ -986,6 +1367,7 @@ public class MirrorWriterProcessor extends Processor {
                           where a*256 means a sequence of the maximum allowed
                           number of "a"s.
                         */
+                        noteDirectory(f);
                         currentPath.append(f, segStr);
                         return;
                     }
@@ -1692,6 +2074,9 @@ public class MirrorWriterProcessor extends Processor {
            with the same path as a needed directory
         */
         void mkdirs() throws IOException {
+            if (knownDirectories.containsKey(filePath.getPath())) {
+                return;
+            }
             if (!filePath.exists()) {
                 if (!filePath.mkdirs()) {
                     throw new IOException("Can not mkdir "
@@ -1704,6 +2089,7 @@ public class MirrorWriterProcessor extends Processor {
                 throw new IOException("File " + filePath.getAbsolutePath()
                                       + " is not a directory.");
             }
+            noteDirectory(filePath);
         }
     }
 }
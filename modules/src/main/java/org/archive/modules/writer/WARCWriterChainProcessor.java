@@ -109,7 +109,7 @@ public class WARCWriterChainProcessor extends BaseWARCWriterProcessor implements
     
     protected ProcessResult write(final CrawlURI curi)
     throws IOException {
-        WARCWriter writer = (WARCWriter) getPool().borrowFile();
+        WARCWriter writer = (WARCWriter) borrowWriter();
 
         // Reset writer temp stats so they reflect only this set of records.
         writer.resetTmpStats();
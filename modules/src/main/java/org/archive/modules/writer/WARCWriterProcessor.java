@@ -152,7 +152,7 @@ public class WARCWriterProcessor extends BaseWARCWriterProcessor implements WARC
     protected ProcessResult write(final String lowerCaseScheme, 
             final CrawlURI curi)
     throws IOException {
-        WARCWriter writer = (WARCWriter) getPool().borrowFile();
+        WARCWriter writer = (WARCWriter) borrowWriter();
 
         // Reset writer temp stats so they reflect only this set of records.
         writer.resetTmpStats();
@@ -31,6 +31,7 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Logger;
 
 import org.archive.checkpointing.Checkpoint;
@@ -277,6 +278,11 @@ implements Lifecycle, Checkpointable, WriterPoolSettings {
 
     private AtomicInteger serial = new AtomicInteger();
     
+    /** total time spent waiting to borrow writers from the pool */
+    protected AtomicLong poolWaitNanos = new AtomicLong(0);
+    /** count of writers borrowed from the pool */
+    protected AtomicLong poolBorrowCount = new AtomicLong(0);
+    
     public WriterPoolProcessor() {
         super();
     }
@@ -429,6 +435,33 @@ implements Lifecycle, Checkpointable, WriterPoolSettings {
     protected WriterPool getPool() {
         return pool;
     }
+    
+    /**
+     * Borrow a writer from the pool, noting time spent waiting for one.
+     */
+    protected WriterPoolMember borrowWriter() throws IOException {
+        long start = System.nanoTime();
+        try {
+            return getPool().borrowFile();
+        } finally {
+            poolWaitNanos.addAndGet(System.nanoTime() - start);
+            poolBorrowCount.incrementAndGet();
+        }
+    }
+    
+    /**
+     * @return total milliseconds spent waiting to borrow pool writers
+     */
+    public long getPoolWaitMillis() {
+        return poolWaitNanos.get() / 1000000;
+    }
+    
+    /**
+     * @return count of pool writers borrowed
+     */
+    public long getPoolBorrowCount() {
+        return poolBorrowCount.get();
+    }
 
     protected void setPool(WriterPool pool) {
         this.pool = pool;
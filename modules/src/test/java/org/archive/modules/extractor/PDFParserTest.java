@@ -0,0 +1,122 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.modules.extractor;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class PDFParserTest extends TestCase {
+
+    /**
+     * Build a minimal, well-formed PDF from the given objects, numbered
+     * from 1, with object 1 as the catalog.
+     */
+    protected static byte[] pdf(String... objects) throws Exception {
+        StringBuilder buf = new StringBuilder("%PDF-1.4\n");
+        List<Integer> offsets = new ArrayList<Integer>();
+        for (int i = 0; i < objects.length; i++) {
+            offsets.add(buf.length());
+            buf.append(i + 1).append(" 0 obj\n").append(objects[i]).append("\nendobj\n");
+        }
+        int xref = buf.length();
+        buf.append("xref\n0 ").append(objects.length + 1).append("\n");
+        buf.append("0000000000 65535 f \n");
+        for (int offset : offsets) {
+            buf.append(String.format("%010d 00000 n \n", offset));
+        }
+        buf.append("trailer\n<< /Size ").append(objects.length + 1).append(" /Root 1 0 R >>\n");
+        buf.append("startxref\n").append(xref).append("\n%%EOF\n");
+        return buf.toString().getBytes("ISO-8859-1");
+    }
+
+    protected static byte[] linkedPdf(String... uris) throws Exception {
+        List<String> objects = new ArrayList<String>();
+        objects.add("<< /Type /Catalog /Pages 2 0 R >>");
+        objects.add("<< /Type /Pages /Kids [3 0 R] /Count 1 >>");
+        StringBuilder annots = new StringBuilder();
+        for (int i = 0; i < uris.length; i++) {
+            annots.append(i + 4).append(" 0 R ");
+        }
+        objects.add("<< /Type /Page /Parent 2 0 R /MediaBox [0 0 612 792] /Annots [" + annots + "] >>");
+        for (String uri : uris) {
+            objects.add("<< /Type /Annot /Subtype /Link /Rect [0 0 100 100] /A << /S /URI /URI (" + uri + ") >> >>");
+        }
+        return pdf(objects.toArray(new String[objects.size()]));
+    }
+
+    public void testExtractFromStream() throws Exception {
+        byte[] doc = linkedPdf("http://example.com/one", "http://example.com/two");
+        PDFParser parser = new PDFParser(new ByteArrayInputStream(doc));
+        List<String> uris = parser.extractURIs(1000);
+        assertEquals(2, uris.size());
+        assertTrue(uris.contains("http://example.com/one"));
+        assertTrue(uris.contains("http://example.com/two"));
+        assertFalse(parser.isTruncated());
+    }
+
+    public void testTruncatedAtBudget() throws Exception {
+        String[] links = new String[1000];
+        for (int i = 0; i < links.length; i++) {
+            links[i] = "http://example.com/" + i;
+        }
+        byte[] doc = linkedPdf(links);
+        // each clock reading advances a millisecond
+        PDFParser parser = new PDFParser(doc) {
+            long nanos = 0;
+            @Override
+            protected long threadTimeNanos() {
+                nanos += 1000000L;
+                return nanos;
+            }
+        };
+        List<String> uris = parser.extractURIs(5);
+        assertTrue(parser.isTruncated());
+        assertFalse(uris.isEmpty());
+        assertTrue(uris.size() < links.length);
+
+        // no budget, no truncation
+        parser.resetState(doc);
+        uris = parser.extractURIs(0);
+        assertFalse(parser.isTruncated());
+        assertEquals(links.length, uris.size());
+    }
+
+    public void testSharedReferencesVisitedOnce() throws Exception {
+        // both pages share one annotation; page parents form a cycle
+        byte[] doc = pdf(
+                "<< /Type /Catalog /Pages 2 0 R >>",
+                "<< /Type /Pages /Kids [3 0 R 4 0 R] /Count 2 >>",
+                "<< /Type /Page /Parent 2 0 R /Annots [5 0 R] >>",
+                "<< /Type /Page /Parent 2 0 R /Annots [5 0 R] >>",
+                "<< /Type /Annot /Subtype /Link /A << /S /URI /URI (http://example.com/shared) >> >>");
+        PDFParser parser = new PDFParser(doc);
+        List<String> uris = parser.extractURIs();
+        assertEquals(1, uris.size());
+        assertEquals("http://example.com/shared", uris.get(0));
+    }
+
+    public void testReferenceKey() {
+        assertTrue(PDFParser.referenceKey(0, 1) != PDFParser.referenceKey(1, 0));
+        assertTrue(PDFParser.referenceKey(0, -1) != PDFParser.referenceKey(-1, -1));
+    }
+}
@@ -53,7 +53,7 @@ public class CookieStoreTest extends TmpDirTestCase {
     private static Logger logger = Logger.getLogger(CookieStoreTest.class.getName());
 
     protected BdbModule bdb;
-    protected BdbCookieStore bdbCookieStore;
+    protected AbstractCookieStore bdbCookieStore;
     protected BasicCookieStore basicCookieStore;
 
     protected BdbModule bdb() throws IOException {
@@ -72,15 +72,20 @@ public class CookieStoreTest extends TmpDirTestCase {
         return bdb;
     }
 
+    protected AbstractCookieStore newBdbCookieStore() throws IOException {
+        BdbCookieStore cookieStore = new BdbCookieStore();
+        cookieStore.setBdbModule(bdb());
+        return cookieStore;
+    }
+
     protected AbstractCookieStore bdbCookieStore() throws IOException {
         if (bdbCookieStore == null) {
-            bdbCookieStore = new BdbCookieStore();
+            bdbCookieStore = newBdbCookieStore();
             ConfigPath basePath = new ConfigPath("testBase", 
                     getTmpDir().getAbsolutePath());
             ConfigFile cookiesSaveFile = new ConfigFile("cookiesSaveFile", "cookies.txt");
             cookiesSaveFile.setBase(basePath);
             bdbCookieStore.setCookiesSaveFile(cookiesSaveFile);
-            bdbCookieStore.setBdbModule(bdb());
             bdbCookieStore.start();
         }
         return bdbCookieStore;
@@ -341,7 +346,7 @@ public class CookieStoreTest extends TmpDirTestCase {
         assertCookieListsEquivalent(bdbCookieList, basicCookieStore().getCookies());        
     }
 
-    protected void assertCookieStoreCountEquals(BdbCookieStore bdb, int count) {
+    protected void assertCookieStoreCountEquals(AbstractCookieStore bdb, int count) {
         assertEquals(bdb.getCookies().size(), count);
     }    
 
@@ -0,0 +1,125 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.modules.fetcher;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.apache.http.cookie.ClientCookie;
+import org.apache.http.cookie.Cookie;
+import org.apache.http.impl.cookie.BasicClientCookie;
+import org.apache.http.impl.cookie.BasicClientCookie2;
+
+import com.sleepycat.bind.tuple.TupleInput;
+import com.sleepycat.bind.tuple.TupleOutput;
+
+/**
+ * Runs the {@link CookieStoreTest} tests against {@link ShardedBdbCookieStore},
+ * plus tests of its working set and encoding.
+ */
+public class ShardedBdbCookieStoreTest extends CookieStoreTest {
+
+    @Override
+    protected AbstractCookieStore newBdbCookieStore() throws IOException {
+        ShardedBdbCookieStore cookieStore = new ShardedBdbCookieStore();
+        cookieStore.setBdbModule(bdb());
+        cookieStore.setMaxCachedDomains(2);
+        return cookieStore;
+    }
+
+    protected BasicClientCookie cookie(String name, String domain) {
+        BasicClientCookie cookie = new BasicClientCookie(name, "value-" + name);
+        cookie.setDomain(domain);
+        return cookie;
+    }
+
+    public void testHostAndParentDomains() throws IOException {
+        bdbCookieStore().clear();
+        bdbCookieStore().addCookie(cookie("a", "example.com"));
+        bdbCookieStore().addCookie(cookie("b", ".www.example.com"));
+        bdbCookieStore().addCookie(cookie("c", "other.example.com"));
+        bdbCookieStore().addCookie(cookie("d", "example.org"));
+
+        assertEquals(2, bdbCookieStore().cookieStoreFor("www.example.com").getCookies().size());
+        assertEquals(1, bdbCookieStore().cookieStoreFor("example.com").getCookies().size());
+        assertEquals(2, bdbCookieStore().cookieStoreFor("other.example.com").getCookies().size());
+        assertEquals(1, bdbCookieStore().cookieStoreFor("x.example.org").getCookies().size());
+    }
+
+    public void testWriteBackOnEviction() throws IOException {
+        bdbCookieStore().clear();
+        // more domains than the working set holds
+        String[] domains = {"example.com", "example.org", "example.net", "example.edu"};
+        for (String domain : domains) {
+            bdbCookieStore().addCookie(cookie("n", domain));
+        }
+        for (String domain : domains) {
+            List<Cookie> cookies = bdbCookieStore().cookieStoreFor(domain).getCookies();
+            assertEquals(1, cookies.size());
+            assertEquals(domain, cookies.get(0).getDomain());
+        }
+        assertEquals(4, bdbCookieStore().getCookies().size());
+    }
+
+    public void testLazyExpiry() throws IOException {
+        bdbCookieStore().clear();
+        BasicClientCookie cookie = cookie("soon", "example.com");
+        cookie.setExpiryDate(new Date(System.currentTimeMillis() + 500));
+        bdbCookieStore().addCookie(cookie);
+        assertEquals(1, bdbCookieStore().cookieStoreFor("example.com").getCookies().size());
+        try {
+            Thread.sleep(600);
+        } catch (InterruptedException e) {
+            fail();
+        }
+        assertEquals(0, bdbCookieStore().cookieStoreFor("example.com").getCookies().size());
+        assertEquals(0, bdbCookieStore().getCookies().size());
+    }
+
+    public void testBindingRoundTrip() {
+        BasicClientCookie2 cookie2 = new BasicClientCookie2("name2", "value2");
+        cookie2.setDomain(".example.com");
+        cookie2.setAttribute(ClientCookie.DOMAIN_ATTR, ".example.com");
+        cookie2.setPorts(new int[] {80, 8080});
+        cookie2.setCommentURL("http://example.com/why");
+        cookie2.setExpiryDate(new Date(1234567890000L));
+        cookie2.setVersion(1);
+        BasicClientCookie cookie = new BasicClientCookie("name1", null);
+        cookie.setSecure(true);
+        cookie.setComment("comment");
+        List<Cookie> cookies = new ArrayList<Cookie>();
+        cookies.add(cookie);
+        cookies.add(cookie2);
+
+        ShardedBdbCookieStore.CookieListBinding binding = 
+            new ShardedBdbCookieStore.CookieListBinding();
+        TupleOutput output = new TupleOutput();
+        binding.objectToEntry(cookies, output);
+        List<Cookie> decoded = binding.entryToObject(
+                new TupleInput(output.getBufferBytes(), 0, output.getBufferLength()));
+
+        assertCookieListsEquivalent(cookies, decoded);
+        assertTrue(decoded.get(1) instanceof BasicClientCookie2);
+        assertTrue(((ClientCookie) decoded.get(1)).containsAttribute(ClientCookie.DOMAIN_ATTR));
+        assertTrue(decoded.get(0).isSecure());
+    }
+}
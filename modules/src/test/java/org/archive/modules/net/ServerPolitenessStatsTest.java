@@ -0,0 +1,55 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.modules.net;
+
+import junit.framework.TestCase;
+
+public class ServerPolitenessStatsTest extends TestCase {
+
+    public void testMovingAverages() {
+        ServerPolitenessStats stats = new ServerPolitenessStats();
+        stats.noteFetch(1000, false, false, 0.5);
+        assertEquals(1000.0, stats.getLatencyMs());
+        stats.noteFetch(2000, true, true, 0.5);
+        assertEquals(1500.0, stats.getLatencyMs());
+        assertEquals(0.5, stats.getErrorRate());
+        assertEquals(0.5, stats.getDistressRate());
+        assertEquals(2, stats.getSamples());
+    }
+
+    public void testDelayScaleBounds() {
+        ServerPolitenessStats stats = new ServerPolitenessStats();
+        for (int i = 0; i < 10; i++) {
+            stats.adjustDelayScale(2.0, 0.25, 16.0);
+        }
+        assertEquals(16.0, stats.getDelayScale());
+        for (int i = 0; i < 100; i++) {
+            stats.adjustDelayScale(0.5, 0.25, 16.0);
+        }
+        assertEquals(0.25, stats.getDelayScale());
+    }
+
+    public void testRetryAfterOnlyExtends() {
+        ServerPolitenessStats stats = new ServerPolitenessStats();
+        stats.setRetryAfterTime(5000);
+        stats.setRetryAfterTime(3000);
+        assertEquals(5000, stats.getRetryAfterTime());
+    }
+}
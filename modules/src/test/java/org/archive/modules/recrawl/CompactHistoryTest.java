@@ -0,0 +1,238 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.modules.recrawl;
+
+import static org.archive.modules.CoreAttributeConstants.A_FETCH_BEGAN_TIME;
+import static org.archive.modules.recrawl.RecrawlAttributeConstants.A_CONTENT_DIGEST;
+import static org.archive.modules.recrawl.RecrawlAttributeConstants.A_ETAG_HEADER;
+import static org.archive.modules.recrawl.RecrawlAttributeConstants.A_FETCH_HISTORY;
+import static org.archive.modules.recrawl.RecrawlAttributeConstants.A_REFERENCE_LENGTH;
+import static org.archive.modules.recrawl.RecrawlAttributeConstants.A_STATUS;
+import static org.archive.modules.recrawl.RecrawlAttributeConstants.A_WRITE_TAG;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+import org.archive.bdb.BdbModule;
+import org.archive.modules.CrawlURI;
+import org.archive.net.UURIFactory;
+import org.archive.spring.ConfigPath;
+import org.archive.util.TmpDirTestCase;
+import org.archive.util.bdbje.EnhancedEnvironment;
+
+import com.sleepycat.bind.serial.SerialBinding;
+import com.sleepycat.bind.tuple.StringBinding;
+import com.sleepycat.bind.tuple.TupleInput;
+import com.sleepycat.bind.tuple.TupleOutput;
+import com.sleepycat.collections.StoredSortedMap;
+import com.sleepycat.je.Database;
+
+/**
+ * Tests of compact-format fetch history: encoding, store/load through the
+ * persist processors, and migration from the serialized-map format.
+ */
+@SuppressWarnings({ "rawtypes", "unchecked" })
+public class CompactHistoryTest extends TmpDirTestCase {
+
+    protected BdbModule bdb;
+
+    protected BdbModule bdb() throws IOException {
+        if (bdb == null) {
+            ConfigPath basePath = new ConfigPath("testBase",getTmpDir().getAbsolutePath());
+            ConfigPath bdbDir = new ConfigPath("bdb","bdb"); 
+            bdbDir.setBase(basePath); 
+            FileUtils.deleteDirectory(bdbDir.getFile());
+
+            bdb = new BdbModule();
+            bdb.setDir(bdbDir);
+            bdb.start();
+        }
+        return bdb;
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (bdb != null) {
+            bdb.close();
+        }
+        super.tearDown();
+    }
+
+    protected HashMap<String,Object>[] sampleHistory(long time) {
+        HashMap<String,Object> latest = new HashMap<String,Object>();
+        latest.put(A_STATUS, 200);
+        latest.put(A_FETCH_BEGAN_TIME, time);
+        latest.put(A_CONTENT_DIGEST, "sha1:ABCDEFGHIJKLMNOPQRSTUVWXYZ234567");
+        latest.put(A_ETAG_HEADER, "\"etag\"");
+        latest.put(A_REFERENCE_LENGTH, 12345L);
+        latest.put(A_WRITE_TAG, "WEB-1.warc.gz");
+        HashMap<String,Object> prior = new HashMap<String,Object>();
+        prior.put(A_STATUS, -2);
+        prior.put(A_FETCH_BEGAN_TIME, time - 1000);
+        return new HashMap[] { latest, prior, null };
+    }
+
+    protected void assertHistoryEquals(Map[] expected, Map[] actual) {
+        assertEquals(expected.length, actual.length);
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], actual[i]);
+        }
+    }
+
+    public void testBindingRoundTrip() {
+        Map<String,Object> data = new HashMap<String,Object>();
+        data.put(A_FETCH_HISTORY, sampleHistory(1300000000000L));
+        data.put("some-other-key", "dropped");
+
+        FetchHistoryBinding binding = new FetchHistoryBinding();
+        TupleOutput output = new TupleOutput();
+        binding.objectToEntry(data, output);
+        Map decoded = binding.entryToObject(
+                new TupleInput(output.getBufferBytes(), 0, output.getBufferLength()));
+
+        assertEquals(1, decoded.size());
+        assertHistoryEquals((Map[]) data.get(A_FETCH_HISTORY), 
+                (Map[]) decoded.get(A_FETCH_HISTORY));
+        assertTrue(decoded.get(A_FETCH_HISTORY) instanceof HashMap[]);
+    }
+
+    public void testStoreAndPrefetchLoad() throws Exception {
+        PersistStoreProcessor storer = new PersistStoreProcessor();
+        storer.setBdbModule(bdb());
+        storer.setCompactHistory(true);
+        storer.start();
+
+        HashMap<String,Object>[] history = sampleHistory(System.currentTimeMillis());
+        for (int i = 0; i < 5; i++) {
+            CrawlURI curi = new CrawlURI(UURIFactory.getInstance("http://www.example.com/" + i));
+            curi.setFetchHistory(history);
+            storer.innerProcess(curi);
+        }
+
+        PersistLoadProcessor loader = new PersistLoadProcessor();
+        loader.setBdbModule(bdb());
+        loader.setCompactHistory(true);
+        loader.setPrefetchHostHistory(true);
+        loader.start();
+
+        CrawlURI curi = new CrawlURI(UURIFactory.getInstance("http://www.example.com/3"));
+        loader.innerProcess(curi);
+        assertHistoryEquals(history, curi.getFetchHistory());
+        PersistLoadProcessor.HostHistory prefetched = loader.prefetchedFor(
+                PersistLoadProcessor.hostPrefixOf(PersistProcessor.persistKeyFor(curi)));
+        // all of host's history read at once; the one used, removed
+        assertEquals(4, prefetched.records.size());
+        assertTrue(prefetched.exhaustive);
+
+        // repeat lookup falls through to store
+        curi = new CrawlURI(UURIFactory.getInstance("http://www.example.com/3"));
+        loader.innerProcess(curi);
+        assertHistoryEquals(history, curi.getFetchHistory());
+
+        curi = new CrawlURI(UURIFactory.getInstance("http://www.example.com/new"));
+        loader.innerProcess(curi);
+        assertNull(curi.getFetchHistory());
+
+        // host's history was all prefetched, so a first lookup of a key not
+        // prefetched is answered without reading the store
+        curi = new CrawlURI(UURIFactory.getInstance("http://www.example.com/other"));
+        curi.setFetchHistory(history);
+        storer.innerProcess(curi);
+        curi = new CrawlURI(UURIFactory.getInstance("http://www.example.com/other"));
+        loader.innerProcess(curi);
+        assertNull(curi.getFetchHistory());
+
+        // but once looked up, history stored since (as on refetch) is seen
+        curi = new CrawlURI(UURIFactory.getInstance("http://www.example.com/new"));
+        curi.setFetchHistory(history);
+        storer.innerProcess(curi);
+        curi = new CrawlURI(UURIFactory.getInstance("http://www.example.com/new"));
+        loader.innerProcess(curi);
+        assertHistoryEquals(history, curi.getFetchHistory());
+    }
+
+    public void testPrefetchNotExhaustive() throws Exception {
+        PersistStoreProcessor storer = new PersistStoreProcessor();
+        storer.setBdbModule(bdb());
+        storer.setCompactHistory(true);
+        storer.start();
+
+        HashMap<String,Object>[] history = sampleHistory(System.currentTimeMillis());
+        for (int i = 0; i < 5; i++) {
+            CrawlURI curi = new CrawlURI(UURIFactory.getInstance("http://www.example.org/" + i));
+            curi.setFetchHistory(history);
+            storer.innerProcess(curi);
+        }
+
+        PersistLoadProcessor loader = new PersistLoadProcessor();
+        loader.setBdbModule(bdb());
+        loader.setCompactHistory(true);
+        loader.setPrefetchHostHistory(true);
+        loader.setPrefetchMaxPerHost(2);
+        loader.start();
+
+        // keys sort 0..4; only 0 and 1 prefetched, the rest read from store
+        CrawlURI curi = new CrawlURI(UURIFactory.getInstance("http://www.example.org/4"));
+        loader.innerProcess(curi);
+        assertHistoryEquals(history, curi.getFetchHistory());
+        PersistLoadProcessor.HostHistory prefetched = loader.prefetchedFor(
+                PersistLoadProcessor.hostPrefixOf(PersistProcessor.persistKeyFor(curi)));
+        assertFalse(prefetched.exhaustive);
+        assertEquals(2, prefetched.records.size());
+    }
+
+    public void testMigration() throws Exception {
+        File source = new File(getTmpDir(), "compact-migration-source");
+        File target = new File(getTmpDir(), "compact-migration-target");
+        FileUtils.deleteDirectory(source);
+        FileUtils.deleteDirectory(target);
+        source.mkdirs();
+
+        EnhancedEnvironment env = PersistProcessor.setupCopyEnvironment(source);
+        Database db = env.openDatabase(null, PersistProcessor.URI_HISTORY_DBNAME,
+                PersistProcessor.HISTORY_DB_CONFIG.toDatabaseConfig());
+        StoredSortedMap<String,Map> oldMap = new StoredSortedMap<String,Map>(db,
+                new StringBinding(), new SerialBinding<Map>(env.getClassCatalog(), 
+                        Map.class), true);
+        HashMap<String,Object>[] history = sampleHistory(1300000000000L);
+        Map<String,Object> data = new HashMap<String,Object>();
+        data.put(A_FETCH_HISTORY, history);
+        String key = PersistProcessor.persistKeyFor("http://www.example.com/");
+        oldMap.put(key, data);
+        db.sync();
+        db.close();
+        env.close();
+
+        assertEquals(1, PersistProcessor.populatePersistEnv(
+                source.getAbsolutePath(), target, true));
+
+        env = PersistProcessor.setupCopyEnvironment(target);
+        db = env.openDatabase(null, PersistProcessor.COMPACT_URI_HISTORY_DBNAME,
+                PersistProcessor.COMPACT_HISTORY_DB_CONFIG.toDatabaseConfig());
+        StoredSortedMap<String,Map> newMap = new StoredSortedMap<String,Map>(db,
+                new StringBinding(), new FetchHistoryBinding(), true);
+        assertHistoryEquals(history, (Map[]) newMap.get(key).get(A_FETCH_HISTORY));
+        db.close();
+        env.close();
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.modules.recrawl;
+
+import static org.archive.modules.recrawl.RecrawlAttributeConstants.A_CONTENT_DIGEST_COUNT;
+import static org.archive.modules.recrawl.RecrawlAttributeConstants.A_ORIGINAL_URL;
+import static org.archive.modules.recrawl.RecrawlAttributeConstants.A_WARC_FILE_OFFSET;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.security.MessageDigest;
+
+import org.apache.commons.io.FileUtils;
+import org.archive.modules.CrawlURI;
+import org.archive.net.UURIFactory;
+import org.archive.spring.ConfigPath;
+import org.archive.util.TmpDirTestCase;
+
+public class MappedContentDigestHistoryTest extends TmpDirTestCase {
+
+    protected File historyDir;
+    protected MappedContentDigestHistory history;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        historyDir = new File(getTmpDir(), "mapped-digest-history");
+        FileUtils.deleteDirectory(historyDir);
+        history = newHistory();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        history.stop();
+        super.tearDown();
+    }
+
+    protected MappedContentDigestHistory newHistory() {
+        MappedContentDigestHistory h = new MappedContentDigestHistory();
+        h.setDir(new ConfigPath("test", historyDir.getAbsolutePath()));
+        // small, to exercise rehashing
+        h.setInitialCapacity(16);
+        h.start();
+        return h;
+    }
+
+    protected CrawlURI curiWithDigest(int i) throws Exception {
+        CrawlURI curi = new CrawlURI(UURIFactory.getInstance("http://example.org/" + i));
+        curi.setContentDigest("sha1", 
+                MessageDigest.getInstance("SHA-1").digest(Integer.toString(i).getBytes("UTF-8")));
+        return curi;
+    }
+
+    protected void storeAll(int n) throws Exception {
+        storeRange(0, n);
+    }
+
+    protected void storeRange(int from, int to) throws Exception {
+        for (int i = from; i < to; i++) {
+            CrawlURI curi = curiWithDigest(i);
+            curi.getContentDigestHistory().put(A_ORIGINAL_URL, "http://example.org/" + i);
+            curi.getContentDigestHistory().put(A_WARC_FILE_OFFSET, 1000L * i);
+            curi.getContentDigestHistory().put(A_CONTENT_DIGEST_COUNT, 1);
+            history.store(curi);
+        }
+    }
+
+    protected void assertLoadsAll(int n) throws Exception {
+        for (int i = 0; i < n; i++) {
+            CrawlURI curi = curiWithDigest(i);
+            history.load(curi);
+            assertEquals("http://example.org/" + i, curi.getContentDigestHistory().get(A_ORIGINAL_URL));
+            assertEquals(1000L * i, curi.getContentDigestHistory().get(A_WARC_FILE_OFFSET));
+            assertEquals(1, curi.getContentDigestHistory().get(A_CONTENT_DIGEST_COUNT));
+        }
+    }
+
+    public void testStoreLoad() throws Exception {
+        CrawlURI miss = curiWithDigest(-1);
+        history.load(miss);
+        assertTrue(miss.hasContentDigestHistory());
+        assertTrue(miss.getContentDigestHistory().isEmpty());
+
+        storeAll(3000);
+        assertEquals(3000, history.getCount());
+        assertLoadsAll(3000);
+
+        // update replaces earlier record
+        CrawlURI curi = curiWithDigest(7);
+        history.load(curi);
+        curi.getContentDigestHistory().put(A_CONTENT_DIGEST_COUNT, 2);
+        history.store(curi);
+        curi = curiWithDigest(7);
+        history.load(curi);
+        assertEquals(2, curi.getContentDigestHistory().get(A_CONTENT_DIGEST_COUNT));
+        assertEquals(3000, history.getCount());
+    }
+
+    public void testReopen() throws Exception {
+        storeAll(500);
+        history.stop();
+        history = newHistory();
+        assertEquals(500, history.getCount());
+        assertLoadsAll(500);
+    }
+
+    public void testRebuildFromLog() throws Exception {
+        storeAll(500);
+        history.stop();
+
+        // as after a crash: table not saved, torn record at end of log
+        new File(historyDir, MappedContentDigestHistory.HEADER_FILENAME).delete();
+        RandomAccessFile log = new RandomAccessFile(
+                new File(historyDir, MappedContentDigestHistory.LOG_FILENAME), "rw");
+        long goodLength = log.length();
+        log.seek(goodLength);
+        log.write(new byte[] {0, 0, 1, 0, 1, 2});
+        log.close();
+
+        history = newHistory();
+        assertEquals(goodLength, 
+                new File(historyDir, MappedContentDigestHistory.LOG_FILENAME).length());
+        assertEquals(500, history.getCount());
+        assertLoadsAll(500);
+    }
+
+    /**
+     * Abandon the running history without a clean stop, leaving whatever
+     * of the table and log reached the filesystem.
+     */
+    protected void crash() throws Exception {
+        history.logFile.close();
+        history.segments = null;
+    }
+
+    public void testRecountAfterCrash() throws Exception {
+        storeAll(500);
+        history.doCheckpoint(null);
+        // table slots for these reach the file, but the header still says 500
+        storeRange(500, 800);
+        crash();
+
+        history = newHistory();
+        assertEquals(800, history.getCount());
+        assertLoadsAll(800);
+
+        // and again, from the header written on restart
+        storeRange(800, 900);
+        crash();
+        history = newHistory();
+        assertEquals(900, history.getCount());
+        assertLoadsAll(900);
+    }
+
+    public void testRebuildAfterLostLog() throws Exception {
+        storeAll(500);
+        history.doCheckpoint(null);
+        long checkpointedLength = history.logLength;
+        // few enough not to rehash, which would rewrite the header
+        storeRange(500, 600);
+        crash();
+
+        // as if the log's tail never reached disk, though the table's did
+        RandomAccessFile log = new RandomAccessFile(
+                new File(historyDir, MappedContentDigestHistory.LOG_FILENAME), "rw");
+        log.setLength(checkpointedLength);
+        log.close();
+
+        history = newHistory();
+        assertEquals(500, history.getCount());
+        assertLoadsAll(500);
+        CrawlURI lost = curiWithDigest(550);
+        history.load(lost);
+        assertTrue(lost.getContentDigestHistory().isEmpty());
+    }
+}
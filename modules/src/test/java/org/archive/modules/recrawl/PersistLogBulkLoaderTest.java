@@ -0,0 +1,129 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.modules.recrawl;
+
+import static org.archive.modules.recrawl.RecrawlAttributeConstants.A_CONTENT_DIGEST;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang.SerializationUtils;
+import org.archive.util.TmpDirTestCase;
+import org.archive.util.bdbje.EnhancedEnvironment;
+
+import com.sleepycat.bind.serial.SerialBinding;
+import com.sleepycat.bind.tuple.StringBinding;
+import com.sleepycat.collections.StoredSortedMap;
+import com.sleepycat.je.Database;
+
+/**
+ * Tests of parallel bulk loading of persist logs.
+ */
+@SuppressWarnings({ "rawtypes", "unchecked" })
+public class PersistLogBulkLoaderTest extends TmpDirTestCase {
+
+    protected String logLine(String key, String digest) {
+        HashMap<String,Object> map = new HashMap<String,Object>();
+        map.put(A_CONTENT_DIGEST, digest);
+        return key + " " + Base64.encodeBase64String(
+                SerializationUtils.serialize((Serializable) map)).replaceAll("\\s", "");
+    }
+
+    protected File writeLog(String name, int count) throws IOException {
+        File log = new File(getTmpDir(), name);
+        PrintWriter out = new PrintWriter(log, "UTF-8");
+        try {
+            // descending, so every run needs sorting
+            for (int i = count - 1; i >= 0; i--) {
+                out.println(logLine(String.format("http://(org,example,)/%05d", i), "sha1:" + i));
+            }
+            out.println("not a valid line");
+            // later lines supersede earlier ones for the same key
+            out.println(logLine("http://(org,example,)/00007", "sha1:updated"));
+        } finally {
+            out.close();
+        }
+        return log;
+    }
+
+    public void testBulkLoad() throws Exception {
+        File log = writeLog("bulk-persist.log", 1000);
+        File envDir = new File(getTmpDir(), "bulk-env");
+        File workDir = new File(getTmpDir(), "bulk-work");
+        FileUtils.deleteDirectory(envDir);
+        FileUtils.deleteDirectory(workDir);
+        FileUtils.forceMkdir(envDir);
+
+        EnhancedEnvironment env = PersistProcessor.setupCopyEnvironment(envDir);
+        Database db = env.openDatabase(null, PersistProcessor.URI_HISTORY_DBNAME,
+                PersistProcessor.HISTORY_DB_CONFIG.toDatabaseConfig());
+        try {
+            SerialBinding<Map> binding = new SerialBinding<Map>(env.getClassCatalog(), Map.class);
+            PersistLogBulkLoader loader = new PersistLogBulkLoader(log, db, binding, workDir);
+            loader.setThreads(3);
+            // many small runs, merged over several levels
+            loader.setRunSize(17);
+            loader.setMaxMergeWidth(4);
+            loader.setSyncInterval(100);
+            assertEquals(1000, loader.load());
+            assertFalse(workDir.exists());
+
+            StoredSortedMap<String,Map> history = new StoredSortedMap<String,Map>(
+                    db, new StringBinding(), binding, false);
+            assertEquals(1000, history.size());
+            assertEquals("sha1:updated", 
+                    history.get("http://(org,example,)/00007").get(A_CONTENT_DIGEST));
+            assertEquals("sha1:999", 
+                    history.get("http://(org,example,)/00999").get(A_CONTENT_DIGEST));
+            assertEquals("http://(org,example,)/00000", history.firstKey());
+        } finally {
+            db.close();
+            env.close();
+        }
+    }
+
+    public void testBulkPopulatePersistEnv() throws Exception {
+        File log = writeLog("bulk-populate.log", 50);
+        File envDir = new File(getTmpDir(), "bulk-populate-env");
+        FileUtils.deleteDirectory(envDir);
+
+        assertEquals(50, PersistProcessor.bulkPopulatePersistEnv(
+                log.getAbsolutePath(), envDir, true, 2));
+        assertFalse(new File(getTmpDir(), "bulk-populate-env-bulkload").exists());
+
+        EnhancedEnvironment env = PersistProcessor.setupCopyEnvironment(envDir);
+        Database db = env.openDatabase(null, PersistProcessor.COMPACT_URI_HISTORY_DBNAME,
+                PersistProcessor.COMPACT_HISTORY_DB_CONFIG.toDatabaseConfig());
+        try {
+            StoredSortedMap<String,Map> history = new StoredSortedMap<String,Map>(
+                    db, new StringBinding(), new FetchHistoryBinding(), false);
+            assertEquals(50, history.size());
+        } finally {
+            db.close();
+            env.close();
+        }
+    }
+}
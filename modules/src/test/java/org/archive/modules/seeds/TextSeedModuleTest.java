@@ -0,0 +1,92 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.modules.seeds;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.archive.modules.CrawlURI;
+import org.archive.spring.ConfigString;
+
+public class TextSeedModuleTest extends TestCase {
+
+    protected static class RecordingListener implements BulkSeedListener {
+        List<String> events = new ArrayList<String>();
+        int batches = 0;
+        int concluded = 0;
+        public void addedSeed(CrawlURI curi) {
+            events.add(curi.getURI());
+        }
+        public void addedSeeds(List<CrawlURI> curis) {
+            batches++;
+            for (CrawlURI curi : curis) {
+                addedSeed(curi);
+            }
+        }
+        public boolean nonseedLine(String line) {
+            events.add("nonseed:" + line);
+            return false;
+        }
+        public void concludedSeedBatch() {
+            concluded++;
+        }
+    }
+
+    protected String seedText(List<String> expected) {
+        StringBuilder sb = new StringBuilder("# comment\n");
+        for (int i = 0; i < 100; i++) {
+            sb.append("example" + i + ".com\n");
+            expected.add("http://example" + i + ".com/");
+            if (i % 30 == 0) {
+                sb.append("+http://(org,archive," + i + "\n");
+                expected.add("nonseed:+http://(org,archive," + i);
+            }
+        }
+        return sb.toString();
+    }
+
+    protected RecordingListener announce(String text, int threads) {
+        TextSeedModule seeds = new TextSeedModule();
+        seeds.setTextSource(new ConfigString(text));
+        seeds.setSeedLoadingThreads(threads);
+        seeds.setSeedBatchSize(7);
+        RecordingListener listener = new RecordingListener();
+        seeds.addSeedListener(listener);
+        seeds.announceSeeds();
+        return listener;
+    }
+
+    public void testParallelMatchesSerial() {
+        List<String> expected = new ArrayList<String>();
+        String text = seedText(expected);
+
+        RecordingListener serial = announce(text, 1);
+        assertEquals(expected, serial.events);
+        assertEquals(0, serial.batches);
+        assertEquals(1, serial.concluded);
+
+        RecordingListener parallel = announce(text, 4);
+        assertEquals(expected, parallel.events);
+        assertTrue(parallel.batches > 1);
+        assertEquals(1, parallel.concluded);
+    }
+}
@@ -18,13 +18,118 @@
  */
 package org.archive.modules.writer;
 
+import java.io.File;
+
+import org.apache.commons.io.FileUtils;
+import org.archive.modules.CoreAttributeConstants;
+import org.archive.modules.CrawlURI;
 import org.archive.modules.ProcessorTestBase;
+import org.archive.modules.extractor.ContentExtractorTestBase;
+import org.archive.net.UURIFactory;
+import org.archive.spring.ConfigPath;
+import org.archive.util.TmpDirTestCase;
 
 /**
  * @author pjack
  */
 public class MirrorWriterProcessorTest extends ProcessorTestBase {
 
-    // TODO TESTME!
-    
+    protected File mirrorDir(String name) throws Exception {
+        File dir = new File(TmpDirTestCase.tmpDir(), name);
+        FileUtils.deleteDirectory(dir);
+        return dir;
+    }
+
+    protected MirrorWriterProcessor makeProcessor(File dir) {
+        MirrorWriterProcessor p = new MirrorWriterProcessor();
+        p.setPath(new ConfigPath("test mirror", dir.getAbsolutePath()));
+        return p;
+    }
+
+    protected CrawlURI fetched(String uri, String content) throws Exception {
+        CrawlURI curi = new CrawlURI(UURIFactory.getInstance(uri));
+        curi.setFetchStatus(200);
+        curi.setContentType("text/html");
+        curi.setRecorder(ContentExtractorTestBase.createRecorder(content, "UTF-8"));
+        return curi;
+    }
+
+    public void testSynchronousWrite() throws Exception {
+        File dir = mirrorDir("mirror-sync");
+        MirrorWriterProcessor p = makeProcessor(dir);
+        p.start();
+        CrawlURI curi = fetched("http://example.com/a/b/c.html", "hello");
+        p.process(curi);
+        p.stop();
+        File expected = new File(dir, "example.com/a/b/c.html");
+        assertEquals("hello", FileUtils.readFileToString(expected, "UTF-8"));
+        assertEquals("example.com" + File.separator + "a" + File.separator
+                + "b" + File.separator + "c.html",
+                curi.getData().get(CoreAttributeConstants.A_MIRROR_PATH));
+    }
+
+    public void testBackgroundWrite() throws Exception {
+        File dir = mirrorDir("mirror-async");
+        MirrorWriterProcessor p = makeProcessor(dir);
+        p.setWriterThreads(2);
+        p.start();
+        for (int i = 0; i < 20; i++) {
+            p.process(fetched("http://host" + (i % 3) + ".example.com/d/" + i + ".html", "doc " + i));
+        }
+        // stop waits for queued files to be written
+        p.stop();
+        for (int i = 0; i < 20; i++) {
+            File expected = new File(dir, "host" + (i % 3) + ".example.com/d/" + i + ".html");
+            assertEquals("doc " + i, FileUtils.readFileToString(expected, "UTF-8"));
+        }
+    }
+
+    public void testOversizedBodiesViaHostWriter() throws Exception {
+        File dir = mirrorDir("mirror-oversized");
+        MirrorWriterProcessor p = makeProcessor(dir);
+        p.setWriterThreads(2);
+        p.setMaxQueuedBodyBytes(4);
+        p.start();
+        // mix of queued and oversized bodies into the same new directories
+        for (int i = 0; i < 20; i++) {
+            String content = i % 2 == 0 ? "d" + i : "larger doc " + i;
+            p.process(fetched("http://host" + (i % 3) + ".example.com/e/f/" + i + ".html", content));
+        }
+        CrawlURI oversized = fetched("http://host0.example.com/e/g/big.html", "larger doc");
+        p.process(oversized);
+        // written by the time process() returns
+        assertEquals("larger doc", FileUtils.readFileToString(
+                new File(dir, "host0.example.com/e/g/big.html"), "UTF-8"));
+        assertNotNull(oversized.getData().get(CoreAttributeConstants.A_MIRROR_PATH));
+        p.stop();
+        for (int i = 0; i < 20; i++) {
+            File expected = new File(dir, "host" + (i % 3) + ".example.com/e/f/" + i + ".html");
+            String content = i % 2 == 0 ? "d" + i : "larger doc " + i;
+            assertEquals(content, FileUtils.readFileToString(expected, "UTF-8"));
+        }
+    }
+
+    public void testWideDirectorySharding() throws Exception {
+        File dir = mirrorDir("mirror-shard");
+        MirrorWriterProcessor p = makeProcessor(dir);
+        p.setMaxDirectoryWidth(5);
+        p.start();
+        for (int i = 0; i < 10; i++) {
+            p.process(fetched("http://example.com/wide/" + i + ".html", "doc " + i));
+        }
+        p.stop();
+        File wide = new File(dir, "example.com/wide");
+        int files = 0;
+        int shards = 0;
+        for (File f : wide.listFiles()) {
+            if (f.isDirectory()) {
+                assertTrue(f.getName().startsWith("_shard"));
+                shards += f.list().length;
+            } else {
+                files++;
+            }
+        }
+        assertEquals(5, files);
+        assertEquals(5, shards);
+    }
 }